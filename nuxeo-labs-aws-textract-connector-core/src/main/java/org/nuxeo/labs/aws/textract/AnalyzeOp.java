@@ -23,8 +23,6 @@ import java.util.List;
 import java.util.stream.Collectors;
 
 import org.apache.commons.lang3.StringUtils;
-import org.json.JSONArray;
-import org.json.JSONObject;
 import org.nuxeo.ecm.automation.core.Constants;
 import org.nuxeo.ecm.automation.core.annotations.Context;
 import org.nuxeo.ecm.automation.core.annotations.Operation;
@@ -34,9 +32,12 @@ import org.nuxeo.ecm.automation.core.util.BlobList;
 import org.nuxeo.ecm.core.api.Blob;
 import org.nuxeo.ecm.core.api.CoreSession;
 import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.NuxeoException;
 
 import com.amazonaws.services.textract.model.AnalyzeDocumentResult;
 
+import io.opencensus.common.Scope;
+
 /**
  *
  */
@@ -46,18 +47,45 @@ import com.amazonaws.services.textract.model.AnalyzeDocumentResult;
         + " It does not return duplicates. features is a comma separated list of Textract features. If not passed, default is TABLES,FORMS."
         + " See AWS documentation for a list of features (as of August 2025: FORMS, LAYOUT, QUERIES, SIGNATURES and TABLES)."
         + " For multipages, the blob is split in individual pages sent to textract and when asking for rawJson you receie an array, one"
-        + " pbject per page (but each one will state it is page 1). Async. calls are welcome via pull requests.")
+        + " pbject per page (but each one will state it is page 1). Async. calls are welcome via pull requests."
+        + " If routing is true, each page is first sent to DetectDocumentText, and to Analyze only if it likely holds"
+        + " tables or forms (only when features are TABLES and/or FORMS). Output format is the same."
+        + " For multipages, pageRange (like 1-3,5) and maxPages limit the pages sent, and stopWhenFound, a comma"
+        + " separated list of keywords, stops the processing once all of them were found. If spatialIndexXPath is"
+        + " set, a compact index of the words and lines geometry is saved there, for Textract.FindTextInRegion. If"
+        + " simplifiedJsonXPath is set, a {words, lines} JSON, with the page, text, boundingBox and confidence of each"
+        + " block, is saved there. tablesXPath and keyValuesXPath receive the tables (rows and cells) and the form"
+        + " key-value pairs rebuilt from the TABLES and FORMS results, as a list of complex or a JSON string."
+        + " timeoutSeconds and pageTimeoutSeconds bound the time spent on the document and on each page. If"
+        + " failedPagesXPath is set, a page that fails or times out does not fail the operation: the other pages are"
+        + " saved, and the failed pages are listed there ({page, status, message}, status is TIMEOUT or ERROR)."
+        + " For a Picture, if pictureViewMinSize is set, the smallest picture view whose longest side is at least"
+        + " this number of pixels is sent instead of file:content."
+        + " Each blob is checked locally before being sent (format, size, encryption, pixel dimensions): an image"
+        + " too large is downscaled, a PDF with an owner password only is decrypted, other blobs are rejected"
+        + " (status REJECTED in failedPagesXPath). If asyncFallback is true, a PDF or TIFF too large for the"
+        + " synchronous API is sent to an asynchronous job instead, before it is downloaded (see"
+        + " Textract.StartAsyncJob)."
+        + " If pageCacheXPath is set (a blob or string field), the result and a content fingerprint of each page are"
+        + " saved there. When the blob is replaced, a page found in this cache, even at another position, is not sent"
+        + " again: its saved result is used."
+        + " The input can also be a Blob or a BlobList (resultXPath is then not needed): the result of each blob is"
+        + " returned as a Blob, the text or the JSON (returnRawJson), without reading from or writing in the"
+        + " repository. The blobs of a BlobList are processed in parallel.")
 public class AnalyzeOp {
 
     public static final String ID = "Textract.Analyze";
 
+    // The blob the picture views are computed from
+    protected static final String PICTURE_MAIN_BLOB_XPATH = "file:content";
+
     @Context
     protected CoreSession session;
 
     @Param(name = "blobXPath", required = false)
     protected String blobXPath = "file:content";
 
-    @Param(name = "resultXPath", required = true)
+    @Param(name = "resultXPath", required = false)
     protected String resultXPath;
 
     @Param(name = "features", required = false)
@@ -72,6 +100,48 @@ public class AnalyzeOp {
     @Param(name = "saveDocument", required = false)
     protected Boolean saveDocument = false;
 
+    @Param(name = "routing", required = false)
+    protected Boolean routing = false;
+
+    @Param(name = "pageRange", required = false)
+    protected String pageRange = null;
+
+    @Param(name = "maxPages", required = false)
+    protected Integer maxPages = 0;
+
+    @Param(name = "stopWhenFound", required = false)
+    protected String stopWhenFound = null;
+
+    @Param(name = "spatialIndexXPath", required = false)
+    protected String spatialIndexXPath = null;
+
+    @Param(name = "simplifiedJsonXPath", required = false)
+    protected String simplifiedJsonXPath = null;
+
+    @Param(name = "tablesXPath", required = false)
+    protected String tablesXPath = null;
+
+    @Param(name = "keyValuesXPath", required = false)
+    protected String keyValuesXPath = null;
+
+    @Param(name = "timeoutSeconds", required = false)
+    protected Integer timeoutSeconds = 0;
+
+    @Param(name = "pageTimeoutSeconds", required = false)
+    protected Integer pageTimeoutSeconds = 0;
+
+    @Param(name = "failedPagesXPath", required = false)
+    protected String failedPagesXPath = null;
+
+    @Param(name = "pictureViewMinSize", required = false)
+    protected Integer pictureViewMinSize = 0;
+
+    @Param(name = "asyncFallback", required = false)
+    protected Boolean asyncFallback = false;
+
+    @Param(name = "pageCacheXPath", required = false)
+    protected String pageCacheXPath = null;
+
     // Only for testing
     @Param(name = "bucket", required = false, description = "Only for unit testing")
     protected String bucket = null;
@@ -85,67 +155,49 @@ public class AnalyzeOp {
     @OperationMethod
     public DocumentModel run(DocumentModel doc) {
 
-        Blob blob = (Blob) doc.getPropertyValue(blobXPath);
-
-        int pages = 1;
-        BlobList blobList = TextractUtils.splitPDFIfMoreThanOnePage(blob);
-        if(blobList != null) {
-            pages = blobList.size();
-        }
-
-        List<String> featuresList = null;
-        if (StringUtils.isNotBlank(features)) {
-            featuresList = Arrays.stream(features.split(","))
-                                 .map(String::trim)
-                                 .filter(s -> !s.isEmpty())
-                                 .collect(Collectors.toList());
+        TextractStatusRegistry.getInstance().checkAccepting(ID);
+        if (StringUtils.isBlank(resultXPath)) {
+            throw new NuxeoException("resultXPath is required when the input is a document");
         }
+        Blob blob = (Blob) doc.getPropertyValue(blobXPath);
 
-        TextractService service = null;
-        if (StringUtils.isNoneBlank(bucket, bucketPrefix, region)) {
-            service = TextractService.getInstance(bucket, bucketPrefix, region);
-        } else {
-            service = TextractService.getInstance();
+        List<String> featuresList = getFeaturesList();
+        TextractService service = getService();
+        if (PICTURE_MAIN_BLOB_XPATH.equals(blobXPath)) {
+            blob = service.selectPictureView(doc, blob, pictureViewMinSize);
         }
 
-        String result = null;
-        TextractUtils.Granularity correctGranularity = TextractUtils.Granularity.valueOf(granularity);
-        if (pages == 1) {
-            if (returnRawJson) {
-                result = service.analyzeGetRawResultJsonString(featuresList, blob);
-            } else {
-                result = service.analyzeGetText(correctGranularity, featuresList, blob);
+        try (Scope scope = TextractTracing.startSpan("textract.operation");
+                TextractResultWriter writer = new TextractResultWriter(resultXPath, returnRawJson, granularity);
+                TextractCallContext.Scope contextScope = TextractCallContext.enter(
+                        TextractCallContext.current()
+                                           .withDocument(doc.getId())
+                                           .withDeadline(TextractCallContext.deadlineIn(timeoutSeconds)))) {
+            writer.withStopWhenFound(stopWhenFound)
+                  .withSpatialIndex(spatialIndexXPath)
+                  .withSimplifiedJson(simplifiedJsonXPath)
+                  .withTables(tablesXPath)
+                  .withKeyValues(keyValuesXPath)
+                  .withFailedPages(failedPagesXPath);
+            // Checked before the blob is downloaded and loaded by the splitter
+            TextractPreflight.Result check = TextractPreflight.getInstance()
+                                                              .checkDocument(blob, service.getS3BlobKey(blob) != null);
+            if (asyncFallback && StartAsyncJobOp.startJobIfAsyncEligible(service, check, doc, blobXPath,
+                    TextractJob.API_ANALYZE, featuresList, writer) != null) {
+                // The results are written when the job completes
+                return doc;
+            }
+            TextractPageCache pageCache = TextractPageCache.load(doc, pageCacheXPath, ID, featuresList, routing);
+            try (PageSplitter splitter = new PageSplitter(blob)) {
+                newPageProcessor(service, featuresList).processPages(blob, splitter, writer, doc, pageCache);
+            }
+            writer.write(doc);
+            if (pageCache != null) {
+                pageCache.write(doc, pageCacheXPath);
+                TextractTracing.putAttribute(TextractTracing.ATTR_CACHED_PAGES, pageCache.getReusedCount());
             }
-        } else {
-            if (returnRawJson) {
-                JSONArray finalJson = new JSONArray();
-                for (Blob oneBlob : blobList) {
-                    AnalyzeDocumentResult analyzeResult = service.analyze(featuresList, oneBlob);
-
-                    JSONObject obj = new JSONObject(analyzeResult);
-                    finalJson.put(obj);
-                }
-
-                result = finalJson.toString();
-
-                // Cleanup now
-                TextractUtils.deleteFilesSilently(blobList);
-                blobList = null;
-
-            } else {
-                result = "";
-                for (Blob oneBlob : blobList) {
-                    AnalyzeDocumentResult analyzeResult = service.analyze(featuresList, oneBlob);
-                    String onePageResult = TextractUtils.getAllTextJoined(analyzeResult::getBlocks, correctGranularity,
-                            "\n");
-                    result += "/n" + onePageResult;
-                }
-
-                // Remove duplicates
-                result = TextractUtils.removeDuplicates(result, "\n");            }
         }
 
-        doc.setPropertyValue(resultXPath, result);
         if (saveDocument) {
             doc = session.saveDocument(doc);
         }
@@ -153,4 +205,56 @@ public class AnalyzeOp {
         return doc;
 
     }
+
+    /**
+     * Returns the result as a Blob: the text, or the raw JSON if returnRawJson is true. Nothing is read from or
+     * written in the repository, the parameters naming fields are ignored.
+     */
+    @OperationMethod
+    public Blob run(Blob blob) {
+        TextractStatusRegistry.getInstance().checkAccepting(ID);
+        return analyzeBlob(getService(), getFeaturesList(), blob);
+    }
+
+    /** Same as {@link #run(Blob)} for each blob, processed in parallel (see {@link TextractParallelRunner}). */
+    @OperationMethod
+    public BlobList run(BlobList blobs) {
+        TextractStatusRegistry.getInstance().checkAccepting(ID);
+        TextractService service = getService();
+        List<String> featuresList = getFeaturesList();
+        return TextractParallelRunner.run(blobs, blob -> analyzeBlob(service, featuresList, blob));
+    }
+
+    protected Blob analyzeBlob(TextractService service, List<String> featuresList, Blob blob) {
+        try (TextractResultWriter writer = new TextractResultWriter(null, returnRawJson, granularity)) {
+            writer.withStopWhenFound(stopWhenFound);
+            return newPageProcessor(service, featuresList).processBlob(blob, writer, timeoutSeconds);
+        }
+    }
+
+    protected TextractPageProcessor<AnalyzeDocumentResult> newPageProcessor(TextractService service,
+            List<String> featuresList) {
+        TextractPageProcessor<AnalyzeDocumentResult> processor = new TextractPageProcessor<>(ID, service,
+                AnalyzeDocumentResult.class,
+                page -> routing ? service.analyzeRouted(featuresList, page) : service.analyze(featuresList, page),
+                AnalyzeDocumentResult::getBlocks);
+        return processor.withFeatures(featuresList).withPages(pageRange, maxPages).withPageTimeout(pageTimeoutSeconds);
+    }
+
+    protected List<String> getFeaturesList() {
+        if (StringUtils.isBlank(features)) {
+            return null;
+        }
+        return Arrays.stream(features.split(","))
+                     .map(String::trim)
+                     .filter(s -> !s.isEmpty())
+                     .collect(Collectors.toList());
+    }
+
+    protected TextractService getService() {
+        if (StringUtils.isNoneBlank(bucket, bucketPrefix, region)) {
+            return TextractService.getInstance(bucket, bucketPrefix, region);
+        }
+        return TextractService.getInstance();
+    }
 }
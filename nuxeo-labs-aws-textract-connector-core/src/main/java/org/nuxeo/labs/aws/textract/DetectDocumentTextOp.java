@@ -18,9 +18,9 @@
  */
 package org.nuxeo.labs.aws.textract;
 
+import java.util.Map;
+
 import org.apache.commons.lang3.StringUtils;
-import org.json.JSONArray;
-import org.json.JSONObject;
 import org.nuxeo.ecm.automation.core.Constants;
 import org.nuxeo.ecm.automation.core.annotations.Context;
 import org.nuxeo.ecm.automation.core.annotations.Operation;
@@ -30,9 +30,12 @@ import org.nuxeo.ecm.automation.core.util.BlobList;
 import org.nuxeo.ecm.core.api.Blob;
 import org.nuxeo.ecm.core.api.CoreSession;
 import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.NuxeoException;
 
 import com.amazonaws.services.textract.model.DetectDocumentTextResult;
 
+import io.opencensus.common.Scope;
+
 /**
  *
  */
@@ -41,18 +44,44 @@ import com.amazonaws.services.textract.model.DetectDocumentTextResult;
         + " If savbeDocument is true (false by default) the input document is saved. Granularity is WORD, LINE. If returnRawJson is true,"
         + " granularity is ignored and the operation saves the JSON String as returned by Textract. You can get this string and JSON.Parse() it?"
         + " WORD and LINE set the values to a String, with a linefeed as separator. It does not return duplicates."
-        + " WARNING; This is POC and using AWS synchrnous calls => it analyses only the first page. Pull requests welcome.")
+        + " WARNING; This is POC and using AWS synchrnous calls => it analyses only the first page. Pull requests welcome."
+        + " For multipages, pageRange (like 1-3,5) and maxPages limit the pages sent, and stopWhenFound, a comma"
+        + " separated list of keywords, stops the processing once all of them were found. If spatialIndexXPath is"
+        + " set, a compact index of the words and lines geometry is saved there, for Textract.FindTextInRegion. If"
+        + " simplifiedJsonXPath is set, a {words, lines} JSON, with the page, text, boundingBox and confidence of each"
+        + " block, is saved there. timeoutSeconds and pageTimeoutSeconds bound the time spent on the document and"
+        + " on each page. If failedPagesXPath is set, a page that fails or times out does not fail the operation: the"
+        + " other pages are saved, and the failed pages are listed there ({page, status, message}, status is TIMEOUT"
+        + " or ERROR). For a Picture, if pictureViewMinSize is set, the smallest picture view whose longest side is"
+        + " at least this number of pixels is sent instead of file:content."
+        + " Each blob is checked locally before being sent (format, size, encryption, pixel dimensions): an image"
+        + " too large is downscaled, a PDF with an owner password only is decrypted, other blobs are rejected"
+        + " (status REJECTED in failedPagesXPath). If asyncFallback is true, a PDF or TIFF too large for the"
+        + " synchronous API is sent to an asynchronous job instead, before it is downloaded (see"
+        + " Textract.StartAsyncJob)."
+        + " If batch is true, a small JPEG or PNG is not sent right away: it is packed with other ones in a"
+        + " multi-page PDF sent to one asynchronous job, and the result is written in the document when the job"
+        + " completes (the input document is returned unchanged)."
+        + " If pageCacheXPath is set (a blob or string field), the result and a content fingerprint of each page are"
+        + " saved there. When the blob is replaced, a page found in this cache, even at another position, is not sent"
+        + " again: its saved result is used."
+        + " The input can also be a Blob or a BlobList (resultXPath is then not needed): the result of each blob is"
+        + " returned as a Blob, the text or the JSON (returnRawJson), without reading from or writing in the"
+        + " repository. The blobs of a BlobList are processed in parallel.")
 public class DetectDocumentTextOp {
 
     public static final String ID = "Textract.DetectDocumentText";
 
+    // The blob the picture views are computed from
+    protected static final String PICTURE_MAIN_BLOB_XPATH = "file:content";
+
     @Context
     protected CoreSession session;
 
     @Param(name = "blobXPath", required = false)
     protected String blobXPath = "file:content";
 
-    @Param(name = "resultXPath", required = true)
+    @Param(name = "resultXPath", required = false)
     protected String resultXPath;
 
     @Param(name = "granularity", widget = Constants.W_OPTION, values = { "WORD", "LINE" }, required = false)
@@ -64,6 +93,42 @@ public class DetectDocumentTextOp {
     @Param(name = "saveDocument", required = false)
     protected Boolean saveDocument = false;
 
+    @Param(name = "pageRange", required = false)
+    protected String pageRange = null;
+
+    @Param(name = "maxPages", required = false)
+    protected Integer maxPages = 0;
+
+    @Param(name = "stopWhenFound", required = false)
+    protected String stopWhenFound = null;
+
+    @Param(name = "spatialIndexXPath", required = false)
+    protected String spatialIndexXPath = null;
+
+    @Param(name = "simplifiedJsonXPath", required = false)
+    protected String simplifiedJsonXPath = null;
+
+    @Param(name = "timeoutSeconds", required = false)
+    protected Integer timeoutSeconds = 0;
+
+    @Param(name = "pageTimeoutSeconds", required = false)
+    protected Integer pageTimeoutSeconds = 0;
+
+    @Param(name = "failedPagesXPath", required = false)
+    protected String failedPagesXPath = null;
+
+    @Param(name = "pictureViewMinSize", required = false)
+    protected Integer pictureViewMinSize = 0;
+
+    @Param(name = "asyncFallback", required = false)
+    protected Boolean asyncFallback = false;
+
+    @Param(name = "batch", required = false)
+    protected Boolean batch = false;
+
+    @Param(name = "pageCacheXPath", required = false)
+    protected String pageCacheXPath = null;
+
     // Only for testing
     @Param(name = "bucket", required = false, description = "Used when unit testing, mainly")
     protected String bucket = null;
@@ -77,60 +142,57 @@ public class DetectDocumentTextOp {
     @OperationMethod
     public DocumentModel run(DocumentModel doc) {
 
+        TextractStatusRegistry.getInstance().checkAccepting(ID);
+        if (StringUtils.isBlank(resultXPath)) {
+            throw new NuxeoException("resultXPath is required when the input is a document");
+        }
         Blob blob = (Blob) doc.getPropertyValue(blobXPath);
 
-        int pages = 1;
-        BlobList blobList = TextractUtils.splitPDFIfMoreThanOnePage(blob);
-        if (blobList != null) {
-            pages = blobList.size();
+        if (batch) {
+            Map<String, String> params;
+            try (TextractResultWriter writer = new TextractResultWriter(resultXPath, returnRawJson, granularity)) {
+                params = writer.withSpatialIndex(spatialIndexXPath).withSimplifiedJson(simplifiedJsonXPath).toParams();
+            }
+            if (TextractBatcher.getInstance().enqueue(doc, blobXPath, params)) {
+                // The results are written when the batch job completes
+                return doc;
+            }
         }
 
-        TextractService service = null;
-        if (StringUtils.isNoneBlank(bucket, bucketPrefix, region)) {
-            service = TextractService.getInstance(bucket, bucketPrefix, region);
-        } else {
-            service = TextractService.getInstance();
+        TextractService service = getService();
+        if (PICTURE_MAIN_BLOB_XPATH.equals(blobXPath)) {
+            blob = service.selectPictureView(doc, blob, pictureViewMinSize);
         }
 
-        String result = null;
-        TextractUtils.Granularity correctGranularity = TextractUtils.Granularity.valueOf(granularity);
-        if (pages == 1) {
-            if (returnRawJson) {
-                result = service.detectDocumentTextGetRawResultJsonString(blob);
-            } else {
-                result = service.detectDocumentTextGetText(correctGranularity, blob);
+        try (Scope scope = TextractTracing.startSpan("textract.operation");
+                TextractResultWriter writer = new TextractResultWriter(resultXPath, returnRawJson, granularity);
+                TextractCallContext.Scope contextScope = TextractCallContext.enter(
+                        TextractCallContext.current()
+                                           .withDocument(doc.getId())
+                                           .withDeadline(TextractCallContext.deadlineIn(timeoutSeconds)))) {
+            writer.withStopWhenFound(stopWhenFound)
+                  .withSpatialIndex(spatialIndexXPath)
+                  .withSimplifiedJson(simplifiedJsonXPath)
+                  .withFailedPages(failedPagesXPath);
+            // Checked before the blob is downloaded and loaded by the splitter
+            TextractPreflight.Result check = TextractPreflight.getInstance()
+                                                              .checkDocument(blob, service.getS3BlobKey(blob) != null);
+            if (asyncFallback && StartAsyncJobOp.startJobIfAsyncEligible(service, check, doc, blobXPath,
+                    TextractJob.API_DETECT, null, writer) != null) {
+                // The results are written when the job completes
+                return doc;
+            }
+            TextractPageCache pageCache = TextractPageCache.load(doc, pageCacheXPath, ID, null, false);
+            try (PageSplitter splitter = new PageSplitter(blob)) {
+                newPageProcessor(service).processPages(blob, splitter, writer, doc, pageCache);
             }
-        } else {
-            if (returnRawJson) {
-                JSONArray finalJson = new JSONArray();
-                for (Blob oneBlob : blobList) {
-                    DetectDocumentTextResult analyzeResult = service.detectDocumentText(oneBlob);
-
-                    JSONObject obj = new JSONObject(analyzeResult);
-                    finalJson.put(obj);
-                }
-
-                result = finalJson.toString();
-
-                // Cleanup now
-                TextractUtils.deleteFilesSilently(blobList);
-                blobList = null;
-
-            } else {
-                result = "";
-                for (Blob oneBlob : blobList) {
-                    DetectDocumentTextResult analyzeResult = service.detectDocumentText(oneBlob);
-                    String onePageResult = TextractUtils.getAllTextJoined(analyzeResult::getBlocks, correctGranularity,
-                            "\n");
-                    result += "/n" + onePageResult;
-                }
-
-                // Remove duplicates
-                result = TextractUtils.removeDuplicates(result, "\n");
+            writer.write(doc);
+            if (pageCache != null) {
+                pageCache.write(doc, pageCacheXPath);
+                TextractTracing.putAttribute(TextractTracing.ATTR_CACHED_PAGES, pageCache.getReusedCount());
             }
         }
 
-        doc.setPropertyValue(resultXPath, result);
         if (saveDocument) {
             doc = session.saveDocument(doc);
         }
@@ -138,4 +200,43 @@ public class DetectDocumentTextOp {
         return doc;
 
     }
+
+    /**
+     * Returns the result as a Blob: the text, or the raw JSON if returnRawJson is true. Nothing is read from or
+     * written in the repository, the parameters naming fields are ignored, and so is batch.
+     */
+    @OperationMethod
+    public Blob run(Blob blob) {
+        TextractStatusRegistry.getInstance().checkAccepting(ID);
+        return detectBlob(getService(), blob);
+    }
+
+    /** Same as {@link #run(Blob)} for each blob, processed in parallel (see {@link TextractParallelRunner}). */
+    @OperationMethod
+    public BlobList run(BlobList blobs) {
+        TextractStatusRegistry.getInstance().checkAccepting(ID);
+        TextractService service = getService();
+        return TextractParallelRunner.run(blobs, blob -> detectBlob(service, blob));
+    }
+
+    protected Blob detectBlob(TextractService service, Blob blob) {
+        try (TextractResultWriter writer = new TextractResultWriter(null, returnRawJson, granularity)) {
+            writer.withStopWhenFound(stopWhenFound);
+            return newPageProcessor(service).processBlob(blob, writer, timeoutSeconds);
+        }
+    }
+
+    protected TextractPageProcessor<DetectDocumentTextResult> newPageProcessor(TextractService service) {
+        TextractPageProcessor<DetectDocumentTextResult> processor = new TextractPageProcessor<>(ID, service,
+                DetectDocumentTextResult.class, page -> service.detectDocumentText(page),
+                DetectDocumentTextResult::getBlocks);
+        return processor.withPages(pageRange, maxPages).withPageTimeout(pageTimeoutSeconds);
+    }
+
+    protected TextractService getService() {
+        if (StringUtils.isNoneBlank(bucket, bucketPrefix, region)) {
+            return TextractService.getInstance(bucket, bucketPrefix, region);
+        }
+        return TextractService.getInstance();
+    }
 }
@@ -0,0 +1,141 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.aws.textract;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.lang3.StringUtils;
+import org.json.JSONArray;
+import org.nuxeo.ecm.automation.core.Constants;
+import org.nuxeo.ecm.automation.core.annotations.Operation;
+import org.nuxeo.ecm.automation.core.annotations.OperationMethod;
+import org.nuxeo.ecm.automation.core.annotations.Param;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.Blobs;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.NuxeoException;
+
+/**
+ * Returns the words or lines found in a region of a page, using the spatial index saved by Textract.Analyze or
+ * Textract.DetectDocumentText (see {@link TextractSpatialIndex}).
+ * <p>
+ * The last loaded pages are kept in memory, so querying several regions of the same page does not parse the index
+ * again.
+ *
+ * @since TODO
+ */
+@Operation(id = FindTextInRegionOp.ID, category = Constants.CAT_DOCUMENT, label = "Textract.FindTextInRegion",
+        description = "Return the WORD (or LINE) blocks of the page that intersect the region, as a JSON array of"
+                + " {page, text, boundingBox: {left, top, width, height}, confidence}. indexXPath is the field where"
+                + " the spatial index was saved (spatialIndexXPath parameter of Textract.Analyze or"
+                + " Textract.DetectDocumentText). left, top, width and height are relative to the page (0-1), like the"
+                + " Textract bounding boxes. Returns an empty array if the page is not in the index.")
+public class FindTextInRegionOp {
+
+    public static final String ID = "Textract.FindTextInRegion";
+
+    protected static final int CACHE_SIZE = 50;
+
+    protected static final Map<String, TextractSpatialIndex.PageIndex> CACHE = Collections.synchronizedMap(
+            new LinkedHashMap<>(CACHE_SIZE, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, TextractSpatialIndex.PageIndex> eldest) {
+                    return size() > CACHE_SIZE;
+                }
+            });
+
+    @Param(name = "indexXPath", required = true)
+    protected String indexXPath;
+
+    @Param(name = "page", required = false)
+    protected Integer page = 1;
+
+    @Param(name = "left", required = false)
+    protected Double left = 0.0;
+
+    @Param(name = "top", required = false)
+    protected Double top = 0.0;
+
+    @Param(name = "width", required = false)
+    protected Double width = 1.0;
+
+    @Param(name = "height", required = false)
+    protected Double height = 1.0;
+
+    @Param(name = "blockType", widget = Constants.W_OPTION, values = { "WORD", "LINE" }, required = false)
+    protected String blockType = "WORD";
+
+    @OperationMethod
+    public Blob run(DocumentModel doc) {
+
+        TextractSpatialIndex.PageIndex pageIndex = getPageIndex(doc);
+
+        JSONArray result = new JSONArray();
+        if (pageIndex != null) {
+            for (TextractSpatialIndex.Entry entry : pageIndex.query(left.floatValue(), top.floatValue(),
+                    width.floatValue(), height.floatValue(), blockType)) {
+                result.put(entry.toJSON(page));
+            }
+        }
+
+        return Blobs.createJSONBlob(result.toString());
+    }
+
+    protected TextractSpatialIndex.PageIndex getPageIndex(DocumentModel doc) {
+
+        // The change token changes each time the document is saved, so a cached page is never stale
+        String changeToken = doc.getChangeToken();
+        String key = changeToken == null ? null
+                : doc.getRepositoryName() + ":" + doc.getId() + ":" + indexXPath + ":" + changeToken + ":" + page;
+        // A single get: the entry can be evicted by a concurrent put between a containsKey and a get
+        TextractSpatialIndex.PageIndex pageIndex = key == null ? null : CACHE.get(key);
+        if (pageIndex != null) {
+            return pageIndex;
+        }
+
+        String serialized = getSerializedIndex(doc);
+        if (StringUtils.isBlank(serialized)) {
+            throw new NuxeoException("No spatial index in " + indexXPath + " for document " + doc.getId());
+        }
+        pageIndex = TextractSpatialIndex.loadPage(serialized, page);
+        if (key != null && pageIndex != null) {
+            CACHE.put(key, pageIndex);
+        }
+        return pageIndex;
+    }
+
+    protected String getSerializedIndex(DocumentModel doc) {
+        Serializable value = doc.getPropertyValue(indexXPath);
+        if (value instanceof Blob) {
+            try {
+                return ((Blob) value).getString();
+            } catch (IOException e) {
+                throw new NuxeoException("Cannot read the spatial index in " + indexXPath + " of document "
+                        + doc.getId(), e);
+            }
+        }
+        return (String) value;
+    }
+}
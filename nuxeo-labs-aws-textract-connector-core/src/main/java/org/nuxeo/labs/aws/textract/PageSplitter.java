@@ -0,0 +1,498 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.aws.textract;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.pdfbox.contentstream.PDContentStream;
+import org.apache.pdfbox.contentstream.operator.Operator;
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSNull;
+import org.apache.pdfbox.cos.COSObject;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.cos.COSString;
+import org.apache.pdfbox.pdfparser.PDFStreamParser;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDResources;
+import org.apache.pdfbox.pdmodel.graphics.PDXObject;
+import org.apache.pdfbox.pdmodel.graphics.form.PDFormXObject;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.CloseableFile;
+import org.nuxeo.ecm.core.api.NuxeoException;
+import org.nuxeo.ecm.core.api.impl.blob.FileBlob;
+import org.nuxeo.runtime.api.Framework;
+
+import io.opencensus.common.Scope;
+
+/**
+ * Extracts the pages of a multi-page PDF or TIFF on demand, so the pages that are not needed are never extracted.
+ * <p>
+ * The PDF is loaded once. For a TIFF, only the directory of the frames is read when opening it, then each frame is
+ * decoded when its page is requested (ImageIO per-index read), so the frames are never all decoded at once, and saved
+ * as PNG (compact for the bilevel images of faxes and scanners, and lossless).
+ * <p>
+ * Each page is saved in a temp. file, deleted when calling {@link #release(Blob)} or at the latest when closing the
+ * splitter. For another blob, or a single-page PDF or TIFF, there is one page, the blob itself.
+ * <p>
+ * The size of the temp. files is reserved in the {@link TextractResourceGovernor} before extracting a page, so when
+ * too many pages are waiting on disk on this node, the extraction waits for other jobs to release theirs. As a last
+ * resort, the temp. files are also tracked by Nuxeo and deleted when the page blob is garbage collected.
+ *
+ * @since TODO
+ */
+public class PageSplitter implements Closeable {
+
+    public static final String TIFF_MIME_TYPE = "image/tiff";
+
+    // Forms drawing forms drawing forms...
+    protected static final int MAX_FORM_DEPTH = 5;
+
+    protected final Blob blob;
+
+    protected CloseableFile sourceFile;
+
+    protected PDDocument pdfDoc;
+
+    protected ImageInputStream tiffStream;
+
+    protected ImageReader tiffReader;
+
+    protected int numberOfPages = 1;
+
+    // page => bytes reserved in the governor
+    protected final Map<Blob, Long> tempPages = new IdentityHashMap<>();
+
+    // The resources are often shared by all the pages: each object is hashed once for all the fingerprints
+    protected final Map<COSBase, byte[]> cosHashes = new IdentityHashMap<>();
+
+    protected final Map<COSBase, byte[]> formHashes = new IdentityHashMap<>();
+
+    // The objects being hashed, to stop on a cycle
+    protected final Set<COSBase> hashing = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    public PageSplitter(Blob blob) {
+        this.blob = blob;
+        if ("application/pdf".equals(blob.getMimeType())) {
+            try (Scope scope = TextractTracing.startSpan("textract.pdf.load")) {
+                TextractTracing.putAttribute(TextractTracing.ATTR_BYTES, blob.getLength());
+                sourceFile = blob.getCloseableFile();
+                pdfDoc = PDDocument.load(sourceFile.getFile());
+                numberOfPages = pdfDoc.getNumberOfPages();
+                TextractTracing.putAttribute(TextractTracing.ATTR_PAGES, numberOfPages);
+                if (pdfDoc.isEncrypted()) {
+                    // Opened with the empty user password, we can't save the pages if not removed
+                    pdfDoc.setAllSecurityToBeRemoved(true);
+                }
+            } catch (IOException e) {
+                close();
+                throw new NuxeoException("Cannot load the PDF", e);
+            }
+        } else if (isTiff(blob)) {
+            loadTiff();
+        }
+    }
+
+    public static boolean isTiff(Blob blob) {
+        if (TIFF_MIME_TYPE.equals(blob.getMimeType())) {
+            return true;
+        }
+        String filename = StringUtils.lowerCase(blob.getFilename());
+        return StringUtils.isBlank(blob.getMimeType()) && StringUtils.endsWithAny(filename, ".tif", ".tiff");
+    }
+
+    /** Reads the number of frames only, no frame is decoded. */
+    protected void loadTiff() {
+        try (Scope scope = TextractTracing.startSpan("textract.tiff.load")) {
+            TextractTracing.putAttribute(TextractTracing.ATTR_BYTES, blob.getLength());
+            sourceFile = blob.getCloseableFile();
+            tiffStream = ImageIO.createImageInputStream(sourceFile.getFile());
+            Iterator<ImageReader> readers = tiffStream == null ? null : ImageIO.getImageReaders(tiffStream);
+            if (readers == null || !readers.hasNext()) {
+                throw new IOException("No ImageIO reader for " + blob.getFilename());
+            }
+            tiffReader = readers.next();
+            // Not forward only, so the pages can be read in any order (pageRange). Metadata is not needed.
+            tiffReader.setInput(tiffStream, false, true);
+            numberOfPages = tiffReader.getNumImages(true);
+            TextractTracing.putAttribute(TextractTracing.ATTR_PAGES, numberOfPages);
+        } catch (IOException e) {
+            close();
+            throw new NuxeoException("Cannot load the TIFF", e);
+        }
+    }
+
+    public int getNumberOfPages() {
+        return numberOfPages;
+    }
+
+    /**
+     * Returns the page (1-based). If the blob has one page, returns the blob itself.
+     */
+    public Blob getPage(int pageNumber) {
+
+        if (pageNumber < 1 || pageNumber > numberOfPages) {
+            throw new IllegalArgumentException("Invalid page number: " + pageNumber + " (" + numberOfPages + " pages)");
+        }
+        if (numberOfPages == 1) {
+            return blob;
+        }
+
+        // We don't know the size yet, so we use the average page size
+        TextractResourceGovernor governor = TextractResourceGovernor.getInstance();
+        long estimate = Math.max(1, blob.getLength() / numberOfPages);
+        governor.reserveTemp(estimate);
+        File file = null;
+        boolean done = false;
+        String extension = pdfDoc != null ? "pdf" : "png";
+        try (Scope scope = TextractTracing.startSpan("textract.page.extract")) {
+            TextractTracing.putAttribute(TextractTracing.ATTR_PAGE, pageNumber);
+            TextractEvents.PageSplitEvent event = TextractEvents.newPageSplitEvent(pageNumber);
+            event.format = extension;
+            event.begin();
+            file = Framework.createTempFile("textract-page-" + pageNumber + "-", "." + extension);
+            if (pdfDoc != null) {
+                savePdfPage(pageNumber, file);
+            } else {
+                saveTiffPage(pageNumber, file);
+            }
+            Blob page = new FileBlob(file, pdfDoc != null ? "application/pdf" : "image/png");
+            page.setFilename("page-" + pageNumber + "." + extension);
+            Framework.trackFile(file, page);
+
+            long size = file.length();
+            TextractTracing.putAttribute(TextractTracing.ATTR_BYTES, size);
+            event.bytes = size;
+            event.commit();
+            governor.forceReserveTemp(size);
+            governor.releaseTemp(estimate);
+            tempPages.put(page, size);
+            done = true;
+            return page;
+        } catch (IOException e) {
+            throw new NuxeoException("Cannot extract page " + pageNumber, e);
+        } finally {
+            if (!done) {
+                governor.releaseTemp(estimate);
+                if (file != null) {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns a fingerprint of the content of the page (1-based), the same for the same page in another blob, without
+     * extracting it:
+     * <ul>
+     * <li>For a PDF: the SHA-256 of the boxes, the rotation, the content stream and the resources it references with
+     * its {@code Tf} and {@code Do} operators (the fonts with their encoding, widths and embedded program, the images,
+     * the forms and the resources they reference). The other resources of a dictionary shared by the pages are
+     * ignored, so adding an image used by another page does not change the fingerprint. Saving a page in a new PDF is
+     * not deterministic (IDs, dates), so the page file can't be hashed.</li>
+     * <li>For a TIFF: the SHA-256 of the pixels of the frame, which is decoded.</li>
+     * <li>For another blob: the SHA-256 of the blob.</li>
+     * </ul>
+     */
+    public String getPageFingerprint(int pageNumber) {
+        if (pageNumber < 1 || pageNumber > numberOfPages) {
+            throw new IllegalArgumentException("Invalid page number: " + pageNumber + " (" + numberOfPages + " pages)");
+        }
+        MessageDigest digest = DigestUtils.getSha256Digest();
+        try {
+            if (pdfDoc != null) {
+                PDPage page = pdfDoc.getPage(pageNumber - 1);
+                update(digest, "pdf " + page.getMediaBox() + " " + page.getCropBox() + " " + page.getRotation());
+                if (page.hasContents()) {
+                    try (InputStream contents = page.getContents()) {
+                        DigestUtils.updateDigest(digest, contents);
+                    }
+                }
+                updatePdfResources(digest, page, 0);
+            } else if (tiffReader != null) {
+                BufferedImage image = tiffReader.read(pageNumber - 1);
+                int width = image.getWidth();
+                update(digest, "tiff " + width + "x" + image.getHeight());
+                int[] row = new int[width];
+                ByteBuffer bytes = ByteBuffer.allocate(width * 4);
+                for (int y = 0; y < image.getHeight(); y++) {
+                    image.getRGB(0, y, width, 1, row, 0, width);
+                    bytes.clear();
+                    bytes.asIntBuffer().put(row);
+                    digest.update(bytes.array());
+                }
+            } else {
+                try (InputStream in = blob.getStream()) {
+                    DigestUtils.updateDigest(digest, in);
+                }
+            }
+        } catch (IOException e) {
+            throw new NuxeoException("Cannot compute the fingerprint of page " + pageNumber, e);
+        }
+        return Hex.encodeHexString(digest.digest());
+    }
+
+    /**
+     * Hashes the fonts and XObjects of the resources of the content stream that it uses, in the order of their names.
+     */
+    protected void updatePdfResources(MessageDigest digest, PDContentStream content, int depth) throws IOException {
+        PDResources resources = content.getResources();
+        if (resources == null || depth > MAX_FORM_DEPTH) {
+            return;
+        }
+        Set<COSName> usedFonts = new TreeSet<>(Comparator.comparing(COSName::getName));
+        Set<COSName> usedXObjects = new TreeSet<>(Comparator.comparing(COSName::getName));
+        collectUsedResources(content, usedFonts, usedXObjects);
+
+        COSBase fonts = resources.getCOSObject().getDictionaryObject(COSName.FONT);
+        for (COSName name : usedFonts) {
+            // Two fonts with the same name can have other glyphs: a subset, another encoding, ...
+            update(digest, "font " + name.getName());
+            if (fonts instanceof COSDictionary) {
+                updateCOS(digest, ((COSDictionary) fonts).getItem(name));
+            }
+        }
+        for (COSName name : usedXObjects) {
+            PDXObject xobject = resources.getXObject(name);
+            if (xobject == null) {
+                continue;
+            }
+            update(digest, "xobject " + name.getName());
+            if (xobject instanceof PDFormXObject) {
+                digest.update(getFormHash((PDFormXObject) xobject, depth + 1));
+            } else {
+                updateCOS(digest, xobject.getCOSObject());
+            }
+        }
+    }
+
+    /** The names of the fonts ({@code Tf}) and XObjects ({@code Do}) used by the content stream. */
+    protected static void collectUsedResources(PDContentStream content, Set<COSName> fonts, Set<COSName> xobjects)
+            throws IOException {
+        PDFStreamParser parser = new PDFStreamParser(content);
+        List<COSBase> operands = new ArrayList<>();
+        Object token;
+        while ((token = parser.parseNextToken()) != null) {
+            if (token instanceof Operator) {
+                String operator = ((Operator) token).getName();
+                int count = operands.size();
+                if ("Tf".equals(operator) && count >= 2 && operands.get(count - 2) instanceof COSName) {
+                    fonts.add((COSName) operands.get(count - 2));
+                } else if ("Do".equals(operator) && count >= 1 && operands.get(count - 1) instanceof COSName) {
+                    xobjects.add((COSName) operands.get(count - 1));
+                }
+                operands.clear();
+            } else if (token instanceof COSBase) {
+                operands.add((COSBase) token);
+            }
+        }
+    }
+
+    /** The hash of the content of the form and of the resources it uses, computed once. */
+    protected byte[] getFormHash(PDFormXObject form, int depth) throws IOException {
+        byte[] hash = formHashes.get(form.getCOSObject());
+        if (hash == null) {
+            MessageDigest digest = DigestUtils.getSha256Digest();
+            try (InputStream raw = form.getCOSObject().createRawInputStream()) {
+                DigestUtils.updateDigest(digest, raw);
+            }
+            updatePdfResources(digest, form, depth);
+            hash = digest.digest();
+            formHashes.put(form.getCOSObject(), hash);
+        }
+        return hash;
+    }
+
+    /**
+     * Hashes a PDF object and the objects it references, whatever their object numbers: the dictionaries with their
+     * keys sorted, the streams with their raw data. The hash of a dictionary or an array is computed once. An object
+     * referencing itself, directly or not, is only counted the second time.
+     */
+    protected void updateCOS(MessageDigest digest, COSBase base) throws IOException {
+        if (base instanceof COSObject) {
+            base = ((COSObject) base).getObject();
+        }
+        if (base == null || base instanceof COSNull) {
+            update(digest, "null");
+        } else if (base instanceof COSDictionary || base instanceof COSArray) {
+            byte[] hash = cosHashes.get(base);
+            if (hash == null) {
+                if (!hashing.add(base)) {
+                    update(digest, "cycle");
+                    return;
+                }
+                try {
+                    hash = hashContainer(base);
+                } finally {
+                    hashing.remove(base);
+                }
+                cosHashes.put(base, hash);
+            }
+            digest.update(hash);
+        } else if (base instanceof COSString) {
+            update(digest, "string " + Hex.encodeHexString(((COSString) base).getBytes()));
+        } else {
+            // Names, numbers and booleans
+            update(digest, base.toString());
+        }
+    }
+
+    protected byte[] hashContainer(COSBase base) throws IOException {
+        MessageDigest digest = DigestUtils.getSha256Digest();
+        if (base instanceof COSDictionary) {
+            COSDictionary dictionary = (COSDictionary) base;
+            update(digest, "dictionary " + dictionary.size());
+            for (COSName key : sorted(dictionary.keySet())) {
+                update(digest, key.getName());
+                updateCOS(digest, dictionary.getItem(key));
+            }
+            if (base instanceof COSStream) {
+                try (InputStream raw = ((COSStream) base).createRawInputStream()) {
+                    DigestUtils.updateDigest(digest, raw);
+                }
+            }
+        } else {
+            COSArray array = (COSArray) base;
+            update(digest, "array " + array.size());
+            for (COSBase item : array) {
+                updateCOS(digest, item);
+            }
+        }
+        return digest.digest();
+    }
+
+    protected static List<COSName> sorted(Iterable<COSName> names) {
+        List<COSName> list = new ArrayList<>();
+        names.forEach(list::add);
+        list.sort(Comparator.comparing(COSName::getName));
+        return list;
+    }
+
+    protected static void update(MessageDigest digest, String value) {
+        digest.update(value.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+    }
+
+    protected void savePdfPage(int pageNumber, File file) throws IOException {
+        try (PDDocument onePageDoc = new PDDocument()) {
+            onePageDoc.importPage(pdfDoc.getPage(pageNumber - 1));
+            onePageDoc.save(file);
+        }
+    }
+
+    protected void saveTiffPage(int pageNumber, File file) throws IOException {
+        BufferedImage image = tiffReader.read(pageNumber - 1);
+        if (!ImageIO.write(image, "png", file)) {
+            // No PNG writer for this color model (CMYK, 16 bits per sample, ...)
+            if (!ImageIO.write(toRGB(image), "png", file)) {
+                throw new IOException("Cannot encode page " + pageNumber + " as PNG");
+            }
+        }
+    }
+
+    protected static BufferedImage toRGB(BufferedImage image) {
+        BufferedImage rgb = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = rgb.createGraphics();
+        try {
+            g.drawImage(image, 0, 0, null);
+        } finally {
+            g.dispose();
+        }
+        return rgb;
+    }
+
+    /**
+     * Deletes the temp. file of the page, if it was created by this splitter.
+     */
+    public void release(Blob page) {
+        Long size = tempPages.remove(page);
+        if (size != null) {
+            deleteSilently(page);
+            TextractResourceGovernor.getInstance().releaseTemp(size);
+        }
+    }
+
+    @Override
+    public void close() {
+        long size = 0;
+        for (Map.Entry<Blob, Long> entry : tempPages.entrySet()) {
+            deleteSilently(entry.getKey());
+            size += entry.getValue();
+        }
+        tempPages.clear();
+        if (size > 0) {
+            TextractResourceGovernor.getInstance().releaseTemp(size);
+        }
+        if (tiffReader != null) {
+            tiffReader.dispose();
+        }
+        try {
+            if (pdfDoc != null) {
+                pdfDoc.close();
+            }
+            if (tiffStream != null) {
+                tiffStream.close();
+            }
+            if (sourceFile != null) {
+                sourceFile.close();
+            }
+        } catch (IOException e) {
+            // Ignore
+        }
+        pdfDoc = null;
+        tiffReader = null;
+        tiffStream = null;
+        sourceFile = null;
+    }
+
+    protected static void deleteSilently(Blob page) {
+        try {
+            page.getFile().delete();
+        } catch (Exception e) {
+            // Ignore
+        }
+    }
+}
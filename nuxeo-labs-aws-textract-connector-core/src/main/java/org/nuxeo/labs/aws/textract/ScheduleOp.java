@@ -0,0 +1,82 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.aws.textract;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.lang3.StringUtils;
+import org.nuxeo.ecm.automation.core.Constants;
+import org.nuxeo.ecm.automation.core.annotations.Operation;
+import org.nuxeo.ecm.automation.core.annotations.OperationMethod;
+import org.nuxeo.ecm.automation.core.annotations.Param;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.labs.aws.textract.TextractScheduler.Priority;
+
+/**
+ *
+ */
+@Operation(id = ScheduleOp.ID, category = Constants.CAT_DOCUMENT, label = "Textract.Schedule", description = "Schedule"
+        + " the OCR of the document in the WorkManager queue of the priority class (INTERACTIVE by default, use BACKFILL"
+        + " for bulk imports). operation is Textract.DetectDocumentText (default) or Textract.Analyze, the other"
+        + " parameters are passed to this operation. The document is saved by the asynchronous work. Does nothing if"
+        + " the blob did not change since the last OCR. Returns the input document, unchanged.")
+public class ScheduleOp {
+
+    public static final String ID = "Textract.Schedule";
+
+    @Param(name = "blobXPath", required = false)
+    protected String blobXPath = "file:content";
+
+    @Param(name = "resultXPath", required = true)
+    protected String resultXPath;
+
+    @Param(name = "operation", widget = Constants.W_OPTION, values = { DetectDocumentTextOp.ID,
+            AnalyzeOp.ID }, required = false)
+    protected String operation = DetectDocumentTextOp.ID;
+
+    @Param(name = "priority", widget = Constants.W_OPTION, values = { "INTERACTIVE", "BACKFILL" }, required = false)
+    protected String priority = "INTERACTIVE";
+
+    @Param(name = "features", required = false)
+    protected String features = null;
+
+    @Param(name = "granularity", widget = Constants.W_OPTION, values = { "WORD", "LINE" }, required = false)
+    protected String granularity = "WORD";
+
+    @Param(name = "returnRawJson", required = false)
+    protected Boolean returnRawJson = false;
+
+    @OperationMethod
+    public DocumentModel run(DocumentModel doc) {
+
+        Map<String, String> operationParams = new HashMap<>();
+        operationParams.put("granularity", granularity);
+        operationParams.put("returnRawJson", String.valueOf(returnRawJson));
+        if (AnalyzeOp.ID.equals(operation) && StringUtils.isNotBlank(features)) {
+            operationParams.put("features", features);
+        }
+
+        TextractScheduler.getInstance()
+                         .schedule(doc, operation, Map.of(blobXPath, resultXPath), operationParams, 0,
+                                 Priority.valueOf(priority));
+
+        return doc;
+    }
+}
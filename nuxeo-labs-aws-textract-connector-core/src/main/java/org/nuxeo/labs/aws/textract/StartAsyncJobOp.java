@@ -0,0 +1,216 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.aws.textract;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.nuxeo.ecm.automation.core.Constants;
+import org.nuxeo.ecm.automation.core.annotations.Operation;
+import org.nuxeo.ecm.automation.core.annotations.OperationMethod;
+import org.nuxeo.ecm.automation.core.annotations.Param;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.NuxeoException;
+
+import com.amazonaws.services.textract.model.S3Object;
+
+/**
+ * @since TODO
+ */
+@Operation(id = StartAsyncJobOp.ID, category = Constants.CAT_DOCUMENT, label = "Textract.StartAsyncJob",
+        description = "Start an asynchronous Textract job (StartDocumentTextDetection or StartDocumentAnalysis) for"
+                + " the blob, uploading it to S3 first if it is not stored in the S3 bucket. The job is tracked in a"
+                + " cluster-wide registry, and its results are written in the document, with the same output"
+                + " parameters as Textract.DetectDocumentText/Textract.Analyze, when it completes. Does not start a"
+                + " new job if one was already started for the same blob and parameters. Returns the input document,"
+                + " unchanged.")
+public class StartAsyncJobOp {
+
+    private static final Logger log = LogManager.getLogger(StartAsyncJobOp.class);
+
+    public static final String ID = "Textract.StartAsyncJob";
+
+    /** Returned by {@link #startJob} when another caller is starting the same job */
+    public static final String JOB_STARTING = "starting";
+
+    @Param(name = "blobXPath", required = false)
+    protected String blobXPath = "file:content";
+
+    @Param(name = "resultXPath", required = true)
+    protected String resultXPath;
+
+    @Param(name = "api", widget = Constants.W_OPTION, values = { TextractJob.API_DETECT,
+            TextractJob.API_ANALYZE }, required = false)
+    protected String api = TextractJob.API_DETECT;
+
+    @Param(name = "features", required = false)
+    protected String features = null;
+
+    @Param(name = "granularity", widget = Constants.W_OPTION, values = { "WORD", "LINE" }, required = false)
+    protected String granularity = "WORD";
+
+    @Param(name = "returnRawJson", required = false)
+    protected Boolean returnRawJson = false;
+
+    @Param(name = "spatialIndexXPath", required = false)
+    protected String spatialIndexXPath = null;
+
+    @Param(name = "simplifiedJsonXPath", required = false)
+    protected String simplifiedJsonXPath = null;
+
+    @Param(name = "tablesXPath", required = false)
+    protected String tablesXPath = null;
+
+    @Param(name = "keyValuesXPath", required = false)
+    protected String keyValuesXPath = null;
+
+    @OperationMethod
+    public DocumentModel run(DocumentModel doc) {
+
+        Blob blob = (Blob) doc.getPropertyValue(blobXPath);
+        if (blob == null) {
+            return doc;
+        }
+
+        Map<String, String> params;
+        try (TextractResultWriter writer = new TextractResultWriter(resultXPath, returnRawJson, granularity)) {
+            writer.withSpatialIndex(spatialIndexXPath).withSimplifiedJson(simplifiedJsonXPath);
+            if (TextractJob.API_ANALYZE.equals(api)) {
+                writer.withTables(tablesXPath).withKeyValues(keyValuesXPath);
+            }
+            params = writer.toParams();
+        }
+
+        List<String> featuresList = null;
+        if (TextractJob.API_ANALYZE.equals(api) && StringUtils.isNotBlank(features)) {
+            featuresList = Arrays.stream(features.split(","))
+                                 .map(String::trim)
+                                 .filter(s -> !s.isEmpty())
+                                 .collect(Collectors.toList());
+            params.put("features", String.join(",", featuresList));
+        }
+
+        startJob(TextractService.getInstance(), doc, blobXPath, api, featuresList, params);
+
+        return doc;
+    }
+
+    /**
+     * Starts a job for the blob at blobXPath if the {@link TextractPreflight} found the whole document too large for
+     * the synchronous API only (see {@link TextractPreflight#checkDocument(Blob, boolean)}), before it is downloaded
+     * and split. The results are written with the output parameters of the writer when the job completes.
+     *
+     * @param check the result of the document check, null if the checks are disabled
+     * @return the JobId, null if the document is not async eligible
+     */
+    public static String startJobIfAsyncEligible(TextractService service, TextractPreflight.Result check,
+            DocumentModel doc, String blobXPath, String api, List<String> featuresList, TextractResultWriter writer) {
+
+        if (check == null || !check.isAsyncEligible()) {
+            return null;
+        }
+        Map<String, String> params = writer.toParams();
+        if (TextractJob.API_ANALYZE.equals(api) && featuresList != null && !featuresList.isEmpty()) {
+            params.put("features", String.join(",", featuresList));
+        }
+        String jobId = startJob(service, doc, blobXPath, api, featuresList, params);
+        if (JOB_STARTING.equals(jobId)) {
+            log.info("Doc {} too large for the synchronous API, its Textract job is being started", doc.getId());
+        } else if (jobId != null) {
+            log.info("Doc {} too large for the synchronous API, Textract job {} started", doc.getId(), jobId);
+            TextractTracing.addAnnotation("Rerouted to Textract job " + jobId);
+        }
+        return jobId;
+    }
+
+    /**
+     * Starts the job for the blob at blobXPath, unless one was already started for the same blob and parameters, and
+     * registers it. Also used by the synchronous operations, when the preflight sends the document to the
+     * asynchronous path (see {@link #startJobIfAsyncEligible}). Fails with a 503 error when new
+     * submissions are paused or drained (see {@link TextractStatusRegistry}). If another caller is starting the same
+     * job, returns {@link #JOB_STARTING} right away: the job is registered by this caller, and its results written in
+     * the document when it completes.
+     *
+     * @param service the service of the calling operation, which starts the job
+     * @return the JobId, {@link #JOB_STARTING}, or null if there is no blob
+     */
+    public static String startJob(TextractService service, DocumentModel doc, String blobXPath, String api,
+            List<String> featuresList, Map<String, String> params) {
+
+        Blob blob = (Blob) doc.getPropertyValue(blobXPath);
+        if (blob == null) {
+            return null;
+        }
+        TextractStatusRegistry.getInstance().checkAccepting("Textract job");
+
+        TextractJobRegistry registry = TextractJobRegistry.getInstance();
+        String repository = doc.getRepositoryName();
+        String digest = blob.getDigest();
+        String existingJobId = registry.findJob(repository, doc.getId(), blobXPath, digest, api, params);
+        if (existingJobId != null) {
+            log.debug("Textract job {} already started for doc {} ({})", existingJobId, doc.getId(), blobXPath);
+            return existingJobId;
+        }
+        String token = registry.claimStart(repository, doc.getId(), blobXPath, digest, api, params);
+        if (token == null) {
+            // Started meanwhile, or being started by another caller: do not hold this thread waiting for its JobId
+            existingJobId = registry.findJob(repository, doc.getId(), blobXPath, digest, api, params);
+            log.debug("Textract job {} being started for doc {} ({})", existingJobId, doc.getId(), blobXPath);
+            return existingJobId == null ? JOB_STARTING : existingJobId;
+        }
+
+        TextractJob job = new TextractJob();
+        S3Object s3Object = null;
+        try {
+            s3Object = service.getS3Object(blob);
+            if (s3Object == null) {
+                s3Object = TextractS3Uploader.getInstance().upload(blob);
+                job.uploaded = true;
+            }
+            job.jobId = service.startJob(api, featuresList, s3Object);
+        } catch (RuntimeException e) {
+            if (job.uploaded) {
+                TextractS3Uploader.getInstance().delete(s3Object.getBucket(), s3Object.getName());
+            }
+            registry.releaseStart(repository, doc.getId(), blobXPath, digest, api, params, token);
+            throw new NuxeoException("Cannot start the Textract job for doc " + doc.getId(), e);
+        }
+
+        job.api = api;
+        job.repository = repository;
+        job.docId = doc.getId();
+        job.blobXPath = blobXPath;
+        job.digest = digest;
+        job.params.putAll(params);
+        job.s3Bucket = s3Object.getBucket();
+        job.s3Key = s3Object.getName();
+        job.createdAt = System.currentTimeMillis();
+        job.nextPollAt = job.createdAt;
+        // Replaces the claim by the JobId
+        registry.register(job);
+
+        return job.jobId;
+    }
+}
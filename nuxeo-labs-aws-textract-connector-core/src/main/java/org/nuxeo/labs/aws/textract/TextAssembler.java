@@ -0,0 +1,282 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.aws.textract;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.Blobs;
+import org.nuxeo.ecm.core.api.NuxeoException;
+import org.nuxeo.runtime.api.Framework;
+
+/**
+ * Assembles the text of a multi-page result, page after page, without keeping several copies of the full text.
+ * <p>
+ * Text is appended to a StringBuilder. When its size exceeds the threshold ({@code textract.text.blobThreshold}
+ * characters, 1,000,000 by default), the text is moved to a temp. file and the next lines are written there.
+ * <p>
+ * Duplicate lines (case insensitive) are removed as they are appended, like
+ * {@link TextractUtils#removeDuplicates(String, String)} does, but we only keep a 64-bit hash of each line, in an
+ * array of primitive longs (see {@link LongHashSet}).
+ *
+ * @since TODO
+ */
+public class TextAssembler implements Closeable {
+
+    public static final String BLOB_THRESHOLD_PROP = "textract.text.blobThreshold";
+
+    public static final int DEFAULT_BLOB_THRESHOLD = 1_000_000;
+
+    protected static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+
+    protected static final long FNV_PRIME = 0x100000001b3L;
+
+    protected final String separator;
+
+    protected final int threshold;
+
+    protected final LongHashSet seenHashes = new LongHashSet();
+
+    protected StringBuilder builder = new StringBuilder();
+
+    protected Blob fileBlob;
+
+    protected Writer fileWriter;
+
+    protected boolean empty = true;
+
+    public TextAssembler(String separator) {
+        this(separator,
+                Integer.parseInt(Framework.getProperty(BLOB_THRESHOLD_PROP, String.valueOf(DEFAULT_BLOB_THRESHOLD))));
+    }
+
+    public TextAssembler(String separator, int threshold) {
+        this.separator = separator;
+        this.threshold = threshold;
+    }
+
+    /** Appends the lines, ignoring the ones already appended. */
+    public void append(List<String> lines) {
+        for (String line : lines) {
+            append(line);
+        }
+    }
+
+    /** Appends the line, unless it was already appended. */
+    public void append(String line) {
+        if (!seenHashes.add(hashIgnoreCase(line))) {
+            return;
+        }
+        try {
+            if (fileWriter != null) {
+                if (!empty) {
+                    fileWriter.write(separator);
+                }
+                fileWriter.write(line);
+            } else {
+                if (!empty) {
+                    builder.append(separator);
+                }
+                builder.append(line);
+                if (builder.length() > threshold) {
+                    spillToFile();
+                }
+            }
+        } catch (IOException e) {
+            throw new NuxeoException(e);
+        }
+        empty = false;
+    }
+
+    /** Tells if the text was moved to a temp. file. */
+    public boolean isInFile() {
+        return fileWriter != null;
+    }
+
+    /**
+     * Returns the text as a String. If the text is in a temp. file, it is read, so better use {@link #getBlob()}
+     * when possible.
+     */
+    public String getText() {
+        if (fileWriter == null) {
+            return builder.toString();
+        }
+        try {
+            fileWriter.flush();
+            return FileUtils.readFileToString(fileBlob.getFile(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new NuxeoException(e);
+        }
+    }
+
+    /**
+     * Returns the text, or its first maxChars characters (up to the last complete line) if it is longer. Reads at most
+     * maxChars characters from the temp. file.
+     */
+    public String getText(int maxChars) {
+        if (fileWriter == null) {
+            return builder.length() <= maxChars ? builder.toString() : truncate(builder, maxChars);
+        }
+        try {
+            fileWriter.flush();
+            StringBuilder text = new StringBuilder();
+            char[] buffer = new char[8192];
+            try (Reader reader = Files.newBufferedReader(fileBlob.getFile().toPath(), StandardCharsets.UTF_8)) {
+                // One more character, to know if the text is longer
+                while (text.length() <= maxChars) {
+                    int count = reader.read(buffer, 0, Math.min(buffer.length, maxChars + 1 - text.length()));
+                    if (count < 0) {
+                        break;
+                    }
+                    text.append(buffer, 0, count);
+                }
+            }
+            return text.length() <= maxChars ? text.toString() : truncate(text, maxChars);
+        } catch (IOException e) {
+            throw new NuxeoException(e);
+        }
+    }
+
+    protected String truncate(CharSequence text, int maxChars) {
+        String start = text.subSequence(0, maxChars).toString();
+        int lastSeparator = start.lastIndexOf(separator);
+        return lastSeparator > 0 ? start.substring(0, lastSeparator) : start;
+    }
+
+    public int getThreshold() {
+        return threshold;
+    }
+
+    /** Returns the text as a text/plain Blob, backed by the temp. file if any. */
+    public Blob getBlob() {
+        if (fileWriter == null) {
+            return Blobs.createBlob(builder.toString(), "text/plain", StandardCharsets.UTF_8.name());
+        }
+        try {
+            fileWriter.flush();
+        } catch (IOException e) {
+            throw new NuxeoException(e);
+        }
+        return fileBlob;
+    }
+
+    protected void spillToFile() throws IOException {
+        // The file is deleted when the blob is garbage collected
+        fileBlob = Blobs.createBlobWithExtension(".txt");
+        fileBlob.setMimeType("text/plain");
+        fileBlob.setEncoding(StandardCharsets.UTF_8.name());
+        fileWriter = Files.newBufferedWriter(fileBlob.getFile().toPath(), StandardCharsets.UTF_8);
+        fileWriter.write(builder.toString());
+        builder = null;
+    }
+
+    @Override
+    public void close() {
+        if (fileWriter != null) {
+            try {
+                fileWriter.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
+    }
+
+    /**
+     * Set of primitive longs, open addressing with linear probing: 8 bytes per slot, no object per value. The table
+     * grows when half full.
+     */
+    protected static class LongHashSet {
+
+        protected long[] table = new long[1024];
+
+        protected int size = 0;
+
+        // 0 marks the free slots, so it is stored apart
+        protected boolean hasZero = false;
+
+        /** Returns false if the value was already in the set. */
+        public boolean add(long value) {
+            if (value == 0) {
+                boolean added = !hasZero;
+                hasZero = true;
+                return added;
+            }
+            if (2 * (size + 1) > table.length) {
+                grow();
+            }
+            if (!insert(table, value)) {
+                return false;
+            }
+            size++;
+            return true;
+        }
+
+        public int size() {
+            return size + (hasZero ? 1 : 0);
+        }
+
+        protected static boolean insert(long[] table, long value) {
+            int mask = table.length - 1;
+            int i = mix(value) & mask;
+            while (table[i] != 0) {
+                if (table[i] == value) {
+                    return false;
+                }
+                i = (i + 1) & mask;
+            }
+            table[i] = value;
+            return true;
+        }
+
+        protected void grow() {
+            long[] bigger = new long[table.length * 2];
+            for (long value : table) {
+                if (value != 0) {
+                    insert(bigger, value);
+                }
+            }
+            table = bigger;
+        }
+
+        protected static int mix(long value) {
+            long h = value * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+    }
+
+    /** FNV-1a hash of the lowercase line, computed without creating a lowercase copy. */
+    protected static long hashIgnoreCase(String line) {
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = 0; i < line.length(); i++) {
+            char c = Character.toLowerCase(line.charAt(i));
+            hash ^= (c & 0xff);
+            hash *= FNV_PRIME;
+            hash ^= (c >>> 8);
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.aws.textract;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.model.PropertyNotFoundException;
+import org.nuxeo.ecm.core.event.Event;
+import org.nuxeo.ecm.core.event.EventBundle;
+import org.nuxeo.ecm.core.event.EventContext;
+import org.nuxeo.ecm.core.event.PostCommitFilteringEventListener;
+import org.nuxeo.ecm.core.event.impl.DocumentEventContext;
+import org.nuxeo.labs.aws.textract.TextractScheduler.Priority;
+import org.nuxeo.runtime.api.Framework;
+
+/**
+ * Post-commit listener scheduling a {@link TextractOcrWork} when a document holding one of the configured blob xpaths
+ * is created or modified. Disabled by default, see the README for the configuration parameters.
+ * <p>
+ * Several events for the same document are coalesced: only one work is pending at a time for a document, and this work
+ * is deferred until the debounce window elapsed after the last event (see {@link TextractOcrWork}).
+ */
+public class TextractAutoOcrListener implements PostCommitFilteringEventListener {
+
+    private static final Logger log = LogManager.getLogger(TextractAutoOcrListener.class);
+
+    public static final String ENABLED_PROP = "textract.autoocr.enabled";
+
+    /** Comma separated list of blobXPath=resultXPath */
+    public static final String XPATHS_PROP = "textract.autoocr.xpaths";
+
+    public static final String DEFAULT_XPATHS = "file:content=dc:description";
+
+    public static final String OPERATION_PROP = "textract.autoocr.operation";
+
+    public static final String DEFAULT_OPERATION = DetectDocumentTextOp.ID;
+
+    public static final String DEBOUNCE_PROP = "textract.autoocr.debounceMs";
+
+    public static final long DEFAULT_DEBOUNCE_MS = 5000;
+
+    public static final String GRANULARITY_PROP = "textract.autoocr.granularity";
+
+    public static final String RETURN_RAW_JSON_PROP = "textract.autoocr.returnRawJson";
+
+    public static final String PRIORITY_PROP = "textract.autoocr.priority";
+
+    public static final String PICTURE_VIEW_MIN_SIZE_PROP = "textract.autoocr.pictureViewMinSize";
+
+    public static final String BATCH_PROP = "textract.autoocr.batch";
+
+    public static final String PAGE_CACHE_XPATH_PROP = "textract.autoocr.pageCacheXPath";
+
+    @Override
+    public boolean acceptEvent(Event event) {
+        if (!Framework.isBooleanPropertyTrue(ENABLED_PROP)) {
+            return false;
+        }
+        EventContext ctx = event.getContext();
+        if (!(ctx instanceof DocumentEventContext)) {
+            return false;
+        }
+        return !Boolean.TRUE.equals(ctx.getProperty(TextractOcrWork.DISABLE_AUTO_OCR));
+    }
+
+    @Override
+    public void handleEvent(EventBundle events) {
+
+        Map<String, String> xpaths = parseXPaths(Framework.getProperty(XPATHS_PROP, DEFAULT_XPATHS));
+        if (xpaths.isEmpty()) {
+            return;
+        }
+        String operationId = Framework.getProperty(OPERATION_PROP, DEFAULT_OPERATION);
+        long debounceMs = Long.parseLong(Framework.getProperty(DEBOUNCE_PROP, String.valueOf(DEFAULT_DEBOUNCE_MS)));
+        Map<String, String> operationParams = new HashMap<>();
+        String granularity = Framework.getProperty(GRANULARITY_PROP);
+        if (StringUtils.isNotBlank(granularity)) {
+            operationParams.put("granularity", granularity);
+        }
+        if (Framework.isBooleanPropertyTrue(RETURN_RAW_JSON_PROP)) {
+            operationParams.put("returnRawJson", "true");
+        }
+        String pictureViewMinSize = Framework.getProperty(PICTURE_VIEW_MIN_SIZE_PROP);
+        if (StringUtils.isNotBlank(pictureViewMinSize)) {
+            operationParams.put("pictureViewMinSize", pictureViewMinSize);
+        }
+        // Only DetectDocumentText can batch images
+        if (Framework.isBooleanPropertyTrue(BATCH_PROP) && DetectDocumentTextOp.ID.equals(operationId)) {
+            operationParams.put("batch", "true");
+        }
+
+        String pageCacheXPath = Framework.getProperty(PAGE_CACHE_XPATH_PROP);
+        if (StringUtils.isNotBlank(pageCacheXPath)) {
+            operationParams.put("pageCacheXPath", pageCacheXPath);
+        }
+
+        Priority priority = Priority.valueOf(Framework.getProperty(PRIORITY_PROP, Priority.INTERACTIVE.name()));
+
+        TextractScheduler scheduler = TextractScheduler.getInstance();
+        Set<String> seen = new HashSet<>();
+        for (Event event : events) {
+            if (!acceptEvent(event)) {
+                continue;
+            }
+            DocumentModel doc = ((DocumentEventContext) event.getContext()).getSourceDocument();
+            if (doc == null || doc.isProxy() || doc.isVersion() || !seen.add(doc.getId())) {
+                continue;
+            }
+            if (!hasOneBlob(doc, xpaths)) {
+                continue;
+            }
+
+            if (scheduler.schedule(doc, operationId, xpaths, operationParams, debounceMs, priority)) {
+                log.debug("Scheduled auto-OCR for doc {}", doc.getId());
+            }
+        }
+    }
+
+    protected boolean hasOneBlob(DocumentModel doc, Map<String, String> xpaths) {
+        for (String blobXPath : xpaths.keySet()) {
+            try {
+                if (doc.getPropertyValue(blobXPath) != null) {
+                    return true;
+                }
+            } catch (PropertyNotFoundException e) {
+                // Schema not available on this document
+            }
+        }
+        return false;
+    }
+
+    protected static Map<String, String> parseXPaths(String value) {
+        Map<String, String> xpaths = new LinkedHashMap<>();
+        for (String pair : StringUtils.split(value, ",")) {
+            String[] parts = StringUtils.split(pair, "=");
+            if (parts.length == 2 && StringUtils.isNoneBlank(parts[0], parts[1])) {
+                xpaths.put(parts[0].trim(), parts[1].trim());
+            } else {
+                log.warn("Ignoring invalid {} entry: {}", XPATHS_PROP, pair);
+            }
+        }
+        return xpaths;
+    }
+}
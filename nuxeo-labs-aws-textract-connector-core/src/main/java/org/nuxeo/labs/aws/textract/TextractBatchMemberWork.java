@@ -0,0 +1,100 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.aws.textract;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONObject;
+import org.nuxeo.ecm.automation.AutomationService;
+import org.nuxeo.ecm.automation.OperationContext;
+import org.nuxeo.ecm.automation.OperationException;
+import org.nuxeo.ecm.core.api.CoreInstance;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.IdRef;
+import org.nuxeo.ecm.core.api.NuxeoException;
+import org.nuxeo.ecm.core.work.AbstractWork;
+import org.nuxeo.runtime.api.Framework;
+
+/**
+ * Runs {@link DetectDocumentTextOp} on a document of a batch that can't be submitted, or whose batch job failed (see
+ * {@link TextractBatcher}), and writes the result with the output parameters it was queued with.
+ *
+ * @since TODO
+ */
+public class TextractBatchMemberWork extends AbstractWork {
+
+    private static final long serialVersionUID = 1L;
+
+    // JSON of the TextractJob.Member
+    protected final String member;
+
+    public TextractBatchMemberWork(TextractJob.Member member) {
+        super("textract:" + TextractBatcher.memberKey(member));
+        setDocument(member.repository, member.docId);
+        this.member = member.toJSON().toString();
+    }
+
+    @Override
+    public String getTitle() {
+        return "Textract batch document " + docId;
+    }
+
+    @Override
+    public String getCategory() {
+        return TextractJobPollWork.CATEGORY;
+    }
+
+    @Override
+    public void work() {
+        TextractJob.Member batchMember = TextractJob.Member.fromJSON(new JSONObject(member));
+        if (!TextractStatusRegistry.getInstance().isAccepting()) {
+            // Paused or drained: back in the pending documents, for a node accepting submissions
+            TextractBatcher.getInstance().putBack(List.of(batchMember));
+            setStatus("Queued again");
+            return;
+        }
+        setStatus("Processing");
+        try {
+            // Skipped if the document was deleted or its blob changed since it was queued
+            if (TextractBatcher.getBlob(batchMember) == null) {
+                return;
+            }
+            CoreSession systemSession = CoreInstance.getCoreSessionSystem(repositoryName);
+            DocumentModel doc = systemSession.getDocument(new IdRef(docId));
+            Map<String, Object> params = new HashMap<>(batchMember.params);
+            params.put("blobXPath", batchMember.blobXPath);
+            params.put("saveDocument", false);
+            try (OperationContext ctx = new OperationContext(systemSession)) {
+                ctx.setInput(doc);
+                doc = (DocumentModel) Framework.getService(AutomationService.class)
+                                               .run(ctx, DetectDocumentTextOp.ID, params);
+            } catch (OperationException e) {
+                throw new NuxeoException("Error running " + DetectDocumentTextOp.ID + " on doc " + docId, e);
+            }
+            doc.putContextData(TextractOcrWork.DISABLE_AUTO_OCR, Boolean.TRUE);
+            systemSession.saveDocument(doc);
+        } finally {
+            TextractBatcher.getInstance().forget(batchMember);
+        }
+        setStatus("Done");
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.aws.textract;
+
+import org.nuxeo.ecm.core.work.AbstractWork;
+
+/**
+ * Submits the batches of images that are ready, see {@link TextractBatcher}. Scheduled when a batch is full, and by
+ * the scheduler of the asynchronous jobs when documents are waiting (see {@link TextractJobPollListener}).
+ *
+ * @since TODO
+ */
+public class TextractBatchWork extends AbstractWork {
+
+    private static final long serialVersionUID = 1L;
+
+    public TextractBatchWork() {
+        super("textract:flushBatch");
+    }
+
+    @Override
+    public String getTitle() {
+        return "Textract batch submission";
+    }
+
+    @Override
+    public String getCategory() {
+        return TextractJobPollWork.CATEGORY;
+    }
+
+    @Override
+    public void work() {
+        setStatus("Flushing");
+        TextractBatcher.getInstance().flush();
+        setStatus("Done");
+    }
+}
@@ -0,0 +1,445 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.aws.textract;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Function;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.CloseableFile;
+import org.nuxeo.ecm.core.api.CoreInstance;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.DocumentRef;
+import org.nuxeo.ecm.core.api.IdRef;
+import org.nuxeo.ecm.core.api.NuxeoException;
+import org.nuxeo.ecm.core.api.impl.blob.FileBlob;
+import org.nuxeo.ecm.core.work.api.WorkManager;
+import org.nuxeo.ecm.core.work.api.WorkManager.Scheduling;
+import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.kv.KeyValueService;
+import org.nuxeo.runtime.kv.KeyValueStore;
+
+import com.amazonaws.services.textract.model.S3Object;
+
+/**
+ * Packs small single-page images (JPEG, PNG) into one multi-page PDF, sent to one asynchronous DetectDocumentText job,
+ * instead of one synchronous call per image. Page N of the PDF is the image of the Nth document of the batch, so the
+ * results are written back in each document by page index (see {@link TextractJobCompletedListener}).
+ * <p>
+ * The documents waiting for a batch are stored in the "textract" KeyValueStore ({@code batch:pending}), so they are
+ * shared by the nodes and not lost on restart. A batch is submitted by a {@link TextractBatchWork} when
+ * {@code textract.batch.maxPages} documents (100 by default) are waiting, or when the oldest one waited
+ * {@code textract.batch.windowSeconds} (10 by default, checked by the scheduler of the asynchronous jobs). Only images
+ * up to {@code textract.batch.maxImageBytes} (1MB by default) are batched.
+ * <p>
+ * Each image is embedded as is when possible (JPEG), on a page of its own size (scaled down if larger than the page
+ * size limit of Textract), so the bounding boxes relative to the page are also relative to the image.
+ * <p>
+ * A document is not lost when its batch fails: if the PDF can't be built, uploaded or sent, the documents are queued
+ * again, and after {@link #MAX_SUBMIT_ATTEMPTS} attempts, or if the job fails, each one is processed alone with the
+ * synchronous API (see {@link TextractBatchMemberWork}). The marker of a queued document expires after
+ * {@link #MEMBER_TTL_SECONDS}, and once submitted it holds the JobId, so a node dying in between does not keep it
+ * "already batched".
+ *
+ * @since TODO
+ */
+public class TextractBatcher {
+
+    private static final Logger log = LogManager.getLogger(TextractBatcher.class);
+
+    public static final String MAX_PAGES_PROP = "textract.batch.maxPages";
+
+    public static final String WINDOW_PROP = "textract.batch.windowSeconds";
+
+    public static final String MAX_IMAGE_BYTES_PROP = "textract.batch.maxImageBytes";
+
+    public static final int DEFAULT_MAX_PAGES = 100;
+
+    public static final long DEFAULT_WINDOW_SECONDS = 10;
+
+    public static final long DEFAULT_MAX_IMAGE_BYTES = 1024 * 1024;
+
+    public static final Set<String> BATCH_MIME_TYPES = Set.of(TextractPreflight.JPEG_MIME_TYPE,
+            TextractPreflight.PNG_MIME_TYPE);
+
+    protected static final String PENDING_KEY = "batch:pending";
+
+    protected static final String FLUSH_LOCK_KEY = "batch:flushLock";
+
+    // Value of the marker of a document waiting for a batch, replaced with the JobId once submitted
+    protected static final String PENDING_MARKER = "pending";
+
+    // Covers the window and the submission, the marker is refreshed when the document is queued again
+    protected static final long MEMBER_TTL_SECONDS = 3600;
+
+    public static final int MAX_SUBMIT_ATTEMPTS = 3;
+
+    // Released at the end of the flush, the TTL is only for a node dying while flushing
+    protected static final long FLUSH_LOCK_TTL_SECONDS = 300;
+
+    // Largest page side accepted by Textract in a PDF: 40 inches
+    protected static final float MAX_PAGE_POINTS = 40 * 72;
+
+    protected static final int MAX_CAS_ATTEMPTS = 100;
+
+    protected static TextractBatcher instance = null;
+
+    protected final int maxPages;
+
+    protected final long windowMs;
+
+    protected final long maxImageBytes;
+
+    public static TextractBatcher getInstance() {
+        if (instance == null) {
+            synchronized (TextractBatcher.class) {
+                if (instance == null) {
+                    instance = new TextractBatcher(
+                            Integer.parseInt(Framework.getProperty(MAX_PAGES_PROP, String.valueOf(DEFAULT_MAX_PAGES))),
+                            1000 * Long.parseLong(
+                                    Framework.getProperty(WINDOW_PROP, String.valueOf(DEFAULT_WINDOW_SECONDS))),
+                            Long.parseLong(Framework.getProperty(MAX_IMAGE_BYTES_PROP,
+                                    String.valueOf(DEFAULT_MAX_IMAGE_BYTES))));
+                }
+            }
+        }
+        return instance;
+    }
+
+    protected TextractBatcher(int maxPages, long windowMs, long maxImageBytes) {
+        this.maxPages = maxPages;
+        this.windowMs = windowMs;
+        this.maxImageBytes = maxImageBytes;
+    }
+
+    protected KeyValueStore getKeyValueStore() {
+        return Framework.getService(KeyValueService.class).getKeyValueStore(TextractOcrWork.KV_STORE_NAME);
+    }
+
+    /** A JPEG or a PNG, not larger than {@code textract.batch.maxImageBytes}. */
+    public boolean isBatchable(Blob blob) {
+        return blob != null && blob.getLength() > 0 && blob.getLength() <= maxImageBytes
+                && BATCH_MIME_TYPES.contains(TextractPreflight.getMimeType(blob, true));
+    }
+
+    /**
+     * Adds the document to the next batch. Does nothing if it is already waiting, or in a batch job in progress, for
+     * the same blob and output parameters.
+     *
+     * @return false if the blob can't be batched (see {@link #isBatchable(Blob)}), the caller processes it as usual
+     */
+    public boolean enqueue(DocumentModel doc, String blobXPath, Map<String, String> params) {
+
+        Blob blob = (Blob) doc.getPropertyValue(blobXPath);
+        if (!isBatchable(blob)) {
+            return false;
+        }
+
+        TextractJob.Member member = new TextractJob.Member();
+        member.repository = doc.getRepositoryName();
+        member.docId = doc.getId();
+        member.blobXPath = blobXPath;
+        member.digest = blob.getDigest();
+        member.params.putAll(params);
+        member.queuedAt = System.currentTimeMillis();
+        if (!claimMember(member)) {
+            log.debug("Doc {} ({}) already batched", member.docId, blobXPath);
+            return true;
+        }
+
+        int pending = updatePending(members -> {
+            members.add(member);
+            return members.size();
+        });
+        if (pending >= maxPages) {
+            Framework.getService(WorkManager.class).schedule(new TextractBatchWork(), Scheduling.IF_NOT_SCHEDULED);
+        }
+        return true;
+    }
+
+    /**
+     * Sets the marker of the document, unless it is waiting for a batch or in a batch job in progress. A marker holding
+     * the JobId of a job no longer registered is stale: the node died before forgetting the document.
+     */
+    protected boolean claimMember(TextractJob.Member member) {
+        KeyValueStore kv = getKeyValueStore();
+        String key = memberKey(member);
+        if (kv.compareAndSet(key, null, PENDING_MARKER, MEMBER_TTL_SECONDS)) {
+            return true;
+        }
+        String marker = kv.getString(key);
+        if (marker == null || PENDING_MARKER.equals(marker) || hasJob(marker)) {
+            return false;
+        }
+        return kv.compareAndSet(key, marker, PENDING_MARKER, MEMBER_TTL_SECONDS);
+    }
+
+    protected boolean isAccepting() {
+        return TextractStatusRegistry.getInstance().isAccepting();
+    }
+
+    protected boolean hasJob(String jobId) {
+        return TextractJobRegistry.getInstance().getJob(jobId) != null;
+    }
+
+    public boolean hasPending() {
+        return getKeyValueStore().getString(PENDING_KEY) != null;
+    }
+
+    /**
+     * Submits the batches that are ready. Only one node flushes at a time, the others return immediately. Nothing is
+     * submitted while the submissions of the node are paused or drained (see {@link TextractStatusRegistry}): the
+     * documents wait for a node accepting them.
+     */
+    public void flush() {
+        if (!isAccepting()) {
+            return;
+        }
+        KeyValueStore kv = getKeyValueStore();
+        String token = UUID.randomUUID().toString();
+        if (!kv.compareAndSet(FLUSH_LOCK_KEY, null, token, FLUSH_LOCK_TTL_SECONDS)) {
+            return;
+        }
+        try {
+            List<TextractJob.Member> batch;
+            // Checked before taking each batch: a batch taken is no longer in the pending documents
+            while (isAccepting() && !(batch = takeBatch(System.currentTimeMillis())).isEmpty()) {
+                submit(batch);
+            }
+        } finally {
+            kv.compareAndSet(FLUSH_LOCK_KEY, token, null);
+        }
+    }
+
+    /**
+     * Removes the next batch from the pending documents: maxPages documents, or all of them if the oldest waited the
+     * window. Empty if no batch is ready.
+     */
+    protected List<TextractJob.Member> takeBatch(long now) {
+        return updatePending(members -> {
+            if (members.isEmpty() || members.size() < maxPages && now - members.get(0).queuedAt < windowMs) {
+                return List.of();
+            }
+            List<TextractJob.Member> batch = new ArrayList<>(members.subList(0, Math.min(maxPages, members.size())));
+            members.subList(0, batch.size()).clear();
+            return batch;
+        });
+    }
+
+    /**
+     * Builds the PDF of the images still unchanged, uploads it and starts the job. The documents deleted or changed
+     * since they were queued are dropped, an image that can't be added is processed alone. If the batch can't be
+     * submitted, its documents are queued again (see {@link #requeue(List)}).
+     */
+    protected void submit(List<TextractJob.Member> batch) {
+
+        if (!isAccepting()) {
+            // Paused since the batch was taken
+            putBack(batch);
+            return;
+        }
+        List<TextractJob.Member> members = new ArrayList<>();
+        File pdf;
+        try (PDDocument pdfDoc = new PDDocument(MemoryUsageSetting.setupTempFileOnly())) {
+            for (TextractJob.Member member : batch) {
+                Blob blob = getBlob(member);
+                if (blob == null) {
+                    forget(member);
+                    continue;
+                }
+                try (CloseableFile file = blob.getCloseableFile()) {
+                    addImagePage(pdfDoc, file.getFile());
+                    members.add(member);
+                } catch (IOException e) {
+                    log.warn("Cannot add the image of doc {} ({}) to the batch, processing it alone: {}",
+                            member.docId, member.blobXPath, e.getMessage());
+                    processAlone(member);
+                }
+            }
+            if (members.isEmpty()) {
+                return;
+            }
+            pdf = Framework.createTempFile("textract-batch-", ".pdf");
+            pdfDoc.save(pdf);
+        } catch (IOException | RuntimeException e) {
+            requeue(batch);
+            throw new NuxeoException("Cannot build the PDF of the batch", e);
+        }
+
+        TextractJob job = new TextractJob();
+        try {
+            Blob pdfBlob = new FileBlob(pdf, TextractPreflight.PDF_MIME_TYPE);
+            pdfBlob.setFilename("batch.pdf");
+            S3Object s3Object = TextractS3Uploader.getInstance().upload(pdfBlob);
+            job.uploaded = true;
+            try {
+                job.jobId = TextractService.getInstance().startJob(TextractJob.API_DETECT, null, s3Object);
+            } catch (RuntimeException e) {
+                TextractS3Uploader.getInstance().delete(s3Object.getBucket(), s3Object.getName());
+                throw e;
+            }
+            job.api = TextractJob.API_DETECT;
+            job.members.addAll(members);
+            job.s3Bucket = s3Object.getBucket();
+            job.s3Key = s3Object.getName();
+            job.createdAt = System.currentTimeMillis();
+            job.nextPollAt = job.createdAt;
+            TextractJobRegistry.getInstance().register(job);
+        } catch (RuntimeException e) {
+            requeue(members);
+            throw new NuxeoException("Cannot start the Textract job of a batch of " + members.size(), e);
+        } finally {
+            pdf.delete();
+        }
+
+        KeyValueStore kv = getKeyValueStore();
+        members.forEach(member -> kv.put(memberKey(member), job.jobId, TextractJobRegistry.JOB_TTL_SECONDS));
+        log.debug("Textract job {} started for a batch of {} images", job.jobId, members.size());
+    }
+
+    /**
+     * Puts back the documents of a batch that could not be submitted at the head of the pending documents, for the
+     * next flush. A document whose batch failed {@link #MAX_SUBMIT_ATTEMPTS} times is processed alone instead.
+     */
+    protected void requeue(List<TextractJob.Member> batch) {
+        List<TextractJob.Member> retry = new ArrayList<>();
+        for (TextractJob.Member member : batch) {
+            member.submitAttempts++;
+            if (member.submitAttempts < MAX_SUBMIT_ATTEMPTS) {
+                retry.add(member);
+            } else {
+                processAlone(member);
+            }
+        }
+        if (retry.isEmpty()) {
+            return;
+        }
+        putBack(retry);
+        log.warn("{} documents queued again for the next Textract batch", retry.size());
+    }
+
+    /** Puts the documents back at the head of the pending documents, with their marker. */
+    public void putBack(List<TextractJob.Member> members) {
+        updatePending(pending -> pending.addAll(0, members));
+        KeyValueStore kv = getKeyValueStore();
+        members.forEach(member -> kv.put(memberKey(member), PENDING_MARKER, MEMBER_TTL_SECONDS));
+    }
+
+    /** Processes the documents with the synchronous API, when they can't be batched or their batch job failed. */
+    public void processAlone(List<TextractJob.Member> members) {
+        members.forEach(this::processAlone);
+    }
+
+    protected void processAlone(TextractJob.Member member) {
+        Framework.getService(WorkManager.class)
+                 .schedule(new TextractBatchMemberWork(member), Scheduling.IF_NOT_SCHEDULED);
+    }
+
+    /** Returns null if the document was deleted or its blob changed since it was queued. */
+    protected static Blob getBlob(TextractJob.Member member) {
+        CoreSession session = CoreInstance.getCoreSessionSystem(member.repository);
+        DocumentRef ref = new IdRef(member.docId);
+        if (!session.exists(ref)) {
+            return null;
+        }
+        DocumentModel doc = session.getDocument(ref);
+        Blob blob = (Blob) doc.getPropertyValue(member.blobXPath);
+        return blob != null && StringUtils.equals(blob.getDigest(), member.digest) ? blob : null;
+    }
+
+    /** Adds a page of the size of the image (in points), scaled down if larger than what Textract accepts. */
+    protected static void addImagePage(PDDocument pdfDoc, File image) throws IOException {
+        PDImageXObject xObject = PDImageXObject.createFromFileByContent(image, pdfDoc);
+        float scale = Math.min(1, MAX_PAGE_POINTS / Math.max(xObject.getWidth(), xObject.getHeight()));
+        float width = xObject.getWidth() * scale;
+        float height = xObject.getHeight() * scale;
+        PDPage page = new PDPage(new PDRectangle(width, height));
+        pdfDoc.addPage(page);
+        try (PDPageContentStream content = new PDPageContentStream(pdfDoc, page)) {
+            content.drawImage(xObject, 0, 0, width, height);
+        }
+    }
+
+    /** The documents can be queued again. */
+    public void forget(List<TextractJob.Member> members) {
+        members.forEach(this::forget);
+    }
+
+    protected void forget(TextractJob.Member member) {
+        getKeyValueStore().put(memberKey(member), (String) null);
+    }
+
+    protected static String memberKey(TextractJob.Member member) {
+        String source = String.join("\n", member.repository, member.docId, member.blobXPath,
+                StringUtils.defaultString(member.digest), new JSONObject(member.params).toString());
+        return "batch:member:" + DigestUtils.sha256Hex(source);
+    }
+
+    /** Optimistic update of the pending documents, several nodes can queue documents at the same time. */
+    protected <T> T updatePending(Function<List<TextractJob.Member>, T> change) {
+        KeyValueStore kv = getKeyValueStore();
+        for (int i = 0; i < MAX_CAS_ATTEMPTS; i++) {
+            String current = kv.getString(PENDING_KEY);
+            List<TextractJob.Member> members = parseMembers(current);
+            T result = change.apply(members);
+            String updated = members.isEmpty() ? null : toJSON(members);
+            if (Objects.equals(current, updated) || kv.compareAndSet(PENDING_KEY, current, updated)) {
+                return result;
+            }
+        }
+        throw new NuxeoException("Cannot update the Textract batch, too many concurrent updates");
+    }
+
+    protected static List<TextractJob.Member> parseMembers(String json) {
+        List<TextractJob.Member> members = new ArrayList<>();
+        if (StringUtils.isNotBlank(json)) {
+            JSONArray array = new JSONArray(json);
+            for (int i = 0; i < array.length(); i++) {
+                members.add(TextractJob.Member.fromJSON(array.getJSONObject(i)));
+            }
+        }
+        return members;
+    }
+
+    protected static String toJSON(List<TextractJob.Member> members) {
+        JSONArray array = new JSONArray();
+        members.forEach(member -> array.put(member.toJSON()));
+        return array.toString();
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.aws.textract;
+
+import org.nuxeo.labs.aws.textract.TextractScheduler.Priority;
+
+/**
+ * Per-thread information about who is calling Textract. {@link TextractService} reads it to ask the
+ * {@link TextractScheduler} for a permit before each call.
+ * <p>
+ * When nothing was set (an operation called directly from a script, for example), the call is considered
+ * {@link Priority#INTERACTIVE} for the {@link #DEFAULT_TENANT} tenant.
+ * <p>
+ * The context can also hold a deadline (see {@link #enterDeadline(long)}): the waits for a quota permit or for
+ * resources, and the Textract calls themselves, fail with a {@link TextractTimeoutException} when it is reached.
+ * <p>
+ * The document and page being processed, when set by the operations, are reported in the {@link TextractEvents}.
+ */
+public class TextractCallContext {
+
+    public static final String DEFAULT_TENANT = "default";
+
+    protected static final TextractCallContext DEFAULT = new TextractCallContext(Priority.INTERACTIVE,
+            DEFAULT_TENANT);
+
+    protected static final ThreadLocal<TextractCallContext> CURRENT = new ThreadLocal<>();
+
+    protected final Priority priority;
+
+    protected final String tenant;
+
+    // Epoch millis, 0 when there is no deadline
+    protected final long deadline;
+
+    protected final String docId;
+
+    // 1-based, 0 when unknown
+    protected final int page;
+
+    public TextractCallContext(Priority priority, String tenant) {
+        this(priority, tenant, 0);
+    }
+
+    public TextractCallContext(Priority priority, String tenant, long deadline) {
+        this(priority, tenant, deadline, null, 0);
+    }
+
+    protected TextractCallContext(Priority priority, String tenant, long deadline, String docId, int page) {
+        this.priority = priority == null ? Priority.INTERACTIVE : priority;
+        this.tenant = tenant == null ? DEFAULT_TENANT : tenant;
+        this.deadline = deadline;
+        this.docId = docId;
+        this.page = page;
+    }
+
+    public Priority getPriority() {
+        return priority;
+    }
+
+    public String getTenant() {
+        return tenant;
+    }
+
+    public long getDeadline() {
+        return deadline;
+    }
+
+    public String getDocId() {
+        return docId;
+    }
+
+    public int getPage() {
+        return page;
+    }
+
+    /** Returns the time left before the deadline, {@link Long#MAX_VALUE} if there is no deadline. */
+    public long getRemainingMs() {
+        return deadline <= 0 ? Long.MAX_VALUE : deadline - System.currentTimeMillis();
+    }
+
+    /** Throws a {@link TextractTimeoutException} if the deadline is reached. what is used in the message. */
+    public void checkDeadline(String what) {
+        if (getRemainingMs() <= 0) {
+            throw new TextractTimeoutException("Deadline reached " + what);
+        }
+    }
+
+    /** Returns a copy of this context with the earliest of its deadline and this one (0 for none). */
+    public TextractCallContext withDeadline(long newDeadline) {
+        if (newDeadline <= 0 || (deadline > 0 && deadline <= newDeadline)) {
+            return this;
+        }
+        return new TextractCallContext(priority, tenant, newDeadline, docId, page);
+    }
+
+    /** Returns a copy of this context for the document. */
+    public TextractCallContext withDocument(String newDocId) {
+        return new TextractCallContext(priority, tenant, deadline, newDocId, 0);
+    }
+
+    /** Returns a copy of this context for the page of the current document. */
+    public TextractCallContext withPage(int newPage) {
+        return new TextractCallContext(priority, tenant, deadline, docId, newPage);
+    }
+
+    /** Returns the deadline in timeoutSeconds from now, or 0 (no deadline) if timeoutSeconds is not positive. */
+    public static long deadlineIn(long timeoutSeconds) {
+        return timeoutSeconds > 0 ? System.currentTimeMillis() + 1000 * timeoutSeconds : 0;
+    }
+
+    public static TextractCallContext current() {
+        TextractCallContext ctx = CURRENT.get();
+        return ctx == null ? DEFAULT : ctx;
+    }
+
+    /**
+     * Sets the context for the current thread, until the returned scope is closed. The previous context, if any, is
+     * restored then.
+     */
+    public static Scope enter(TextractCallContext ctx) {
+        TextractCallContext previous = CURRENT.get();
+        CURRENT.set(ctx);
+        return () -> {
+            if (previous == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+        };
+    }
+
+    /**
+     * Same as {@link #enter(TextractCallContext)}, with the current context and the deadline. An earlier deadline
+     * already set (the deadline of the document when setting the deadline of a page, for example) is kept.
+     */
+    public static Scope enterDeadline(long deadline) {
+        return enter(current().withDeadline(deadline));
+    }
+
+    public interface Scope extends AutoCloseable {
+        @Override
+        void close();
+    }
+}
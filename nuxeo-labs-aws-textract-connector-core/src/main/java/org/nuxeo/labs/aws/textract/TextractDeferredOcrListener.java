@@ -0,0 +1,41 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.aws.textract;
+
+import org.nuxeo.ecm.core.event.Event;
+import org.nuxeo.ecm.core.event.EventListener;
+
+/**
+ * Schedules the deferred {@link TextractOcrWork}s whose debounce window elapsed when the scheduler fires
+ * {@link #DEFERRED_OCR_EVENT} (see {@link TextractOcrWork#scheduleDeferred()}).
+ *
+ * @since TODO
+ */
+public class TextractDeferredOcrListener implements EventListener {
+
+    public static final String DEFERRED_OCR_EVENT = "textractDeferredOcr";
+
+    @Override
+    public void handleEvent(Event event) {
+        if (!DEFERRED_OCR_EVENT.equals(event.getName())) {
+            return;
+        }
+        TextractOcrWork.scheduleDeferred();
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.aws.textract;
+
+import java.util.List;
+
+import com.amazonaws.services.textract.model.AnalyzeDocumentResult;
+import com.amazonaws.services.textract.model.Block;
+import com.amazonaws.services.textract.model.DetectDocumentTextResult;
+import com.amazonaws.services.textract.model.GetDocumentAnalysisResult;
+import com.amazonaws.services.textract.model.GetDocumentTextDetectionResult;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder events, so the Textract work of a node can be seen in a recording (instead of anonymous socket
+ * reads), next to the GC and I/O events of the same thread and time.
+ * <p>
+ * The events are enabled by default, without stack traces, and cost almost nothing when no recording is running. They
+ * carry the document and page of the {@link TextractCallContext} when the operations set them.
+ *
+ * @since TODO
+ */
+public class TextractEvents {
+
+    public static final String CATEGORY = "Nuxeo Textract";
+
+    private TextractEvents() {
+
+    }
+
+    /** One Textract API call, from the request to the response, without the wait for a quota permit. */
+    @Name("org.nuxeo.labs.aws.textract.Call")
+    @Label("Textract Call")
+    @Category({ "Nuxeo", CATEGORY })
+    @StackTrace(false)
+    public static class CallEvent extends Event {
+
+        @Label("API")
+        public String api;
+
+        @Label("Features")
+        public String features;
+
+        @Label("Document")
+        public String docId;
+
+        @Label("Page")
+        public int page;
+
+        @Label("Bytes Sent")
+        @Description("Size of the document sent inline, -1 when Textract reads it from S3")
+        @DataAmount
+        public long bytes;
+
+        @Label("Blocks")
+        public int blockCount;
+
+        @Label("Permit Wait (ms)")
+        public long permitWaitMs;
+
+        @Label("Succeeded")
+        public boolean succeeded;
+    }
+
+    /** Extraction of one page of a multi-page document to a temp. file. */
+    @Name("org.nuxeo.labs.aws.textract.PageSplit")
+    @Label("Textract Page Split")
+    @Category({ "Nuxeo", CATEGORY })
+    @StackTrace(false)
+    public static class PageSplitEvent extends Event {
+
+        @Label("Document")
+        public String docId;
+
+        @Label("Page")
+        public int page;
+
+        @Label("Format")
+        public String format;
+
+        @Label("Page Bytes")
+        @DataAmount
+        public long bytes;
+    }
+
+    /** Serialization of a Textract result to JSON. */
+    @Name("org.nuxeo.labs.aws.textract.Serialize")
+    @Label("Textract Result Serialization")
+    @Category({ "Nuxeo", CATEGORY })
+    @StackTrace(false)
+    public static class SerializeEvent extends Event {
+
+        @Label("Document")
+        public String docId;
+
+        @Label("Page")
+        public int page;
+
+        @Label("Blocks")
+        public int blockCount;
+
+        @Label("JSON Characters")
+        @Description("Length of the JSON, -1 when the result is added to a JSON array serialized later")
+        public long chars;
+    }
+
+    /** Sets the document and page of the current {@link TextractCallContext}. */
+    public static CallEvent newCallEvent() {
+        CallEvent event = new CallEvent();
+        TextractCallContext ctx = TextractCallContext.current();
+        event.docId = ctx.getDocId();
+        event.page = ctx.getPage();
+        return event;
+    }
+
+    public static PageSplitEvent newPageSplitEvent(int page) {
+        PageSplitEvent event = new PageSplitEvent();
+        event.docId = TextractCallContext.current().getDocId();
+        event.page = page;
+        return event;
+    }
+
+    public static SerializeEvent newSerializeEvent() {
+        SerializeEvent event = new SerializeEvent();
+        TextractCallContext ctx = TextractCallContext.current();
+        event.docId = ctx.getDocId();
+        event.page = ctx.getPage();
+        return event;
+    }
+
+    /** Returns the number of blocks of a Textract result, 0 if it has none or is not a result. */
+    public static int countBlocks(Object textractResult) {
+        List<Block> blocks = null;
+        if (textractResult instanceof AnalyzeDocumentResult) {
+            blocks = ((AnalyzeDocumentResult) textractResult).getBlocks();
+        } else if (textractResult instanceof DetectDocumentTextResult) {
+            blocks = ((DetectDocumentTextResult) textractResult).getBlocks();
+        } else if (textractResult instanceof GetDocumentAnalysisResult) {
+            blocks = ((GetDocumentAnalysisResult) textractResult).getBlocks();
+        } else if (textractResult instanceof GetDocumentTextDetectionResult) {
+            blocks = ((GetDocumentTextDetectionResult) textractResult).getBlocks();
+        }
+        return blocks == null ? 0 : blocks.size();
+    }
+}
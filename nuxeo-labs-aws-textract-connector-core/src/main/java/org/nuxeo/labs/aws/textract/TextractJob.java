@@ -0,0 +1,193 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.aws.textract;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * An asynchronous Textract job, as stored in the {@link TextractJobRegistry}: the Textract JobId, and what to do with
+ * the result (the document, the blob it was started for and the output parameters).
+ * <p>
+ * A batch job (see {@link TextractBatcher}) has no document: page N of its PDF is the image of its Nth member.
+ *
+ * @since TODO
+ */
+public class TextractJob {
+
+    public static final String API_DETECT = "DetectDocumentText";
+
+    public static final String API_ANALYZE = "AnalyzeDocument";
+
+    public static final String STATUS_IN_PROGRESS = "IN_PROGRESS";
+
+    public String jobId;
+
+    public String api;
+
+    public String repository;
+
+    public String docId;
+
+    public String blobXPath;
+
+    public String digest;
+
+    /** Output parameters, see {@link TextractResultWriter#fromParams(Map)} */
+    public Map<String, String> params = new LinkedHashMap<>();
+
+    public String s3Bucket;
+
+    public String s3Key;
+
+    /** True if the blob was uploaded for the job, so the object must be deleted once the job is completed */
+    public boolean uploaded;
+
+    public String status = STATUS_IN_PROGRESS;
+
+    public long createdAt;
+
+    public long nextPollAt;
+
+    public int polls;
+
+    /** The attempts to write the results of the completed job, see {@link TextractJobCompletedListener} */
+    public int handleAttempts;
+
+    /** The documents of a batch job, in page order. Empty for a job started for one document. */
+    public List<Member> members = new ArrayList<>();
+
+    public boolean isBatch() {
+        return !members.isEmpty();
+    }
+
+    public JSONObject toJSON() {
+        JSONObject json = new JSONObject();
+        json.put("jobId", jobId);
+        json.put("api", api);
+        json.put("repository", repository);
+        json.put("docId", docId);
+        json.put("blobXPath", blobXPath);
+        json.put("digest", digest);
+        json.put("params", new JSONObject(params));
+        json.put("s3Bucket", s3Bucket);
+        json.put("s3Key", s3Key);
+        json.put("uploaded", uploaded);
+        json.put("status", status);
+        json.put("createdAt", createdAt);
+        json.put("nextPollAt", nextPollAt);
+        json.put("polls", polls);
+        json.put("handleAttempts", handleAttempts);
+        if (isBatch()) {
+            JSONArray array = new JSONArray();
+            members.forEach(member -> array.put(member.toJSON()));
+            json.put("members", array);
+        }
+        return json;
+    }
+
+    public static TextractJob fromJSON(JSONObject json) {
+        TextractJob job = new TextractJob();
+        job.jobId = json.optString("jobId", null);
+        job.api = json.optString("api", API_DETECT);
+        job.repository = json.optString("repository", null);
+        job.docId = json.optString("docId", null);
+        job.blobXPath = json.optString("blobXPath", null);
+        job.digest = json.optString("digest", null);
+        JSONObject params = json.optJSONObject("params");
+        if (params != null) {
+            for (String key : params.keySet()) {
+                job.params.put(key, params.getString(key));
+            }
+        }
+        job.s3Bucket = json.optString("s3Bucket", null);
+        job.s3Key = json.optString("s3Key", null);
+        job.uploaded = json.optBoolean("uploaded");
+        job.status = json.optString("status", STATUS_IN_PROGRESS);
+        job.createdAt = json.optLong("createdAt");
+        job.nextPollAt = json.optLong("nextPollAt");
+        job.polls = json.optInt("polls");
+        job.handleAttempts = json.optInt("handleAttempts");
+        JSONArray members = json.optJSONArray("members");
+        if (members != null) {
+            for (int i = 0; i < members.length(); i++) {
+                job.members.add(Member.fromJSON(members.getJSONObject(i)));
+            }
+        }
+        return job;
+    }
+
+    public boolean isInProgress() {
+        return STATUS_IN_PROGRESS.equals(status);
+    }
+
+    /** A document waiting in a batch, or one page of a batch job. */
+    public static class Member {
+
+        public String repository;
+
+        public String docId;
+
+        public String blobXPath;
+
+        public String digest;
+
+        /** Output parameters, see {@link TextractResultWriter#fromParams(Map)} */
+        public Map<String, String> params = new LinkedHashMap<>();
+
+        public long queuedAt;
+
+        /** Number of times the batch of this document could not be submitted, see {@link TextractBatcher} */
+        public int submitAttempts;
+
+        public JSONObject toJSON() {
+            JSONObject json = new JSONObject();
+            json.put("repository", repository);
+            json.put("docId", docId);
+            json.put("blobXPath", blobXPath);
+            json.put("digest", digest);
+            json.put("params", new JSONObject(params));
+            json.put("queuedAt", queuedAt);
+            json.put("submitAttempts", submitAttempts);
+            return json;
+        }
+
+        public static Member fromJSON(JSONObject json) {
+            Member member = new Member();
+            member.repository = json.optString("repository", null);
+            member.docId = json.optString("docId", null);
+            member.blobXPath = json.optString("blobXPath", null);
+            member.digest = json.optString("digest", null);
+            JSONObject params = json.optJSONObject("params");
+            if (params != null) {
+                for (String key : params.keySet()) {
+                    member.params.put(key, params.getString(key));
+                }
+            }
+            member.queuedAt = json.optLong("queuedAt");
+            member.submitAttempts = json.optInt("submitAttempts");
+            return member;
+        }
+    }
+}
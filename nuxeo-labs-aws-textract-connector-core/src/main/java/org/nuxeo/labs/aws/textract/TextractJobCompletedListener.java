@@ -0,0 +1,259 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.aws.textract;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.CoreInstance;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.DocumentRef;
+import org.nuxeo.ecm.core.api.IdRef;
+import org.nuxeo.ecm.core.event.Event;
+import org.nuxeo.ecm.core.event.EventBundle;
+import org.nuxeo.ecm.core.event.PostCommitFilteringEventListener;
+import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.transaction.TransactionHelper;
+
+import com.amazonaws.services.textract.model.AnalyzeDocumentResult;
+import com.amazonaws.services.textract.model.Block;
+import com.amazonaws.services.textract.model.DetectDocumentTextResult;
+
+/**
+ * Writes the results of a completed asynchronous job in its document. Asynchronous, so it runs on any node of the
+ * cluster, and the {@link TextractJobRegistry} makes sure a job is handled only once.
+ * <p>
+ * The results are ignored if the blob changed since the job was started, or if the document was deleted. The S3 object
+ * uploaded for the job, if any, is deleted and the job removed from the registry once the results are written. If
+ * writing them fails, the job is handled again later, up to {@link #MAX_HANDLE_ATTEMPTS} times.
+ * <p>
+ * For a batch job (see {@link TextractBatcher}), the result of page N is written in the Nth document of the batch, as
+ * the result of a single-page document. If the batch job failed, each document is processed alone with the synchronous
+ * API (see {@link TextractBatchMemberWork}).
+ * <p>
+ * A large job needs many calls to read its results, so they are read and written in a transaction of their own, with
+ * the timeout set by {@link #TRANSACTION_TIMEOUT_PROP}.
+ *
+ * @since TODO
+ */
+public class TextractJobCompletedListener implements PostCommitFilteringEventListener {
+
+    private static final Logger log = LogManager.getLogger(TextractJobCompletedListener.class);
+
+    public static final String STATUS_FAILED = "FAILED";
+
+    public static final int MAX_HANDLE_ATTEMPTS = 5;
+
+    public static final String TRANSACTION_TIMEOUT_PROP = "textract.jobs.transactionTimeoutSeconds";
+
+    public static final int DEFAULT_TRANSACTION_TIMEOUT = 1800;
+
+    protected static final long RETRY_DELAY_MS = 60_000;
+
+    @Override
+    public boolean acceptEvent(Event event) {
+        return TextractJobPollWork.JOB_COMPLETED_EVENT.equals(event.getName());
+    }
+
+    @Override
+    public void handleEvent(EventBundle events) {
+        for (Event event : events) {
+            if (!acceptEvent(event)) {
+                continue;
+            }
+            String jobId = (String) event.getContext().getProperty(TextractJobPollWork.JOB_ID_PROPERTY);
+            if (StringUtils.isNotBlank(jobId)) {
+                handleJob(jobId);
+            }
+        }
+    }
+
+    protected void handleJob(String jobId) {
+
+        TextractJobRegistry registry = TextractJobRegistry.getInstance();
+        TextractJob job = registry.getJob(jobId);
+        if (job == null || job.isInProgress() || !registry.claimCompletedJob(jobId)) {
+            return;
+        }
+
+        try {
+            writeResults(job);
+        } catch (RuntimeException e) {
+            job.handleAttempts++;
+            if (job.handleAttempts < MAX_HANDLE_ATTEMPTS) {
+                log.warn("Cannot write the results of Textract job {}, will retry: {}", jobId, e.getMessage());
+                // Keep the S3 object and the job, and let the poller fire the event again
+                job.nextPollAt = System.currentTimeMillis() + RETRY_DELAY_MS * job.handleAttempts;
+                registry.retryCompletedJob(job);
+                return;
+            }
+            log.error("Cannot write the results of Textract job {}, giving up after {} attempts", jobId,
+                    job.handleAttempts, e);
+        }
+        cleanup(job);
+    }
+
+    /** Writes the results in the document(s). Throws if it must be retried. */
+    protected void writeResults(TextractJob job) {
+        String jobId = job.jobId;
+        if (STATUS_FAILED.equals(job.status)) {
+            if (job.isBatch()) {
+                log.error("Textract job {} failed, for a batch of {} documents, processing them alone", jobId,
+                        job.members.size());
+                TextractBatcher.getInstance().processAlone(job.members);
+            } else {
+                log.error("Textract job {} failed, for doc {} ({})", jobId, job.docId, job.blobXPath);
+            }
+            return;
+        }
+        if (job.isBatch()) {
+            runInTransaction(() -> handleBatch(job));
+        } else {
+            runInTransaction(() -> writeDocument(job));
+        }
+    }
+
+    /**
+     * Commits the transaction of the listener and runs the runnable in a new one, with a longer timeout: the default
+     * one can expire while reading the results of a large job, and then every retry would fail the same way.
+     */
+    protected void runInTransaction(Runnable runnable) {
+        int timeout = Integer.parseInt(
+                Framework.getProperty(TRANSACTION_TIMEOUT_PROP, String.valueOf(DEFAULT_TRANSACTION_TIMEOUT)));
+        boolean wasActive = TransactionHelper.isTransactionActiveOrMarkedRollback();
+        if (wasActive) {
+            TransactionHelper.commitOrRollbackTransaction();
+        }
+        TransactionHelper.startTransaction(timeout);
+        try {
+            runnable.run();
+        } catch (RuntimeException e) {
+            TransactionHelper.setTransactionRollbackOnly();
+            throw e;
+        } finally {
+            try {
+                TransactionHelper.commitOrRollbackTransaction();
+            } finally {
+                if (wasActive) {
+                    TransactionHelper.startTransaction();
+                }
+            }
+        }
+    }
+
+    /** The result of a page, as returned by the synchronous API of the job. */
+    protected static Object toResult(String api, List<Block> blocks) {
+        if (TextractJob.API_ANALYZE.equals(api)) {
+            return new AnalyzeDocumentResult().withBlocks(blocks);
+        }
+        return new DetectDocumentTextResult().withBlocks(blocks);
+    }
+
+    protected void writeDocument(TextractJob job) {
+        String jobId = job.jobId;
+        CoreSession session = CoreInstance.getCoreSessionSystem(job.repository);
+        DocumentRef ref = new IdRef(job.docId);
+        if (!session.exists(ref)) {
+            return;
+        }
+        DocumentModel doc = session.getDocument(ref);
+        Blob blob = (Blob) doc.getPropertyValue(job.blobXPath);
+        if (blob == null || !StringUtils.equals(blob.getDigest(), job.digest)) {
+            log.debug("Blob at {} of doc {} changed since Textract job {} was started, ignoring the results",
+                    job.blobXPath, job.docId, jobId);
+            return;
+        }
+
+        try (TextractResultWriter writer = TextractResultWriter.fromParams(job.params)) {
+            TextractService.getInstance()
+                           .forEachJobResultPage(job.api, jobId, (pageNumber, blocks) -> writer.addPage(pageNumber,
+                                   toResult(job.api, blocks), blocks));
+            writer.write(doc);
+        }
+        doc.putContextData(TextractOcrWork.DISABLE_AUTO_OCR, Boolean.TRUE);
+        session.saveDocument(doc);
+    }
+
+    /** Deletes the S3 object uploaded for the job, and removes the job from the registry. */
+    protected void cleanup(TextractJob job) {
+        if (job.uploaded) {
+            try {
+                TextractS3Uploader.getInstance().delete(job.s3Bucket, job.s3Key);
+            } catch (RuntimeException e) {
+                log.warn("Cannot delete s3://{}/{}: {}", job.s3Bucket, job.s3Key, e.getMessage());
+            }
+        }
+        if (job.isBatch()) {
+            TextractBatcher.getInstance().forget(job.members);
+        }
+        TextractJobRegistry.getInstance().remove(job);
+    }
+
+    protected void handleBatch(TextractJob job) {
+        Set<Integer> handled = new HashSet<>();
+        TextractService.getInstance().forEachJobResultPage(job.api, job.jobId, (pageNumber, blocks) -> {
+            if (pageNumber <= job.members.size() && handled.add(pageNumber)) {
+                writeMember(job, job.members.get(pageNumber - 1), blocks);
+            }
+        });
+        // A page with no text has no blocks
+        for (int i = 0; i < job.members.size(); i++) {
+            if (handled.add(i + 1)) {
+                writeMember(job, job.members.get(i), List.of());
+            }
+        }
+    }
+
+    /** A failure is logged, so it does not prevent writing the results of the other documents of the batch. */
+    protected void writeMember(TextractJob job, TextractJob.Member member, List<Block> blocks) {
+        String jobId = job.jobId;
+        try {
+            CoreSession session = CoreInstance.getCoreSessionSystem(member.repository);
+            DocumentRef ref = new IdRef(member.docId);
+            if (!session.exists(ref)) {
+                return;
+            }
+            DocumentModel doc = session.getDocument(ref);
+            Blob blob = (Blob) doc.getPropertyValue(member.blobXPath);
+            if (blob == null || !StringUtils.equals(blob.getDigest(), member.digest)) {
+                log.debug("Blob at {} of doc {} changed since Textract job {} was started, ignoring the results",
+                        member.blobXPath, member.docId, jobId);
+                return;
+            }
+
+            // The document has a single page, not the page of the batch
+            blocks.forEach(block -> block.setPage(1));
+            try (TextractResultWriter writer = TextractResultWriter.fromParams(member.params)) {
+                writer.setMultiPage(false);
+                writer.addPage(1, toResult(job.api, blocks), blocks);
+                writer.write(doc);
+            }
+            doc.putContextData(TextractOcrWork.DISABLE_AUTO_OCR, Boolean.TRUE);
+            session.saveDocument(doc);
+        } catch (RuntimeException e) {
+            log.error("Cannot write the result of Textract job {} in doc {}", jobId, member.docId, e);
+        }
+    }
+}
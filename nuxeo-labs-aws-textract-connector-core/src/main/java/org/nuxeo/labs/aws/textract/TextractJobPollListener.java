@@ -0,0 +1,49 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.aws.textract;
+
+import org.nuxeo.ecm.core.event.Event;
+import org.nuxeo.ecm.core.event.EventListener;
+import org.nuxeo.ecm.core.work.api.WorkManager;
+import org.nuxeo.ecm.core.work.api.WorkManager.Scheduling;
+import org.nuxeo.runtime.api.Framework;
+
+/**
+ * Schedules a {@link TextractJobPollWork} when the scheduler fires {@link #POLL_EVENT}, and a
+ * {@link TextractBatchWork} if documents are waiting for a batch. Does nothing if they are already scheduled on this
+ * node.
+ *
+ * @since TODO
+ */
+public class TextractJobPollListener implements EventListener {
+
+    public static final String POLL_EVENT = "textractPollJobs";
+
+    @Override
+    public void handleEvent(Event event) {
+        if (!POLL_EVENT.equals(event.getName())) {
+            return;
+        }
+        WorkManager workManager = Framework.getService(WorkManager.class);
+        workManager.schedule(new TextractJobPollWork(), Scheduling.IF_NOT_SCHEDULED);
+        if (TextractBatcher.getInstance().hasPending()) {
+            workManager.schedule(new TextractBatchWork(), Scheduling.IF_NOT_SCHEDULED);
+        }
+    }
+}
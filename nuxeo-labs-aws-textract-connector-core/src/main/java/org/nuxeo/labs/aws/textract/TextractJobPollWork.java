@@ -0,0 +1,155 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.aws.textract;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.nuxeo.ecm.core.event.EventService;
+import org.nuxeo.ecm.core.event.impl.EventContextImpl;
+import org.nuxeo.ecm.core.work.AbstractWork;
+import org.nuxeo.runtime.api.Framework;
+
+/**
+ * Polls the status of the asynchronous Textract jobs in progress, and fires {@link #JOB_COMPLETED_EVENT} for each job
+ * that is completed (succeeded or failed).
+ * <p>
+ * Scheduled every few seconds on each node (see {@link TextractJobPollListener}), but only the node holding the poller
+ * lock of the {@link TextractJobRegistry} polls. A job is polled with an exponential backoff, from
+ * {@code textract.jobs.minPollIntervalSeconds} (5 by default) to {@code textract.jobs.maxPollIntervalSeconds} (60 by
+ * default), so long jobs do not use the quota of the Get APIs.
+ * <p>
+ * A completed job whose results could not be written is put back in the list (see
+ * {@link TextractJobRegistry#retryCompletedJob(TextractJob)}): its event is fired again at its next poll time.
+ *
+ * @since TODO
+ */
+public class TextractJobPollWork extends AbstractWork {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Logger log = LogManager.getLogger(TextractJobPollWork.class);
+
+    public static final String CATEGORY = "textractJobs";
+
+    public static final String JOB_COMPLETED_EVENT = "textractJobCompleted";
+
+    public static final String JOB_ID_PROPERTY = "textractJobId";
+
+    public static final String MIN_POLL_INTERVAL_PROP = "textract.jobs.minPollIntervalSeconds";
+
+    public static final String MAX_POLL_INTERVAL_PROP = "textract.jobs.maxPollIntervalSeconds";
+
+    public static final long DEFAULT_MIN_POLL_INTERVAL_SECONDS = 5;
+
+    public static final long DEFAULT_MAX_POLL_INTERVAL_SECONDS = 60;
+
+    // Released at the end of the work, the TTL is only for a node dying while polling
+    protected static final long LOCK_TTL_SECONDS = 300;
+
+    public TextractJobPollWork() {
+        super("textract:pollJobs");
+    }
+
+    @Override
+    public String getTitle() {
+        return "Textract jobs polling";
+    }
+
+    @Override
+    public String getCategory() {
+        return CATEGORY;
+    }
+
+    @Override
+    public boolean isTransactional() {
+        return false;
+    }
+
+    @Override
+    public void work() {
+
+        TextractJobRegistry registry = TextractJobRegistry.getInstance();
+        String lockToken = registry.acquirePollerLock(LOCK_TTL_SECONDS);
+        if (lockToken == null) {
+            // Another node is polling
+            return;
+        }
+
+        try {
+            TextractService service = TextractService.getInstance();
+            long minIntervalMs = 1000 * Long.parseLong(
+                    Framework.getProperty(MIN_POLL_INTERVAL_PROP, String.valueOf(DEFAULT_MIN_POLL_INTERVAL_SECONDS)));
+            long maxIntervalMs = 1000 * Long.parseLong(
+                    Framework.getProperty(MAX_POLL_INTERVAL_PROP, String.valueOf(DEFAULT_MAX_POLL_INTERVAL_SECONDS)));
+
+            for (String jobId : registry.getJobsInProgress()) {
+                TextractJob job = registry.getJob(jobId);
+                if (job == null) {
+                    // Expired
+                    registry.removeInProgress(jobId);
+                    continue;
+                }
+                long now = System.currentTimeMillis();
+                if (job.nextPollAt > now) {
+                    continue;
+                }
+                if (!job.isInProgress()) {
+                    // Completed, but writing the results failed: try again
+                    registry.update(job);
+                    fireJobCompleted(jobId);
+                    continue;
+                }
+
+                setStatus("Polling " + jobId);
+                String status;
+                try {
+                    status = service.getJobStatus(job.api, jobId);
+                } catch (RuntimeException e) {
+                    log.warn("Cannot get the status of Textract job {}: {}", jobId, e.getMessage());
+                    status = TextractJob.STATUS_IN_PROGRESS;
+                }
+
+                if (TextractJob.STATUS_IN_PROGRESS.equals(status)) {
+                    job.polls++;
+                    job.nextPollAt = now + getPollInterval(job.polls, minIntervalMs, maxIntervalMs);
+                    registry.update(job);
+                } else {
+                    job.status = status;
+                    registry.update(job);
+                    fireJobCompleted(jobId);
+                }
+            }
+        } finally {
+            registry.releasePollerLock(lockToken);
+        }
+        setStatus("Done");
+    }
+
+    /** min * 2^(polls - 1), capped to max. */
+    protected static long getPollInterval(int polls, long minIntervalMs, long maxIntervalMs) {
+        int shift = Math.min(Math.max(polls - 1, 0), 20);
+        return Math.min(minIntervalMs << shift, maxIntervalMs);
+    }
+
+    protected void fireJobCompleted(String jobId) {
+        EventContextImpl ctx = new EventContextImpl();
+        ctx.setProperty(JOB_ID_PROPERTY, jobId);
+        Framework.getService(EventService.class).fireEvent(ctx.newEvent(JOB_COMPLETED_EVENT));
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.aws.textract;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.json.JSONObject;
+import org.nuxeo.ecm.core.api.NuxeoException;
+import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.kv.KeyValueService;
+import org.nuxeo.runtime.kv.KeyValueStore;
+
+/**
+ * Cluster-wide registry of the asynchronous Textract jobs, stored in the "textract" KeyValueStore, so no job is lost
+ * when a node restarts and any node can handle a completed job.
+ * <p>
+ * Keys:
+ * <ul>
+ * <li>{@code job:<jobId>}: the job, as JSON (see {@link TextractJob})</li>
+ * <li>{@code job:source:<hash>}: the JobId of the job started for a document, blob digest and output parameters, so
+ * the same job is not started twice. While the job is being started, it holds a {@code starting:<token>} claim, see
+ * {@link #claimStart(String, String, String, String, String, Map)}</li>
+ * <li>{@code jobs:inProgress}: the comma separated list of the jobs to poll</li>
+ * <li>{@code jobs:pollerLock}: held by the node polling the jobs</li>
+ * <li>{@code job:<jobId>:handled}: set by the node writing the results of a completed job, removed if the writing
+ * fails so it is retried</li>
+ * </ul>
+ * Textract keeps the results of a job for 7 days, so do the keys.
+ *
+ * @since TODO
+ */
+public class TextractJobRegistry {
+
+    public static final long JOB_TTL_SECONDS = 7 * 24 * 3600;
+
+    protected static final String IN_PROGRESS_KEY = "jobs:inProgress";
+
+    protected static final String POLLER_LOCK_KEY = "jobs:pollerLock";
+
+    protected static final int MAX_CAS_ATTEMPTS = 100;
+
+    protected static final String STARTING_PREFIX = "starting:";
+
+    // Only for a node dying while starting a job, the claim is replaced by the JobId or released
+    protected static final long STARTING_TTL_SECONDS = 600;
+
+    protected static TextractJobRegistry instance = null;
+
+    public static TextractJobRegistry getInstance() {
+        if (instance == null) {
+            synchronized (TextractJobRegistry.class) {
+                if (instance == null) {
+                    instance = new TextractJobRegistry();
+                }
+            }
+        }
+        return instance;
+    }
+
+    protected KeyValueStore getKeyValueStore() {
+        return Framework.getService(KeyValueService.class).getKeyValueStore(TextractOcrWork.KV_STORE_NAME);
+    }
+
+    protected static String jobKey(String jobId) {
+        return "job:" + jobId;
+    }
+
+    protected static String sourceKey(String repository, String docId, String blobXPath, String digest, String api,
+            Map<String, String> params) {
+        String source = String.join("\n", repository, docId, blobXPath, StringUtils.defaultString(digest), api,
+                new JSONObject(params).toString());
+        return "job:source:" + DigestUtils.sha256Hex(source);
+    }
+
+    /**
+     * Returns the JobId of the job in progress or completed for this source, or null. Also null while the job is being
+     * started.
+     */
+    public String findJob(String repository, String docId, String blobXPath, String digest, String api,
+            Map<String, String> params) {
+        String value = getKeyValueStore().getString(sourceKey(repository, docId, blobXPath, digest, api, params));
+        return value == null || value.startsWith(STARTING_PREFIX) ? null : value;
+    }
+
+    /**
+     * Claims the start of the job for this source, so two callers do not start the same job. Returns the claim token,
+     * or null if a job was already started or is being started. The claim is replaced by the JobId when the job is
+     * registered, or must be released with {@link #releaseStart(String, String, String, String, String, Map, String)}.
+     */
+    public String claimStart(String repository, String docId, String blobXPath, String digest, String api,
+            Map<String, String> params) {
+        String token = STARTING_PREFIX + UUID.randomUUID();
+        return getKeyValueStore().compareAndSet(sourceKey(repository, docId, blobXPath, digest, api, params), null,
+                token, STARTING_TTL_SECONDS) ? token : null;
+    }
+
+    /** Releases the claim of a job that could not be started. */
+    public void releaseStart(String repository, String docId, String blobXPath, String digest, String api,
+            Map<String, String> params, String token) {
+        getKeyValueStore().compareAndSet(sourceKey(repository, docId, blobXPath, digest, api, params), token, null);
+    }
+
+    public void register(TextractJob job) {
+        KeyValueStore kv = getKeyValueStore();
+        kv.put(jobKey(job.jobId), job.toJSON().toString(), JOB_TTL_SECONDS);
+        kv.put(sourceKey(job.repository, job.docId, job.blobXPath, job.digest, job.api, job.params), job.jobId,
+                JOB_TTL_SECONDS);
+        updateInProgress(ids -> ids.add(job.jobId));
+    }
+
+    /** Returns null if the job does not exist (or expired). */
+    public TextractJob getJob(String jobId) {
+        String json = getKeyValueStore().getString(jobKey(jobId));
+        return json == null ? null : TextractJob.fromJSON(new JSONObject(json));
+    }
+
+    public void update(TextractJob job) {
+        getKeyValueStore().put(jobKey(job.jobId), job.toJSON().toString(), JOB_TTL_SECONDS);
+        if (!job.isInProgress()) {
+            updateInProgress(ids -> ids.remove(job.jobId));
+        }
+    }
+
+    /** Removes the job, once its results were handled. */
+    public void remove(TextractJob job) {
+        KeyValueStore kv = getKeyValueStore();
+        kv.put(jobKey(job.jobId), (String) null);
+        kv.put(sourceKey(job.repository, job.docId, job.blobXPath, job.digest, job.api, job.params), (String) null);
+        updateInProgress(ids -> ids.remove(job.jobId));
+    }
+
+    /** Stops polling the job, used when the job expired from the store. */
+    public void removeInProgress(String jobId) {
+        updateInProgress(ids -> ids.remove(jobId));
+    }
+
+    public List<String> getJobsInProgress() {
+        return new ArrayList<>(parseIds(getKeyValueStore().getString(IN_PROGRESS_KEY)));
+    }
+
+    /**
+     * Returns true if the caller is the first one to handle the completed job. Used so the results are written once,
+     * even if the completion event is received twice.
+     */
+    public boolean claimCompletedJob(String jobId) {
+        return getKeyValueStore().compareAndSet(jobKey(jobId) + ":handled", null, "1", JOB_TTL_SECONDS);
+    }
+
+    /**
+     * Releases the claim of a completed job whose results could not be written, and has the poller fire the
+     * completion event again at job.nextPollAt (see {@link TextractJobPollWork}).
+     */
+    public void retryCompletedJob(TextractJob job) {
+        KeyValueStore kv = getKeyValueStore();
+        kv.put(jobKey(job.jobId), job.toJSON().toString(), JOB_TTL_SECONDS);
+        kv.put(jobKey(job.jobId) + ":handled", (String) null);
+        updateInProgress(ids -> ids.add(job.jobId));
+    }
+
+    /**
+     * Tries to become the poller of the cluster. Returns the lock token, to pass to {@link #releasePollerLock(String)},
+     * or null if another node holds the lock. The lock expires after ttlSeconds in case the node dies.
+     */
+    public String acquirePollerLock(long ttlSeconds) {
+        String token = UUID.randomUUID().toString();
+        return getKeyValueStore().compareAndSet(POLLER_LOCK_KEY, null, token, ttlSeconds) ? token : null;
+    }
+
+    public void releasePollerLock(String token) {
+        getKeyValueStore().compareAndSet(POLLER_LOCK_KEY, token, null);
+    }
+
+    /** Optimistic update of the list of jobs in progress, several nodes can start jobs at the same time. */
+    protected void updateInProgress(Consumer<Set<String>> change) {
+        updateIds(getKeyValueStore(), IN_PROGRESS_KEY, change);
+    }
+
+    /**
+     * Optimistic update of a comma separated list of ids stored at key, that several nodes can update at the same time.
+     * Also used for the deferred auto-OCR works (see {@link TextractOcrWork}).
+     */
+    protected static void updateIds(KeyValueStore kv, String key, Consumer<Set<String>> change) {
+        for (int i = 0; i < MAX_CAS_ATTEMPTS; i++) {
+            String current = kv.getString(key);
+            Set<String> ids = parseIds(current);
+            change.accept(ids);
+            String updated = ids.isEmpty() ? null : String.join(",", ids);
+            if (Objects.equals(current, updated) || kv.compareAndSet(key, current, updated)) {
+                return;
+            }
+        }
+        throw new NuxeoException("Cannot update " + key + ", too many concurrent updates");
+    }
+
+    protected static Set<String> parseIds(String ids) {
+        Set<String> result = new LinkedHashSet<>();
+        if (StringUtils.isNotBlank(ids)) {
+            result.addAll(Arrays.asList(StringUtils.split(ids, ',')));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.aws.textract;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.regex.Pattern;
+
+import com.amazonaws.services.textract.model.Block;
+import com.amazonaws.services.textract.model.BoundingBox;
+
+/**
+ * Cheap, local, guess of the layout of a page, using the LINE blocks returned by DetectDocumentText. Used to decide if
+ * a page is worth an AnalyzeDocument call (TABLES, FORMS), which is much slower and more expensive.
+ * <p>
+ * A page likely holds a form when several lines look like "Label:" or "Label: value". It likely holds a table when
+ * several rows are made of 3 or more distinct LINE blocks side by side (Textract splits a line when there is a large
+ * gap, like between 2 cells).
+ */
+public class TextractLayoutHeuristic {
+
+    protected static final Pattern KEY_COLON = Pattern.compile("^\\p{L}[\\p{L}\\p{N} ./#()'-]{0,40}:(\\s.*)?$");
+
+    protected static final int MIN_KEY_LINES = 3;
+
+    protected static final double MIN_KEY_RATIO = 0.1;
+
+    protected static final int MIN_GRID_ROWS = 3;
+
+    protected static final int MIN_CELLS_PER_ROW = 3;
+
+    protected static final double MIN_GRID_RATIO = 0.15;
+
+    private TextractLayoutHeuristic() {
+
+    }
+
+    /** Returns {@code true} if the page likely contains a table or a form. */
+    public static boolean looksLikeTableOrForm(List<Block> blocks) {
+        List<Block> lines = getLines(blocks);
+        if (lines.isEmpty()) {
+            return false;
+        }
+        return looksLikeForm(lines) || looksLikeTable(lines);
+    }
+
+    protected static List<Block> getLines(List<Block> blocks) {
+        if (blocks == null) {
+            return List.of();
+        }
+        return blocks.stream()
+                     .filter(b -> "LINE".equals(b.getBlockType()))
+                     .filter(b -> b.getText() != null && b.getGeometry() != null
+                             && b.getGeometry().getBoundingBox() != null)
+                     .toList();
+    }
+
+    protected static boolean looksLikeForm(List<Block> lines) {
+        long keyLines = lines.stream()
+                             .map(Block::getText)
+                             .filter(Objects::nonNull)
+                             .filter(text -> KEY_COLON.matcher(text.trim()).matches())
+                             .count();
+        return keyLines >= MIN_KEY_LINES && keyLines >= lines.size() * MIN_KEY_RATIO;
+    }
+
+    protected static boolean looksLikeTable(List<Block> lines) {
+
+        // Group the lines in rows, using their vertical center
+        List<Block> sorted = new ArrayList<>(lines);
+        sorted.sort(Comparator.comparingDouble(TextractLayoutHeuristic::centerY));
+
+        int rows = 0;
+        int gridRows = 0;
+        int cellsInRow = 0;
+        double rowCenter = -1;
+        double rowHeight = 0;
+        for (Block line : sorted) {
+            BoundingBox box = line.getGeometry().getBoundingBox();
+            double center = centerY(line);
+            if (rowCenter < 0 || Math.abs(center - rowCenter) > Math.max(rowHeight, box.getHeight()) / 2) {
+                if (cellsInRow >= MIN_CELLS_PER_ROW) {
+                    gridRows++;
+                }
+                rows++;
+                cellsInRow = 0;
+                rowCenter = center;
+                rowHeight = box.getHeight();
+            }
+            cellsInRow++;
+        }
+        if (cellsInRow >= MIN_CELLS_PER_ROW) {
+            gridRows++;
+        }
+
+        return gridRows >= MIN_GRID_ROWS && gridRows >= rows * MIN_GRID_RATIO;
+    }
+
+    protected static double centerY(Block block) {
+        BoundingBox box = block.getGeometry().getBoundingBox();
+        return box.getTop() + box.getHeight() / 2;
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.aws.textract;
+
+import javax.servlet.http.HttpServletResponse;
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.MediaType;
+
+import org.json.JSONObject;
+import org.nuxeo.ecm.core.api.NuxeoException;
+import org.nuxeo.ecm.core.api.NuxeoPrincipal;
+import org.nuxeo.ecm.webengine.model.WebObject;
+import org.nuxeo.ecm.webengine.model.impl.DefaultObject;
+
+/**
+ * Operational status of the Textract processing on this node (see {@link TextractStatusRegistry}), for the
+ * administrators only:
+ *
+ * <pre>
+ * GET  /nuxeo/site/textract/management/status
+ * POST /nuxeo/site/textract/management/pause
+ * POST /nuxeo/site/textract/management/resume
+ * POST /nuxeo/site/textract/management/drain?timeoutSeconds=60
+ * </pre>
+ *
+ * All of them return the status. drain also tells if the work in progress finished before the timeout
+ * ({@code "drained": true}).
+ *
+ * @since TODO
+ */
+@Produces(MediaType.APPLICATION_JSON)
+@WebObject(type = "textractManagement")
+public class TextractManagementObject extends DefaultObject {
+
+    @Override
+    protected void initialize(Object... args) {
+        super.initialize(args);
+        NuxeoPrincipal principal = getContext().getCoreSession().getPrincipal();
+        if (!principal.isAdministrator()) {
+            throw new NuxeoException("The Textract status is restricted to the administrators",
+                    HttpServletResponse.SC_FORBIDDEN);
+        }
+    }
+
+    @GET
+    @Path("status")
+    public String getStatus() {
+        return TextractStatusRegistry.getInstance().toJSON().toString();
+    }
+
+    @POST
+    @Path("pause")
+    public String pause() {
+        TextractStatusRegistry registry = TextractStatusRegistry.getInstance();
+        registry.pause();
+        return registry.toJSON().toString();
+    }
+
+    @POST
+    @Path("resume")
+    public String resume() {
+        TextractStatusRegistry registry = TextractStatusRegistry.getInstance();
+        registry.resume();
+        return registry.toJSON().toString();
+    }
+
+    @POST
+    @Path("drain")
+    public String drain(@QueryParam("timeoutSeconds") @DefaultValue("60") long timeoutSeconds) {
+        TextractStatusRegistry registry = TextractStatusRegistry.getInstance();
+        boolean drained;
+        try {
+            drained = registry.drain(1000 * timeoutSeconds);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new NuxeoException(e);
+        }
+        JSONObject status = registry.toJSON();
+        status.put("drained", drained);
+        return status.toString();
+    }
+}
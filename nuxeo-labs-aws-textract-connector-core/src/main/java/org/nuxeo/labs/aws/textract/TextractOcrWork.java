@@ -0,0 +1,354 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.aws.textract;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.nuxeo.ecm.automation.AutomationService;
+import org.nuxeo.ecm.automation.OperationContext;
+import org.nuxeo.ecm.automation.OperationException;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.CoreInstance;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.DocumentRef;
+import org.nuxeo.ecm.core.api.IdRef;
+import org.nuxeo.ecm.core.api.NuxeoException;
+import org.nuxeo.ecm.core.work.AbstractWork;
+import org.nuxeo.ecm.core.work.api.WorkManager;
+import org.nuxeo.labs.aws.textract.TextractScheduler.Priority;
+import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.kv.KeyValueService;
+import org.nuxeo.runtime.kv.KeyValueStore;
+import org.nuxeo.runtime.transaction.TransactionHelper;
+
+/**
+ * Runs the OCR of a document for each configured blob xpath.
+ * <p>
+ * The work is scheduled by the {@link TextractScheduler}, in the queue of its priority class. If an event was received
+ * for the document during the debounce window, it does not wait on its thread: it is deferred, stored in the
+ * KeyValueStore, and scheduled again by {@link #scheduleDeferred()} once the window elapsed, so a burst of edits ends
+ * up in a single OCR run. It is deferred the same way when the submissions of the node are paused or drained (see
+ * {@link TextractStatusRegistry}). It then skips every blob whose digest did not change since the last result was
+ * written by the same operation, with the same parameters, to the same result xpath. The digests are stored once the
+ * transaction saving the results is committed.
+ * <p>
+ * The calls to Textract can be long, so the work handles its own transaction (see {@link #isTransactional()}).
+ */
+public class TextractOcrWork extends AbstractWork {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Logger log = LogManager.getLogger(TextractOcrWork.class);
+
+    public static final String KV_STORE_NAME = "textract";
+
+    /** Flag put in the context data of the document we save, so the listener ignores this save */
+    public static final String DISABLE_AUTO_OCR = "textract.disableAutoOcr";
+
+    public static final String TRANSACTION_TIMEOUT_PROP = "textract.autoocr.transactionTimeoutSeconds";
+
+    public static final int DEFAULT_TRANSACTION_TIMEOUT = 1800;
+
+    // Keys expire so nothing stays forever in the store if a work is lost
+    protected static final long PENDING_TTL_SECONDS = 3600;
+
+    protected static final long DIGEST_TTL_SECONDS = 30 * 24 * 3600;
+
+    protected static final long DEFERRED_TTL_SECONDS = 7 * 24 * 3600;
+
+    // Comma separated list of repositoryName:docId
+    protected static final String DEFERRED_KEY = "autoocr:deferred";
+
+    protected final String operationId;
+
+    protected final long debounceMs;
+
+    // blobXPath => resultXPath, ordered as configured
+    protected final LinkedHashMap<String, String> xpaths;
+
+    protected final HashMap<String, String> operationParams;
+
+    protected final Priority priority;
+
+    protected final String tenant;
+
+    public TextractOcrWork(String repositoryName, String docId, String operationId, Map<String, String> xpaths,
+            Map<String, String> operationParams, long debounceMs, Priority priority, String tenant) {
+        super(getWorkId(repositoryName, docId));
+        setDocument(repositoryName, docId);
+        this.operationId = operationId;
+        this.xpaths = new LinkedHashMap<>(xpaths);
+        this.operationParams = new HashMap<>(operationParams);
+        this.debounceMs = debounceMs;
+        this.priority = priority == null ? Priority.INTERACTIVE : priority;
+        this.tenant = tenant;
+    }
+
+    public static String getWorkId(String repositoryName, String docId) {
+        return "textract:" + repositoryName + ":" + docId;
+    }
+
+    protected static KeyValueStore getKeyValueStore() {
+        return Framework.getService(KeyValueService.class).getKeyValueStore(KV_STORE_NAME);
+    }
+
+    protected static String lastEventKey(String repositoryName, String docId) {
+        return "autoocr:event:" + repositoryName + ":" + docId;
+    }
+
+    protected static String pendingKey(String repositoryName, String docId) {
+        return "autoocr:pending:" + repositoryName + ":" + docId;
+    }
+
+    protected static String deferredKey(String id) {
+        return DEFERRED_KEY + ":" + id;
+    }
+
+    /**
+     * The key of the digest of the blob at blobXPath, for the operation of this work writing to resultXPath: running
+     * another operation, or the same one with other parameters or to another field, is not skipped.
+     */
+    protected String digestKey(String blobXPath, String resultXPath) {
+        String run = operationId + "\n" + resultXPath + "\n" + new TreeMap<>(operationParams);
+        return "autoocr:digest:" + repositoryName + ":" + docId + ":" + blobXPath + ":" + DigestUtils.md5Hex(run);
+    }
+
+    /**
+     * Records an event for the document and tells if a work must be scheduled. Returns {@code false} when a work is
+     * already pending for this document: it will see the new event time and wait accordingly.
+     */
+    public static boolean notifyEvent(String repositoryName, String docId) {
+        KeyValueStore kv = getKeyValueStore();
+        kv.put(lastEventKey(repositoryName, docId), String.valueOf(System.currentTimeMillis()), PENDING_TTL_SECONDS);
+        return kv.compareAndSet(pendingKey(repositoryName, docId), null, "1", PENDING_TTL_SECONDS);
+    }
+
+    @Override
+    public String getTitle() {
+        return "Textract OCR: " + docId;
+    }
+
+    @Override
+    public String getCategory() {
+        return priority.getCategory();
+    }
+
+    @Override
+    public boolean isTransactional() {
+        return false;
+    }
+
+    @Override
+    public boolean isIdempotent() {
+        // The digest check makes running twice harmless
+        return true;
+    }
+
+    @Override
+    public void work() {
+
+        KeyValueStore kv = getKeyValueStore();
+        long quietAt = getQuietPeriodEnd(kv);
+        if (quietAt > System.currentTimeMillis()) {
+            // The document is still being edited, run again later without holding a thread meanwhile
+            defer(kv, quietAt);
+            return;
+        }
+        if (!TextractStatusRegistry.getInstance().isAccepting()) {
+            // Paused or drained: scheduled again by a node accepting submissions, this one once resumed
+            defer(kv, System.currentTimeMillis());
+            return;
+        }
+
+        // From now on, a new event must schedule a new work (the blob may change while we are processing)
+        kv.put(pendingKey(repositoryName, docId), (String) null);
+
+        setStatus("Processing");
+        int timeout = Integer.parseInt(
+                Framework.getProperty(TRANSACTION_TIMEOUT_PROP, String.valueOf(DEFAULT_TRANSACTION_TIMEOUT)));
+        boolean txStarted = TransactionHelper.startTransaction(timeout);
+        boolean rolledBack = false;
+        Map<String, String> digests;
+        try (TextractCallContext.Scope scope = TextractCallContext.enter(new TextractCallContext(priority, tenant))) {
+            digests = processDocument(kv);
+        } catch (RuntimeException e) {
+            if (txStarted) {
+                TransactionHelper.setTransactionRollbackOnly();
+            }
+            throw e;
+        } finally {
+            if (txStarted) {
+                rolledBack = TransactionHelper.isTransactionMarkedRollback();
+                // Throws if the commit fails
+                TransactionHelper.commitOrRollbackTransaction();
+            }
+        }
+        // Only once the results are committed, else the next run would skip a blob whose result was lost
+        if (!rolledBack) {
+            digests.forEach((key, digest) -> kv.put(key, digest, DIGEST_TTL_SECONDS));
+        }
+        setStatus("Done");
+    }
+
+    /** Returns the end of the debounce window after the last event received for the document, 0 if none. */
+    protected long getQuietPeriodEnd(KeyValueStore kv) {
+        String lastEvent = kv.getString(lastEventKey(repositoryName, docId));
+        return lastEvent == null ? 0 : Long.parseLong(lastEvent) + debounceMs;
+    }
+
+    /**
+     * Stores the work so {@link #scheduleDeferred()} schedules it again at dueAt. The pending key is kept, so the new
+     * events of the document do not schedule another work meanwhile.
+     */
+    protected void defer(KeyValueStore kv, long dueAt) {
+        String id = repositoryName + ":" + docId;
+        // The work first, then its id: a concurrent sweep never sees an id without its work
+        kv.put(deferredKey(id), toJSON().put("dueAt", dueAt).toString(), DEFERRED_TTL_SECONDS);
+        TextractJobRegistry.updateIds(kv, DEFERRED_KEY, ids -> ids.add(id));
+        setStatus("Deferred");
+    }
+
+    /**
+     * Schedules the deferred works whose time has come. Called every few seconds (see
+     * {@link TextractDeferredOcrListener}), on any node. Does nothing on a node where the submissions are paused or
+     * drained (see {@link TextractStatusRegistry}).
+     *
+     * @return the number of works scheduled
+     */
+    public static int scheduleDeferred() {
+        if (!TextractStatusRegistry.getInstance().isAccepting()) {
+            return 0;
+        }
+        KeyValueStore kv = getKeyValueStore();
+        String ids = kv.getString(DEFERRED_KEY);
+        if (ids == null) {
+            return 0;
+        }
+        long now = System.currentTimeMillis();
+        WorkManager workManager = Framework.getService(WorkManager.class);
+        int count = 0;
+        for (String id : TextractJobRegistry.parseIds(ids)) {
+            String key = deferredKey(id);
+            String value = kv.getString(key);
+            if (value != null && new JSONObject(value).getLong("dueAt") > now) {
+                continue;
+            }
+            // The id first: if the work is deferred again right away, its id is added back after this
+            TextractJobRegistry.updateIds(kv, DEFERRED_KEY, set -> set.remove(id));
+            // Another node may be sweeping too, only one schedules the work
+            if (value != null && kv.compareAndSet(key, value, null)) {
+                workManager.schedule(fromJSON(new JSONObject(value)), WorkManager.Scheduling.IF_NOT_SCHEDULED);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    protected JSONObject toJSON() {
+        JSONArray xpathsJson = new JSONArray();
+        xpaths.forEach((blobXPath, resultXPath) -> xpathsJson.put(
+                new JSONObject().put("blobXPath", blobXPath).put("resultXPath", resultXPath)));
+        return new JSONObject().put("repository", repositoryName)
+                               .put("docId", docId)
+                               .put("operationId", operationId)
+                               .put("xpaths", xpathsJson)
+                               .put("params", new JSONObject(operationParams))
+                               .put("debounceMs", debounceMs)
+                               .put("priority", priority.name())
+                               .put("tenant", tenant == null ? JSONObject.NULL : tenant);
+    }
+
+    protected static TextractOcrWork fromJSON(JSONObject json) {
+        Map<String, String> xpaths = new LinkedHashMap<>();
+        JSONArray xpathsJson = json.getJSONArray("xpaths");
+        for (int i = 0; i < xpathsJson.length(); i++) {
+            JSONObject entry = xpathsJson.getJSONObject(i);
+            xpaths.put(entry.getString("blobXPath"), entry.getString("resultXPath"));
+        }
+        Map<String, String> params = new HashMap<>();
+        JSONObject paramsJson = json.getJSONObject("params");
+        paramsJson.keySet().forEach(key -> params.put(key, paramsJson.getString(key)));
+        return new TextractOcrWork(json.getString("repository"), json.getString("docId"), json.getString("operationId"),
+                xpaths, params, json.getLong("debounceMs"), Priority.valueOf(json.getString("priority")),
+                json.optString("tenant", null));
+    }
+
+    /**
+     * Runs the operation for each blob that changed and saves the document.
+     *
+     * @return the digests to store once the transaction is committed, by key
+     */
+    protected Map<String, String> processDocument(KeyValueStore kv) {
+
+        CoreSession systemSession = CoreInstance.getCoreSessionSystem(repositoryName);
+        DocumentRef ref = new IdRef(docId);
+        if (!systemSession.exists(ref)) {
+            return Map.of();
+        }
+        DocumentModel doc = systemSession.getDocument(ref);
+
+        AutomationService automation = Framework.getService(AutomationService.class);
+        Map<String, String> digestsToStore = new HashMap<>();
+        boolean modified = false;
+        for (Map.Entry<String, String> entry : xpaths.entrySet()) {
+            String blobXPath = entry.getKey();
+            Blob blob = (Blob) doc.getPropertyValue(blobXPath);
+            if (blob == null) {
+                continue;
+            }
+
+            String digest = blob.getDigest();
+            String digestKey = digestKey(blobXPath, entry.getValue());
+            if (digest != null && digest.equals(kv.getString(digestKey))) {
+                log.debug("Blob at {} of doc {} did not change since the last OCR, skipping", blobXPath, docId);
+                continue;
+            }
+
+            Map<String, Object> params = new HashMap<>(operationParams);
+            params.put("blobXPath", blobXPath);
+            params.put("resultXPath", entry.getValue());
+            params.put("saveDocument", false);
+            try (OperationContext ctx = new OperationContext(systemSession)) {
+                ctx.setInput(doc);
+                doc = (DocumentModel) automation.run(ctx, operationId, params);
+            } catch (OperationException e) {
+                throw new NuxeoException("Error running " + operationId + " on doc " + docId, e);
+            }
+            modified = true;
+            if (digest != null) {
+                digestsToStore.put(digestKey, digest);
+            }
+        }
+
+        if (modified) {
+            doc.putContextData(DISABLE_AUTO_OCR, Boolean.TRUE);
+            systemSession.saveDocument(doc);
+        }
+        return digestsToStore;
+    }
+}
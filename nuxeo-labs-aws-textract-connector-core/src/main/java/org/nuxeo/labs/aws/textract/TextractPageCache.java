@@ -0,0 +1,235 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.aws.textract;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.Blobs;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.NuxeoException;
+import org.nuxeo.ecm.core.api.model.impl.primitives.BlobProperty;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * The Textract result of each page of a blob, with the fingerprint of the page (see
+ * {@link PageSplitter#getPageFingerprint(int)}), saved in the document next to the result. When the blob is replaced
+ * (a new version with an inserted page, a page rotated, ...), the pages of the new blob whose fingerprint is in the
+ * cache of the previous blob are not sent to Textract again, wherever they are in the new blob: their stored result
+ * is used.
+ * <p>
+ * The results depend on the API, the features and the routing, so a cache saved with other values is ignored. The
+ * output parameters (granularity, returnRawJson, ...) do not matter, all the outputs are rebuilt from the page results.
+ * <p>
+ * The results of the previous blobs that were not used are kept after the pages of the new blob (without page number),
+ * so a run on some pages only (pageRange, maxPages, ...) does not drop the others, up to {@link #MAX_PAGES} results.
+ * <p>
+ * Saved as JSON:
+ *
+ * <pre>
+ * {"version": 1, "api": "...", "options": "...", "pages": [{"page": 1, "fingerprint": "...", "result": {...}}, ...]}
+ * </pre>
+ *
+ * @since TODO
+ */
+public class TextractPageCache {
+
+    private static final Logger log = LogManager.getLogger(TextractPageCache.class);
+
+    public static final int VERSION = 1;
+
+    public static final String FILENAME = "textract-pages.json";
+
+    public static final int MAX_PAGES = 1000;
+
+    protected static final ObjectMapper MAPPER = new ObjectMapper().configure(
+            DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    protected final String api;
+
+    protected final String options;
+
+    protected final ArrayNode pages = MAPPER.createArrayNode();
+
+    // fingerprint => result, of the previous blobs, most recent first
+    protected final Map<String, JsonNode> previous = new LinkedHashMap<>();
+
+    protected int reusedCount = 0;
+
+    /**
+     * @param features the features of Analyze, null for DetectDocumentText
+     */
+    public TextractPageCache(String api, List<String> features, boolean routing) {
+        this.api = api;
+        this.options = (features == null ? "" : String.join(",", new TreeSet<>(features))) + ";routing=" + routing;
+    }
+
+    /**
+     * Creates the cache and loads the results saved at xpath, if any. Returns null if xpath is blank.
+     */
+    public static TextractPageCache load(DocumentModel doc, String xpath, String api, List<String> features,
+            boolean routing) {
+        if (StringUtils.isBlank(xpath)) {
+            return null;
+        }
+        TextractPageCache cache = new TextractPageCache(api, features, routing);
+        Serializable value = doc.getPropertyValue(xpath);
+        try {
+            JsonNode json = null;
+            if (value instanceof Blob) {
+                json = MAPPER.readTree(((Blob) value).getStream());
+            } else if (value instanceof String && StringUtils.isNotBlank((String) value)) {
+                json = MAPPER.readTree((String) value);
+            }
+            if (json != null) {
+                cache.loadPrevious(json);
+            }
+        } catch (IOException e) {
+            // The pages are sent again, the cache is rewritten
+            log.warn("Ignoring the unreadable Textract page cache of document {}: {}", doc.getId(), e.getMessage());
+        }
+        return cache;
+    }
+
+    protected void loadPrevious(JsonNode json) {
+        if (json.path("version").asInt() != VERSION || !api.equals(json.path("api").asText())
+                || !options.equals(json.path("options").asText())) {
+            log.debug("Ignoring a Textract page cache saved for another API or other options");
+            return;
+        }
+        for (JsonNode page : json.path("pages")) {
+            String fingerprint = page.path("fingerprint").asText(null);
+            if (fingerprint != null && page.has("result")) {
+                previous.putIfAbsent(fingerprint, page.get("result"));
+            }
+        }
+    }
+
+    /**
+     * Returns the fingerprint of the page, or null if it can't be computed: the page is then sent to Textract and not
+     * cached.
+     */
+    public String getFingerprint(PageSplitter splitter, int pageNumber) {
+        try {
+            return splitter.getPageFingerprint(pageNumber);
+        } catch (RuntimeException e) {
+            log.warn("Cannot compute the fingerprint of page {}: {}", pageNumber, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Returns the result of the previous blob for a page with this fingerprint, or null.
+     */
+    public <T> T getPreviousResult(String fingerprint, Class<T> resultClass) {
+        JsonNode result = fingerprint == null ? null : previous.get(fingerprint);
+        if (result == null) {
+            TextractStatusRegistry.getInstance().pageCacheLookup(false);
+            return null;
+        }
+        try {
+            T value = MAPPER.treeToValue(result, resultClass);
+            reusedCount++;
+            TextractStatusRegistry.getInstance().pageCacheLookup(true);
+            return value;
+        } catch (IOException e) {
+            log.warn("Cannot read a cached Textract result, the page is sent again: {}", e.getMessage());
+            TextractStatusRegistry.getInstance().pageCacheLookup(false);
+            return null;
+        }
+    }
+
+    /** Adds the result of a page of the new blob, computed or from {@link #getPreviousResult(String, Class)}. */
+    public void addPage(int pageNumber, String fingerprint, Object result) {
+        if (fingerprint == null) {
+            return;
+        }
+        ObjectNode page = pages.addObject();
+        page.put("page", pageNumber);
+        page.put("fingerprint", fingerprint);
+        ObjectNode json = MAPPER.valueToTree(result);
+        // Metadata of the HTTP response, not of the result (and it can't be read back)
+        json.remove(List.of("sdkResponseMetadata", "sdkHttpMetadata"));
+        page.set("result", json);
+    }
+
+    /** The number of pages whose result was taken from the previous blob. */
+    public int getReusedCount() {
+        return reusedCount;
+    }
+
+    /**
+     * Sets the cache in the document, as a JSON blob or string depending on the property type. Does not save it. The
+     * results of the previous blobs that were not used are kept after the pages added, up to {@link #MAX_PAGES}.
+     */
+    public void write(DocumentModel doc, String xpath) {
+        ArrayNode allPages = MAPPER.createArrayNode().addAll(pages);
+        Set<String> added = new HashSet<>(getFingerprints());
+        for (Map.Entry<String, JsonNode> entry : previous.entrySet()) {
+            if (allPages.size() >= MAX_PAGES) {
+                break;
+            }
+            if (added.add(entry.getKey())) {
+                allPages.addObject().put("fingerprint", entry.getKey()).set("result", entry.getValue());
+            }
+        }
+        ObjectNode json = MAPPER.createObjectNode();
+        json.put("version", VERSION);
+        json.put("api", api);
+        json.put("options", options);
+        json.set("pages", allPages);
+        try {
+            if (doc.getProperty(xpath) instanceof BlobProperty) {
+                Blob blob = Blobs.createBlobWithExtension(".json");
+                MAPPER.writeValue(blob.getFile(), json);
+                blob.setMimeType("application/json");
+                blob.setEncoding("UTF-8");
+                blob.setFilename(FILENAME);
+                doc.setPropertyValue(xpath, (Serializable) blob);
+            } else {
+                doc.setPropertyValue(xpath, MAPPER.writeValueAsString(json));
+            }
+        } catch (IOException e) {
+            throw new NuxeoException("Cannot save the Textract page cache", e);
+        }
+    }
+
+    /** The fingerprints of the pages added, in order. */
+    public List<String> getFingerprints() {
+        List<String> fingerprints = new ArrayList<>();
+        pages.forEach(page -> fingerprints.add(page.path("fingerprint").asText()));
+        return fingerprints;
+    }
+}
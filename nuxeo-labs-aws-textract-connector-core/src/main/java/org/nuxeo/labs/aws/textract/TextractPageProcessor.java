@@ -0,0 +1,167 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.aws.textract;
+
+import java.util.List;
+import java.util.function.Function;
+
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.DocumentModel;
+
+import com.amazonaws.services.textract.model.Block;
+
+import io.opencensus.common.Scope;
+
+/**
+ * The page loop of Textract.Analyze and Textract.DetectDocumentText: sends the selected pages of a blob one by one to
+ * Textract (or takes their result from the {@link TextractPageCache}), and adds the results to the
+ * {@link TextractResultWriter}. The operations only tell how a page is sent and the class of its result.
+ *
+ * @param <R> the class of the result of a page
+ * @since TODO
+ */
+public class TextractPageProcessor<R> {
+
+    protected final String operationId;
+
+    protected final TextractService service;
+
+    protected final Class<R> resultClass;
+
+    // Sends a page to Textract
+    protected final Function<Blob, R> pageCall;
+
+    protected final Function<R, List<Block>> blocksGetter;
+
+    protected List<String> features;
+
+    protected String pageRange;
+
+    protected int maxPages;
+
+    protected int pageTimeoutSeconds;
+
+    public TextractPageProcessor(String operationId, TextractService service, Class<R> resultClass,
+            Function<Blob, R> pageCall, Function<R, List<Block>> blocksGetter) {
+        this.operationId = operationId;
+        this.service = service;
+        this.resultClass = resultClass;
+        this.pageCall = pageCall;
+        this.blocksGetter = blocksGetter;
+    }
+
+    /** Only traced, the page call sends them. */
+    public TextractPageProcessor<R> withFeatures(List<String> features) {
+        this.features = features;
+        return this;
+    }
+
+    /** See {@link TextractUtils#selectPages(String, int, int)}. */
+    public TextractPageProcessor<R> withPages(String pageRange, int maxPages) {
+        this.pageRange = pageRange;
+        this.maxPages = maxPages;
+        return this;
+    }
+
+    public TextractPageProcessor<R> withPageTimeout(int pageTimeoutSeconds) {
+        this.pageTimeoutSeconds = pageTimeoutSeconds;
+        return this;
+    }
+
+    /**
+     * Processes all the pages of a blob input of the operations, and returns the result of the writer as a Blob (see
+     * {@link TextractResultWriter#toBlob(String)}).
+     */
+    public Blob processBlob(Blob blob, TextractResultWriter writer, int timeoutSeconds) {
+        // Fails before the blob is downloaded and loaded by the splitter if Textract would reject it
+        TextractPreflight.getInstance().checkDocument(blob, service.getS3BlobKey(blob) != null);
+        try (Scope scope = TextractTracing.startSpan("textract.operation");
+                PageSplitter splitter = new PageSplitter(blob);
+                TextractCallContext.Scope contextScope = TextractCallContext.enterDeadline(
+                        TextractCallContext.deadlineIn(timeoutSeconds))) {
+            processPages(blob, splitter, writer, null, null);
+            return writer.toBlob(blob.getFilename());
+        }
+    }
+
+    /**
+     * Sends the pages to Textract (or takes their result from the page cache) and adds the results to the writer. doc
+     * and pageCache are null for a Blob input.
+     */
+    public void processPages(Blob blob, PageSplitter splitter, TextractResultWriter writer, DocumentModel doc,
+            TextractPageCache pageCache) {
+        TextractTracing.putAttribute(TextractTracing.ATTR_API, operationId);
+        TextractTracing.putAttribute(TextractTracing.ATTR_FEATURES, features);
+        TextractTracing.putAttribute(TextractTracing.ATTR_BYTES, blob.getLength());
+        int pages = splitter.getNumberOfPages();
+        TextractTracing.putAttribute(TextractTracing.ATTR_PAGES, pages);
+
+        writer.setMultiPage(pages > 1);
+        List<Integer> pageNumbers = pages == 1 ? List.of(1) : TextractUtils.selectPages(pageRange, maxPages, pages);
+        String docId = doc == null ? null : doc.getId();
+        TextractStatusRegistry registry = TextractStatusRegistry.getInstance();
+        try (TextractStatusRegistry.ActiveOperation operation = registry.startOperation(operationId, docId,
+                blob.getFilename(), pageNumbers.size())) {
+            for (int pageNumber : pageNumbers) {
+                String fingerprint = pageCache == null ? null : pageCache.getFingerprint(splitter, pageNumber);
+                R result = pageCache == null ? null : pageCache.getPreviousResult(fingerprint, resultClass);
+                boolean cached = result != null;
+                if (!cached) {
+                    try {
+                        result = processPage(splitter, pageNumber);
+                    } catch (RuntimeException e) {
+                        operation.pageFailed();
+                        if (writer.addFailedPage(pageNumber, e)) {
+                            continue;
+                        }
+                        throw e;
+                    }
+                }
+                if (pageCache != null) {
+                    pageCache.addPage(pageNumber, fingerprint, result);
+                }
+                operation.pageDone(cached);
+                if (writer.addPage(pageNumber, result, blocksGetter.apply(result))) {
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Extracts the page, sends it to Textract and deletes it, in a textract.page span. Fails with a
+     * {@link TextractTimeoutException} when the page or document deadline is reached.
+     */
+    protected R processPage(PageSplitter splitter, int pageNumber) {
+        try (Scope scope = TextractTracing.startSpan("textract.page");
+                TextractCallContext.Scope contextScope = TextractCallContext.enter(
+                        TextractCallContext.current()
+                                           .withPage(pageNumber)
+                                           .withDeadline(TextractCallContext.deadlineIn(pageTimeoutSeconds)))) {
+            TextractTracing.putAttribute(TextractTracing.ATTR_PAGE, pageNumber);
+            TextractCallContext.current().checkDeadline("before page " + pageNumber);
+            Blob page = splitter.getPage(pageNumber);
+            try {
+                return pageCall.apply(page);
+            } finally {
+                splitter.release(page);
+            }
+        }
+    }
+}
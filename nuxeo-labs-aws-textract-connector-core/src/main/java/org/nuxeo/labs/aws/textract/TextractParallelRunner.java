@@ -0,0 +1,147 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.aws.textract;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.nuxeo.ecm.automation.core.util.BlobList;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.NuxeoException;
+import org.nuxeo.runtime.api.Framework;
+
+/**
+ * Runs an operation on each blob of a BlobList (the BlobList inputs of the operations), up to
+ * {@code textract.blobList.parallelism} blobs at a time (4 by default). The results are in the order of the blobs.
+ * <p>
+ * The blobs are processed by the threads of a pool shared by all the calls, with the {@link TextractCallContext} and
+ * the current span of the caller, so the priority, tenant and deadline apply. The pool has at most
+ * {@code textract.blobList.maxThreads} threads (16 by default), so concurrent calls wait for a thread instead of
+ * creating their own. It is created on first use and shut down with the component (see {@link TextractComponent}).
+ * The Textract calls are still throttled by the {@link TextractScheduler}, the parallelism only avoids waiting for a
+ * blob to be split and sent before starting the next one. If a blob fails, the other ones are cancelled and the
+ * exception is thrown.
+ *
+ * @since TODO
+ */
+public class TextractParallelRunner {
+
+    public static final String PARALLELISM_PROP = "textract.blobList.parallelism";
+
+    public static final int DEFAULT_PARALLELISM = 4;
+
+    public static final String MAX_THREADS_PROP = "textract.blobList.maxThreads";
+
+    public static final int DEFAULT_MAX_THREADS = 16;
+
+    protected static final AtomicInteger THREAD_COUNTER = new AtomicInteger();
+
+    protected static ThreadPoolExecutor executor = null;
+
+    private TextractParallelRunner() {
+
+    }
+
+    public static BlobList run(BlobList blobs, Function<Blob, Blob> operation) {
+        int parallelism = Integer.parseInt(
+                Framework.getProperty(PARALLELISM_PROP, String.valueOf(DEFAULT_PARALLELISM)));
+        return run(blobs, operation, parallelism);
+    }
+
+    protected static synchronized ThreadPoolExecutor getExecutor() {
+        if (executor == null) {
+            int maxThreads = Integer.parseInt(
+                    Framework.getProperty(MAX_THREADS_PROP, String.valueOf(DEFAULT_MAX_THREADS)));
+            // Each call has at most parallelism blobs waiting, so the queue stays small
+            executor = new ThreadPoolExecutor(maxThreads, maxThreads, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(), runnable -> {
+                        Thread thread = new Thread(runnable, "textract-blobs-" + THREAD_COUNTER.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+            executor.allowCoreThreadTimeOut(true);
+        }
+        return executor;
+    }
+
+    /** Stops the threads of the pool, a new one is created if needed. */
+    public static synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    public static BlobList run(BlobList blobs, Function<Blob, Blob> operation, int parallelism) {
+
+        BlobList results = new BlobList();
+        int threads = Math.min(parallelism, blobs.size());
+        if (threads <= 1) {
+            blobs.forEach(blob -> results.add(operation.apply(blob)));
+            return results;
+        }
+
+        TextractCallContext context = TextractCallContext.current();
+        Blob[] processed = new Blob[blobs.size()];
+        CompletionService<Void> completion = new ExecutorCompletionService<>(getExecutor());
+        List<Future<Void>> futures = new ArrayList<>();
+        try {
+            int done = 0;
+            while (done < processed.length) {
+                // No more than parallelism blobs of this call submitted at a time
+                while (futures.size() < processed.length && futures.size() - done < threads) {
+                    int index = futures.size();
+                    Blob blob = blobs.get(index);
+                    futures.add(completion.submit(TextractTracing.withCurrentSpan(() -> {
+                        try (TextractCallContext.Scope scope = TextractCallContext.enter(context)) {
+                            processed[index] = operation.apply(blob);
+                        }
+                        return null;
+                    })));
+                }
+                completion.take().get();
+                done++;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new NuxeoException("Interrupted while processing the blobs", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new NuxeoException(e.getCause());
+        } finally {
+            // Only the blobs still waiting or running
+            futures.forEach(future -> future.cancel(true));
+        }
+        for (Blob blob : processed) {
+            results.add(blob);
+        }
+        return results;
+    }
+}
@@ -0,0 +1,547 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.aws.textract;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.encryption.InvalidPasswordException;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.CloseableFile;
+import org.nuxeo.ecm.core.api.NuxeoException;
+import org.nuxeo.ecm.core.api.impl.blob.FileBlob;
+import org.nuxeo.runtime.api.Framework;
+
+import io.opencensus.common.Scope;
+
+/**
+ * Local checks of a blob before it is sent to Textract, so a blob Textract would reject does not cost a download, an
+ * upload and a round trip. Only the metadata and the headers are read:
+ * <ul>
+ * <li>the mime type (when not set, the magic number of the first bytes): PDF, JPEG, PNG or TIFF</li>
+ * <li>the length: at most {@code textract.preflight.maxBytes} (10 MB by default, the limit of the synchronous
+ * API)</li>
+ * <li>for a PDF, the end of the file, to find the /Encrypt entry of the trailer</li>
+ * <li>for an image, the width and height in its header (nothing is decoded): at most
+ * {@code textract.preflight.maxDimension} pixels (10000 by default)</li>
+ * </ul>
+ * The headers of a blob Textract reads from S3 are not read, since it would download the blob: only its mime type and
+ * length are checked.
+ * <p>
+ * When the blob can be fixed locally, it is rerouted by {@link #prepare(Blob, boolean)}: an image too large is
+ * downscaled (decoded with subsampling, so the full size image is never in memory), a PDF encrypted with an owner
+ * password only is saved again without its security. Else, a {@link TextractPreflightException} lists the reasons.
+ * <p>
+ * Set {@code textract.preflight.enabled} to false to disable the checks.
+ *
+ * @since TODO
+ */
+public class TextractPreflight {
+
+    private static final Logger log = LogManager.getLogger(TextractPreflight.class);
+
+    public static final String ENABLED_PROP = "textract.preflight.enabled";
+
+    public static final String MAX_BYTES_PROP = "textract.preflight.maxBytes";
+
+    public static final String MAX_DIMENSION_PROP = "textract.preflight.maxDimension";
+
+    public static final long DEFAULT_MAX_BYTES = 10 * 1024 * 1024;
+
+    public static final int DEFAULT_MAX_DIMENSION = 10000;
+
+    // Limit of the asynchronous API for a PDF or a TIFF
+    public static final long MAX_ASYNC_BYTES = 500L * 1024 * 1024;
+
+    public static final String PDF_MIME_TYPE = "application/pdf";
+
+    public static final String JPEG_MIME_TYPE = "image/jpeg";
+
+    public static final String PNG_MIME_TYPE = "image/png";
+
+    public static final Set<String> SUPPORTED_MIME_TYPES = Set.of(PDF_MIME_TYPE, JPEG_MIME_TYPE, PNG_MIME_TYPE,
+            PageSplitter.TIFF_MIME_TYPE);
+
+    // The trailer (or the cross-reference stream) is at the end of the file
+    protected static final int PDF_TAIL_BYTES = 64 * 1024;
+
+    protected static final int MAX_DOWNSCALE_ATTEMPTS = 3;
+
+    public enum Code {
+        UNSUPPORTED_FORMAT, EMPTY, TOO_LARGE, IMAGE_TOO_LARGE, ENCRYPTED
+    }
+
+    /** In order of precedence: a blob with a reason to reject it is rejected, whatever the other reasons. */
+    public enum Action {
+        PROCEED, DECRYPT, DOWNSCALE, REJECT
+    }
+
+    public static class Reason {
+
+        protected final Code code;
+
+        protected final String message;
+
+        public Reason(Code code, String message) {
+            this.code = code;
+            this.message = message;
+        }
+
+        public Code getCode() {
+            return code;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        @Override
+        public String toString() {
+            return code + ": " + message;
+        }
+    }
+
+    public static class Result {
+
+        protected final String mimeType;
+
+        protected final long length;
+
+        protected final List<Reason> reasons = new ArrayList<>();
+
+        protected Action action = Action.PROCEED;
+
+        protected int width = -1;
+
+        protected int height = -1;
+
+        protected int frames = -1;
+
+        protected Result(String mimeType, long length) {
+            this.mimeType = mimeType;
+            this.length = length;
+        }
+
+        protected void add(Code code, String message, Action reasonAction) {
+            reasons.add(new Reason(code, message));
+            if (reasonAction.compareTo(action) > 0) {
+                action = reasonAction;
+            }
+        }
+
+        public String getMimeType() {
+            return mimeType;
+        }
+
+        public List<Reason> getReasons() {
+            return reasons;
+        }
+
+        public Action getAction() {
+            return action;
+        }
+
+        /** -1 if the header was not read */
+        public int getWidth() {
+            return width;
+        }
+
+        /** -1 if the header was not read */
+        public int getHeight() {
+            return height;
+        }
+
+        /** The number of frames of a TIFF, -1 if they were not counted (another format, or the header was not read) */
+        public int getFrames() {
+            return frames;
+        }
+
+        /** True if the only problem is the size, and the asynchronous API accepts it (PDF and TIFF). */
+        public boolean isAsyncEligible() {
+            return (PDF_MIME_TYPE.equals(mimeType) || PageSplitter.TIFF_MIME_TYPE.equals(mimeType))
+                    && length <= MAX_ASYNC_BYTES && !reasons.isEmpty()
+                    && reasons.stream().allMatch(reason -> reason.getCode() == Code.TOO_LARGE);
+        }
+    }
+
+    protected static TextractPreflight instance = null;
+
+    protected final boolean enabled;
+
+    protected final long maxBytes;
+
+    protected final int maxDimension;
+
+    public static TextractPreflight getInstance() {
+        if (instance == null) {
+            synchronized (TextractPreflight.class) {
+                if (instance == null) {
+                    instance = new TextractPreflight(
+                            Boolean.parseBoolean(Framework.getProperty(ENABLED_PROP, "true")),
+                            Long.parseLong(Framework.getProperty(MAX_BYTES_PROP, String.valueOf(DEFAULT_MAX_BYTES))),
+                            Integer.parseInt(Framework.getProperty(MAX_DIMENSION_PROP,
+                                    String.valueOf(DEFAULT_MAX_DIMENSION))));
+                }
+            }
+        }
+        return instance;
+    }
+
+    protected TextractPreflight(boolean enabled, long maxBytes, int maxDimension) {
+        this.enabled = enabled;
+        this.maxBytes = maxBytes;
+        this.maxDimension = maxDimension;
+    }
+
+    /**
+     * Checks the blob, reading its headers only, unless onS3 is true (Textract reads the blob from S3): then only its
+     * mime type and length are checked. Nothing is changed, see {@link #prepare(Blob, boolean)}.
+     */
+    public Result check(Blob blob, boolean onS3) {
+
+        String mimeType = getMimeType(blob, onS3);
+        long length = blob.getLength();
+        Result result = new Result(mimeType, length);
+        if (!SUPPORTED_MIME_TYPES.contains(mimeType)) {
+            result.add(Code.UNSUPPORTED_FORMAT,
+                    "Textract accepts PDF, JPEG, PNG and TIFF, not " + StringUtils.defaultIfBlank(mimeType, "unknown"),
+                    Action.REJECT);
+            return result;
+        }
+        if (length == 0) {
+            result.add(Code.EMPTY, "The file is empty", Action.REJECT);
+            return result;
+        }
+
+        boolean isPdf = PDF_MIME_TYPE.equals(mimeType);
+        boolean encrypted = false;
+        if (!onS3) {
+            try {
+                if (isPdf) {
+                    encrypted = isEncryptedPdf(blob, length);
+                } else {
+                    readImageSize(blob, result);
+                }
+            } catch (IOException e) {
+                // Textract will tell
+                log.debug("Cannot read the header of {}: {}", blob.getFilename(), e.getMessage());
+            }
+        }
+
+        // Only a single image can be downscaled: the other frames of a TIFF would be lost, so a TIFF with several
+        // frames, or whose frames were not counted, is rejected (and goes to the asynchronous API when allowed)
+        boolean singleImage = !isPdf && (!PageSplitter.TIFF_MIME_TYPE.equals(mimeType) || result.frames == 1);
+        Action downscale = singleImage ? Action.DOWNSCALE : Action.REJECT;
+        if (length > maxBytes) {
+            result.add(Code.TOO_LARGE, length + " bytes, the limit is " + maxBytes, downscale);
+        }
+        if (Math.max(result.width, result.height) > maxDimension) {
+            result.add(Code.IMAGE_TOO_LARGE,
+                    result.width + "x" + result.height + " pixels, the limit is " + maxDimension, downscale);
+        }
+        if (encrypted) {
+            result.add(Code.ENCRYPTED, "The PDF is encrypted", Action.DECRYPT);
+        }
+
+        return result;
+    }
+
+    /**
+     * Checks a whole document before it is split in pages, so a document Textract rejects whatever its pages is not
+     * downloaded and loaded for nothing. Its size and its encryption are left to the checks of each page (see
+     * {@link #prepare(Blob, boolean)}): the pages of a large PDF or TIFF may be small enough.
+     *
+     * @return the result, {@link Result#isAsyncEligible()} if the document is too large for the synchronous API; null
+     *         if the checks are disabled
+     * @throws TextractPreflightException if the format is not supported or the file is empty
+     * @since TODO
+     */
+    public Result checkDocument(Blob blob, boolean onS3) {
+
+        if (!enabled) {
+            return null;
+        }
+
+        Result result;
+        try (Scope scope = TextractTracing.startSpan("textract.preflight")) {
+            result = check(blob, onS3);
+            if (result.getAction() != Action.PROCEED) {
+                TextractTracing.addAnnotation(result.getAction() + " " + result.getReasons());
+            }
+        }
+        if (result.getReasons()
+                  .stream()
+                  .anyMatch(reason -> reason.getCode() == Code.UNSUPPORTED_FORMAT || reason.getCode() == Code.EMPTY)) {
+            throw new TextractPreflightException(blob.getFilename(), result.getReasons(), false);
+        }
+        return result;
+    }
+
+    /**
+     * Checks the blob (see {@link #check(Blob, boolean)}) and returns the blob to send to Textract: the blob itself, or
+     * a downscaled image or a decrypted PDF in a temp. file, to be deleted with {@link #release(Blob, Blob)}.
+     *
+     * @throws TextractPreflightException if Textract would reject the blob
+     */
+    public Blob prepare(Blob blob, boolean onS3) {
+
+        if (!enabled) {
+            return blob;
+        }
+
+        Result result;
+        try (Scope scope = TextractTracing.startSpan("textract.preflight")) {
+            result = check(blob, onS3);
+            if (result.getAction() != Action.PROCEED) {
+                TextractTracing.addAnnotation(result.getAction() + " " + result.getReasons());
+            }
+        }
+
+        switch (result.getAction()) {
+        case REJECT:
+            throw new TextractPreflightException(blob.getFilename(), result.getReasons(), result.isAsyncEligible());
+        case DECRYPT:
+            return decrypt(blob);
+        case DOWNSCALE:
+            return downscale(blob, result);
+        default:
+            return blob;
+        }
+    }
+
+    /** Deletes the temp. file of a blob returned by {@link #prepare(Blob, boolean)}, if it is not the original. */
+    public static void release(Blob original, Blob prepared) {
+        if (prepared != original) {
+            PageSplitter.deleteSilently(prepared);
+        }
+    }
+
+    /**
+     * Returns the mime type of the blob. When it is not set (or is application/octet-stream), reads the magic number,
+     * then uses the file extension.
+     */
+    protected static String getMimeType(Blob blob, boolean onS3) {
+
+        String mimeType = blob.getMimeType();
+        if (StringUtils.isNotBlank(mimeType) && !"application/octet-stream".equals(mimeType)) {
+            return "image/jpg".equals(mimeType) ? JPEG_MIME_TYPE : mimeType;
+        }
+
+        if (!onS3) {
+            try (InputStream in = blob.getStream()) {
+                String sniffed = sniffMimeType(in.readNBytes(4));
+                if (sniffed != null) {
+                    return sniffed;
+                }
+            } catch (IOException e) {
+                // Try the extension
+            }
+        }
+
+        String extension = StringUtils.lowerCase(FilenameUtils.getExtension(blob.getFilename()));
+        switch (StringUtils.defaultString(extension)) {
+        case "pdf":
+            return PDF_MIME_TYPE;
+        case "jpg":
+        case "jpeg":
+            return JPEG_MIME_TYPE;
+        case "png":
+            return PNG_MIME_TYPE;
+        case "tif":
+        case "tiff":
+            return PageSplitter.TIFF_MIME_TYPE;
+        default:
+            return mimeType;
+        }
+    }
+
+    protected static String sniffMimeType(byte[] header) {
+        if (header.length < 4) {
+            return null;
+        }
+        String ascii = new String(header, StandardCharsets.ISO_8859_1);
+        if (ascii.startsWith("%PDF")) {
+            return PDF_MIME_TYPE;
+        }
+        if (ascii.startsWith("\u00FF\u00D8\u00FF")) {
+            return JPEG_MIME_TYPE;
+        }
+        if (ascii.startsWith("\u0089PNG")) {
+            return PNG_MIME_TYPE;
+        }
+        if (ascii.equals("II*\0") || ascii.equals("MM\0*")) {
+            return PageSplitter.TIFF_MIME_TYPE;
+        }
+        return null;
+    }
+
+    /**
+     * Looks for the /Encrypt entry of the trailer (or of the cross-reference stream) in the last bytes of the PDF. With
+     * incremental updates, each trailer repeats it.
+     */
+    protected static boolean isEncryptedPdf(Blob blob, long length) throws IOException {
+        if (length < 0) {
+            return false;
+        }
+        try (InputStream in = blob.getStream()) {
+            if (length > PDF_TAIL_BYTES) {
+                in.skipNBytes(length - PDF_TAIL_BYTES);
+            }
+            String tail = new String(in.readNBytes(PDF_TAIL_BYTES), StandardCharsets.ISO_8859_1);
+            return tail.contains("/Encrypt");
+        }
+    }
+
+    /**
+     * Reads the size of the first image from its header, without decoding it, and for a TIFF counts its frames (the
+     * directory of the frames is read, not the frames).
+     */
+    protected static void readImageSize(Blob blob, Result result) throws IOException {
+        try (InputStream in = blob.getStream(); ImageInputStream iis = ImageIO.createImageInputStream(in)) {
+            ImageReader reader = getReader(iis);
+            if (reader == null) {
+                throw new IOException("No ImageIO reader");
+            }
+            try {
+                boolean isTiff = PageSplitter.TIFF_MIME_TYPE.equals(result.getMimeType());
+                // Counting the frames seeks back to the first one
+                reader.setInput(iis, !isTiff, true);
+                result.width = reader.getWidth(0);
+                result.height = reader.getHeight(0);
+                if (isTiff) {
+                    result.frames = reader.getNumImages(true);
+                }
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    protected static ImageReader getReader(ImageInputStream iis) {
+        Iterator<ImageReader> readers = iis == null ? null : ImageIO.getImageReaders(iis);
+        return readers == null || !readers.hasNext() ? null : readers.next();
+    }
+
+    /**
+     * Returns the subsampling that makes the image fit maxDimension, and roughly maxBytes (the size of the encoded
+     * image is about proportional to its number of pixels).
+     */
+    protected static int getSubsampling(int width, int height, long length, int maxDimension, long maxBytes) {
+        int subsampling = (int) Math.ceil((double) Math.max(width, height) / maxDimension);
+        if (length > maxBytes) {
+            subsampling = Math.max(subsampling, (int) Math.ceil(Math.sqrt((double) length / maxBytes)));
+        }
+        return Math.max(1, subsampling);
+    }
+
+    /**
+     * Decodes the image with subsampling and saves it as JPEG (for a JPEG) or PNG. If it is still too large, tries
+     * again with a higher subsampling.
+     */
+    protected Blob downscale(Blob blob, Result result) {
+
+        boolean isJpeg = JPEG_MIME_TYPE.equals(result.getMimeType());
+        String format = isJpeg ? "jpg" : "png";
+        try (CloseableFile source = blob.getCloseableFile();
+                ImageInputStream iis = ImageIO.createImageInputStream(source.getFile())) {
+            ImageReader reader = getReader(iis);
+            if (reader == null) {
+                throw new IOException("No ImageIO reader for " + blob.getFilename());
+            }
+            try {
+                // Not forward only, the image may be read again
+                reader.setInput(iis, false, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                int subsampling = getSubsampling(width, height, blob.getLength(), maxDimension, maxBytes);
+                for (int attempt = 1; attempt <= MAX_DOWNSCALE_ATTEMPTS; attempt++, subsampling++) {
+                    ImageReadParam param = reader.getDefaultReadParam();
+                    param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                    BufferedImage image = reader.read(0, param);
+                    File file = Framework.createTempFile("textract-preflight-", "." + format);
+                    // No writer for this color model (alpha channel for JPEG, CMYK, ...): convert it
+                    if (!ImageIO.write(image, format, file)
+                            && !ImageIO.write(PageSplitter.toRGB(image), format, file)) {
+                        file.delete();
+                        throw new IOException("Cannot encode " + blob.getFilename() + " as " + format);
+                    }
+                    if (file.length() <= maxBytes) {
+                        log.debug("{} ({}x{}) downscaled by {} for Textract", blob.getFilename(), width, height,
+                                subsampling);
+                        return toTempBlob(file, isJpeg ? JPEG_MIME_TYPE : PNG_MIME_TYPE, blob.getFilename(),
+                                format);
+                    }
+                    file.delete();
+                }
+            } finally {
+                reader.dispose();
+            }
+        } catch (IOException e) {
+            throw new NuxeoException("Cannot downscale " + blob.getFilename(), e);
+        }
+
+        List<Reason> reasons = new ArrayList<>(result.getReasons());
+        reasons.add(new Reason(Code.TOO_LARGE, "Still larger than " + maxBytes + " bytes once downscaled"));
+        throw new TextractPreflightException(blob.getFilename(), reasons, false);
+    }
+
+    /** Saves the PDF without its security, if it can be opened with the empty user password. */
+    protected Blob decrypt(Blob blob) {
+        try (CloseableFile source = blob.getCloseableFile(); PDDocument pdfDoc = PDDocument.load(source.getFile())) {
+            if (!pdfDoc.isEncrypted()) {
+                return blob;
+            }
+            pdfDoc.setAllSecurityToBeRemoved(true);
+            File file = Framework.createTempFile("textract-preflight-", ".pdf");
+            pdfDoc.save(file);
+            log.debug("Security removed from {} for Textract", blob.getFilename());
+            return toTempBlob(file, PDF_MIME_TYPE, blob.getFilename(), "pdf");
+        } catch (InvalidPasswordException e) {
+            throw new TextractPreflightException(blob.getFilename(),
+                    List.of(new Reason(Code.ENCRYPTED, "The PDF is password protected")), false);
+        } catch (IOException e) {
+            throw new NuxeoException("Cannot remove the security of " + blob.getFilename(), e);
+        }
+    }
+
+    protected static Blob toTempBlob(File file, String mimeType, String filename, String extension) {
+        Blob prepared = new FileBlob(file, mimeType);
+        String baseName = FilenameUtils.getBaseName(StringUtils.defaultIfBlank(filename, "page"));
+        prepared.setFilename(baseName + "." + extension);
+        Framework.trackFile(file, prepared);
+        return prepared;
+    }
+}
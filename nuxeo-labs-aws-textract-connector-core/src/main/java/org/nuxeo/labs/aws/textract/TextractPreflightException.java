@@ -0,0 +1,58 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.aws.textract;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.nuxeo.ecm.core.api.NuxeoException;
+
+/**
+ * Thrown when the {@link TextractPreflight} rejects a blob, before it is downloaded or sent to Textract. The reasons
+ * tell why, see {@link TextractPreflight.Reason}.
+ *
+ * @since TODO
+ */
+public class TextractPreflightException extends NuxeoException {
+
+    private static final long serialVersionUID = 1L;
+
+    protected final List<TextractPreflight.Reason> reasons;
+
+    protected final boolean asyncEligible;
+
+    public TextractPreflightException(String filename, List<TextractPreflight.Reason> reasons,
+            boolean asyncEligible) {
+        super("Rejected by the Textract preflight (" + filename + "): "
+                + reasons.stream().map(TextractPreflight.Reason::toString).collect(Collectors.joining("; ")));
+        this.reasons = List.copyOf(reasons);
+        this.asyncEligible = asyncEligible;
+    }
+
+    public List<TextractPreflight.Reason> getReasons() {
+        return reasons;
+    }
+
+    /**
+     * True if the asynchronous API accepts the blob: a PDF or a TIFF too large for the synchronous API only.
+     */
+    public boolean isAsyncEligible() {
+        return asyncEligible;
+    }
+}
@@ -0,0 +1,279 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.aws.textract;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.nuxeo.ecm.core.api.NuxeoException;
+import org.nuxeo.runtime.api.Framework;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.SdkClientException;
+import com.amazonaws.client.builder.AwsClientBuilder.EndpointConfiguration;
+import com.amazonaws.retry.RetryUtils;
+import com.amazonaws.services.textract.AmazonTextract;
+import com.amazonaws.services.textract.AmazonTextractClientBuilder;
+
+/**
+ * Pool of Textract clients, one per allowed region, and routing of the calls between them.
+ * <p>
+ * The allowed regions are listed in {@code textract.regions} (comma separated). When not set, only the region of the
+ * service is used (the S3 region), as before. The endpoint of a region is
+ * {@code https://textract.<region>.amazonaws.com}, unless {@code textract.region.<region>.endpoint} is set (to use a
+ * VPC endpoint or a local stand-in, for example).
+ * <p>
+ * For each region, the router keeps an exponentially weighted moving average of the latency and of the error rate
+ * (weight of the last call: {@code textract.router.ewmaAlpha}, 0.2 by default). The error rate decays when the region
+ * is not used, with a half-life of {@code textract.router.errorHalfLifeSeconds} (60 by default), so a region that
+ * failed gets a chance again later.
+ * <ul>
+ * <li>A request referencing an S3 object must go to the region of the bucket: there is no failover.</li>
+ * <li>A request with inline bytes goes to the healthiest region (lowest latency / (1 - error rate)). If the call is
+ * throttled, fails with a 5xx or a network error, the next region is tried.</li>
+ * </ul>
+ * Other errors (invalid document, access denied, ...) are thrown immediately and do not change the error rate.
+ *
+ * @since TODO
+ */
+public class TextractRegionRouter {
+
+    private static final Logger log = LogManager.getLogger(TextractRegionRouter.class);
+
+    public static final String REGIONS_PROP = "textract.regions";
+
+    public static final String ENDPOINT_PROP_PATTERN = "textract.region.%s.endpoint";
+
+    public static final String EWMA_ALPHA_PROP = "textract.router.ewmaAlpha";
+
+    public static final String ERROR_HALF_LIFE_PROP = "textract.router.errorHalfLifeSeconds";
+
+    public static final double DEFAULT_EWMA_ALPHA = 0.2;
+
+    public static final long DEFAULT_ERROR_HALF_LIFE_SECONDS = 60;
+
+    // An error rate of 1 does not make the score infinite, so the region can still be the last resort
+    protected static final double MIN_SUCCESS_RATE = 0.02;
+
+    protected final Map<String, RegionClient> regions = new LinkedHashMap<>();
+
+    protected final double alpha;
+
+    protected final long errorHalfLifeMs;
+
+    /**
+     * Creates the clients of the allowed regions, reading the configuration. defaultRegion is used when
+     * {@code textract.regions} is not set.
+     */
+    public static TextractRegionRouter create(String defaultRegion) {
+
+        String allowed = Framework.getProperty(REGIONS_PROP);
+        if (StringUtils.isBlank(allowed)) {
+            allowed = defaultRegion;
+        }
+        Map<String, AmazonTextract> clients = new LinkedHashMap<>();
+        for (String region : StringUtils.split(StringUtils.defaultString(allowed), ", ")) {
+            String endpoint = Framework.getProperty(String.format(ENDPOINT_PROP_PATTERN, region),
+                    "https://textract." + region + ".amazonaws.com");
+            clients.put(region, AmazonTextractClientBuilder.standard()
+                                                          .withEndpointConfiguration(
+                                                                  new EndpointConfiguration(endpoint, region))
+                                                          .build());
+        }
+        if (clients.isEmpty()) {
+            throw new NuxeoException("No Textract region configured (" + REGIONS_PROP + ")");
+        }
+
+        return new TextractRegionRouter(clients,
+                Double.parseDouble(Framework.getProperty(EWMA_ALPHA_PROP, String.valueOf(DEFAULT_EWMA_ALPHA))),
+                1000 * Long.parseLong(Framework.getProperty(ERROR_HALF_LIFE_PROP,
+                        String.valueOf(DEFAULT_ERROR_HALF_LIFE_SECONDS))));
+    }
+
+    protected TextractRegionRouter(Map<String, AmazonTextract> clients, double alpha, long errorHalfLifeMs) {
+        clients.forEach((region, client) -> regions.put(region, new RegionClient(region, client)));
+        this.alpha = alpha;
+        this.errorHalfLifeMs = errorHalfLifeMs;
+    }
+
+    public boolean isAllowed(String region) {
+        return regions.containsKey(region);
+    }
+
+    public List<RegionClient> getRegions() {
+        return new ArrayList<>(regions.values());
+    }
+
+    /**
+     * Runs the call in the region of the S3 bucket. No failover, Textract reads the object from its region.
+     */
+    public <T> T executeInRegion(String region, Function<AmazonTextract, T> call) {
+        RegionClient regionClient = regions.get(region);
+        if (regionClient == null) {
+            throw new NuxeoException("Textract region " + region + " is not allowed (" + REGIONS_PROP + ")");
+        }
+        return regionClient.execute(call);
+    }
+
+    /**
+     * Runs the call in the healthiest region, and fails over to the next ones when the error is transient.
+     */
+    public <T> T execute(Function<AmazonTextract, T> call) {
+
+        long now = currentTimeMillis();
+        List<RegionClient> candidates = getRegions();
+        double averageLatencyMs = candidates.stream()
+                                            .filter(RegionClient::hasLatency)
+                                            .mapToDouble(RegionClient::getLatencyMs)
+                                            .average()
+                                            .orElse(1);
+        candidates.sort(Comparator.comparingDouble(regionClient -> regionClient.getScore(now, averageLatencyMs)));
+
+        RuntimeException lastError = null;
+        for (RegionClient regionClient : candidates) {
+            try {
+                return regionClient.execute(call);
+            } catch (SdkClientException e) {
+                if (!isTransient(e)) {
+                    throw e;
+                }
+                log.warn("Textract call failed in {}, trying the next region: {}", regionClient.getRegion(),
+                        e.getMessage());
+                TextractTracing.addAnnotation("Failed in " + regionClient.getRegion() + ": " + e.getMessage());
+                lastError = e;
+            }
+        }
+        throw lastError;
+    }
+
+    /** The clock of the latencies and of the error decay, overridden by the tests. */
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    /** Throttling, 5xx and network errors. */
+    protected static boolean isTransient(SdkClientException e) {
+        if (e instanceof AmazonServiceException) {
+            AmazonServiceException ase = (AmazonServiceException) e;
+            return RetryUtils.isThrottlingException(ase) || ase.getStatusCode() >= 500;
+        }
+        return true;
+    }
+
+    /** A client and the statistics of its region. */
+    public class RegionClient {
+
+        protected final String region;
+
+        protected final AmazonTextract client;
+
+        protected double latencyMs = 0;
+
+        protected double errorRate = 0;
+
+        protected long lastCallTime = 0;
+
+        protected long calls = 0;
+
+        protected long errors = 0;
+
+        protected RegionClient(String region, AmazonTextract client) {
+            this.region = region;
+            this.client = client;
+        }
+
+        public String getRegion() {
+            return region;
+        }
+
+        public AmazonTextract getClient() {
+            return client;
+        }
+
+        public synchronized double getLatencyMs() {
+            return latencyMs;
+        }
+
+        public synchronized double getErrorRate(long now) {
+            if (errorHalfLifeMs <= 0 || lastCallTime == 0) {
+                return errorRate;
+            }
+            return errorRate * Math.pow(0.5, (double) (now - lastCallTime) / errorHalfLifeMs);
+        }
+
+        public synchronized long getCalls() {
+            return calls;
+        }
+
+        public synchronized long getErrors() {
+            return errors;
+        }
+
+        public synchronized boolean hasLatency() {
+            return calls > errors;
+        }
+
+        /**
+         * Expected time to get a successful call. A region never called has a score of 0, so it is tried. A region
+         * with failed calls only is assumed to be as fast as the average.
+         */
+        protected synchronized double getScore(long now, double averageLatencyMs) {
+            double currentErrorRate = getErrorRate(now);
+            double latency = hasLatency() ? latencyMs : currentErrorRate > 0 ? averageLatencyMs : 0;
+            return latency / Math.max(MIN_SUCCESS_RATE, 1 - currentErrorRate);
+        }
+
+        protected <T> T execute(Function<AmazonTextract, T> call) {
+            TextractTracing.putAttribute(TextractTracing.ATTR_REGION, region);
+            long start = currentTimeMillis();
+            try {
+                T result = call.apply(client);
+                record(start, false);
+                return result;
+            } catch (SdkClientException e) {
+                if (isTransient(e)) {
+                    record(start, true);
+                }
+                throw e;
+            }
+        }
+
+        protected synchronized void record(long start, boolean failed) {
+            long now = currentTimeMillis();
+            double elapsed = now - start;
+            double currentErrorRate = getErrorRate(now);
+            calls++;
+            if (failed) {
+                errors++;
+                errorRate = alpha + (1 - alpha) * currentErrorRate;
+            } else {
+                errorRate = (1 - alpha) * currentErrorRate;
+                latencyMs = calls - errors == 1 ? elapsed : alpha * elapsed + (1 - alpha) * latencyMs;
+            }
+            lastCallTime = now;
+        }
+    }
+}
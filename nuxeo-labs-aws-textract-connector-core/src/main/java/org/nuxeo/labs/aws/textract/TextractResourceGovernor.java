@@ -0,0 +1,175 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.aws.textract;
+
+import java.util.concurrent.TimeUnit;
+
+import org.nuxeo.ecm.core.api.NuxeoException;
+import org.nuxeo.runtime.api.Framework;
+
+/**
+ * Node-level budget of the resources held by the Textract jobs running concurrently:
+ * <ul>
+ * <li>Temp. bytes: the pages extracted by {@link PageSplitter} and not yet deleted
+ * ({@code textract.governor.maxTempBytes}, 1GB by default)</li>
+ * <li>Payload bytes: the pages read in memory by {@link TextractService} to be sent to Textract
+ * ({@code textract.governor.maxPayloadBytes}, 256MB by default)</li>
+ * </ul>
+ * When a budget is exceeded, the caller waits until other jobs release enough bytes, at most
+ * {@code textract.governor.waitTimeoutSeconds} (300 by default), then fails. A single reservation larger than the
+ * budget is accepted when nothing else is reserved, so it never waits forever.
+ *
+ * @since TODO
+ */
+public class TextractResourceGovernor {
+
+    public static final String MAX_TEMP_BYTES_PROP = "textract.governor.maxTempBytes";
+
+    public static final String MAX_PAYLOAD_BYTES_PROP = "textract.governor.maxPayloadBytes";
+
+    public static final String WAIT_TIMEOUT_PROP = "textract.governor.waitTimeoutSeconds";
+
+    public static final long DEFAULT_MAX_TEMP_BYTES = 1024L * 1024 * 1024;
+
+    public static final long DEFAULT_MAX_PAYLOAD_BYTES = 256L * 1024 * 1024;
+
+    public static final long DEFAULT_WAIT_TIMEOUT_SECONDS = 300;
+
+    protected static TextractResourceGovernor instance = null;
+
+    protected final Budget tempBudget;
+
+    protected final Budget payloadBudget;
+
+    protected final long waitTimeoutMs;
+
+    public static TextractResourceGovernor getInstance() {
+        if (instance == null) {
+            synchronized (TextractResourceGovernor.class) {
+                if (instance == null) {
+                    instance = new TextractResourceGovernor(
+                            Long.parseLong(Framework.getProperty(MAX_TEMP_BYTES_PROP,
+                                    String.valueOf(DEFAULT_MAX_TEMP_BYTES))),
+                            Long.parseLong(Framework.getProperty(MAX_PAYLOAD_BYTES_PROP,
+                                    String.valueOf(DEFAULT_MAX_PAYLOAD_BYTES))),
+                            TimeUnit.SECONDS.toMillis(Long.parseLong(Framework.getProperty(WAIT_TIMEOUT_PROP,
+                                    String.valueOf(DEFAULT_WAIT_TIMEOUT_SECONDS)))));
+                }
+            }
+        }
+        return instance;
+    }
+
+    protected TextractResourceGovernor(long maxTempBytes, long maxPayloadBytes, long waitTimeoutMs) {
+        tempBudget = new Budget("temp", maxTempBytes);
+        payloadBudget = new Budget("payload", maxPayloadBytes);
+        this.waitTimeoutMs = waitTimeoutMs;
+    }
+
+    /** Waits until the bytes can be written in temp. files. */
+    public void reserveTemp(long bytes) {
+        tempBudget.reserve(bytes, waitTimeoutMs);
+    }
+
+    /** Same as {@link #reserveTemp(long)}, never waits. Used when the real size is known after the reservation. */
+    public void forceReserveTemp(long bytes) {
+        tempBudget.forceReserve(bytes);
+    }
+
+    public void releaseTemp(long bytes) {
+        tempBudget.release(bytes);
+    }
+
+    /** Waits until the bytes can be loaded in memory. */
+    public void reservePayload(long bytes) {
+        payloadBudget.reserve(bytes, waitTimeoutMs);
+    }
+
+    public void releasePayload(long bytes) {
+        payloadBudget.release(bytes);
+    }
+
+    public long getTempBytes() {
+        return tempBudget.getUsed();
+    }
+
+    public long getPayloadBytes() {
+        return payloadBudget.getUsed();
+    }
+
+    public long getMaxTempBytes() {
+        return tempBudget.max;
+    }
+
+    public long getMaxPayloadBytes() {
+        return payloadBudget.max;
+    }
+
+    protected static class Budget {
+
+        protected final String name;
+
+        protected final long max;
+
+        protected long used;
+
+        protected Budget(String name, long max) {
+            this.name = name;
+            this.max = max;
+        }
+
+        protected synchronized void reserve(long bytes, long waitTimeoutMs) {
+            if (max <= 0) {
+                used += bytes;
+                return;
+            }
+            long deadline = System.currentTimeMillis() + waitTimeoutMs;
+            try {
+                while (used > 0 && used + bytes > max) {
+                    long waitMs = deadline - System.currentTimeMillis();
+                    if (waitMs <= 0) {
+                        throw new NuxeoException("Textract " + name + " budget exhausted: " + used + " bytes used, "
+                                + bytes + " requested, max is " + max);
+                    }
+                    // The deadline of the caller, if any, also bounds the wait
+                    TextractCallContext ctx = TextractCallContext.current();
+                    ctx.checkDeadline("while waiting for the " + name + " budget");
+                    wait(Math.max(1, Math.min(waitMs, ctx.getRemainingMs())));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new NuxeoException(e);
+            }
+            used += bytes;
+        }
+
+        protected synchronized void forceReserve(long bytes) {
+            used += bytes;
+        }
+
+        protected synchronized void release(long bytes) {
+            used = Math.max(0, used - bytes);
+            notifyAll();
+        }
+
+        protected synchronized long getUsed() {
+            return used;
+        }
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.aws.textract;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Writes a stored Textract result as NDJSON, one block or one page per line, reading it with a streaming parser: only
+ * one block (or the blocks of one page) is in memory at a time, whatever the size of the result.
+ * <p>
+ * The result is the JSON saved by the operations:
+ * <ul>
+ * <li>the raw JSON of a single page ({@code {"blocks": [...], ...}}), the page of a block is its {@code page}</li>
+ * <li>the raw JSON of several pages, an array with one result per page: the page of a block is the {@code page} of its
+ * result (Textract tells page 1 for all of them), or its index in the array if it has none. The pages can be skipped
+ * (pageRange, maxPages, failed pages...), so each result is read as a whole to find its page.</li>
+ * <li>the simplified JSON ({@code {"words": [...], "lines": [...]}}), the block type is WORD or LINE</li>
+ * </ul>
+ * Each block is written with its {@code page} and {@code blockType}. With {@link Unit#PAGE}, a line is
+ * {@code {"page": n, "blocks": [...]}}, for consecutive blocks of the same page (for the simplified JSON, the words and
+ * the lines of a page are on two lines). The offset and limit apply to the lines.
+ *
+ * @since TODO
+ */
+public class TextractResultStreamer {
+
+    public enum Unit {
+        BLOCK, PAGE
+    }
+
+    protected static final ObjectMapper MAPPER = new ObjectMapper();
+
+    protected final Unit unit;
+
+    protected final int page;
+
+    protected final Set<String> blockTypes;
+
+    protected final long offset;
+
+    protected final long limit;
+
+    protected OutputStream out;
+
+    protected long skipped;
+
+    protected long written;
+
+    protected int currentPage;
+
+    protected final List<JsonNode> currentBlocks = new ArrayList<>();
+
+    /**
+     * @param page 0 for all the pages
+     * @param blockTypes comma separated list (WORD, LINE, TABLE, ...), blank for all the blocks
+     * @param limit 0 for no limit
+     */
+    public TextractResultStreamer(Unit unit, int page, String blockTypes, long offset, long limit) {
+        this.unit = unit;
+        this.page = page;
+        this.blockTypes = TextractUtils.parseKeywords(blockTypes);
+        this.offset = Math.max(0, offset);
+        this.limit = Math.max(0, limit);
+    }
+
+    /**
+     * True if the value starts like a JSON object or array. The text results (WORD, LINE) can't be streamed.
+     */
+    public static boolean isJson(int firstChar) {
+        return firstChar == '{' || firstChar == '[';
+    }
+
+    /**
+     * Writes the lines and returns how many were written. Does not close the parser nor the stream.
+     */
+    public long stream(JsonParser parser, OutputStream out) throws IOException {
+
+        this.out = out;
+        skipped = 0;
+        written = 0;
+        currentPage = 0;
+        currentBlocks.clear();
+
+        JsonToken token = parser.nextToken();
+        if (token == JsonToken.START_ARRAY) {
+            int index = 0;
+            while (!isDone() && parser.nextToken() == JsonToken.START_OBJECT) {
+                index++;
+                // The page field can be after the blocks
+                ObjectNode result = MAPPER.readTree(parser);
+                int resultPage = getField(result, "page").asInt(index);
+                if (page > 0 && resultPage != page) {
+                    continue;
+                }
+                try (JsonParser resultParser = result.traverse(MAPPER)) {
+                    resultParser.nextToken();
+                    readResult(resultParser, resultPage);
+                }
+            }
+        } else if (token == JsonToken.START_OBJECT) {
+            readResult(parser, 0);
+        } else {
+            throw new IOException("Not a Textract JSON result");
+        }
+        flushPage();
+        out.flush();
+
+        return written;
+    }
+
+    /**
+     * Reads a result, the parser being on its START_OBJECT. resultPage is 0 when the page is in each block.
+     */
+    protected void readResult(JsonParser parser, int resultPage) throws IOException {
+        while (!isDone() && parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if (value == JsonToken.START_ARRAY && "blocks".equalsIgnoreCase(name)) {
+                readBlocks(parser, resultPage, null);
+            } else if (value == JsonToken.START_ARRAY && "words".equals(name)) {
+                readBlocks(parser, resultPage, "WORD");
+            } else if (value == JsonToken.START_ARRAY && "lines".equals(name)) {
+                readBlocks(parser, resultPage, "LINE");
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    /**
+     * Reads the blocks of an array one by one, the parser being on its START_ARRAY. blockType is null when the type is
+     * in each block.
+     */
+    protected void readBlocks(JsonParser parser, int resultPage, String blockType) throws IOException {
+        while (!isDone() && parser.nextToken() == JsonToken.START_OBJECT) {
+            ObjectNode block = MAPPER.readTree(parser);
+            int blockPage = resultPage > 0 ? resultPage : getField(block, "page").asInt(1);
+            String type = blockType != null ? blockType : getField(block, "blockType").asText(null);
+            if (page > 0 && blockPage != page
+                    || !blockTypes.isEmpty() && !blockTypes.contains(StringUtils.lowerCase(type, Locale.ROOT))) {
+                continue;
+            }
+            block.put("page", blockPage);
+            block.put("blockType", type);
+            if (unit == Unit.PAGE) {
+                if (blockPage != currentPage) {
+                    flushPage();
+                    currentPage = blockPage;
+                }
+                currentBlocks.add(block);
+            } else {
+                writeLine(block);
+            }
+        }
+    }
+
+    /** The raw JSON of the SDK uses camel case (blockType), the AWS CLI uses Pascal case (BlockType). */
+    protected static JsonNode getField(ObjectNode block, String name) {
+        JsonNode value = block.get(name);
+        return value != null ? value : block.path(StringUtils.capitalize(name));
+    }
+
+    protected void flushPage() throws IOException {
+        if (currentBlocks.isEmpty()) {
+            return;
+        }
+        ObjectNode line = MAPPER.createObjectNode();
+        line.put("page", currentPage);
+        ArrayNode blocks = line.putArray("blocks");
+        blocks.addAll(currentBlocks);
+        currentBlocks.clear();
+        writeLine(line);
+    }
+
+    protected void writeLine(JsonNode line) throws IOException {
+        if (skipped < offset) {
+            skipped++;
+            return;
+        }
+        if (isDone()) {
+            return;
+        }
+        out.write(MAPPER.writeValueAsBytes(line));
+        out.write('\n');
+        written++;
+    }
+
+    protected boolean isDone() {
+        return limit > 0 && written >= limit;
+    }
+}
@@ -0,0 +1,346 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.aws.textract;
+
+import java.io.Closeable;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.Blobs;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.model.impl.primitives.BlobProperty;
+
+import com.amazonaws.services.textract.model.Block;
+
+import io.opencensus.common.Scope;
+
+/**
+ * Receives the Textract results page after page and writes all the requested outputs in the document: the text (or
+ * the raw JSON) in resultXPath, and optionally the spatial index, the simplified JSON, the tables and the key-value
+ * pairs. When failedPagesXPath is set, the pages that failed do not stop the processing: they are listed there (see
+ * {@link #addFailedPage(int, RuntimeException)}), so they can be retried on their own.
+ * <p>
+ * Used by the synchronous operations and when the result of an asynchronous job is retrieved, so the output format is
+ * the same. The output parameters have the same names as the operation parameters (see {@link #fromParams(Map)}).
+ *
+ * @since TODO
+ */
+public class TextractResultWriter implements Closeable {
+
+    private static final Logger log = LogManager.getLogger(TextractResultWriter.class);
+
+    public static final String PAGE_STATUS_TIMEOUT = "TIMEOUT";
+
+    public static final String PAGE_STATUS_ERROR = "ERROR";
+
+    public static final String PAGE_STATUS_REJECTED = "REJECTED";
+
+    protected final String resultXPath;
+
+    protected final boolean returnRawJson;
+
+    protected final TextractUtils.Granularity granularity;
+
+    protected boolean multiPage = true;
+
+    protected Set<String> keywordsToFind = Set.of();
+
+    protected String spatialIndexXPath;
+
+    protected String simplifiedJsonXPath;
+
+    protected String tablesXPath;
+
+    protected String keyValuesXPath;
+
+    protected String failedPagesXPath;
+
+    protected final List<Map<String, Serializable>> failedPages = new ArrayList<>();
+
+    // Single page result (text or JSON)
+    protected String singleResult;
+
+    protected JSONArray rawJsonPages;
+
+    protected TextAssembler assembler;
+
+    protected TextractSpatialIndex.Builder indexBuilder;
+
+    protected TextractSimplifiedResult simplified;
+
+    protected TextractStructureExtractor structure;
+
+    protected int pageCount = 0;
+
+    public TextractResultWriter(String resultXPath, boolean returnRawJson, String granularity) {
+        // Null when the result is returned as a blob, see toBlob()
+        this.resultXPath = resultXPath;
+        this.returnRawJson = returnRawJson;
+        this.granularity = TextractUtils.Granularity.valueOf(StringUtils.defaultIfBlank(granularity, "WORD"));
+    }
+
+    /**
+     * Creates a writer from the output parameters: resultXPath, returnRawJson, granularity, spatialIndexXPath,
+     * simplifiedJsonXPath, tablesXPath and keyValuesXPath.
+     */
+    public static TextractResultWriter fromParams(Map<String, String> params) {
+        return new TextractResultWriter(params.get("resultXPath"), Boolean.parseBoolean(params.get("returnRawJson")),
+                params.get("granularity")).withSpatialIndex(params.get("spatialIndexXPath"))
+                                          .withSimplifiedJson(params.get("simplifiedJsonXPath"))
+                                          .withTables(params.get("tablesXPath"))
+                                          .withKeyValues(params.get("keyValuesXPath"));
+    }
+
+    /** Returns the output parameters, to be passed to {@link #fromParams(Map)}. */
+    public Map<String, String> toParams() {
+        Map<String, String> params = new LinkedHashMap<>();
+        params.put("resultXPath", resultXPath);
+        params.put("returnRawJson", String.valueOf(returnRawJson));
+        params.put("granularity", granularity.name());
+        putIfNotBlank(params, "spatialIndexXPath", spatialIndexXPath);
+        putIfNotBlank(params, "simplifiedJsonXPath", simplifiedJsonXPath);
+        putIfNotBlank(params, "tablesXPath", tablesXPath);
+        putIfNotBlank(params, "keyValuesXPath", keyValuesXPath);
+        return params;
+    }
+
+    protected static void putIfNotBlank(Map<String, String> params, String key, String value) {
+        if (StringUtils.isNotBlank(value)) {
+            params.put(key, value);
+        }
+    }
+
+    public TextractResultWriter withSpatialIndex(String xpath) {
+        spatialIndexXPath = xpath;
+        indexBuilder = StringUtils.isBlank(xpath) ? null : new TextractSpatialIndex.Builder();
+        return this;
+    }
+
+    public TextractResultWriter withSimplifiedJson(String xpath) {
+        simplifiedJsonXPath = xpath;
+        simplified = StringUtils.isBlank(xpath) ? null : new TextractSimplifiedResult();
+        return this;
+    }
+
+    public TextractResultWriter withTables(String xpath) {
+        tablesXPath = xpath;
+        return withStructure();
+    }
+
+    public TextractResultWriter withKeyValues(String xpath) {
+        keyValuesXPath = xpath;
+        return withStructure();
+    }
+
+    protected TextractResultWriter withStructure() {
+        structure = StringUtils.isAllBlank(tablesXPath, keyValuesXPath) ? null : new TextractStructureExtractor();
+        return this;
+    }
+
+    public TextractResultWriter withFailedPages(String xpath) {
+        failedPagesXPath = xpath;
+        return this;
+    }
+
+    /** See {@link #addPage(int, Object, List)}. */
+    public TextractResultWriter withStopWhenFound(String keywords) {
+        keywordsToFind = TextractUtils.parseKeywords(keywords);
+        return this;
+    }
+
+    /**
+     * A single-page result is saved as it was before multi-page support: the JSON of the result, not an array, and the
+     * text of the page without cross-page deduplication. True by default.
+     */
+    public void setMultiPage(boolean multiPage) {
+        this.multiPage = multiPage;
+    }
+
+    public int getPageCount() {
+        return pageCount;
+    }
+
+    /**
+     * Adds the result of a page. result is the Textract result object, serialized when returnRawJson is true.
+     *
+     * @return true if all the keywords to find (see {@link #withStopWhenFound(String)}) were found, so the caller can
+     *         stop processing pages
+     */
+    public boolean addPage(int pageNumber, Object result, List<Block> blocks) {
+
+        pageCount++;
+        if (returnRawJson) {
+            if (multiPage) {
+                try (Scope scope = TextractTracing.startSpan("textract.serialize")) {
+                    TextractEvents.SerializeEvent event = TextractEvents.newSerializeEvent();
+                    event.begin();
+                    JSONObject pageResult = new JSONObject(result);
+                    // Textract tells page 1, and the pages can be skipped (pageRange, maxPages, failed pages...)
+                    pageResult.put("page", pageNumber);
+                    getRawJsonPages().put(pageResult);
+                    event.chars = -1;
+                    event.blockCount = blocks == null ? 0 : blocks.size();
+                    event.commit();
+                }
+            } else {
+                singleResult = TextractUtils.toJsonString(result);
+            }
+        } else if (multiPage) {
+            // Duplicates are removed while appending
+            getAssembler().append(TextractUtils.getAllText(() -> blocks, granularity));
+        } else {
+            singleResult = TextractUtils.getAllTextJoined(() -> blocks, granularity, "\n");
+        }
+
+        if (indexBuilder != null) {
+            indexBuilder.addPage(pageNumber, blocks);
+        }
+        if (simplified != null) {
+            simplified.addPage(pageNumber, blocks);
+        }
+        if (structure != null) {
+            structure.addPage(pageNumber, blocks);
+        }
+
+        return TextractUtils.removeFoundKeywords(keywordsToFind, blocks);
+    }
+
+    /**
+     * Records a page that failed, with its status ({@link #PAGE_STATUS_TIMEOUT}, {@link #PAGE_STATUS_REJECTED} by the
+     * {@link TextractPreflight}, or {@link #PAGE_STATUS_ERROR}) and the error message.
+     *
+     * @return false if failedPagesXPath is not set, the caller must then fail
+     */
+    public boolean addFailedPage(int pageNumber, RuntimeException e) {
+        if (StringUtils.isBlank(failedPagesXPath)) {
+            return false;
+        }
+        String status = PAGE_STATUS_ERROR;
+        if (TextractTimeoutException.isTimeout(e)) {
+            status = PAGE_STATUS_TIMEOUT;
+        } else if (e instanceof TextractPreflightException) {
+            status = PAGE_STATUS_REJECTED;
+        }
+        log.warn("Textract page {} failed ({}): {}", pageNumber, status, e.getMessage());
+        Map<String, Serializable> failedPage = new HashMap<>();
+        failedPage.put("page", (long) pageNumber);
+        failedPage.put("status", status);
+        failedPage.put("message", StringUtils.defaultString(e.getMessage(), e.getClass().getSimpleName()));
+        failedPages.add(failedPage);
+        return true;
+    }
+
+    public List<Map<String, Serializable>> getFailedPages() {
+        return failedPages;
+    }
+
+    /** Sets all the outputs in the document. Does not save it. */
+    public void write(DocumentModel doc) {
+
+        Serializable result;
+        if (!multiPage) {
+            result = singleResult;
+        } else if (returnRawJson) {
+            result = getRawJsonPages().toString();
+        } else {
+            result = TextractUtils.getResultValue(doc, resultXPath, getAssembler());
+        }
+        doc.setPropertyValue(resultXPath, result);
+
+        if (indexBuilder != null) {
+            String index = indexBuilder.build();
+            if (doc.getProperty(spatialIndexXPath) instanceof BlobProperty) {
+                doc.setPropertyValue(spatialIndexXPath, (Serializable) Blobs.createBlob(index, "text/plain",
+                        StandardCharsets.UTF_8.name(), "textract-spatial-index.txt"));
+            } else {
+                doc.setPropertyValue(spatialIndexXPath, index);
+            }
+        }
+        if (simplified != null) {
+            doc.setPropertyValue(simplifiedJsonXPath, simplified.getResultValue(doc, simplifiedJsonXPath));
+        }
+        if (StringUtils.isNotBlank(tablesXPath)) {
+            doc.setPropertyValue(tablesXPath,
+                    TextractStructureExtractor.getResultValue(doc, tablesXPath, structure.getTables()));
+        }
+        if (StringUtils.isNotBlank(keyValuesXPath)) {
+            doc.setPropertyValue(keyValuesXPath,
+                    TextractStructureExtractor.getResultValue(doc, keyValuesXPath, structure.getKeyValues()));
+        }
+        if (StringUtils.isNotBlank(failedPagesXPath)) {
+            // An empty list tells all the pages were processed
+            doc.setPropertyValue(failedPagesXPath,
+                    TextractStructureExtractor.getResultValue(doc, failedPagesXPath, failedPages));
+        }
+    }
+
+    /**
+     * Returns the result as a Blob, for the Blob inputs of the operations: the text (text/plain), or the raw JSON
+     * (application/json) if returnRawJson is true. The other outputs are not returned. The filename is the one of the
+     * source blob, with a .txt or .json extension.
+     */
+    public Blob toBlob(String sourceFilename) {
+        Blob blob;
+        if (!multiPage) {
+            blob = Blobs.createBlob(StringUtils.defaultString(singleResult),
+                    returnRawJson ? "application/json" : "text/plain", StandardCharsets.UTF_8.name());
+        } else if (returnRawJson) {
+            blob = Blobs.createJSONBlob(getRawJsonPages().toString());
+        } else {
+            blob = getAssembler().getBlob();
+        }
+        String baseName = StringUtils.defaultIfBlank(FilenameUtils.getBaseName(sourceFilename), "textract-result");
+        blob.setFilename(baseName + (returnRawJson ? ".json" : ".txt"));
+        return blob;
+    }
+
+    protected JSONArray getRawJsonPages() {
+        if (rawJsonPages == null) {
+            rawJsonPages = new JSONArray();
+        }
+        return rawJsonPages;
+    }
+
+    protected TextAssembler getAssembler() {
+        if (assembler == null) {
+            assembler = new TextAssembler("\n");
+        }
+        return assembler;
+    }
+
+    @Override
+    public void close() {
+        if (assembler != null) {
+            assembler.close();
+        }
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.aws.textract;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.io.StringReader;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.servlet.http.HttpServletResponse;
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.core.UriBuilder;
+
+import org.apache.commons.lang3.StringUtils;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.IdRef;
+import org.nuxeo.ecm.core.api.NuxeoException;
+import org.nuxeo.ecm.webengine.model.WebObject;
+import org.nuxeo.ecm.webengine.model.impl.ModuleRoot;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+
+/**
+ * Streams the Textract result stored in a document as NDJSON (see {@link TextractResultStreamer}):
+ *
+ * <pre>
+ * GET /nuxeo/site/textract/{docId}?xpath=textract:rawJson&amp;page=2&amp;blockType=LINE,TABLE&amp;unit=block
+ * </pre>
+ *
+ * Paging uses offset and limit (lines), or a {@code Range: items=first-last} header, answered with 206 and a
+ * {@code Content-Range: items first-last/*} header (the total is unknown, the result is not read beforehand). When
+ * there is a limit, a {@code Link: <...>; rel="next"} header gives the next page of lines: there is no more line when
+ * it returns less than the limit.
+ * <p>
+ * The operational status of the node is under {@code /nuxeo/site/textract/management} (see
+ * {@link TextractManagementObject}).
+ *
+ * @since TODO
+ */
+@Path("/textract")
+@Produces(TextractResultsObject.NDJSON)
+@WebObject(type = "textract")
+public class TextractResultsObject extends ModuleRoot {
+
+    public static final String NDJSON = "application/x-ndjson";
+
+    protected static final Pattern RANGE_PATTERN = Pattern.compile("items=(\\d+)-(\\d*)");
+
+    protected static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    @GET
+    @Path("{docId}")
+    public Response getResult(@PathParam("docId") String docId, @QueryParam("xpath") String xpath,
+            @QueryParam("page") @DefaultValue("0") int page, @QueryParam("blockType") String blockType,
+            @QueryParam("unit") @DefaultValue("block") String unit,
+            @QueryParam("offset") @DefaultValue("0") long offset, @QueryParam("limit") @DefaultValue("0") long limit,
+            @HeaderParam("Range") String range) throws IOException {
+
+        if (StringUtils.isBlank(xpath)) {
+            throw new NuxeoException("The xpath parameter is required", HttpServletResponse.SC_BAD_REQUEST);
+        }
+        TextractResultStreamer.Unit streamUnit;
+        try {
+            streamUnit = TextractResultStreamer.Unit.valueOf(unit.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new NuxeoException("Unknown unit: " + unit + " (block or page)",
+                    HttpServletResponse.SC_BAD_REQUEST);
+        }
+
+        boolean partial = false;
+        if (StringUtils.isNotBlank(range)) {
+            Matcher matcher = RANGE_PATTERN.matcher(range.trim());
+            if (!matcher.matches()) {
+                throw new NuxeoException("Unsupported range: " + range + " (items=first-last)",
+                        HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            }
+            offset = Long.parseLong(matcher.group(1));
+            boolean hasLast = !matcher.group(2).isEmpty();
+            limit = hasLast ? Long.parseLong(matcher.group(2)) - offset + 1 : 0;
+            // A limit of 0 streams everything, so last < first must not become one
+            if (hasLast && limit <= 0) {
+                throw new NuxeoException("Unsupported range: " + range,
+                        HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            }
+            partial = true;
+        }
+
+        DocumentModel doc = getContext().getCoreSession().getDocument(new IdRef(docId));
+        Serializable value = doc.getPropertyValue(xpath);
+        if (value == null || (value instanceof String && StringUtils.isBlank((String) value))) {
+            throw new NuxeoException("No Textract result in " + xpath, HttpServletResponse.SC_NOT_FOUND);
+        }
+
+        JsonParser parser;
+        if (value instanceof String) {
+            String json = ((String) value).stripLeading();
+            checkJson(json.charAt(0), xpath);
+            parser = JSON_FACTORY.createParser(new StringReader(json));
+        } else if (value instanceof Blob) {
+            InputStream in = new BufferedInputStream(((Blob) value).getStream());
+            try {
+                checkJson(peekFirstChar(in), xpath);
+            } catch (NuxeoException e) {
+                in.close();
+                throw e;
+            }
+            parser = JSON_FACTORY.createParser(in);
+        } else {
+            throw new NuxeoException(xpath + " is not a String or a Blob property", HttpServletResponse.SC_BAD_REQUEST);
+        }
+
+        TextractResultStreamer streamer = new TextractResultStreamer(streamUnit, page, blockType, offset, limit);
+        StreamingOutput output = out -> {
+            try (JsonParser p = parser) {
+                streamer.stream(p, out);
+            }
+        };
+
+        int status = partial ? HttpServletResponse.SC_PARTIAL_CONTENT : HttpServletResponse.SC_OK;
+        Response.ResponseBuilder response = Response.status(status)
+                                                    .entity(output)
+                                                    .type(NDJSON)
+                                                    .header("Accept-Ranges", "items");
+        if (partial) {
+            String last = limit > 0 ? String.valueOf(offset + limit - 1) : "";
+            response.header("Content-Range", "items " + offset + "-" + last + "/*");
+        }
+        if (limit > 0) {
+            UriBuilder next = getContext().getUriInfo()
+                                          .getRequestUriBuilder()
+                                          .replaceQueryParam("offset", offset + limit)
+                                          .replaceQueryParam("limit", limit);
+            response.header("Link", "<" + next.build() + ">; rel=\"next\"");
+        }
+        return response.build();
+    }
+
+    @Path("management")
+    public Object getManagement() {
+        return newObject("textractManagement");
+    }
+
+    protected static void checkJson(int firstChar, String xpath) {
+        if (!TextractResultStreamer.isJson(firstChar)) {
+            throw new NuxeoException("The result in " + xpath + " is not JSON (was returnRawJson or the simplified JSON"
+                    + " used?)", HttpServletResponse.SC_BAD_REQUEST);
+        }
+    }
+
+    /** Returns the first non whitespace byte, without consuming the stream. */
+    protected static int peekFirstChar(InputStream in) throws IOException {
+        in.mark(4096);
+        int c;
+        do {
+            c = in.read();
+        } while (c == ' ' || c == '\n' || c == '\r' || c == '\t' || c == 0xEF || c == 0xBB || c == 0xBF);
+        in.reset();
+        return c;
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.aws.textract;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.UUID;
+
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.NuxeoException;
+import org.nuxeo.runtime.api.Framework;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.AmazonS3ClientBuilder;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.textract.model.S3Object;
+
+/**
+ * Uploads the blobs that are not stored in the S3 bucket of the service, so an asynchronous job can be started (the
+ * asynchronous APIs only read S3 objects).
+ * <p>
+ * The bucket is {@code textract.async.bucket} (by default, the bucket of the binary store), it must be in the region of
+ * the service. The objects are stored under {@code textract.async.prefix} ("textract-async/" by default) and are
+ * deleted once the job results are handled.
+ *
+ * @since TODO
+ */
+public class TextractS3Uploader {
+
+    public static final String BUCKET_PROP = "textract.async.bucket";
+
+    public static final String PREFIX_PROP = "textract.async.prefix";
+
+    public static final String DEFAULT_PREFIX = "textract-async/";
+
+    protected static TextractS3Uploader instance = null;
+
+    protected final String bucket;
+
+    protected final String prefix;
+
+    protected final AmazonS3 s3;
+
+    public static TextractS3Uploader getInstance() {
+        if (instance == null) {
+            synchronized (TextractS3Uploader.class) {
+                if (instance == null) {
+                    instance = new TextractS3Uploader();
+                }
+            }
+        }
+        return instance;
+    }
+
+    private TextractS3Uploader() {
+        bucket = Framework.getProperty(BUCKET_PROP, Framework.getProperty("nuxeo.s3storage.bucket"));
+        String value = Framework.getProperty(PREFIX_PROP, DEFAULT_PREFIX);
+        prefix = StringUtils.isBlank(value) || value.endsWith("/") ? StringUtils.defaultString(value) : value + "/";
+        s3 = AmazonS3ClientBuilder.standard().withRegion(TextractService.getInstance().getRegion()).build();
+    }
+
+    public S3Object upload(Blob blob) {
+
+        if (StringUtils.isBlank(bucket)) {
+            throw new NuxeoException("No bucket to upload the blob for an asynchronous job (" + BUCKET_PROP + ")");
+        }
+
+        String extension = FilenameUtils.getExtension(blob.getFilename());
+        String key = prefix + UUID.randomUUID() + (StringUtils.isBlank(extension) ? "" : "." + extension);
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentLength(blob.getLength());
+        if (StringUtils.isNotBlank(blob.getMimeType())) {
+            metadata.setContentType(blob.getMimeType());
+        }
+        try (InputStream in = blob.getStream()) {
+            s3.putObject(bucket, key, in, metadata);
+        } catch (IOException e) {
+            throw new NuxeoException("Cannot upload the blob to s3://" + bucket + "/" + key, e);
+        }
+
+        return new S3Object().withBucket(bucket).withName(key);
+    }
+
+    public void delete(String bucket, String key) {
+        s3.deleteObject(bucket, key);
+    }
+}
@@ -0,0 +1,334 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.aws.textract;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.NuxeoException;
+import org.nuxeo.ecm.core.api.model.PropertyNotFoundException;
+import org.nuxeo.ecm.core.work.api.WorkManager;
+import org.nuxeo.runtime.api.Framework;
+
+/**
+ * Schedules the OCR work and shares the Textract quota between priority classes and tenants.
+ * <p>
+ * Each priority class has its own WorkManager queue, so a bulk import running as {@link Priority#BACKFILL} never
+ * takes the threads used by interactive uploads. On top of that, every call to Textract asks for a permit
+ * ({@link #acquire()}):
+ * <ul>
+ * <li>The node never exceeds {@code textract.scheduler.tps} calls per second (0, the default, disables the
+ * throttling)</li>
+ * <li>A class never uses more than its share of this quota ({@code textract.scheduler.interactive.maxShare},
+ * {@code textract.scheduler.backfill.maxShare})</li>
+ * <li>{@link Priority#BACKFILL} only gets a permit when no interactive call could use it</li>
+ * <li>Inside a class, waiting tenants are served by weighted fair sharing: the tenant with the lowest "calls served /
+ * weight" goes first ({@code textract.scheduler.tenantWeights}, as {@code tenant1=3,tenant2=1}, default weight is
+ * 1)</li>
+ * </ul>
+ * The tenant is the repository name, or the value of the {@code textract.scheduler.tenantXPath} property of the
+ * document when this parameter is set.
+ * <p>
+ * Notice the quota is enforced per node: with several nodes, set the tps to (Textract quota / number of nodes).
+ */
+public class TextractScheduler {
+
+    private static final Logger log = LogManager.getLogger(TextractScheduler.class);
+
+    public enum Priority {
+        INTERACTIVE("textractInteractive"), BACKFILL("textractBackfill");
+
+        protected final String category;
+
+        Priority(String category) {
+            this.category = category;
+        }
+
+        /** The WorkManager category (and queue id) of this class */
+        public String getCategory() {
+            return category;
+        }
+    }
+
+    public static final String TPS_PROP = "textract.scheduler.tps";
+
+    public static final String MAX_SHARE_PROP_PATTERN = "textract.scheduler.%s.maxShare";
+
+    public static final String TENANT_WEIGHTS_PROP = "textract.scheduler.tenantWeights";
+
+    public static final String TENANT_XPATH_PROP = "textract.scheduler.tenantXPath";
+
+    protected static final double DEFAULT_INTERACTIVE_MAX_SHARE = 1.0;
+
+    protected static final double DEFAULT_BACKFILL_MAX_SHARE = 0.5;
+
+    // Upper bound of a single wait, so we re-check regularly
+    protected static final long MAX_WAIT_MS = 1000;
+
+    // A tenant not waiting for this long is forgotten, it comes back with the virtual time of the active tenants
+    protected static final long TENANT_IDLE_NANOS = TimeUnit.MINUTES.toNanos(5);
+
+    protected static TextractScheduler instance = null;
+
+    protected final double tps;
+
+    protected final Map<Priority, Double> maxShares = new EnumMap<>(Priority.class);
+
+    protected final Map<String, Double> tenantWeights = new HashMap<>();
+
+    protected double globalTokens;
+
+    protected final Map<Priority, Double> classTokens = new EnumMap<>(Priority.class);
+
+    protected long lastRefillNanos;
+
+    // Per class: tenant => number of threads waiting for a permit
+    protected final Map<Priority, Map<String, Integer>> waiting = new EnumMap<>(Priority.class);
+
+    // Per class: tenant => calls served / weight
+    protected final Map<Priority, Map<String, Double>> virtualTimes = new EnumMap<>(Priority.class);
+
+    // Per class: tenant => last time (nanos) it stopped waiting
+    protected final Map<Priority, Map<String, Long>> lastActive = new EnumMap<>(Priority.class);
+
+    protected long lastEvictionNanos;
+
+    public static TextractScheduler getInstance() {
+        if (instance == null) {
+            synchronized (TextractScheduler.class) {
+                if (instance == null) {
+                    instance = new TextractScheduler(Double.parseDouble(Framework.getProperty(TPS_PROP, "0")),
+                            getMaxShare(Priority.INTERACTIVE, DEFAULT_INTERACTIVE_MAX_SHARE),
+                            getMaxShare(Priority.BACKFILL, DEFAULT_BACKFILL_MAX_SHARE),
+                            Framework.getProperty(TENANT_WEIGHTS_PROP));
+                }
+            }
+        }
+        return instance;
+    }
+
+    protected static double getMaxShare(Priority priority, double defaultValue) {
+        String prop = String.format(MAX_SHARE_PROP_PATTERN, priority.name().toLowerCase());
+        return Double.parseDouble(Framework.getProperty(prop, String.valueOf(defaultValue)));
+    }
+
+    protected TextractScheduler(double tps, double interactiveMaxShare, double backfillMaxShare,
+            String tenantWeights) {
+        this.tps = tps;
+        maxShares.put(Priority.INTERACTIVE, interactiveMaxShare);
+        maxShares.put(Priority.BACKFILL, backfillMaxShare);
+        if (StringUtils.isNotBlank(tenantWeights)) {
+            for (String pair : StringUtils.split(tenantWeights, ",")) {
+                String[] parts = StringUtils.split(pair, "=");
+                if (parts.length == 2) {
+                    this.tenantWeights.put(parts[0].trim(), Double.parseDouble(parts[1].trim()));
+                } else {
+                    log.warn("Ignoring invalid {} entry: {}", TENANT_WEIGHTS_PROP, pair);
+                }
+            }
+        }
+        for (Priority priority : Priority.values()) {
+            classTokens.put(priority, classCapacity(priority));
+            waiting.put(priority, new HashMap<>());
+            virtualTimes.put(priority, new HashMap<>());
+            lastActive.put(priority, new HashMap<>());
+        }
+        globalTokens = Math.max(1, tps);
+        lastRefillNanos = nanoTime();
+        lastEvictionNanos = lastRefillNanos;
+    }
+
+    // ========================================> Scheduling the work
+    /**
+     * Schedules the OCR of the document in the queue of the priority class. Does nothing (returns {@code false}) if a
+     * work is already pending for this document.
+     */
+    public boolean schedule(DocumentModel doc, String operationId, Map<String, String> xpaths,
+            Map<String, String> operationParams, long debounceMs, Priority priority) {
+
+        String repositoryName = doc.getRepositoryName();
+        if (!TextractOcrWork.notifyEvent(repositoryName, doc.getId())) {
+            return false;
+        }
+        TextractOcrWork work = new TextractOcrWork(repositoryName, doc.getId(), operationId, xpaths, operationParams,
+                debounceMs, priority, getTenant(doc));
+        Framework.getService(WorkManager.class).schedule(work, WorkManager.Scheduling.IF_NOT_SCHEDULED);
+        return true;
+    }
+
+    public String getTenant(DocumentModel doc) {
+        String tenantXPath = Framework.getProperty(TENANT_XPATH_PROP);
+        if (StringUtils.isNotBlank(tenantXPath)) {
+            try {
+                Object value = doc.getPropertyValue(tenantXPath);
+                if (value != null && StringUtils.isNotBlank(value.toString())) {
+                    return value.toString();
+                }
+            } catch (PropertyNotFoundException e) {
+                // Use the repository
+            }
+        }
+        return doc.getRepositoryName();
+    }
+
+    // ========================================> Sharing the quota
+    /**
+     * Blocks until the caller, as described by {@link TextractCallContext#current()}, can call Textract, or until the
+     * deadline of the context is reached.
+     */
+    public void acquire() {
+        TextractCallContext ctx = TextractCallContext.current();
+        acquire(ctx.getPriority(), ctx.getTenant());
+    }
+
+    public synchronized void acquire(Priority priority, String tenant) {
+
+        if (tps <= 0) {
+            return;
+        }
+
+        evictIdleTenants();
+        Map<String, Integer> classWaiting = waiting.get(priority);
+        Map<String, Double> classVirtualTimes = virtualTimes.get(priority);
+        if (!classWaiting.containsKey(tenant)) {
+            // A tenant coming back after being idle does not get credits for the time it did not use
+            double minActive = classWaiting.keySet()
+                                           .stream()
+                                           .mapToDouble(t -> classVirtualTimes.getOrDefault(t, 0.0))
+                                           .min()
+                                           .orElse(0.0);
+            classVirtualTimes.merge(tenant, minActive, Math::max);
+        }
+        classWaiting.merge(tenant, 1, Integer::sum);
+
+        try {
+            while (!tryTake(priority, tenant)) {
+                TextractCallContext ctx = TextractCallContext.current();
+                ctx.checkDeadline("while waiting for a Textract permit");
+                wait(Math.max(1, Math.min(nextWaitMs(priority), ctx.getRemainingMs())));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new NuxeoException("Interrupted while waiting for a Textract permit", e);
+        } finally {
+            if (classWaiting.merge(tenant, -1, Integer::sum) <= 0) {
+                classWaiting.remove(tenant);
+                lastActive.get(priority).put(tenant, nanoTime());
+            }
+            notifyAll();
+        }
+    }
+
+    /** Takes a permit if the waiting tenant can go now. Must be called with the lock held. */
+    protected boolean tryTake(Priority priority, String tenant) {
+        refill();
+        if (!canGo(priority, tenant)) {
+            return false;
+        }
+        globalTokens -= 1;
+        classTokens.merge(priority, -1.0, Double::sum);
+        virtualTimes.get(priority).merge(tenant, 1.0 / getWeight(tenant), Double::sum);
+        return true;
+    }
+
+    /** Forgets the tenants idle for {@link #TENANT_IDLE_NANOS}, checked at most once per second. */
+    protected void evictIdleTenants() {
+        long now = nanoTime();
+        if (now - lastEvictionNanos < TimeUnit.SECONDS.toNanos(1)) {
+            return;
+        }
+        lastEvictionNanos = now;
+        for (Priority priority : Priority.values()) {
+            Map<String, Integer> classWaiting = waiting.get(priority);
+            lastActive.get(priority).entrySet().removeIf(entry -> {
+                if (classWaiting.containsKey(entry.getKey()) || now - entry.getValue() < TENANT_IDLE_NANOS) {
+                    return false;
+                }
+                virtualTimes.get(priority).remove(entry.getKey());
+                return true;
+            });
+        }
+    }
+
+    /** The number of calls waiting for a permit, per class. */
+    public synchronized Map<Priority, Integer> getWaitingCounts() {
+        Map<Priority, Integer> counts = new EnumMap<>(Priority.class);
+        waiting.forEach((priority, tenants) -> counts.put(priority, tenants.values().stream().mapToInt(i -> i).sum()));
+        return counts;
+    }
+
+    protected boolean canGo(Priority priority, String tenant) {
+
+        if (globalTokens < 1 || classTokens.get(priority) < 1) {
+            return false;
+        }
+        if (priority == Priority.BACKFILL && !waiting.get(Priority.INTERACTIVE).isEmpty()
+                && classTokens.get(Priority.INTERACTIVE) >= 1) {
+            return false;
+        }
+        Map<String, Double> classVirtualTimes = virtualTimes.get(priority);
+        double mine = classVirtualTimes.getOrDefault(tenant, 0.0);
+        for (String other : waiting.get(priority).keySet()) {
+            if (classVirtualTimes.getOrDefault(other, 0.0) < mine) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    protected void refill() {
+        long now = nanoTime();
+        double elapsedSeconds = (now - lastRefillNanos) / 1_000_000_000.0;
+        lastRefillNanos = now;
+        globalTokens = Math.min(Math.max(1, tps), globalTokens + elapsedSeconds * tps);
+        for (Priority priority : Priority.values()) {
+            double rate = tps * maxShares.get(priority);
+            classTokens.put(priority,
+                    Math.min(classCapacity(priority), classTokens.get(priority) + elapsedSeconds * rate));
+        }
+    }
+
+    protected double classCapacity(Priority priority) {
+        return Math.max(1, tps * maxShares.get(priority));
+    }
+
+    protected long nextWaitMs(Priority priority) {
+        double rate = Math.min(tps, tps * maxShares.get(priority));
+        if (rate <= 0) {
+            return MAX_WAIT_MS;
+        }
+        return Math.max(1, Math.min(MAX_WAIT_MS, (long) (1000 / rate)));
+    }
+
+    /** The clock of the token buckets, overridden by the tests. */
+    protected long nanoTime() {
+        return System.nanoTime();
+    }
+
+    protected double getWeight(String tenant) {
+        Double weight = tenantWeights.get(tenant);
+        return weight == null || weight <= 0 ? 1.0 : weight;
+    }
+}
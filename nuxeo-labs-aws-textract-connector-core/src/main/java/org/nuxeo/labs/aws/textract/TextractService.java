@@ -20,41 +20,61 @@ package org.nuxeo.labs.aws.textract;
 
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.Serializable;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.nuxeo.ecm.core.api.Blob;
 import org.nuxeo.ecm.core.api.CloseableFile;
+import org.nuxeo.ecm.core.api.DocumentModel;
 import org.nuxeo.ecm.core.api.NuxeoException;
 import org.nuxeo.ecm.core.blob.KeyStrategy;
 import org.nuxeo.ecm.core.blob.ManagedBlob;
 import org.nuxeo.runtime.api.Framework;
 
-import com.amazonaws.client.builder.AwsClientBuilder.EndpointConfiguration;
-import com.amazonaws.services.textract.AmazonTextract;
-import com.amazonaws.services.textract.AmazonTextractClientBuilder;
+import com.amazonaws.AmazonWebServiceRequest;
 import com.amazonaws.services.textract.model.AnalyzeDocumentRequest;
 import com.amazonaws.services.textract.model.AnalyzeDocumentResult;
+import com.amazonaws.services.textract.model.Block;
 import com.amazonaws.services.textract.model.DetectDocumentTextRequest;
 import com.amazonaws.services.textract.model.DetectDocumentTextResult;
 import com.amazonaws.services.textract.model.Document;
+import com.amazonaws.services.textract.model.DocumentLocation;
+import com.amazonaws.services.textract.model.GetDocumentAnalysisRequest;
+import com.amazonaws.services.textract.model.GetDocumentAnalysisResult;
+import com.amazonaws.services.textract.model.GetDocumentTextDetectionRequest;
+import com.amazonaws.services.textract.model.GetDocumentTextDetectionResult;
 import com.amazonaws.services.textract.model.S3Object;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.amazonaws.services.textract.model.StartDocumentAnalysisRequest;
+import com.amazonaws.services.textract.model.StartDocumentTextDetectionRequest;
+
+import io.opencensus.common.Scope;
 
 /**
  * Note really a service in terms of Nuxeo Service for now, because we had to develop this very quickly for a demo.
  */
 public class TextractService {
 
+    private static final Logger log = LogManager.getLogger(TextractService.class);
+
     protected String bucket;
 
     protected String bucketPrefix;
 
     protected String region;
 
-    protected AmazonTextract textractClient;
+    protected TextractRegionRouter router;
 
     protected static TextractService instance = null;
 
@@ -65,6 +85,16 @@ public class TextractService {
 
     List<String> DEFAULT_ANALYZE_FEATURES = List.of("TABLES", "FORMS");
 
+    protected static final String PICTURE_SCHEMA = "picture";
+
+    protected static final String PICTURE_VIEWS_XPATH = "picture:views";
+
+    // Image formats accepted by Textract, see selectPictureView()
+    protected static final Set<String> OCR_IMAGE_MIME_TYPES = Set.of("image/jpeg", "image/png", "image/tiff");
+
+    // Features that can be guessed from a DetectDocumentText result, see analyzeRouted()
+    protected static final Set<String> ROUTABLE_FEATURES = Set.of("TABLES", "FORMS");
+
     public static TextractService getInstance(String bucket, String bucketPrefix, String region) {
         if (instance == null) {
             synchronized (TextractService.class) {
@@ -106,9 +136,7 @@ public class TextractService {
 
         this.region = region;
 
-        EndpointConfiguration endpoint = new EndpointConfiguration("https://textract." + region + ".amazonaws.com",
-                region);
-        textractClient = AmazonTextractClientBuilder.standard().withEndpointConfiguration(endpoint).build();
+        router = TextractRegionRouter.create(region);
     }
 
     private TextractService() {
@@ -143,7 +171,9 @@ public class TextractService {
                                                                              new S3Object().withName(s3Path)
                                                                                            .withBucket(bucket)));
 
-        AnalyzeDocumentResult result = textractClient.analyzeDocument(request);
+        // Textract reads the object from the region of the bucket
+        AnalyzeDocumentResult result = callTextract("AnalyzeDocument", features, -1,
+                () -> router.executeInRegion(region, client -> client.analyzeDocument(withDeadline(request))));
 
         return result;
 
@@ -177,9 +207,84 @@ public class TextractService {
         return checkS3BlobProviderClass == 1;
     }
 
+    /**
+     * Waits for a quota permit and calls Textract, in a textract.call span, and emits a
+     * {@link TextractEvents.CallEvent}. The call is listed in the {@link TextractStatusRegistry} until it returns. bytes
+     * is -1 when the document is on S3.
+     */
+    protected <T> T callTextract(String api, List<String> features, long bytes, Supplier<T> call) {
+        return callTextract(api, features, bytes, true, call);
+    }
+
+    protected <T> T callTextract(String api, List<String> features, long bytes, boolean useQuota, Supplier<T> call) {
+        try (TextractStatusRegistry.ActiveCall activeCall = TextractStatusRegistry.getInstance().startCall(api);
+                Scope scope = TextractTracing.startSpan("textract.call")) {
+            TextractTracing.putAttribute(TextractTracing.ATTR_API, api);
+            TextractTracing.putAttribute(TextractTracing.ATTR_FEATURES, features);
+            TextractTracing.putAttribute(TextractTracing.ATTR_S3, bytes < 0);
+            if (bytes >= 0) {
+                TextractTracing.putAttribute(TextractTracing.ATTR_BYTES, bytes);
+            }
+            TextractEvents.CallEvent event = TextractEvents.newCallEvent();
+            event.api = api;
+            event.features = features == null ? null : String.join(",", features);
+            event.bytes = bytes;
+            if (useQuota) {
+                long waitStart = System.nanoTime();
+                try (Scope waitScope = TextractTracing.startSpan("textract.quota.wait")) {
+                    TextractScheduler.getInstance().acquire();
+                }
+                event.permitWaitMs = (System.nanoTime() - waitStart) / 1_000_000;
+            }
+            activeCall.permitAcquired();
+            event.begin();
+            try {
+                T result = call.get();
+                event.succeeded = true;
+                activeCall.succeeded();
+                event.blockCount = TextractEvents.countBlocks(result);
+                return result;
+            } finally {
+                event.commit();
+            }
+        } catch (RuntimeException e) {
+            TextractTracing.setError(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Sets the SDK timeout of the request (including its retries) to the time left before the deadline of the
+     * {@link TextractCallContext}, if any. Called for each attempt, so a failover to another region only gets the time
+     * left.
+     */
+    protected static <R extends AmazonWebServiceRequest> R withDeadline(R request) {
+        TextractCallContext ctx = TextractCallContext.current();
+        if (ctx.getDeadline() > 0) {
+            ctx.checkDeadline("before calling Textract");
+            request.setSdkClientExecutionTimeout((int) Math.min(Integer.MAX_VALUE, ctx.getRemainingMs()));
+        }
+        return request;
+    }
+
+    protected ByteBuffer readBytes(FileChannel channel, long size) throws IOException {
+        try (Scope scope = TextractTracing.startSpan("textract.readBytes")) {
+            TextractTracing.putAttribute(TextractTracing.ATTR_BYTES, size);
+            ByteBuffer fileByteBuffer = ByteBuffer.allocate((int) size);
+            channel.read(fileByteBuffer);
+            fileByteBuffer.flip(); // prepare for reading
+            return fileByteBuffer;
+        }
+    }
+
+    public TextractRegionRouter getRouter() {
+        return router;
+    }
+
     protected String getS3BlobKey(Blob blob) {
 
-        if (blob instanceof ManagedBlob && (hasS3BlobProviderClass() || forceS3Key)) {
+        // If the region of the bucket is not allowed, the blob is sent inline to an allowed region
+        if (blob instanceof ManagedBlob && (hasS3BlobProviderClass() || forceS3Key) && router.isAllowed(region)) {
 
             ManagedBlob managedBlob = (ManagedBlob) blob;
             String key = managedBlob.getKey();
@@ -201,7 +306,30 @@ public class TextractService {
     }
 
     /**
-     * TODO If the blob is on S3, use the call telling Textract to get it directly there.
+     * Checks the blob with the {@link TextractPreflight} before anything is read or sent, then runs onS3 with the key
+     * of the blob if Textract can read it from S3, else inline with the blob to send (the blob, or its downscaled or
+     * decrypted copy, deleted after the call).
+     *
+     * @throws TextractPreflightException if Textract would reject the blob
+     * @since TODO
+     */
+    protected <T> T withPreflight(Blob blob, Function<String, T> onS3, Function<Blob, T> inline) {
+
+        String s3BlobKey = getS3BlobKey(blob);
+        Blob prepared = TextractPreflight.getInstance().prepare(blob, StringUtils.isNotBlank(s3BlobKey));
+        try {
+            // A rerouted blob is a local copy, sent inline
+            if (prepared == blob && StringUtils.isNotBlank(s3BlobKey)) {
+                return onS3.apply(s3BlobKey);
+            }
+            return inline.apply(prepared);
+        } finally {
+            TextractPreflight.release(blob, prepared);
+        }
+    }
+
+    /**
+     * If the blob is on S3, use the call telling Textract to get it directly there.
      * Else, send it as BinaryBuffer
      * 
      * @param features
@@ -210,12 +338,10 @@ public class TextractService {
      * @since TODO
      */
     public AnalyzeDocumentResult analyze(List<String> features, Blob blob) {
+        return withPreflight(blob, key -> analyze(features, key), prepared -> analyzeInline(features, prepared));
+    }
 
-        // If S3, use it directly
-        String s3BlobKey = getS3BlobKey(blob);
-        if (StringUtils.isNotBlank(s3BlobKey)) {
-            return analyze(features, s3BlobKey);
-        }
+    protected AnalyzeDocumentResult analyzeInline(List<String> features, Blob blob) {
 
         if (features == null || features.size() == 0) {
             features = DEFAULT_ANALYZE_FEATURES;
@@ -225,16 +351,21 @@ public class TextractService {
                 FileInputStream fis = new FileInputStream(file.getFile());
                 FileChannel channel = fis.getChannel()) {
 
-            ByteBuffer fileByteBuffer = ByteBuffer.allocate((int) channel.size());
-            channel.read(fileByteBuffer);
-            fileByteBuffer.flip(); // prepare for reading
+            long size = channel.size();
+            TextractResourceGovernor.getInstance().reservePayload(size);
+            try {
+                ByteBuffer fileByteBuffer = readBytes(channel, size);
 
-            AnalyzeDocumentRequest request = new AnalyzeDocumentRequest().withFeatureTypes(
-                    features.toArray(new String[0])).withDocument(new Document().withBytes(fileByteBuffer));
+                AnalyzeDocumentRequest request = new AnalyzeDocumentRequest().withFeatureTypes(
+                        features.toArray(new String[0])).withDocument(new Document().withBytes(fileByteBuffer));
 
-            AnalyzeDocumentResult result = textractClient.analyzeDocument(request);
+                AnalyzeDocumentResult result = callTextract("AnalyzeDocument", features, size,
+                        () -> router.execute(client -> client.analyzeDocument(withDeadline(request))));
 
-            return result;
+                return result;
+            } finally {
+                TextractResourceGovernor.getInstance().releasePayload(size);
+            }
 
         } catch (IOException e) {
             throw new NuxeoException(e);
@@ -242,6 +373,45 @@ public class TextractService {
 
     }
 
+    /**
+     * Calls DetectDocumentText first, and AnalyzeDocument only if the page likely holds a table or a form (see
+     * {@link TextractLayoutHeuristic}). Else, the DetectDocumentText result is returned as an AnalyzeDocumentResult,
+     * so the caller does not see the difference (the blocks just do not have TABLE, KEY_VALUE_SET, etc.)
+     * <p>
+     * Routing is only possible for TABLES and FORMS: If other features are requested (LAYOUT, QUERIES, ...), this is
+     * the same as {@link #analyze(List, Blob)}.
+     * 
+     * @since TODO
+     */
+    public AnalyzeDocumentResult analyzeRouted(List<String> features, Blob blob) {
+
+        List<String> analyzeFeatures = features == null || features.size() == 0 ? DEFAULT_ANALYZE_FEATURES : features;
+        if (!ROUTABLE_FEATURES.containsAll(analyzeFeatures)) {
+            return analyze(analyzeFeatures, blob);
+        }
+
+        // One preflight for both calls
+        return withPreflight(blob,
+                key -> route(() -> detectDocumentText(key), () -> analyze(analyzeFeatures, key)),
+                prepared -> route(() -> detectDocumentTextInline(prepared),
+                        () -> analyzeInline(analyzeFeatures, prepared)));
+    }
+
+    protected AnalyzeDocumentResult route(Supplier<DetectDocumentTextResult> detect,
+            Supplier<AnalyzeDocumentResult> analyze) {
+
+        DetectDocumentTextResult detectResult = detect.get();
+        if (TextractLayoutHeuristic.looksLikeTableOrForm(detectResult.getBlocks())) {
+            log.debug("Page likely has tables or forms, calling AnalyzeDocument");
+            return analyze.get();
+        }
+
+        return new AnalyzeDocumentResult().withBlocks(detectResult.getBlocks())
+                                          .withDocumentMetadata(detectResult.getDocumentMetadata())
+                                          .withAnalyzeDocumentModelVersion(
+                                                  detectResult.getDetectDocumentTextModelVersion());
+    }
+
     public String analyzeGetText(TextractUtils.Granularity granularity, List<String> features, Blob blob) {
 
         AnalyzeDocumentResult result = analyze(features, blob);
@@ -255,10 +425,7 @@ public class TextractService {
 
         AnalyzeDocumentResult result = analyze(features, blob);
 
-        ObjectMapper mapper = new ObjectMapper();
-        var jsonNode = mapper.valueToTree(result);
-
-        return jsonNode.toString();
+        return TextractUtils.toJsonString(result);
 
     }
 
@@ -272,33 +439,38 @@ public class TextractService {
         DetectDocumentTextRequest request = new DetectDocumentTextRequest().withDocument(
                 new Document().withS3Object(new S3Object().withName(s3Path).withBucket(bucket)));
 
-        DetectDocumentTextResult result = textractClient.detectDocumentText(request);
+        // Textract reads the object from the region of the bucket
+        DetectDocumentTextResult result = callTextract("DetectDocumentText", null, -1,
+                () -> router.executeInRegion(region, client -> client.detectDocumentText(withDeadline(request))));
 
         return result;
     }
 
     public DetectDocumentTextResult detectDocumentText(Blob blob) {
+        return withPreflight(blob, key -> detectDocumentText(key), prepared -> detectDocumentTextInline(prepared));
+    }
 
-        // If S3, use it directly
-        String s3BlobKey = getS3BlobKey(blob);
-        if (StringUtils.isNotBlank(s3BlobKey)) {
-            return detectDocumentText(s3BlobKey);
-        }
+    protected DetectDocumentTextResult detectDocumentTextInline(Blob blob) {
 
         try (CloseableFile file = blob.getCloseableFile();
                 FileInputStream fis = new FileInputStream(file.getFile());
                 FileChannel channel = fis.getChannel()) {
 
-            ByteBuffer fileByteBuffer = ByteBuffer.allocate((int) channel.size());
-            channel.read(fileByteBuffer);
-            fileByteBuffer.flip(); // prepare for reading
+            long size = channel.size();
+            TextractResourceGovernor.getInstance().reservePayload(size);
+            try {
+                ByteBuffer fileByteBuffer = readBytes(channel, size);
 
-            DetectDocumentTextRequest request = new DetectDocumentTextRequest().withDocument(
-                    new Document().withBytes(fileByteBuffer));
+                DetectDocumentTextRequest request = new DetectDocumentTextRequest().withDocument(
+                        new Document().withBytes(fileByteBuffer));
 
-            DetectDocumentTextResult result = textractClient.detectDocumentText(request);
+                DetectDocumentTextResult result = callTextract("DetectDocumentText", null, size,
+                        () -> router.execute(client -> client.detectDocumentText(withDeadline(request))));
 
-            return result;
+                return result;
+            } finally {
+                TextractResourceGovernor.getInstance().releasePayload(size);
+            }
 
         } catch (IOException e) {
             throw new NuxeoException(e);
@@ -319,10 +491,174 @@ public class TextractService {
 
         DetectDocumentTextResult result = detectDocumentText(blob);
 
-        ObjectMapper mapper = new ObjectMapper();
-        var jsonNode = mapper.valueToTree(result);
+        return TextractUtils.toJsonString(result);
+
+    }
+
+    // ========================================> Picture views
+    /**
+     * For a Picture, returns the smallest (in bytes) of the original blob and of the picture views whose longest side
+     * is at least minSize pixels, so less bytes are uploaded to Textract for the same OCR quality. Only the views in a
+     * format Textract accepts (JPEG, PNG, TIFF) are used. The views are the ones computed at import time, nothing is
+     * converted.
+     * <p>
+     * Textract returns bounding boxes relative to the page, so the geometry is the same as with the original.
+     * <p>
+     * Returns the original if minSize is not positive, or if the document is not a Picture.
+     *
+     * @since TODO
+     */
+    public Blob selectPictureView(DocumentModel doc, Blob original, int minSize) {
+
+        if (minSize <= 0 || original == null || !doc.hasSchema(PICTURE_SCHEMA)) {
+            return original;
+        }
+
+        @SuppressWarnings("unchecked")
+        List<Map<String, Serializable>> views = (List<Map<String, Serializable>>) doc.getPropertyValue(
+                PICTURE_VIEWS_XPATH);
+        Blob selected = selectPictureView(views, original, minSize);
+        if (selected != original) {
+            log.debug("Using the {} picture view of doc {} for OCR", selected.getFilename(), doc.getId());
+            TextractTracing.addAnnotation("Using picture view " + selected.getFilename());
+        }
+        return selected;
+    }
+
+    protected static Blob selectPictureView(List<Map<String, Serializable>> views, Blob original, int minSize) {
+
+        Blob selected = original;
+        long selectedLength = original.getLength() > 0 ? original.getLength() : Long.MAX_VALUE;
+        for (Map<String, Serializable> view : Objects.requireNonNullElse(views,
+                List.<Map<String, Serializable>> of())) {
+            Blob content = (Blob) view.get("content");
+            if (content == null || !isOcrImage(content)) {
+                continue;
+            }
+            long longestSide = Math.max(toLong(view.get("width")), toLong(view.get("height")));
+            long length = content.getLength();
+            if (longestSide >= minSize && length > 0 && length < selectedLength) {
+                selected = content;
+                selectedLength = length;
+            }
+        }
+        return selected;
+    }
+
+    protected static boolean isOcrImage(Blob blob) {
+        String mimeType = blob.getMimeType();
+        if (StringUtils.isNotBlank(mimeType)) {
+            return OCR_IMAGE_MIME_TYPES.contains(mimeType);
+        }
+        return StringUtils.endsWithAny(StringUtils.lowerCase(blob.getFilename()), ".jpg", ".jpeg", ".png", ".tif",
+                ".tiff");
+    }
+
+    protected static long toLong(Serializable value) {
+        return value instanceof Number ? ((Number) value).longValue() : 0;
+    }
+
+    // ========================================> Asynchronous jobs
+    public String getRegion() {
+        return region;
+    }
+
+    /**
+     * Returns the location of the blob if it is stored in the S3 bucket of the service (and its region is allowed),
+     * else null.
+     */
+    public S3Object getS3Object(Blob blob) {
+        String s3BlobKey = getS3BlobKey(blob);
+        if (StringUtils.isBlank(s3BlobKey)) {
+            return null;
+        }
+        return new S3Object().withBucket(bucket).withName(bucketPrefix + s3BlobKey);
+    }
+
+    /**
+     * Starts an asynchronous job for the S3 object, which must be in the region of the service. api is
+     * {@link TextractJob#API_DETECT} or {@link TextractJob#API_ANALYZE}. Returns the JobId.
+     */
+    public String startJob(String api, List<String> features, S3Object s3Object) {
+
+        DocumentLocation location = new DocumentLocation().withS3Object(s3Object);
+        if (TextractJob.API_ANALYZE.equals(api)) {
+            if (features == null || features.size() == 0) {
+                features = DEFAULT_ANALYZE_FEATURES;
+            }
+            StartDocumentAnalysisRequest request = new StartDocumentAnalysisRequest().withFeatureTypes(
+                    features.toArray(new String[0])).withDocumentLocation(location);
+            return callTextract("StartDocumentAnalysis", features, -1,
+                    () -> router.executeInRegion(region, client -> client.startDocumentAnalysis(request))).getJobId();
+        }
+
+        StartDocumentTextDetectionRequest request = new StartDocumentTextDetectionRequest().withDocumentLocation(
+                location);
+        return callTextract("StartDocumentTextDetection", null, -1,
+                () -> router.executeInRegion(region, client -> client.startDocumentTextDetection(request))).getJobId();
+    }
 
-        return jsonNode.toString();
+    /**
+     * Returns the status of the job: IN_PROGRESS, SUCCEEDED, FAILED or PARTIAL_SUCCESS. Does not use the quota of the
+     * scheduler, the Get APIs have their own limits.
+     */
+    public String getJobStatus(String api, String jobId) {
+        if (TextractJob.API_ANALYZE.equals(api)) {
+            return getDocumentAnalysis(jobId, 1, null).getJobStatus();
+        }
+        return getDocumentTextDetection(jobId, 1, null).getJobStatus();
+    }
+
+    /**
+     * Reads all the results of a completed job, and passes the blocks of each page to the consumer, in page order. Only
+     * the blocks of one page are kept in memory.
+     */
+    public void forEachJobResultPage(String api, String jobId, BiConsumer<Integer, List<Block>> pageConsumer) {
+
+        String nextToken = null;
+        int currentPage = -1;
+        List<Block> pageBlocks = new ArrayList<>();
+        do {
+            List<Block> blocks;
+            if (TextractJob.API_ANALYZE.equals(api)) {
+                GetDocumentAnalysisResult result = getDocumentAnalysis(jobId, null, nextToken);
+                blocks = result.getBlocks();
+                nextToken = result.getNextToken();
+            } else {
+                GetDocumentTextDetectionResult result = getDocumentTextDetection(jobId, null, nextToken);
+                blocks = result.getBlocks();
+                nextToken = result.getNextToken();
+            }
+            for (Block block : Objects.requireNonNullElse(blocks, List.<Block> of())) {
+                int page = block.getPage() == null ? 1 : block.getPage();
+                if (page != currentPage && !pageBlocks.isEmpty()) {
+                    pageConsumer.accept(currentPage, pageBlocks);
+                    pageBlocks = new ArrayList<>();
+                }
+                currentPage = page;
+                pageBlocks.add(block);
+            }
+        } while (nextToken != null);
+
+        if (!pageBlocks.isEmpty()) {
+            pageConsumer.accept(currentPage, pageBlocks);
+        }
+    }
+
+    protected GetDocumentTextDetectionResult getDocumentTextDetection(String jobId, Integer maxResults,
+            String nextToken) {
+        GetDocumentTextDetectionRequest request = new GetDocumentTextDetectionRequest().withJobId(jobId)
+                                                                                       .withMaxResults(maxResults)
+                                                                                       .withNextToken(nextToken);
+        return callTextract("GetDocumentTextDetection", null, -1, false,
+                () -> router.executeInRegion(region, client -> client.getDocumentTextDetection(request)));
+    }
 
+    protected GetDocumentAnalysisResult getDocumentAnalysis(String jobId, Integer maxResults, String nextToken) {
+        GetDocumentAnalysisRequest request = new GetDocumentAnalysisRequest().withJobId(jobId)
+                                                                             .withMaxResults(maxResults)
+                                                                             .withNextToken(nextToken);
+        return callTextract("GetDocumentAnalysis", null, -1, false,
+                () -> router.executeInRegion(region, client -> client.getDocumentAnalysis(request)));
     }
 }
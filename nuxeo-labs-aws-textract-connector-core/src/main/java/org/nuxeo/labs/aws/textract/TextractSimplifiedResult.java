@@ -0,0 +1,93 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.aws.textract;
+
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.Blobs;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.model.impl.primitives.BlobProperty;
+
+import com.amazonaws.services.textract.model.Block;
+
+/**
+ * Builds a simplified JSON of a Textract result, page after page, while the pages are processed:
+ *
+ * <pre>
+ * {
+ *   "words": [{"page": 1, "text": "...", "boundingBox": {"left": ..., "top": ..., "width": ..., "height": ...},
+ *              "confidence": ...}, ...],
+ *   "lines": [...]
+ * }
+ * </pre>
+ *
+ * The page number is the real page number in the document (Textract says 1 for each page, since they are sent one by
+ * one). Only the WORD and LINE blocks are serialized, each one as soon as its page is added, so the raw result of the
+ * page can be garbage collected.
+ *
+ * @since TODO
+ */
+public class TextractSimplifiedResult {
+
+    protected final StringBuilder words = new StringBuilder();
+
+    protected final StringBuilder lines = new StringBuilder();
+
+    public TextractSimplifiedResult addPage(int pageNumber, List<Block> blocks) {
+        if (blocks == null) {
+            return this;
+        }
+        for (Block block : blocks) {
+            TextractSpatialIndex.Entry entry = TextractSpatialIndex.Entry.fromBlock(block);
+            if (entry == null) {
+                continue;
+            }
+            StringBuilder target = "WORD".equals(entry.blockType) ? words : lines;
+            if (target.length() > 0) {
+                target.append(',');
+            }
+            target.append(entry.toJSON(pageNumber).toString());
+        }
+        return this;
+    }
+
+    public String build() {
+        return new StringBuilder(words.length() + lines.length() + 24).append("{\"words\":[")
+                                                                      .append(words)
+                                                                      .append("],\"lines\":[")
+                                                                      .append(lines)
+                                                                      .append("]}")
+                                                                      .toString();
+    }
+
+    /**
+     * Returns the value to store at xpath: A JSON Blob if the property is a blob, else a String.
+     */
+    public Serializable getResultValue(DocumentModel doc, String xpath) {
+        if (doc.getProperty(xpath) instanceof BlobProperty) {
+            Blob blob = Blobs.createBlob(build(), "application/json", StandardCharsets.UTF_8.name(),
+                    "textract-simplified.json");
+            return (Serializable) blob;
+        }
+        return build();
+    }
+}
@@ -0,0 +1,286 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.aws.textract;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+import org.apache.commons.lang3.StringUtils;
+import org.json.JSONObject;
+import org.nuxeo.ecm.core.api.NuxeoException;
+
+import com.amazonaws.services.textract.model.Block;
+import com.amazonaws.services.textract.model.BoundingBox;
+
+/**
+ * Compact, per-page, spatial index of the WORD and LINE blocks of a Textract result, stored as a String next to the
+ * result.
+ * <p>
+ * The first line of the serialized index gives, for each page, the position of its entries, so loading a page never
+ * parses the other ones. An entry is one line: blockType, left, top, width, height, confidence and text, separated by
+ * tabs. When a page is loaded, its entries are put in a {@value #GRID_SIZE}x{@value #GRID_SIZE} grid (coordinates
+ * are relative to the page, from 0 to 1, as returned by Textract), so a region query only checks the entries of the
+ * cells it overlaps.
+ *
+ * @since TODO
+ */
+public class TextractSpatialIndex {
+
+    public static final String HEADER = "TSI1";
+
+    public static final int GRID_SIZE = 16;
+
+    private TextractSpatialIndex() {
+
+    }
+
+    /** Builds the serialized index, page after page. */
+    public static class Builder {
+
+        protected final StringBuilder body = new StringBuilder();
+
+        protected final StringBuilder pages = new StringBuilder();
+
+        public Builder addPage(int pageNumber, List<Block> blocks) {
+            int start = body.length();
+            if (blocks != null) {
+                for (Block block : blocks) {
+                    Entry entry = Entry.fromBlock(block);
+                    if (entry == null) {
+                        continue;
+                    }
+                    body.append(entry.blockType)
+                        .append('\t')
+                        .append(entry.left)
+                        .append('\t')
+                        .append(entry.top)
+                        .append('\t')
+                        .append(entry.width)
+                        .append('\t')
+                        .append(entry.height)
+                        .append('\t')
+                        .append(entry.confidence)
+                        .append('\t')
+                        .append(StringUtils.replaceChars(entry.text, "\t\r\n", "   "))
+                        .append('\n');
+                }
+            }
+            if (pages.length() > 0) {
+                pages.append(',');
+            }
+            pages.append(pageNumber).append(':').append(start).append(':').append(body.length());
+            return this;
+        }
+
+        public String build() {
+            return HEADER + '\t' + pages + '\n' + body;
+        }
+    }
+
+    /** One WORD or LINE of a page. */
+    public static class Entry {
+
+        public final String blockType;
+
+        public final float left;
+
+        public final float top;
+
+        public final float width;
+
+        public final float height;
+
+        public final float confidence;
+
+        public final String text;
+
+        protected Entry(String blockType, float left, float top, float width, float height, float confidence,
+                String text) {
+            this.blockType = blockType;
+            this.left = left;
+            this.top = top;
+            this.width = width;
+            this.height = height;
+            this.confidence = confidence;
+            this.text = text;
+        }
+
+        /** Returns null if the block is not a WORD or a LINE, or has no text or no bounding box. */
+        public static Entry fromBlock(Block block) {
+            String type = block.getBlockType();
+            if (!"WORD".equals(type) && !"LINE".equals(type)) {
+                return null;
+            }
+            if (block.getText() == null || block.getGeometry() == null
+                    || block.getGeometry().getBoundingBox() == null) {
+                return null;
+            }
+            BoundingBox box = block.getGeometry().getBoundingBox();
+            return new Entry(type, toFloat(box.getLeft()), toFloat(box.getTop()), toFloat(box.getWidth()),
+                    toFloat(box.getHeight()), toFloat(block.getConfidence()), block.getText());
+        }
+
+        public boolean intersects(float rLeft, float rTop, float rWidth, float rHeight) {
+            return left <= rLeft + rWidth && rLeft <= left + width && top <= rTop + rHeight && rTop <= top + height;
+        }
+
+        public JSONObject toJSON(int pageNumber) {
+            JSONObject box = new JSONObject();
+            box.put("left", left);
+            box.put("top", top);
+            box.put("width", width);
+            box.put("height", height);
+
+            JSONObject obj = new JSONObject();
+            obj.put("page", pageNumber);
+            obj.put("text", text);
+            obj.put("boundingBox", box);
+            obj.put("confidence", confidence);
+            return obj;
+        }
+    }
+
+    /** The loaded index of one page. */
+    public static class PageIndex {
+
+        protected final int pageNumber;
+
+        protected final List<Entry> entries;
+
+        // cell => indexes in entries
+        protected final int[][] cells = new int[GRID_SIZE * GRID_SIZE][];
+
+        protected PageIndex(int pageNumber, List<Entry> entries) {
+            this.pageNumber = pageNumber;
+            this.entries = entries;
+
+            int[] counts = new int[cells.length];
+            for (Entry entry : entries) {
+                forEachCell(entry.left, entry.top, entry.width, entry.height, cell -> counts[cell]++);
+            }
+            for (int i = 0; i < cells.length; i++) {
+                cells[i] = new int[counts[i]];
+                counts[i] = 0;
+            }
+            for (int i = 0; i < entries.size(); i++) {
+                int entryIndex = i;
+                Entry entry = entries.get(i);
+                forEachCell(entry.left, entry.top, entry.width, entry.height,
+                        cell -> cells[cell][counts[cell]++] = entryIndex);
+            }
+        }
+
+        public int getPageNumber() {
+            return pageNumber;
+        }
+
+        public int size() {
+            return entries.size();
+        }
+
+        /**
+         * Returns the entries of type blockType (WORD or LINE, or both if null) intersecting the region, in reading
+         * order (as returned by Textract)
+         */
+        public List<Entry> query(float left, float top, float width, float height, String blockType) {
+            BitSet found = new BitSet(entries.size());
+            forEachCell(left, top, width, height, cell -> {
+                for (int entryIndex : cells[cell]) {
+                    found.set(entryIndex);
+                }
+            });
+
+            List<Entry> result = new ArrayList<>();
+            for (int i = found.nextSetBit(0); i >= 0; i = found.nextSetBit(i + 1)) {
+                Entry entry = entries.get(i);
+                if ((blockType == null || blockType.equals(entry.blockType))
+                        && entry.intersects(left, top, width, height)) {
+                    result.add(entry);
+                }
+            }
+            return result;
+        }
+
+        protected static void forEachCell(float left, float top, float width, float height, IntConsumer consumer) {
+            int firstCol = toCell(left);
+            int lastCol = toCell(left + width);
+            int firstRow = toCell(top);
+            int lastRow = toCell(top + height);
+            for (int row = firstRow; row <= lastRow; row++) {
+                for (int col = firstCol; col <= lastCol; col++) {
+                    consumer.accept(row * GRID_SIZE + col);
+                }
+            }
+        }
+
+        protected static int toCell(float coordinate) {
+            int cell = (int) (coordinate * GRID_SIZE);
+            return Math.max(0, Math.min(GRID_SIZE - 1, cell));
+        }
+    }
+
+    /**
+     * Loads the index of a page. Returns null if the page is not in the index.
+     */
+    public static PageIndex loadPage(String serialized, int pageNumber) {
+
+        if (serialized == null || !serialized.startsWith(HEADER + '\t')) {
+            throw new NuxeoException("Not a Textract spatial index");
+        }
+        int headerEnd = serialized.indexOf('\n');
+        String pages = serialized.substring(HEADER.length() + 1, headerEnd);
+        int bodyStart = headerEnd + 1;
+
+        String prefix = pageNumber + ":";
+        for (String page : StringUtils.split(pages, ',')) {
+            if (page.startsWith(prefix)) {
+                String[] parts = StringUtils.split(page, ':');
+                int start = bodyStart + Integer.parseInt(parts[1]);
+                int end = bodyStart + Integer.parseInt(parts[2]);
+                return new PageIndex(pageNumber, parseEntries(serialized, start, end));
+            }
+        }
+        return null;
+    }
+
+    protected static float toFloat(Float value) {
+        return value == null ? 0f : value;
+    }
+
+    protected static List<Entry> parseEntries(String serialized, int start, int end) {
+        List<Entry> entries = new ArrayList<>();
+        int lineStart = start;
+        while (lineStart < end) {
+            int lineEnd = serialized.indexOf('\n', lineStart);
+            if (lineEnd < 0 || lineEnd > end) {
+                lineEnd = end;
+            }
+            String[] fields = StringUtils.splitPreserveAllTokens(serialized.substring(lineStart, lineEnd), '\t');
+            if (fields.length == 7) {
+                entries.add(new Entry(fields[0], Float.parseFloat(fields[1]), Float.parseFloat(fields[2]),
+                        Float.parseFloat(fields[3]), Float.parseFloat(fields[4]), Float.parseFloat(fields[5]),
+                        fields[6]));
+            }
+            lineStart = lineEnd + 1;
+        }
+        return entries;
+    }
+}
@@ -0,0 +1,673 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.aws.textract;
+
+import java.lang.management.ManagementFactory;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.nuxeo.ecm.core.api.NuxeoException;
+import org.nuxeo.ecm.core.work.api.WorkManager;
+import org.nuxeo.ecm.core.work.api.WorkQueueMetrics;
+import org.nuxeo.labs.aws.textract.TextractScheduler.Priority;
+import org.nuxeo.runtime.api.Framework;
+
+/**
+ * Live status of the Textract processing on this node, for the operators:
+ * <ul>
+ * <li>the operations in progress, with their document (or blob) and page progress</li>
+ * <li>the Textract calls in flight, with their document and page, and how long they waited for a quota permit</li>
+ * <li>per API: concurrency, and calls, errors and average duration over the last minute and 5 minutes</li>
+ * <li>the depth of the Textract work queues and of the quota, the temp. pages and payloads in use, the asynchronous
+ * jobs in progress, and the hits of the page cache (see {@link TextractPageCache})</li>
+ * </ul>
+ * It is updated by the operations and {@link TextractService}, and read by the management endpoint
+ * ({@link TextractManagementObject}) and the JMX beans ({@code org.nuxeo.labs.aws.textract:type=Status} and
+ * {@code org.nuxeo.labs.aws.textract:type=Api,name=<api>}).
+ * <p>
+ * New submissions can be paused, then resumed, or drained before the node shuts down: the operations and
+ * Textract.StartAsyncJob then fail with a 503 error, the auto-OCR works are deferred (see {@link TextractOcrWork}), the
+ * batches of images wait (see {@link TextractBatcher}), and the work in progress goes on. {@link #drain(long)} returns once it is done.
+ *
+ * @since TODO
+ */
+public class TextractStatusRegistry {
+
+    private static final Logger log = LogManager.getLogger(TextractStatusRegistry.class);
+
+    public enum State {
+        RUNNING, PAUSED, DRAINING
+    }
+
+    public static final String JMX_DOMAIN = "org.nuxeo.labs.aws.textract";
+
+    public static final long LAST_MINUTE_MS = 60_000;
+
+    public static final long LAST_5_MINUTES_MS = 300_000;
+
+    // 30 buckets of 10 seconds: the last 5 minutes
+    protected static final long BUCKET_MS = 10_000;
+
+    protected static final int BUCKETS = 30;
+
+    protected static final List<String> QUEUE_IDS = List.of(Priority.INTERACTIVE.getCategory(),
+            Priority.BACKFILL.getCategory(), TextractJobPollWork.CATEGORY);
+
+    protected static TextractStatusRegistry instance = null;
+
+    public static TextractStatusRegistry getInstance() {
+        if (instance == null) {
+            synchronized (TextractStatusRegistry.class) {
+                if (instance == null) {
+                    TextractStatusRegistry registry = new TextractStatusRegistry();
+                    registry.registerMBeans();
+                    instance = registry;
+                }
+            }
+        }
+        return instance;
+    }
+
+    protected volatile State state = State.RUNNING;
+
+    protected final AtomicLong nextId = new AtomicLong();
+
+    protected final Map<Long, ActiveOperation> operations = new ConcurrentHashMap<>();
+
+    protected final Map<Long, ActiveCall> calls = new ConcurrentHashMap<>();
+
+    protected final Map<String, ApiStats> apis = new ConcurrentHashMap<>();
+
+    protected final RecentCounter pages = new RecentCounter();
+
+    protected final AtomicLong pageCacheHits = new AtomicLong();
+
+    protected final AtomicLong pageCacheMisses = new AtomicLong();
+
+    protected boolean jmxEnabled = false;
+
+    protected TextractStatusRegistry() {
+
+    }
+
+    // ==================== Submissions ====================
+
+    public State getState() {
+        return state;
+    }
+
+    public void pause() {
+        setState(State.PAUSED);
+    }
+
+    public void resume() {
+        setState(State.RUNNING);
+    }
+
+    /**
+     * Stops accepting new submissions, and waits for the operations and calls in progress to finish.
+     *
+     * @return true if all of them finished before the timeout
+     */
+    public boolean drain(long timeoutMs) throws InterruptedException {
+        setState(State.DRAINING);
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        synchronized (this) {
+            while (!operations.isEmpty() || !calls.isEmpty()) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return false;
+                }
+                wait(Math.min(remaining, 1000));
+            }
+        }
+        return true;
+    }
+
+    protected synchronized void setState(State newState) {
+        if (state != newState) {
+            log.warn("Textract submissions: {} => {}", state, newState);
+            state = newState;
+        }
+        notifyAll();
+    }
+
+    public boolean isAccepting() {
+        return state == State.RUNNING;
+    }
+
+    /** Fails with a 503 error if new submissions are paused or drained. what is used in the message. */
+    public void checkAccepting(String what) {
+        State current = state;
+        if (current != State.RUNNING) {
+            throw new NuxeoException(what + " refused, Textract submissions are " + current.name().toLowerCase()
+                    + " on this node", HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        }
+    }
+
+    protected synchronized void notifyFinished() {
+        notifyAll();
+    }
+
+    // ==================== Operations and calls ====================
+
+    /**
+     * Registers an operation in progress, until the returned object is closed.
+     *
+     * @param docId null for a blob input
+     * @param source the name of the blob
+     */
+    public ActiveOperation startOperation(String api, String docId, String source, int pageCount) {
+        ActiveOperation operation = new ActiveOperation(nextId.incrementAndGet(), api, docId, source, pageCount);
+        operations.put(operation.id, operation);
+        return operation;
+    }
+
+    /**
+     * Registers a Textract call, waiting for its permit, until the returned object is closed. The document and page
+     * are the ones of the current {@link TextractCallContext}.
+     */
+    public ActiveCall startCall(String api) {
+        TextractCallContext ctx = TextractCallContext.current();
+        ActiveCall call = new ActiveCall(nextId.incrementAndGet(), getApiStats(api), ctx.getDocId(), ctx.getPage());
+        calls.put(call.id, call);
+        return call;
+    }
+
+    public void pageCacheLookup(boolean hit) {
+        (hit ? pageCacheHits : pageCacheMisses).incrementAndGet();
+    }
+
+    protected ApiStats getApiStats(String api) {
+        return apis.computeIfAbsent(api, key -> {
+            ApiStats stats = new ApiStats(key);
+            if (jmxEnabled) {
+                registerMBean("type=Api,name=" + ObjectName.quote(key), stats, ApiMBean.class);
+            }
+            return stats;
+        });
+    }
+
+    public int getActiveOperationCount() {
+        return operations.size();
+    }
+
+    public int getActiveCallCount() {
+        return calls.size();
+    }
+
+    public class ActiveOperation implements AutoCloseable {
+
+        protected final long id;
+
+        protected final String api;
+
+        protected final String docId;
+
+        protected final String source;
+
+        protected final int pageCount;
+
+        protected final long startedAt = System.currentTimeMillis();
+
+        protected final AtomicInteger donePages = new AtomicInteger();
+
+        protected final AtomicInteger cachedPages = new AtomicInteger();
+
+        protected final AtomicInteger failedPages = new AtomicInteger();
+
+        protected ActiveOperation(long id, String api, String docId, String source, int pageCount) {
+            this.id = id;
+            this.api = api;
+            this.docId = docId;
+            this.source = source;
+            this.pageCount = pageCount;
+        }
+
+        /** A page was processed, by Textract or from the page cache. */
+        public void pageDone(boolean cached) {
+            donePages.incrementAndGet();
+            if (cached) {
+                cachedPages.incrementAndGet();
+            }
+            pages.add(false, 0);
+        }
+
+        public void pageFailed() {
+            failedPages.incrementAndGet();
+            pages.add(true, 0);
+        }
+
+        protected JSONObject toJSON(long now) {
+            return new JSONObject().put("id", id)
+                                   .put("api", api)
+                                   .put("docId", docId == null ? JSONObject.NULL : docId)
+                                   .put("source", source == null ? JSONObject.NULL : source)
+                                   .put("startedAt", startedAt)
+                                   .put("elapsedMs", now - startedAt)
+                                   .put("pages", pageCount)
+                                   .put("donePages", donePages.get())
+                                   .put("cachedPages", cachedPages.get())
+                                   .put("failedPages", failedPages.get());
+        }
+
+        @Override
+        public void close() {
+            operations.remove(id);
+            notifyFinished();
+        }
+    }
+
+    public class ActiveCall implements AutoCloseable {
+
+        protected final long id;
+
+        protected final ApiStats stats;
+
+        protected final String docId;
+
+        protected final int page;
+
+        protected final long startedAt = System.currentTimeMillis();
+
+        // 0 while waiting for the permit
+        protected volatile long calledAt = 0;
+
+        protected boolean succeeded = false;
+
+        protected ActiveCall(long id, ApiStats stats, String docId, int page) {
+            this.id = id;
+            this.stats = stats;
+            this.docId = docId;
+            this.page = page;
+            stats.waiting.incrementAndGet();
+        }
+
+        /** The permit was acquired (or not needed), the call is sent. */
+        public void permitAcquired() {
+            calledAt = System.currentTimeMillis();
+            stats.waiting.decrementAndGet();
+            stats.inFlight.incrementAndGet();
+        }
+
+        public void succeeded() {
+            succeeded = true;
+        }
+
+        protected JSONObject toJSON(long now) {
+            long called = calledAt;
+            return new JSONObject().put("api", stats.api)
+                                   .put("docId", docId == null ? JSONObject.NULL : docId)
+                                   .put("page", page)
+                                   .put("state", called == 0 ? "WAITING_PERMIT" : "CALLING")
+                                   .put("startedAt", startedAt)
+                                   .put("waitedMs", (called == 0 ? now : called) - startedAt)
+                                   .put("callingMs", called == 0 ? 0 : now - called);
+        }
+
+        @Override
+        public void close() {
+            long called = calledAt;
+            if (called == 0) {
+                stats.waiting.decrementAndGet();
+            } else {
+                stats.inFlight.decrementAndGet();
+            }
+            stats.add(succeeded, called == 0 ? 0 : System.currentTimeMillis() - called);
+            calls.remove(id);
+            notifyFinished();
+        }
+    }
+
+    // ==================== Statistics ====================
+
+    /** Calls, errors and durations of an API, as a JMX bean. */
+    public interface ApiMBean {
+
+        int getInFlight();
+
+        int getWaitingPermit();
+
+        long getTotalCalls();
+
+        long getTotalErrors();
+
+        long getCallsLastMinute();
+
+        double getErrorRateLastMinute();
+
+        double getAverageMsLastMinute();
+    }
+
+    public static class ApiStats implements ApiMBean {
+
+        protected final String api;
+
+        protected final AtomicInteger inFlight = new AtomicInteger();
+
+        protected final AtomicInteger waiting = new AtomicInteger();
+
+        protected final AtomicLong totalCalls = new AtomicLong();
+
+        protected final AtomicLong totalErrors = new AtomicLong();
+
+        protected final RecentCounter recent = new RecentCounter();
+
+        protected ApiStats(String api) {
+            this.api = api;
+        }
+
+        protected void add(boolean succeeded, long durationMs) {
+            totalCalls.incrementAndGet();
+            if (!succeeded) {
+                totalErrors.incrementAndGet();
+            }
+            recent.add(!succeeded, durationMs);
+        }
+
+        @Override
+        public int getInFlight() {
+            return inFlight.get();
+        }
+
+        @Override
+        public int getWaitingPermit() {
+            return waiting.get();
+        }
+
+        @Override
+        public long getTotalCalls() {
+            return totalCalls.get();
+        }
+
+        @Override
+        public long getTotalErrors() {
+            return totalErrors.get();
+        }
+
+        @Override
+        public long getCallsLastMinute() {
+            return recent.sum(LAST_MINUTE_MS)[0];
+        }
+
+        @Override
+        public double getErrorRateLastMinute() {
+            long[] sum = recent.sum(LAST_MINUTE_MS);
+            return sum[0] == 0 ? 0 : (double) sum[1] / sum[0];
+        }
+
+        @Override
+        public double getAverageMsLastMinute() {
+            long[] sum = recent.sum(LAST_MINUTE_MS);
+            return sum[0] == 0 ? 0 : (double) sum[2] / sum[0];
+        }
+
+        protected JSONObject toJSON() {
+            return new JSONObject().put("inFlight", getInFlight())
+                                   .put("waitingPermit", getWaitingPermit())
+                                   .put("lastMinute", recent.toJSON(LAST_MINUTE_MS))
+                                   .put("last5Minutes", recent.toJSON(LAST_5_MINUTES_MS))
+                                   .put("total", new JSONObject().put("calls", getTotalCalls())
+                                                                 .put("errors", getTotalErrors()));
+        }
+    }
+
+    /** Counts, errors and durations of the last 5 minutes, in buckets of 10 seconds. */
+    protected static class RecentCounter {
+
+        protected final long[] keys = new long[BUCKETS];
+
+        protected final long[] counts = new long[BUCKETS];
+
+        protected final long[] errors = new long[BUCKETS];
+
+        protected final long[] durations = new long[BUCKETS];
+
+        protected synchronized void add(boolean error, long durationMs) {
+            long key = System.currentTimeMillis() / BUCKET_MS;
+            int i = (int) (key % BUCKETS);
+            if (keys[i] != key) {
+                keys[i] = key;
+                counts[i] = 0;
+                errors[i] = 0;
+                durations[i] = 0;
+            }
+            counts[i]++;
+            if (error) {
+                errors[i]++;
+            }
+            durations[i] += durationMs;
+        }
+
+        /** Returns the count, errors and total duration over the window (rounded to the buckets). */
+        protected synchronized long[] sum(long windowMs) {
+            long oldest = System.currentTimeMillis() / BUCKET_MS - windowMs / BUCKET_MS + 1;
+            long[] sum = new long[3];
+            for (int i = 0; i < BUCKETS; i++) {
+                if (keys[i] >= oldest) {
+                    sum[0] += counts[i];
+                    sum[1] += errors[i];
+                    sum[2] += durations[i];
+                }
+            }
+            return sum;
+        }
+
+        protected JSONObject toJSON(long windowMs) {
+            long[] sum = sum(windowMs);
+            return new JSONObject().put("count", sum[0])
+                                   .put("errors", sum[1])
+                                   .put("errorRate", sum[0] == 0 ? 0 : (double) sum[1] / sum[0])
+                                   .put("averageMs", sum[0] == 0 ? 0 : (double) sum[2] / sum[0]);
+        }
+    }
+
+    // ==================== Status ====================
+
+    /** The status of the node, returned by the management endpoint. */
+    public JSONObject toJSON() {
+        long now = System.currentTimeMillis();
+        JSONObject json = new JSONObject();
+        json.put("state", state.name());
+        json.put("timestamp", now);
+
+        JSONArray operationsJson = new JSONArray();
+        operations.values()
+                  .stream()
+                  .sorted(Comparator.comparingLong(operation -> operation.startedAt))
+                  .forEach(operation -> operationsJson.put(operation.toJSON(now)));
+        json.put("operations", operationsJson);
+
+        JSONArray callsJson = new JSONArray();
+        calls.values()
+             .stream()
+             .sorted(Comparator.comparingLong(call -> call.startedAt))
+             .forEach(call -> callsJson.put(call.toJSON(now)));
+        json.put("calls", callsJson);
+
+        JSONObject apisJson = new JSONObject();
+        apis.forEach((api, stats) -> apisJson.put(api, stats.toJSON()));
+        json.put("apis", apisJson);
+
+        json.put("pages", new JSONObject().put("lastMinute", pages.toJSON(LAST_MINUTE_MS))
+                                          .put("last5Minutes", pages.toJSON(LAST_5_MINUTES_MS)));
+        json.put("queues", getQueuesJSON());
+
+        TextractResourceGovernor governor = TextractResourceGovernor.getInstance();
+        json.put("resources", new JSONObject().put("tempBytes", governor.getTempBytes())
+                                              .put("maxTempBytes", governor.getMaxTempBytes())
+                                              .put("payloadBytes", governor.getPayloadBytes())
+                                              .put("maxPayloadBytes", governor.getMaxPayloadBytes()));
+
+        long hits = pageCacheHits.get();
+        long misses = pageCacheMisses.get();
+        double hitRate = hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+        json.put("pageCache", new JSONObject().put("hits", hits).put("misses", misses).put("hitRate", hitRate));
+        return json;
+    }
+
+    /**
+     * The works scheduled and running in the Textract queues (cluster-wide, depending on the WorkManager
+     * implementation), the calls waiting for a quota permit on this node and the asynchronous jobs in progress.
+     */
+    protected JSONObject getQueuesJSON() {
+        JSONObject queues = new JSONObject();
+        WorkManager workManager = Framework.getService(WorkManager.class);
+        for (String queueId : QUEUE_IDS) {
+            try {
+                WorkQueueMetrics metrics = workManager == null ? null : workManager.getMetrics(queueId);
+                if (metrics != null) {
+                    queues.put(queueId, new JSONObject().put("scheduled", metrics.getScheduled().longValue())
+                                                        .put("running", metrics.getRunning().longValue()));
+                }
+            } catch (RuntimeException e) {
+                log.debug("No metrics for queue {}: {}", queueId, e.getMessage());
+            }
+        }
+        JSONObject permits = new JSONObject();
+        TextractScheduler.getInstance().getWaitingCounts().forEach((priority, count) -> permits.put(priority.name(),
+                count));
+        queues.put("waitingPermit", permits);
+        try {
+            queues.put("asyncJobsInProgress", TextractJobRegistry.getInstance().getJobsInProgress().size());
+        } catch (RuntimeException e) {
+            log.debug("Cannot read the asynchronous jobs in progress: {}", e.getMessage());
+        }
+        return queues;
+    }
+
+    // ==================== JMX ====================
+
+    /** The status of the node, as a JMX bean. */
+    public interface StatusMBean {
+
+        String getState();
+
+        int getActiveOperations();
+
+        int getActiveCalls();
+
+        long getPagesLastMinute();
+
+        long getTempBytes();
+
+        long getPageCacheHits();
+
+        long getPageCacheMisses();
+
+        String getStatusJSON();
+
+        void pause();
+
+        void resume();
+
+        boolean drain(long timeoutSeconds) throws InterruptedException;
+    }
+
+    protected class Status implements StatusMBean {
+
+        @Override
+        public String getState() {
+            return state.name();
+        }
+
+        @Override
+        public int getActiveOperations() {
+            return getActiveOperationCount();
+        }
+
+        @Override
+        public int getActiveCalls() {
+            return getActiveCallCount();
+        }
+
+        @Override
+        public long getPagesLastMinute() {
+            return pages.sum(LAST_MINUTE_MS)[0];
+        }
+
+        @Override
+        public long getTempBytes() {
+            return TextractResourceGovernor.getInstance().getTempBytes();
+        }
+
+        @Override
+        public long getPageCacheHits() {
+            return pageCacheHits.get();
+        }
+
+        @Override
+        public long getPageCacheMisses() {
+            return pageCacheMisses.get();
+        }
+
+        @Override
+        public String getStatusJSON() {
+            return toJSON().toString(2);
+        }
+
+        @Override
+        public void pause() {
+            TextractStatusRegistry.this.pause();
+        }
+
+        @Override
+        public void resume() {
+            TextractStatusRegistry.this.resume();
+        }
+
+        @Override
+        public boolean drain(long timeoutSeconds) throws InterruptedException {
+            return TextractStatusRegistry.this.drain(1000 * timeoutSeconds);
+        }
+    }
+
+    protected void registerMBeans() {
+        jmxEnabled = true;
+        registerMBean("type=Status", new Status(), StatusMBean.class);
+    }
+
+    protected <T> void registerMBean(String properties, T bean, Class<T> beanInterface) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(JMX_DOMAIN + ":" + properties);
+            if (server.isRegistered(name)) {
+                // Hot reload, or tests
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(new StandardMBean(bean, beanInterface), name);
+        } catch (JMException e) {
+            log.warn("Cannot register the JMX bean {}: {}", properties, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.aws.textract;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.json.JSONArray;
+import org.nuxeo.ecm.core.api.DocumentModel;
+
+import com.amazonaws.services.textract.model.Block;
+import com.amazonaws.services.textract.model.Relationship;
+
+/**
+ * Rebuilds the tables and the key-value pairs of Textract Analyze results (TABLES and FORMS features), page after
+ * page.
+ * <p>
+ * For each page, the blocks are indexed by id once, then each relationship (CHILD, VALUE, MERGED_CELL) is resolved
+ * with a lookup in this index, so the cost is linear in the number of blocks.
+ * <p>
+ * A table is a map:
+ *
+ * <pre>
+ * {page, rowCount, columnCount, cells: [{row, column, rowSpan, columnSpan, text, confidence}, ...]}
+ * </pre>
+ *
+ * A merged cell is returned once, with its spans and the text of all its cells. A key-value pair is a map:
+ *
+ * <pre>
+ * {page, key, value, keyConfidence, valueConfidence}
+ * </pre>
+ *
+ * Row and column indexes are 1-based, as returned by Textract. A selection element (checkbox) is returned as its
+ * status, SELECTED or NOT_SELECTED.
+ *
+ * @since TODO
+ */
+public class TextractStructureExtractor {
+
+    protected final List<Map<String, Serializable>> tables = new ArrayList<>();
+
+    protected final List<Map<String, Serializable>> keyValues = new ArrayList<>();
+
+    public TextractStructureExtractor addPage(int pageNumber, List<Block> blocks) {
+        if (blocks == null || blocks.isEmpty()) {
+            return this;
+        }
+
+        Map<String, Block> blocksById = new HashMap<>(blocks.size() * 2);
+        for (Block block : blocks) {
+            blocksById.put(block.getId(), block);
+        }
+
+        for (Block block : blocks) {
+            if ("TABLE".equals(block.getBlockType())) {
+                tables.add(buildTable(pageNumber, block, blocksById));
+            } else if ("KEY_VALUE_SET".equals(block.getBlockType()) && block.getEntityTypes() != null
+                    && block.getEntityTypes().contains("KEY")) {
+                keyValues.add(buildKeyValue(pageNumber, block, blocksById));
+            }
+        }
+        return this;
+    }
+
+    public List<Map<String, Serializable>> getTables() {
+        return tables;
+    }
+
+    public List<Map<String, Serializable>> getKeyValues() {
+        return keyValues;
+    }
+
+    /**
+     * Returns the value to store at xpath: The list itself if the property is a list (of complex), else the JSON
+     * string of the list.
+     */
+    public static Serializable getResultValue(DocumentModel doc, String xpath,
+            List<Map<String, Serializable>> values) {
+        if (doc.getProperty(xpath).isList()) {
+            return new ArrayList<>(values);
+        }
+        return new JSONArray(values).toString();
+    }
+
+    protected Map<String, Serializable> buildTable(int pageNumber, Block table, Map<String, Block> blocksById) {
+
+        List<Map<String, Serializable>> cells = new ArrayList<>();
+        Set<String> cellsInMergedCells = new HashSet<>();
+
+        for (Block merged : getRelated(table, "MERGED_CELL", blocksById)) {
+            StringBuilder text = new StringBuilder();
+            for (Block cell : getRelated(merged, "CHILD", blocksById)) {
+                cellsInMergedCells.add(cell.getId());
+                appendText(text, getText(cell, blocksById));
+            }
+            cells.add(buildCell(merged, text.toString()));
+        }
+        for (Block cell : getRelated(table, "CHILD", blocksById)) {
+            if ("CELL".equals(cell.getBlockType()) && !cellsInMergedCells.contains(cell.getId())) {
+                cells.add(buildCell(cell, getText(cell, blocksById)));
+            }
+        }
+        cells.sort(Comparator.comparingInt((Map<String, Serializable> cell) -> (Integer) cell.get("row"))
+                             .thenComparingInt(cell -> (Integer) cell.get("column")));
+
+        int rowCount = 0;
+        int columnCount = 0;
+        for (Map<String, Serializable> cell : cells) {
+            rowCount = Math.max(rowCount, (Integer) cell.get("row") + (Integer) cell.get("rowSpan") - 1);
+            columnCount = Math.max(columnCount, (Integer) cell.get("column") + (Integer) cell.get("columnSpan") - 1);
+        }
+
+        Map<String, Serializable> result = new LinkedHashMap<>();
+        result.put("page", pageNumber);
+        result.put("rowCount", rowCount);
+        result.put("columnCount", columnCount);
+        result.put("cells", (Serializable) cells);
+        return result;
+    }
+
+    protected Map<String, Serializable> buildCell(Block cell, String text) {
+        Map<String, Serializable> result = new LinkedHashMap<>();
+        result.put("row", toInt(cell.getRowIndex(), 1));
+        result.put("column", toInt(cell.getColumnIndex(), 1));
+        result.put("rowSpan", toInt(cell.getRowSpan(), 1));
+        result.put("columnSpan", toInt(cell.getColumnSpan(), 1));
+        result.put("text", text);
+        result.put("confidence", toDouble(cell.getConfidence()));
+        return result;
+    }
+
+    protected Map<String, Serializable> buildKeyValue(int pageNumber, Block key, Map<String, Block> blocksById) {
+
+        StringBuilder value = new StringBuilder();
+        Float valueConfidence = null;
+        for (Block valueBlock : getRelated(key, "VALUE", blocksById)) {
+            appendText(value, getText(valueBlock, blocksById));
+            if (valueConfidence == null) {
+                valueConfidence = valueBlock.getConfidence();
+            }
+        }
+
+        Map<String, Serializable> result = new LinkedHashMap<>();
+        result.put("page", pageNumber);
+        result.put("key", getText(key, blocksById));
+        result.put("value", value.toString());
+        result.put("keyConfidence", toDouble(key.getConfidence()));
+        result.put("valueConfidence", toDouble(valueConfidence));
+        return result;
+    }
+
+    /** Returns the text of the WORD and SELECTION_ELEMENT children of the block, separated with a space. */
+    protected String getText(Block block, Map<String, Block> blocksById) {
+        StringBuilder text = new StringBuilder();
+        for (Block child : getRelated(block, "CHILD", blocksById)) {
+            if ("WORD".equals(child.getBlockType())) {
+                appendText(text, child.getText());
+            } else if ("SELECTION_ELEMENT".equals(child.getBlockType())) {
+                appendText(text, child.getSelectionStatus());
+            }
+        }
+        return text.toString();
+    }
+
+    protected static List<Block> getRelated(Block block, String relationshipType, Map<String, Block> blocksById) {
+        if (block.getRelationships() == null) {
+            return List.of();
+        }
+        List<Block> related = new ArrayList<>();
+        for (Relationship relationship : block.getRelationships()) {
+            if (relationshipType.equals(relationship.getType()) && relationship.getIds() != null) {
+                for (String id : relationship.getIds()) {
+                    Block relatedBlock = blocksById.get(id);
+                    if (relatedBlock != null) {
+                        related.add(relatedBlock);
+                    }
+                }
+            }
+        }
+        return related;
+    }
+
+    protected static void appendText(StringBuilder builder, String text) {
+        if (text == null || text.isEmpty()) {
+            return;
+        }
+        if (builder.length() > 0) {
+            builder.append(' ');
+        }
+        builder.append(text);
+    }
+
+    protected static int toInt(Integer value, int defaultValue) {
+        return value == null ? defaultValue : value;
+    }
+
+    protected static double toDouble(Float value) {
+        return value == null ? 0 : value;
+    }
+}
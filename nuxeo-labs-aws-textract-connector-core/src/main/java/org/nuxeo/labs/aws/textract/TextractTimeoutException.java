@@ -0,0 +1,42 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.aws.textract;
+
+import org.nuxeo.ecm.core.api.NuxeoException;
+
+import com.amazonaws.http.timers.client.ClientExecutionTimeoutException;
+
+/**
+ * Thrown when the deadline of the {@link TextractCallContext} is reached.
+ *
+ * @since TODO
+ */
+public class TextractTimeoutException extends NuxeoException {
+
+    private static final long serialVersionUID = 1L;
+
+    public TextractTimeoutException(String message) {
+        super(message);
+    }
+
+    /** True for this exception and for the SDK timeout set from the deadline. */
+    public static boolean isTimeout(Throwable e) {
+        return e instanceof TextractTimeoutException || e instanceof ClientExecutionTimeoutException;
+    }
+}
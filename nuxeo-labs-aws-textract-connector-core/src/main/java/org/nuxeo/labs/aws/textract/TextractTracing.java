@@ -0,0 +1,117 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.aws.textract;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import io.opencensus.common.Scope;
+import io.opencensus.trace.AttributeValue;
+import io.opencensus.trace.Span;
+import io.opencensus.trace.Status;
+import io.opencensus.trace.Tracer;
+import io.opencensus.trace.Tracing;
+
+/**
+ * Tracing of the Textract processing, using the OpenCensus API Nuxeo is instrumented with (see the
+ * {@code metrics.tracing.*} properties of nuxeo.conf to export the spans).
+ * <p>
+ * A span is started as a child of the current span, so the spans of an operation are children of the span of the
+ * calling automation request or Work, and the span of a page is the parent of the spans of its extraction and of its
+ * Textract call. When tracing is not enabled, the spans are no-op.
+ * <p>
+ * Spans:
+ * <ul>
+ * <li>textract.operation: Textract.Analyze or Textract.DetectDocumentText</li>
+ * <li>textract.pdf.load: loading the PDF to count and split its pages</li>
+ * <li>textract.page: processing of one page (extraction and call)</li>
+ * <li>textract.tiff.load: reading the frame directory of a TIFF</li>
+ * <li>textract.page.extract: saving one page as a PDF (or one TIFF frame as a PNG)</li>
+ * <li>textract.preflight: the local checks of a blob before it is sent (see {@link TextractPreflight})</li>
+ * <li>textract.readBytes: reading a blob to send it inline</li>
+ * <li>textract.call: the Textract API call, including the wait for a quota permit (textract.quota.wait)</li>
+ * <li>textract.serialize: building the JSON of a result</li>
+ * </ul>
+ *
+ * @since TODO
+ */
+public class TextractTracing {
+
+    public static final String ATTR_API = "textract.api";
+
+    public static final String ATTR_FEATURES = "textract.features";
+
+    public static final String ATTR_PAGE = "textract.page";
+
+    public static final String ATTR_PAGES = "textract.pages";
+
+    public static final String ATTR_BYTES = "textract.bytes";
+
+    public static final String ATTR_REGION = "textract.region";
+
+    public static final String ATTR_S3 = "textract.s3";
+
+    public static final String ATTR_CACHED_PAGES = "textract.cachedPages";
+
+    protected static final Tracer TRACER = Tracing.getTracer();
+
+    private TextractTracing() {
+
+    }
+
+    /** Starts a span, child of the current one, and makes it the current span until the scope is closed. */
+    public static Scope startSpan(String name) {
+        return TRACER.spanBuilder(name).startScopedSpan();
+    }
+
+    public static void putAttribute(String key, String value) {
+        if (value != null) {
+            TRACER.getCurrentSpan().putAttribute(key, AttributeValue.stringAttributeValue(value));
+        }
+    }
+
+    public static void putAttribute(String key, long value) {
+        TRACER.getCurrentSpan().putAttribute(key, AttributeValue.longAttributeValue(value));
+    }
+
+    public static void putAttribute(String key, boolean value) {
+        TRACER.getCurrentSpan().putAttribute(key, AttributeValue.booleanAttributeValue(value));
+    }
+
+    public static void putAttribute(String key, List<String> values) {
+        if (values != null) {
+            putAttribute(key, String.join(",", values));
+        }
+    }
+
+    /** Wraps a task run in another thread, so its spans are children of the current span. */
+    public static <V> Callable<V> withCurrentSpan(Callable<V> task) {
+        return TRACER.withSpan(TRACER.getCurrentSpan(), task);
+    }
+
+    public static void addAnnotation(String description) {
+        TRACER.getCurrentSpan().addAnnotation(description);
+    }
+
+    /** Flags the current span as failed. */
+    public static void setError(Throwable e) {
+        Span span = TRACER.getCurrentSpan();
+        span.setStatus(Status.UNKNOWN.withDescription(e.getClass().getSimpleName() + ": " + e.getMessage()));
+    }
+}
@@ -18,27 +18,40 @@
  */
 package org.nuxeo.labs.aws.textract;
 
+import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Objects;
 import java.util.Set;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.nuxeo.ecm.automation.core.util.BlobList;
 import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.model.impl.primitives.BlobProperty;
 import org.nuxeo.ecm.platform.pdf.PDFInfo;
 import org.nuxeo.ecm.platform.pdf.PDFPageExtractor;
 
 import com.amazonaws.services.textract.model.Block;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.opencensus.common.Scope;
 
 /**
  * @since TODO
  */
 public class TextractUtils {
-    
+
+    private static final Logger log = LogManager.getLogger(TextractUtils.class);
+
     public enum Granularity {
         WORD, LINE
     }
@@ -71,6 +84,26 @@ public class TextractUtils {
         return String.join(separator, getAllText(blocksSupplier, granularity));
     }
     
+    /**
+     * Serializes a Textract result (AnalyzeDocumentResult, DetectDocumentTextResult, ...) as JSON.
+     * 
+     * @since TODO
+     */
+    public static String toJsonString(Object textractResult) {
+        try (Scope scope = TextractTracing.startSpan("textract.serialize")) {
+            TextractEvents.SerializeEvent event = TextractEvents.newSerializeEvent();
+            event.begin();
+            ObjectMapper mapper = new ObjectMapper();
+            var jsonNode = mapper.valueToTree(textractResult);
+
+            String json = jsonNode.toString();
+            event.chars = json.length();
+            event.blockCount = TextractEvents.countBlocks(textractResult);
+            event.commit();
+            return json;
+        }
+    }
+
     /**
      * Remove the duplicate lines.
      * 
@@ -84,20 +117,133 @@ public class TextractUtils {
             separator = "\n";
         }
         
-        Set<String> seen = new LinkedHashSet<>();
-        String result = Arrays.stream(input.split("\\R"))
-                       .filter(line -> seen.add(line.toLowerCase()))
-                       .collect(Collectors.joining(separator));
-        
-        return result;
+        try (TextAssembler assembler = new TextAssembler(separator, Integer.MAX_VALUE)) {
+            input.lines().forEach(assembler::append);
+            return assembler.getText();
+        }
+    }
+
+    /**
+     * Returns the value to store at xpath: A Blob if the property is a blob, else a String. The String is truncated to
+     * the threshold of the assembler (see {@link TextAssembler#getText(int)}) so a large text is never read back in
+     * memory: use a blob field to store it all.
+     *
+     * @since TODO
+     */
+    public static Serializable getResultValue(DocumentModel doc, String xpath, TextAssembler assembler) {
+        if (doc.getProperty(xpath) instanceof BlobProperty) {
+            Blob blob = assembler.getBlob();
+            blob.setFilename("textract-result.txt");
+            return (Serializable) blob;
+        }
+        if (!assembler.isInFile()) {
+            return assembler.getText();
+        }
+        log.warn("Textract text of doc {} truncated to {} characters, {} is not a blob field", doc.getId(),
+                assembler.getThreshold(), xpath);
+        return assembler.getText(assembler.getThreshold());
     }
     
+    /**
+     * Returns the page numbers (1-based) to process, in the order they must be processed.
+     * <p>
+     * pageRange is a comma separated list of pages and ranges, like "1-3,5,10-". Pages outside the document are
+     * ignored. If pageRange is blank, all the pages are selected. Then, if maxPages is greater than 0, only the first
+     * maxPages pages are kept.
+     *
+     * @since TODO
+     */
+    public static List<Integer> selectPages(String pageRange, int maxPages, int numberOfPages) {
+
+        Set<Integer> pages = new LinkedHashSet<>();
+        if (StringUtils.isBlank(pageRange)) {
+            for (int i = 1; i <= numberOfPages; i++) {
+                pages.add(i);
+            }
+        } else {
+            for (String part : StringUtils.split(pageRange, ",")) {
+                part = part.trim();
+                if (part.isEmpty()) {
+                    continue;
+                }
+                int dash = part.indexOf('-');
+                int first;
+                int last;
+                try {
+                    if (dash < 0) {
+                        first = last = Integer.parseInt(part);
+                    } else {
+                        String start = part.substring(0, dash).trim();
+                        String end = part.substring(dash + 1).trim();
+                        first = start.isEmpty() ? 1 : Integer.parseInt(start);
+                        last = end.isEmpty() ? numberOfPages : Integer.parseInt(end);
+                    }
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid page range: " + pageRange);
+                }
+                for (int i = Math.max(1, first); i <= Math.min(last, numberOfPages); i++) {
+                    pages.add(i);
+                }
+            }
+        }
+
+        List<Integer> result = new ArrayList<>(pages);
+        if (maxPages > 0 && result.size() > maxPages) {
+            result = new ArrayList<>(result.subList(0, maxPages));
+        }
+        return result;
+    }
+
+    /**
+     * Splits a comma-separated list of keywords, lowercase.
+     *
+     * @since TODO
+     */
+    public static Set<String> parseKeywords(String keywords) {
+        Set<String> result = new LinkedHashSet<>();
+        if (StringUtils.isNotBlank(keywords)) {
+            Arrays.stream(keywords.split(","))
+                  .map(String::trim)
+                  .filter(s -> !s.isEmpty())
+                  .map(s -> s.toLowerCase(Locale.ROOT))
+                  .forEach(result::add);
+        }
+        return result;
+    }
+
+    /**
+     * Removes from remainingKeywords the ones found in the LINE blocks. Returns true if all keywords were found (and
+     * there was at least one keyword to find at first)
+     *
+     * @since TODO
+     */
+    public static boolean removeFoundKeywords(Collection<String> remainingKeywords, List<Block> blocks) {
+        if (remainingKeywords.isEmpty()) {
+            return false;
+        }
+        if (blocks != null) {
+            for (Block block : blocks) {
+                if ("LINE".equals(block.getBlockType()) && block.getText() != null) {
+                    String text = block.getText().toLowerCase(Locale.ROOT);
+                    remainingKeywords.removeIf(text::contains);
+                    if (remainingKeywords.isEmpty()) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
     /**
      * Return null if the input blob has one page or is not pdf
      * @param blob
      * @return
      * @since TODO
+     * @deprecated extracts all the pages at once, use {@link PageSplitter}, which extracts them on demand and
+     *             deletes them
      */
+    @Deprecated
     public static BlobList splitPDFIfMoreThanOnePage(Blob blob) {
         
         String mimeType = blob.getMimeType();
@@ -18,9 +18,11 @@
  */
 package org.nuxeo.labs.aws.textract;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.io.File;
 import java.io.Serializable;
@@ -32,8 +34,10 @@ import java.util.Map;
 import java.util.stream.Collectors;
 
 import javax.inject.Inject;
+import javax.servlet.http.HttpServletResponse;
 
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.json.JSONArray;
 import org.json.JSONObject;
 import org.junit.Assume;
@@ -43,11 +47,13 @@ import org.junit.runner.RunWith;
 import org.nuxeo.common.utils.FileUtils;
 import org.nuxeo.ecm.automation.AutomationService;
 import org.nuxeo.ecm.automation.OperationContext;
+import org.nuxeo.ecm.automation.core.util.BlobList;
 import org.nuxeo.ecm.automation.test.AutomationFeature;
 import org.nuxeo.ecm.core.api.Blob;
 import org.nuxeo.ecm.core.api.Blobs;
 import org.nuxeo.ecm.core.api.CoreSession;
 import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.NuxeoException;
 import org.nuxeo.ecm.core.api.impl.blob.FileBlob;
 import org.nuxeo.ecm.core.test.DefaultRepositoryInit;
 import org.nuxeo.ecm.core.test.annotations.Granularity;
@@ -168,6 +174,9 @@ public class TestOperations {
 
         Blob b = Blobs.createBlob("whatever");
         b.setDigest(TestUtils.DIGEST);
+        // Stands for the PDF on S3: no text/plain mime type, or the preflight rejects it
+        b.setMimeType(null);
+        b.setFilename("somefile.pdf");
 
         DocumentModel doc = session.createDocumentModel("/", "testfile", "File");
         doc.setPropertyValue("file:content", (Serializable) b);
@@ -199,6 +208,118 @@ public class TestOperations {
 
     }
 
+    @Test
+    public void shouldAnalyzeABlobAndReturnTheText() throws Exception {
+
+        Assume.assumeTrue("No TEST_TEXTRACT_... env. variables set => ignoring the test",
+                TestUtils.hasTestEnvVariables());
+
+        File file = FileUtils.getResourceFileFromContext(TEST_PDF_IMAGE_PATH);
+        Blob b = new FileBlob(file);
+        b.setMimeType("application/pdf");
+        b.setFilename("theblob.pdf");
+
+        OperationContext ctx = new OperationContext(session);
+        ctx.setInput(b);
+        Map<String, Object> params = new HashMap<>();
+        params.put("bucket", TestUtils.BUCKET);
+        params.put("bucketPrefix", TestUtils.BUCKET_PREFIX);
+        params.put("region", TestUtils.REGION);
+
+        Blob result = (Blob) automationService.run(ctx, AnalyzeOp.ID, params);
+        assertNotNull(result);
+        assertEquals("theblob.txt", result.getFilename());
+
+        String text = result.getString().toLowerCase();
+        assertTrue(text.indexOf("nuxeo") > -1);
+        assertTrue(text.indexOf("cloud-native") > -1);
+    }
+
+    @Test
+    public void shouldDetectTheTextOfEachBlobOfABlobList() throws Exception {
+
+        Assume.assumeTrue("No TEST_TEXTRACT_... env. variables set => ignoring the test",
+                TestUtils.hasTestEnvVariables());
+
+        File file = FileUtils.getResourceFileFromContext(TEST_PDF_IMAGE_PATH);
+        BlobList blobs = new BlobList();
+        for (String name : List.of("first.pdf", "second.pdf")) {
+            Blob b = new FileBlob(file);
+            b.setMimeType("application/pdf");
+            b.setFilename(name);
+            blobs.add(b);
+        }
+
+        OperationContext ctx = new OperationContext(session);
+        ctx.setInput(blobs);
+        Map<String, Object> params = new HashMap<>();
+        params.put("returnRawJson", true);
+        params.put("bucket", TestUtils.BUCKET);
+        params.put("bucketPrefix", TestUtils.BUCKET_PREFIX);
+        params.put("region", TestUtils.REGION);
+
+        BlobList results = (BlobList) automationService.run(ctx, DetectDocumentTextOp.ID, params);
+        assertEquals(2, results.size());
+        // In the order of the input
+        assertEquals("first.json", results.get(0).getFilename());
+        assertEquals("second.json", results.get(1).getFilename());
+        for (Blob result : results) {
+            JSONArray pages = new JSONArray(result.getString());
+            assertEquals(3, pages.length());
+            assertEquals(3, pages.getJSONObject(2).getInt("page"));
+        }
+    }
+
+    @Test
+    public void shouldRefuseABlobListWhenPaused() throws Exception {
+
+        BlobList blobs = new BlobList();
+        blobs.add(Blobs.createBlob("Hello"));
+        OperationContext ctx = new OperationContext(session);
+        ctx.setInput(blobs);
+
+        TextractStatusRegistry registry = TextractStatusRegistry.getInstance();
+        registry.pause();
+        try {
+            automationService.run(ctx, DetectDocumentTextOp.ID, new HashMap<>());
+            fail("Submissions are paused");
+        } catch (Exception e) {
+            // Refused before the service is created, Textract is not called
+            NuxeoException refused = (NuxeoException) ExceptionUtils.getThrowableList(e)
+                                                                     .stream()
+                                                                     .filter(NuxeoException.class::isInstance)
+                                                                     .reduce((first, second) -> second)
+                                                                     .orElseThrow();
+            assertEquals(HttpServletResponse.SC_SERVICE_UNAVAILABLE, refused.getStatusCode());
+        } finally {
+            registry.resume();
+        }
+    }
+
+    @Test
+    public void shouldFindTextInRegionFromABlobIndex() throws Exception {
+
+        DocumentModel doc = session.createDocumentModel("/", "testfile", "File");
+        doc.setPropertyValue("file:content", (Serializable) Blobs.createBlob(TestTextractSpatialIndex.buildIndex()));
+        doc = session.createDocument(doc);
+
+        OperationContext ctx = new OperationContext(session);
+        ctx.setInput(doc);
+        Map<String, Object> params = new HashMap<>();
+        params.put("indexXPath", "file:content");
+        params.put("page", 3);
+        Blob result = (Blob) automationService.run(ctx, FindTextInRegionOp.ID, params);
+
+        JSONArray found = new JSONArray(result.getString());
+        assertEquals(1, found.length());
+        assertEquals("Signature", found.getJSONObject(0).getString("text"));
+
+        // Not in the index
+        params.put("page", 2);
+        result = (Blob) automationService.run(ctx, FindTextInRegionOp.ID, params);
+        assertEquals(0, new JSONArray(result.getString()).length());
+    }
+
     // Ignore because  the code requires to deploy providers and all, and the local @Deploy don't work for whatever reason
     @Ignore
     @Test
@@ -0,0 +1,101 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.aws.textract;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.impl.blob.FileBlob;
+import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.test.runner.Features;
+import org.nuxeo.runtime.test.runner.FeaturesRunner;
+import org.nuxeo.runtime.test.runner.RuntimeFeature;
+
+@RunWith(FeaturesRunner.class)
+@Features(RuntimeFeature.class)
+public class TestPageSplitter {
+
+    protected static Blob createTiff(int pages) throws Exception {
+        File file = Framework.createTempFile("test-", ".tif");
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("tiff").next();
+        try (ImageOutputStream out = ImageIO.createImageOutputStream(file)) {
+            writer.setOutput(out);
+            writer.prepareWriteSequence(null);
+            for (int i = 0; i < pages; i++) {
+                // Bilevel, like a fax. The width tells the page
+                BufferedImage image = new BufferedImage(100 + i, 50, BufferedImage.TYPE_BYTE_BINARY);
+                writer.writeToSequence(new IIOImage(image, null, null), null);
+            }
+            writer.endWriteSequence();
+        } finally {
+            writer.dispose();
+        }
+        Blob blob = new FileBlob(file, PageSplitter.TIFF_MIME_TYPE);
+        blob.setFilename("fax.tif");
+        return blob;
+    }
+
+    @Test
+    public void shouldSplitMultiPageTiffOnDemand() throws Exception {
+        Blob tiff = createTiff(3);
+        File file;
+        try (PageSplitter splitter = new PageSplitter(tiff)) {
+            assertEquals(3, splitter.getNumberOfPages());
+
+            // Any order
+            Blob page = splitter.getPage(3);
+            assertEquals("image/png", page.getMimeType());
+            assertEquals("page-3.png", page.getFilename());
+            file = page.getFile();
+            assertEquals(102, ImageIO.read(file).getWidth());
+            splitter.release(page);
+            assertFalse(file.exists());
+
+            page = splitter.getPage(1);
+            file = page.getFile();
+            assertEquals(100, ImageIO.read(file).getWidth());
+        }
+        // Deleted when closing the splitter
+        assertFalse(file.exists());
+        assertEquals(0, TextractResourceGovernor.getInstance().getTempBytes());
+    }
+
+    @Test
+    public void shouldReturnSinglePageTiffAsIs() throws Exception {
+        Blob tiff = createTiff(1);
+        assertTrue(PageSplitter.isTiff(tiff));
+        try (PageSplitter splitter = new PageSplitter(tiff)) {
+            assertEquals(1, splitter.getNumberOfPages());
+            assertSame(tiff, splitter.getPage(1));
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.aws.textract;
+
+import static org.junit.Assert.assertSame;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Test;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.Blobs;
+
+public class TestPictureViewSelection {
+
+    protected static Blob blob(int length, String mimeType) {
+        return Blobs.createBlob(StringUtils.repeat('x', length), mimeType);
+    }
+
+    protected static Map<String, Serializable> view(long width, long height, Blob content) {
+        Map<String, Serializable> view = new HashMap<>();
+        view.put("width", width);
+        view.put("height", height);
+        view.put("content", (Serializable) content);
+        return view;
+    }
+
+    @Test
+    public void shouldSelectTheSmallestViewLargeEnough() {
+        Blob original = blob(1000, "image/png");
+        Blob thumbnail = blob(10, "image/jpeg");
+        Blob medium = blob(100, "image/jpeg");
+        Blob fullHD = blob(300, "image/jpeg");
+        List<Map<String, Serializable>> views = List.of(view(350, 200, thumbnail), view(2000, 1200, fullHD),
+                view(1200, 800, medium));
+
+        assertSame(medium, TextractService.selectPictureView(views, original, 1000));
+        assertSame(fullHD, TextractService.selectPictureView(views, original, 1500));
+        // No view large enough
+        assertSame(original, TextractService.selectPictureView(views, original, 3000));
+        assertSame(original, TextractService.selectPictureView(null, original, 1000));
+    }
+
+    @Test
+    public void shouldIgnoreViewsTextractCannotRead() {
+        Blob original = blob(1000, "image/jpeg");
+        Blob gif = blob(10, "image/gif");
+        Blob bigger = blob(2000, "image/jpeg");
+        List<Map<String, Serializable>> views = List.of(view(2000, 1200, gif), view(2000, 1200, bigger));
+
+        assertSame(original, TextractService.selectPictureView(views, original, 1000));
+    }
+}
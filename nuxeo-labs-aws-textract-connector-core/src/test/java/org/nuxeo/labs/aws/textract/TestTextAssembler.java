@@ -0,0 +1,100 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.aws.textract;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.runtime.test.runner.Features;
+import org.nuxeo.runtime.test.runner.FeaturesRunner;
+import org.nuxeo.runtime.test.runner.RuntimeFeature;
+
+@RunWith(FeaturesRunner.class)
+@Features(RuntimeFeature.class)
+public class TestTextAssembler {
+
+    @Test
+    public void shouldRemoveDuplicatesWhileAppending() {
+        try (TextAssembler assembler = new TextAssembler("\n", 1000)) {
+            assembler.append(List.of("Hello", "World"));
+            assembler.append(List.of("HELLO", "again", "world"));
+            assertFalse(assembler.isInFile());
+            assertEquals("Hello\nWorld\nagain", assembler.getText());
+        }
+    }
+
+    @Test
+    public void shouldMoveToFileAboveThreshold() throws Exception {
+        try (TextAssembler assembler = new TextAssembler("\n", 10)) {
+            assembler.append("first line");
+            assertFalse(assembler.isInFile());
+            assembler.append("second line");
+            assertTrue(assembler.isInFile());
+            assembler.append("third line");
+
+            Blob blob = assembler.getBlob();
+            assertEquals("text/plain", blob.getMimeType());
+            assertEquals("first line\nsecond line\nthird line",
+                    FileUtils.readFileToString(blob.getFile(), StandardCharsets.UTF_8));
+            assertEquals("first line\nsecond line\nthird line", assembler.getText());
+        }
+    }
+
+    @Test
+    public void shouldTruncateTheTextToCompleteLines() {
+        try (TextAssembler assembler = new TextAssembler("\n", 10)) {
+            assembler.append(List.of("first line", "second line", "third line"));
+            assertTrue(assembler.isInFile());
+            assertEquals("first line\nsecond line", assembler.getText(25));
+            assertEquals("first line\nsecond line\nthird line", assembler.getText(1000));
+        }
+        try (TextAssembler assembler = new TextAssembler("\n", 1000)) {
+            assembler.append(List.of("first line", "second line"));
+            assertEquals("first line", assembler.getText(15));
+            // No separator in the limit
+            assertEquals("first", assembler.getText(5));
+        }
+    }
+
+    @Test
+    public void shouldKeepTheHashesAsPrimitives() {
+        TextAssembler.LongHashSet set = new TextAssembler.LongHashSet();
+        for (long i = 0; i < 5000; i++) {
+            assertTrue(set.add(i * 31));
+        }
+        for (long i = 0; i < 5000; i++) {
+            assertFalse(set.add(i * 31));
+        }
+        assertEquals(5000, set.size());
+        assertTrue(set.table.length >= 10_000);
+    }
+
+    @Test
+    public void shouldRemoveDuplicateLines() {
+        assertEquals("a\nB\nc", TextractUtils.removeDuplicates("a\nB\nA\r\nb\nc", "\n"));
+    }
+}
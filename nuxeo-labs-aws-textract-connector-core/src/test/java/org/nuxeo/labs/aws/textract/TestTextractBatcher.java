@@ -0,0 +1,175 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.aws.textract;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.imageio.ImageIO;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.junit.Test;
+import org.nuxeo.ecm.core.api.impl.blob.StringBlob;
+import org.nuxeo.runtime.kv.KeyValueStore;
+import org.nuxeo.runtime.kv.MemKeyValueStore;
+
+public class TestTextractBatcher {
+
+    protected static class MemBatcher extends TextractBatcher {
+
+        protected final KeyValueStore kv = new MemKeyValueStore();
+
+        protected final Set<String> jobIds = new HashSet<>();
+
+        protected final List<String> processedAlone = new ArrayList<>();
+
+        protected MemBatcher(int maxPages, long windowMs) {
+            super(maxPages, windowMs, 1000);
+        }
+
+        @Override
+        protected KeyValueStore getKeyValueStore() {
+            return kv;
+        }
+
+        @Override
+        protected boolean hasJob(String jobId) {
+            return jobIds.contains(jobId);
+        }
+
+        @Override
+        protected void processAlone(TextractJob.Member member) {
+            processedAlone.add(member.docId);
+        }
+    }
+
+    protected static TextractJob.Member newMember(String docId, long queuedAt) {
+        TextractJob.Member member = new TextractJob.Member();
+        member.repository = "default";
+        member.docId = docId;
+        member.blobXPath = "file:content";
+        member.queuedAt = queuedAt;
+        return member;
+    }
+
+    protected static void queue(TextractBatcher batcher, String docId, long queuedAt) {
+        TextractJob.Member member = newMember(docId, queuedAt);
+        batcher.updatePending(members -> members.add(member));
+    }
+
+    @Test
+    public void shouldTakeFullBatchOrAfterWindow() {
+        MemBatcher batcher = new MemBatcher(3, 1000);
+        queue(batcher, "doc1", 0);
+        queue(batcher, "doc2", 100);
+        assertTrue(batcher.takeBatch(500).isEmpty());
+
+        queue(batcher, "doc3", 200);
+        queue(batcher, "doc4", 300);
+        List<TextractJob.Member> batch = batcher.takeBatch(500);
+        assertEquals(3, batch.size());
+        assertEquals("doc1", batch.get(0).docId);
+        assertEquals("doc3", batch.get(2).docId);
+
+        // doc4 waits for the window
+        assertTrue(batcher.takeBatch(1299).isEmpty());
+        batch = batcher.takeBatch(1300);
+        assertEquals(1, batch.size());
+        assertEquals("doc4", batch.get(0).docId);
+        assertFalse(batcher.hasPending());
+    }
+
+    @Test
+    public void shouldQueueAgainABatchThatCannotBeSubmitted() {
+        MemBatcher batcher = new MemBatcher(3, 1000);
+        queue(batcher, "doc3", 0);
+        List<TextractJob.Member> batch = List.of(newMember("doc1", 0), newMember("doc2", 0));
+        batch.get(1).submitAttempts = TextractBatcher.MAX_SUBMIT_ATTEMPTS - 1;
+
+        batcher.requeue(batch);
+        // At the head of the pending documents, doc2 gave up on batching
+        List<TextractJob.Member> pending = batcher.takeBatch(1000);
+        assertEquals(2, pending.size());
+        assertEquals("doc1", pending.get(0).docId);
+        assertEquals(1, pending.get(0).submitAttempts);
+        assertEquals("doc3", pending.get(1).docId);
+        assertEquals(List.of("doc2"), batcher.processedAlone);
+    }
+
+    @Test
+    public void shouldReleaseTheMarkerOfAJobNoLongerRegistered() {
+        MemBatcher batcher = new MemBatcher(3, 1000);
+        TextractJob.Member member = newMember("doc1", 0);
+        assertTrue(batcher.claimMember(member));
+        assertFalse(batcher.claimMember(member));
+
+        // Submitted
+        batcher.kv.put(TextractBatcher.memberKey(member), "job1");
+        batcher.jobIds.add("job1");
+        assertFalse(batcher.claimMember(member));
+
+        // The node died before forgetting the document
+        batcher.jobIds.remove("job1");
+        assertTrue(batcher.claimMember(member));
+        assertEquals(TextractBatcher.PENDING_MARKER, batcher.kv.getString(TextractBatcher.memberKey(member)));
+    }
+
+    @Test
+    public void shouldBatchSmallImagesOnly() {
+        MemBatcher batcher = new MemBatcher(3, 1000);
+        assertTrue(batcher.isBatchable(new StringBlob("image", "image/png")));
+        assertTrue(batcher.isBatchable(new StringBlob("image", "image/jpeg")));
+        assertFalse(batcher.isBatchable(new StringBlob("pdf", "application/pdf")));
+        assertFalse(batcher.isBatchable(new StringBlob("x".repeat(1001), "image/png")));
+    }
+
+    @Test
+    public void shouldAddOnePagePerImage() throws Exception {
+        File small = File.createTempFile("test-", ".png");
+        File large = File.createTempFile("test-", ".png");
+        try (PDDocument pdfDoc = new PDDocument()) {
+            ImageIO.write(new BufferedImage(300, 100, BufferedImage.TYPE_BYTE_GRAY), "png", small);
+            ImageIO.write(new BufferedImage(5760, 100, BufferedImage.TYPE_BYTE_BINARY), "png", large);
+
+            TextractBatcher.addImagePage(pdfDoc, small);
+            TextractBatcher.addImagePage(pdfDoc, large);
+
+            assertEquals(2, pdfDoc.getNumberOfPages());
+            PDRectangle box = pdfDoc.getPage(0).getMediaBox();
+            assertEquals(300, box.getWidth(), 0.01);
+            assertEquals(100, box.getHeight(), 0.01);
+            // Scaled down to the largest page Textract accepts
+            box = pdfDoc.getPage(1).getMediaBox();
+            assertEquals(2880, box.getWidth(), 0.01);
+            assertEquals(50, box.getHeight(), 0.01);
+        } finally {
+            small.delete();
+            large.delete();
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.aws.textract;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+
+import org.junit.Test;
+import org.nuxeo.labs.aws.textract.TextractScheduler.Priority;
+
+import com.amazonaws.services.textract.model.DetectDocumentTextRequest;
+
+public class TestTextractCallContext {
+
+    @Test
+    public void shouldKeepTheEarliestDeadline() {
+        long now = System.currentTimeMillis();
+        try (TextractCallContext.Scope document = TextractCallContext.enterDeadline(now + 1000)) {
+            try (TextractCallContext.Scope page = TextractCallContext.enterDeadline(now + 5000)) {
+                assertEquals(now + 1000, TextractCallContext.current().getDeadline());
+            }
+            try (TextractCallContext.Scope page = TextractCallContext.enterDeadline(now + 500)) {
+                assertEquals(now + 500, TextractCallContext.current().getDeadline());
+            }
+            assertEquals(now + 1000, TextractCallContext.current().getDeadline());
+        }
+        assertEquals(0, TextractCallContext.current().getDeadline());
+        assertEquals(Long.MAX_VALUE, TextractCallContext.current().getRemainingMs());
+    }
+
+    @Test
+    public void shouldNotWaitForAPermitAfterTheDeadline() {
+        // 1 permit/s, the burst is used by the first call
+        TextractScheduler scheduler = new TextractScheduler(1, 1.0, 0.5, null);
+        scheduler.acquire(Priority.INTERACTIVE, "tenant");
+        long start = System.currentTimeMillis();
+        try (TextractCallContext.Scope scope = TextractCallContext.enterDeadline(start + 100)) {
+            scheduler.acquire(Priority.INTERACTIVE, "tenant");
+            fail("Should have timed out");
+        } catch (TextractTimeoutException e) {
+            assertTrue(System.currentTimeMillis() - start < 900);
+        }
+    }
+
+    @Test
+    public void shouldSetTheSdkTimeout() {
+        DetectDocumentTextRequest request = new DetectDocumentTextRequest();
+        TextractService.withDeadline(request);
+        assertEquals(null, request.getSdkClientExecutionTimeout());
+
+        try (TextractCallContext.Scope scope = TextractCallContext.enterDeadline(
+                TextractCallContext.deadlineIn(10))) {
+            TextractService.withDeadline(request);
+            int timeout = request.getSdkClientExecutionTimeout();
+            assertTrue(timeout > 9000 && timeout <= 10000);
+        }
+    }
+
+    @Test
+    public void shouldListFailedPages() {
+        TextractResultWriter writer = new TextractResultWriter("dc:description", false, "WORD");
+        assertFalse(writer.addFailedPage(2, new RuntimeException("boom")));
+
+        writer.withFailedPages("my:failedPages");
+        assertTrue(writer.addFailedPage(2, new RuntimeException("boom")));
+        assertTrue(writer.addFailedPage(5, new TextractTimeoutException("too long")));
+        List<?> failed = writer.getFailedPages();
+        assertEquals(2, failed.size());
+        assertEquals(TextractResultWriter.PAGE_STATUS_ERROR, writer.getFailedPages().get(0).get("status"));
+        assertEquals(5L, writer.getFailedPages().get(1).get("page"));
+        assertEquals(TextractResultWriter.PAGE_STATUS_TIMEOUT, writer.getFailedPages().get(1).get("status"));
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.aws.textract;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+import org.nuxeo.labs.aws.textract.TextractScheduler.Priority;
+
+import com.amazonaws.services.textract.model.Block;
+import com.amazonaws.services.textract.model.DetectDocumentTextResult;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+public class TestTextractEvents {
+
+    @Test
+    public void shouldRecordSerializationWithDocumentAndPage() throws Exception {
+        DetectDocumentTextResult result = new DetectDocumentTextResult().withBlocks(
+                new Block().withBlockType("LINE").withText("Hello"),
+                new Block().withBlockType("WORD").withText("Hello"));
+
+        Path file = Files.createTempFile("textract-", ".jfr");
+        try {
+            String json;
+            try (Recording recording = new Recording()) {
+                recording.enable(TextractEvents.SerializeEvent.class);
+                recording.start();
+                try (TextractCallContext.Scope scope = TextractCallContext.enter(
+                        new TextractCallContext(Priority.INTERACTIVE, null).withDocument("doc-1").withPage(3))) {
+                    json = TextractUtils.toJsonString(result);
+                }
+                recording.stop();
+                recording.dump(file);
+            }
+
+            List<RecordedEvent> events = RecordingFile.readAllEvents(file)
+                                                      .stream()
+                                                      .filter(e -> "org.nuxeo.labs.aws.textract.Serialize".equals(
+                                                              e.getEventType().getName()))
+                                                      .collect(Collectors.toList());
+            assertEquals(1, events.size());
+            RecordedEvent event = events.get(0);
+            assertEquals("doc-1", event.getString("docId"));
+            assertEquals(3, event.getInt("page"));
+            assertEquals(2, event.getInt("blockCount"));
+            assertEquals(json.length(), event.getLong("chars"));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void shouldCountBlocks() {
+        assertEquals(0, TextractEvents.countBlocks(null));
+        assertEquals(0, TextractEvents.countBlocks("not a result"));
+        assertEquals(1, TextractEvents.countBlocks(new DetectDocumentTextResult().withBlocks(new Block())));
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.aws.textract;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONObject;
+import org.junit.Test;
+import org.nuxeo.runtime.kv.KeyValueStore;
+import org.nuxeo.runtime.kv.MemKeyValueStore;
+
+import com.amazonaws.services.textract.model.AnalyzeDocumentResult;
+import com.amazonaws.services.textract.model.DetectDocumentTextResult;
+
+public class TestTextractJob {
+
+    protected static class MemJobRegistry extends TextractJobRegistry {
+
+        protected final KeyValueStore kv = new MemKeyValueStore();
+
+        @Override
+        protected KeyValueStore getKeyValueStore() {
+            return kv;
+        }
+    }
+
+    protected static TextractJob newJob(String jobId) {
+        TextractJob job = new TextractJob();
+        job.jobId = jobId;
+        job.api = TextractJob.API_DETECT;
+        job.repository = "default";
+        job.docId = "1234";
+        job.blobXPath = "file:content";
+        job.digest = "d1g3st";
+        job.params.put("resultXPath", "dc:description");
+        return job;
+    }
+
+    @Test
+    public void shouldRoundTripJobAsJSON() {
+        TextractJob job = new TextractJob();
+        job.jobId = "abc";
+        job.api = TextractJob.API_ANALYZE;
+        job.repository = "default";
+        job.docId = "1234";
+        job.blobXPath = "file:content";
+        job.digest = "d1g3st";
+        job.params.put("resultXPath", "dc:description");
+        job.params.put("tablesXPath", "my:tables");
+        job.s3Bucket = "bucket";
+        job.s3Key = "textract-async/x.pdf";
+        job.uploaded = true;
+        job.createdAt = 10;
+        job.nextPollAt = 20;
+        job.polls = 3;
+        job.handleAttempts = 2;
+
+        TextractJob copy = TextractJob.fromJSON(new JSONObject(job.toJSON().toString()));
+        assertEquals("abc", copy.jobId);
+        assertEquals(TextractJob.API_ANALYZE, copy.api);
+        assertEquals("1234", copy.docId);
+        assertEquals("d1g3st", copy.digest);
+        assertEquals(job.params, copy.params);
+        assertEquals("textract-async/x.pdf", copy.s3Key);
+        assertTrue(copy.uploaded);
+        assertEquals(20, copy.nextPollAt);
+        assertEquals(3, copy.polls);
+        assertEquals(2, copy.handleAttempts);
+        assertTrue(copy.isInProgress());
+
+        copy.status = "SUCCEEDED";
+        assertFalse(TextractJob.fromJSON(copy.toJSON()).isInProgress());
+    }
+
+    @Test
+    public void shouldRoundTripBatchMembers() {
+        TextractJob job = new TextractJob();
+        job.jobId = "batch";
+        assertFalse(job.isBatch());
+        for (int i = 1; i <= 2; i++) {
+            TextractJob.Member member = new TextractJob.Member();
+            member.repository = "default";
+            member.docId = "doc" + i;
+            member.blobXPath = "file:content";
+            member.digest = "digest" + i;
+            member.params.put("resultXPath", "dc:description");
+            member.queuedAt = i;
+            job.members.add(member);
+        }
+
+        TextractJob copy = TextractJob.fromJSON(new JSONObject(job.toJSON().toString()));
+        assertTrue(copy.isBatch());
+        assertEquals(2, copy.members.size());
+        // Page order
+        assertEquals("doc1", copy.members.get(0).docId);
+        assertEquals("digest2", copy.members.get(1).digest);
+        assertEquals(job.members.get(1).params, copy.members.get(1).params);
+        assertEquals(2, copy.members.get(1).queuedAt);
+    }
+
+    @Test
+    public void shouldRoundTripWriterParams() {
+        Map<String, String> params = new TextractResultWriter("dc:description", false, "LINE").withSpatialIndex(
+                "my:index").withKeyValues("my:kv").toParams();
+        assertEquals("LINE", params.get("granularity"));
+        assertEquals("my:index", params.get("spatialIndexXPath"));
+        assertFalse(params.containsKey("simplifiedJsonXPath"));
+
+        assertEquals(params, TextractResultWriter.fromParams(params).toParams());
+    }
+
+    @Test
+    public void shouldClaimTheStartOfAJobOnce() {
+        MemJobRegistry registry = new MemJobRegistry();
+        TextractJob job = newJob("abc");
+
+        String token = registry.claimStart("default", "1234", "file:content", "d1g3st", job.api, job.params);
+        assertNotNull(token);
+        // Being started: not found, and cannot be claimed again
+        assertNull(registry.findJob("default", "1234", "file:content", "d1g3st", job.api, job.params));
+        assertNull(registry.claimStart("default", "1234", "file:content", "d1g3st", job.api, job.params));
+
+        // The start failed
+        registry.releaseStart("default", "1234", "file:content", "d1g3st", job.api, job.params, token);
+        token = registry.claimStart("default", "1234", "file:content", "d1g3st", job.api, job.params);
+        assertNotNull(token);
+
+        registry.register(job);
+        assertEquals("abc", registry.findJob("default", "1234", "file:content", "d1g3st", job.api, job.params));
+        assertNull(registry.claimStart("default", "1234", "file:content", "d1g3st", job.api, job.params));
+        // A late release does not remove the JobId
+        registry.releaseStart("default", "1234", "file:content", "d1g3st", job.api, job.params, token);
+        assertEquals("abc", registry.findJob("default", "1234", "file:content", "d1g3st", job.api, job.params));
+    }
+
+    @Test
+    public void shouldRetryACompletedJob() {
+        MemJobRegistry registry = new MemJobRegistry();
+        TextractJob job = newJob("abc");
+        registry.register(job);
+        job.status = "SUCCEEDED";
+        registry.update(job);
+        assertTrue(registry.getJobsInProgress().isEmpty());
+
+        assertTrue(registry.claimCompletedJob("abc"));
+        assertFalse(registry.claimCompletedJob("abc"));
+
+        // Writing the results failed
+        job.handleAttempts = 1;
+        registry.retryCompletedJob(job);
+        assertEquals(List.of("abc"), registry.getJobsInProgress());
+        assertEquals(1, registry.getJob("abc").handleAttempts);
+        assertTrue(registry.claimCompletedJob("abc"));
+    }
+
+    @Test
+    public void shouldBackOffPolls() {
+        assertEquals(5000, TextractJobPollWork.getPollInterval(1, 5000, 60000));
+        assertEquals(10000, TextractJobPollWork.getPollInterval(2, 5000, 60000));
+        assertEquals(40000, TextractJobPollWork.getPollInterval(4, 5000, 60000));
+        assertEquals(60000, TextractJobPollWork.getPollInterval(5, 5000, 60000));
+        assertEquals(60000, TextractJobPollWork.getPollInterval(1000, 5000, 60000));
+    }
+
+    @Test
+    public void shouldWriteTheResultsInTheFormatOfTheJobApi() {
+        assertTrue(TextractJobCompletedListener.toResult(TextractJob.API_ANALYZE,
+                List.of()) instanceof AnalyzeDocumentResult);
+        assertTrue(TextractJobCompletedListener.toResult(TextractJob.API_DETECT,
+                List.of()) instanceof DetectDocumentTextResult);
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.aws.textract;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.amazonaws.services.textract.model.Block;
+import com.amazonaws.services.textract.model.BoundingBox;
+import com.amazonaws.services.textract.model.Geometry;
+
+public class TestTextractLayoutHeuristic {
+
+    protected static Block line(String text, float left, float top, float width) {
+        return new Block().withBlockType("LINE")
+                          .withText(text)
+                          .withGeometry(new Geometry().withBoundingBox(
+                                  new BoundingBox().withLeft(left).withTop(top).withWidth(width).withHeight(0.02f)));
+    }
+
+    @Test
+    public void shouldNotEscalateProse() {
+        List<Block> blocks = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            blocks.add(line("Lorem ipsum dolor sit amet, consectetur adipiscing elit " + i, 0.1f, 0.05f + i * 0.03f,
+                    0.8f));
+        }
+        assertFalse(TextractLayoutHeuristic.looksLikeTableOrForm(blocks));
+    }
+
+    @Test
+    public void shouldEscalateForms() {
+        List<Block> blocks = new ArrayList<>();
+        blocks.add(line("Name: John Doe", 0.1f, 0.1f, 0.4f));
+        blocks.add(line("Date of birth: 01/02/1970", 0.1f, 0.13f, 0.4f));
+        blocks.add(line("Policy #:", 0.1f, 0.16f, 0.2f));
+        blocks.add(line("Some free text explaining the conditions", 0.1f, 0.19f, 0.8f));
+        assertTrue(TextractLayoutHeuristic.looksLikeTableOrForm(blocks));
+    }
+
+    @Test
+    public void shouldEscalateTables() {
+        List<Block> blocks = new ArrayList<>();
+        blocks.add(line("An invoice with a table", 0.1f, 0.05f, 0.8f));
+        for (int row = 0; row < 5; row++) {
+            float top = 0.2f + row * 0.03f;
+            blocks.add(line("Item " + row, 0.1f, top, 0.2f));
+            blocks.add(line(String.valueOf(row + 1), 0.4f, top + 0.002f, 0.05f));
+            blocks.add(line("12.50", 0.7f, top - 0.001f, 0.1f));
+        }
+        assertTrue(TextractLayoutHeuristic.looksLikeTableOrForm(blocks));
+    }
+
+    @Test
+    public void shouldHandleEmptyResult() {
+        assertFalse(TextractLayoutHeuristic.looksLikeTableOrForm(null));
+        assertFalse(TextractLayoutHeuristic.looksLikeTableOrForm(List.of()));
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.aws.textract;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.nuxeo.ecm.automation.test.AutomationFeature;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.work.api.WorkManager;
+import org.nuxeo.labs.aws.textract.TextractScheduler.Priority;
+import org.nuxeo.runtime.kv.KeyValueStore;
+import org.nuxeo.runtime.test.runner.Deploy;
+import org.nuxeo.runtime.test.runner.Features;
+import org.nuxeo.runtime.test.runner.FeaturesRunner;
+
+@RunWith(FeaturesRunner.class)
+@Features(AutomationFeature.class)
+@Deploy("org.nuxeo.labs.aws.textract.nuxeo-labs-aws-textract-connector-core")
+public class TestTextractOcrWork {
+
+    @Inject
+    protected CoreSession session;
+
+    @Inject
+    protected WorkManager workManager;
+
+    protected TextractOcrWork newWork(String docId) {
+        Map<String, String> xpaths = new LinkedHashMap<>();
+        xpaths.put("file:content", "dc:description");
+        xpaths.put("files:files/0/file", "my:text");
+        return new TextractOcrWork(session.getRepositoryName(), docId, DetectDocumentTextOp.ID, xpaths,
+                Map.of("granularity", "LINE"), 5000, Priority.BACKFILL, null);
+    }
+
+    @Test
+    public void shouldRoundTripAsJSON() {
+        TextractOcrWork work = newWork("1234");
+
+        TextractOcrWork copy = TextractOcrWork.fromJSON(new JSONObject(work.toJSON().toString()));
+        assertEquals(work.getId(), copy.getId());
+        assertEquals(DetectDocumentTextOp.ID, copy.operationId);
+        assertEquals(List.of("file:content", "files:files/0/file"), List.copyOf(copy.xpaths.keySet()));
+        assertEquals("LINE", copy.operationParams.get("granularity"));
+        assertEquals(5000, copy.debounceMs);
+        assertEquals(Priority.BACKFILL, copy.priority);
+        assertNull(copy.tenant);
+    }
+
+    @Test
+    public void shouldKeyTheDigestByOperationParamsAndResult() {
+        TextractOcrWork detect = newWork("1234");
+        TextractOcrWork analyze = new TextractOcrWork(session.getRepositoryName(), "1234", AnalyzeOp.ID,
+                Map.of("file:content", "my:tables"), Map.of("features", "TABLES"), 5000, Priority.BACKFILL, null);
+        TextractOcrWork analyzeForms = new TextractOcrWork(session.getRepositoryName(), "1234", AnalyzeOp.ID,
+                Map.of("file:content", "my:tables"), Map.of("features", "FORMS"), 5000, Priority.BACKFILL, null);
+
+        String key = detect.digestKey("file:content", "dc:description");
+        assertEquals(key, newWork("1234").digestKey("file:content", "dc:description"));
+        assertNotEquals(key, detect.digestKey("file:content", "my:text"));
+        assertNotEquals(key, analyze.digestKey("file:content", "dc:description"));
+        assertNotEquals(analyze.digestKey("file:content", "my:tables"),
+                analyzeForms.digestKey("file:content", "my:tables"));
+    }
+
+    @Test
+    public void shouldScheduleTheDeferredWorksWhenDue() throws Exception {
+        KeyValueStore kv = TextractOcrWork.getKeyValueStore();
+        String later = session.getRepositoryName() + ":later";
+        String due = session.getRepositoryName() + ":due";
+        newWork("later").defer(kv, System.currentTimeMillis() + 60_000);
+        newWork("due").defer(kv, System.currentTimeMillis() - 1);
+
+        assertEquals(1, TextractOcrWork.scheduleDeferred());
+        assertNull(kv.getString(TextractOcrWork.deferredKey(due)));
+        assertNotNull(kv.getString(TextractOcrWork.deferredKey(later)));
+        assertEquals(later, kv.getString(TextractOcrWork.DEFERRED_KEY));
+
+        // Nothing else is due
+        assertEquals(0, TextractOcrWork.scheduleDeferred());
+        // The document does not exist, the work does nothing
+        assertTrue(workManager.awaitCompletion(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void shouldDeferTheWorkWhilePaused() throws Exception {
+        KeyValueStore kv = TextractOcrWork.getKeyValueStore();
+        String paused = session.getRepositoryName() + ":paused";
+        TextractStatusRegistry registry = TextractStatusRegistry.getInstance();
+        registry.pause();
+        try {
+            // Returns right away instead of holding a thread of the queue
+            newWork("paused").work();
+            assertNotNull(kv.getString(TextractOcrWork.deferredKey(paused)));
+            // Not scheduled again on a paused node
+            assertEquals(0, TextractOcrWork.scheduleDeferred());
+        } finally {
+            registry.resume();
+        }
+
+        assertEquals(1, TextractOcrWork.scheduleDeferred());
+        assertNull(kv.getString(TextractOcrWork.deferredKey(paused)));
+        assertTrue(workManager.awaitCompletion(10, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,288 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.aws.textract;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.inject.Inject;
+
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.PDResources;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.pdmodel.graphics.image.LosslessFactory;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.nuxeo.ecm.automation.test.AutomationFeature;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.impl.blob.FileBlob;
+import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.test.runner.Deploy;
+import org.nuxeo.runtime.test.runner.Features;
+import org.nuxeo.runtime.test.runner.FeaturesRunner;
+
+import com.amazonaws.services.textract.model.Block;
+import com.amazonaws.services.textract.model.BoundingBox;
+import com.amazonaws.services.textract.model.DetectDocumentTextResult;
+import com.amazonaws.services.textract.model.DocumentMetadata;
+import com.amazonaws.services.textract.model.Geometry;
+
+@RunWith(FeaturesRunner.class)
+@Features(AutomationFeature.class)
+@Deploy("org.nuxeo.labs.aws.textract.nuxeo-labs-aws-textract-connector-core")
+public class TestTextractPageCache {
+
+    @Inject
+    protected CoreSession session;
+
+    /** One page per text, with the text written on it. */
+    protected static Blob createPdf(String... texts) throws IOException {
+        File file = Framework.createTempFile("test-", ".pdf");
+        try (PDDocument pdf = new PDDocument()) {
+            for (String text : texts) {
+                PDPage page = new PDPage();
+                pdf.addPage(page);
+                try (PDPageContentStream content = new PDPageContentStream(pdf, page)) {
+                    content.beginText();
+                    content.setFont(PDType1Font.HELVETICA, 12);
+                    content.newLineAtOffset(50, 700);
+                    content.showText(text);
+                    content.endText();
+                }
+            }
+            pdf.save(file);
+        }
+        return new FileBlob(file, "application/pdf");
+    }
+
+    /** One page with the text written with a Helvetica font using this encoding. */
+    protected static Blob createPdfWithEncoding(String text, COSName encoding) throws IOException {
+        File file = Framework.createTempFile("test-", ".pdf");
+        try (PDDocument pdf = new PDDocument()) {
+            COSDictionary fontDictionary = new COSDictionary();
+            fontDictionary.setItem(COSName.TYPE, COSName.FONT);
+            fontDictionary.setItem(COSName.SUBTYPE, COSName.TYPE1);
+            fontDictionary.setName(COSName.BASE_FONT, "Helvetica");
+            fontDictionary.setItem(COSName.ENCODING, encoding);
+            PDPage page = new PDPage();
+            pdf.addPage(page);
+            try (PDPageContentStream content = new PDPageContentStream(pdf, page)) {
+                content.beginText();
+                content.setFont(new PDType1Font(fontDictionary), 12);
+                content.newLineAtOffset(50, 700);
+                content.showText(text);
+                content.endText();
+            }
+            pdf.save(file);
+        }
+        return new FileBlob(file, "application/pdf");
+    }
+
+    /** One page per text, all the pages sharing the same resources, then a page drawing an image if withImage. */
+    protected static Blob createPdfSharingResources(boolean withImage, String... texts) throws IOException {
+        File file = Framework.createTempFile("test-", ".pdf");
+        try (PDDocument pdf = new PDDocument()) {
+            PDResources resources = new PDResources();
+            for (String text : texts) {
+                PDPage page = new PDPage();
+                page.setResources(resources);
+                pdf.addPage(page);
+                try (PDPageContentStream content = new PDPageContentStream(pdf, page)) {
+                    content.beginText();
+                    content.setFont(PDType1Font.HELVETICA, 12);
+                    content.newLineAtOffset(50, 700);
+                    content.showText(text);
+                    content.endText();
+                }
+            }
+            if (withImage) {
+                PDPage page = new PDPage();
+                page.setResources(resources);
+                pdf.addPage(page);
+                PDImageXObject image = LosslessFactory.createFromImage(pdf,
+                        new BufferedImage(20, 10, BufferedImage.TYPE_INT_RGB));
+                try (PDPageContentStream content = new PDPageContentStream(pdf, page)) {
+                    content.drawImage(image, 50, 600);
+                }
+            }
+            pdf.save(file);
+        }
+        return new FileBlob(file, "application/pdf");
+    }
+
+    protected static List<String> getFingerprints(Blob blob) {
+        List<String> fingerprints = new ArrayList<>();
+        try (PageSplitter splitter = new PageSplitter(blob)) {
+            for (int page = 1; page <= splitter.getNumberOfPages(); page++) {
+                fingerprints.add(splitter.getPageFingerprint(page));
+            }
+        }
+        return fingerprints;
+    }
+
+    protected static DetectDocumentTextResult result(String text) {
+        BoundingBox box = new BoundingBox().withLeft(0.1f).withTop(0.2f).withWidth(0.3f).withHeight(0.02f);
+        Block line = new Block().withBlockType("LINE")
+                                .withText(text)
+                                .withPage(1)
+                                .withConfidence(99f)
+                                .withGeometry(new Geometry().withBoundingBox(box));
+        return new DetectDocumentTextResult().withBlocks(line)
+                                             .withDocumentMetadata(new DocumentMetadata().withPages(1));
+    }
+
+    @Test
+    public void shouldMatchUnchangedAndMovedPdfPages() throws Exception {
+        List<String> previous = getFingerprints(createPdf("Page one", "Page two", "Page three"));
+        // A page inserted, pages two and three swapped
+        List<String> current = getFingerprints(createPdf("Page one", "Inserted", "Page three", "Page two"));
+
+        assertEquals(3, previous.stream().distinct().count());
+        assertEquals(previous.get(0), current.get(0));
+        assertFalse(previous.contains(current.get(1)));
+        assertEquals(previous.get(2), current.get(2));
+        assertEquals(previous.get(1), current.get(3));
+    }
+
+    @Test
+    public void shouldFingerprintTheFonts() throws Exception {
+        // Same text, same font name and resource name, other glyphs
+        String winAnsi = getFingerprints(createPdfWithEncoding("Hello", COSName.WIN_ANSI_ENCODING)).get(0);
+        String macRoman = getFingerprints(createPdfWithEncoding("Hello", COSName.MAC_ROMAN_ENCODING)).get(0);
+
+        assertNotEquals(winAnsi, macRoman);
+        assertEquals(winAnsi, getFingerprints(createPdfWithEncoding("Hello", COSName.WIN_ANSI_ENCODING)).get(0));
+    }
+
+    @Test
+    public void shouldIgnoreTheSharedResourcesNotUsedByThePage() throws Exception {
+        List<String> previous = getFingerprints(createPdfSharingResources(false, "Page one", "Page two"));
+        // A page drawing an image added, the image is in the resources of every page
+        List<String> current = getFingerprints(createPdfSharingResources(true, "Page one", "Page two"));
+
+        assertEquals(3, current.size());
+        assertEquals(previous, current.subList(0, 2));
+        assertNotEquals(previous.get(0), previous.get(1));
+    }
+
+    @Test
+    public void shouldFingerprintTiffFrames() throws Exception {
+        List<String> first = getFingerprints(TestPageSplitter.createTiff(3));
+        List<String> second = getFingerprints(TestPageSplitter.createTiff(2));
+
+        assertEquals(3, first.stream().distinct().count());
+        assertEquals(first.subList(0, 2), second);
+    }
+
+    @Test
+    public void shouldReuseTheResultsOfThePreviousBlob() throws Exception {
+        DocumentModel doc = session.createDocumentModel("/", "doc", "File");
+        doc = session.createDocument(doc);
+
+        TextractPageCache cache = TextractPageCache.load(doc, "file:content", DetectDocumentTextOp.ID, null, false);
+        assertNull(cache.getPreviousResult("abc", DetectDocumentTextResult.class));
+        cache.addPage(1, "abc", result("Hello"));
+        cache.addPage(2, "def", result("World"));
+        cache.addPage(3, null, result("Not cached"));
+        cache.write(doc, "file:content");
+        doc = session.saveDocument(doc);
+        assertEquals(TextractPageCache.FILENAME, ((Blob) doc.getPropertyValue("file:content")).getFilename());
+
+        cache = TextractPageCache.load(doc, "file:content", DetectDocumentTextOp.ID, null, false);
+        DetectDocumentTextResult result = cache.getPreviousResult("def", DetectDocumentTextResult.class);
+        assertNotNull(result);
+        Block line = result.getBlocks().get(0);
+        assertEquals("LINE", line.getBlockType());
+        assertEquals("World", line.getText());
+        assertEquals(0.1f, line.getGeometry().getBoundingBox().getLeft(), 0.0001f);
+        assertEquals(1, result.getDocumentMetadata().getPages().intValue());
+        assertNull(cache.getPreviousResult("ghi", DetectDocumentTextResult.class));
+        assertNull(cache.getPreviousResult(null, DetectDocumentTextResult.class));
+        assertEquals(1, cache.getReusedCount());
+    }
+
+    @Test
+    public void shouldKeepTheResultsNotUsed() throws Exception {
+        DocumentModel doc = session.createDocumentModel("/", "doc", "File");
+        TextractPageCache cache = TextractPageCache.load(doc, "dc:description", DetectDocumentTextOp.ID, null, false);
+        cache.addPage(1, "abc", result("Hello"));
+        cache.addPage(2, "def", result("World"));
+        cache.write(doc, "dc:description");
+
+        // Only page 2 of the new blob, whose page 1 is new
+        cache = TextractPageCache.load(doc, "dc:description", DetectDocumentTextOp.ID, null, false);
+        cache.addPage(1, "ghi", result("New"));
+        cache.addPage(2, "def", cache.getPreviousResult("def", DetectDocumentTextResult.class));
+        cache.write(doc, "dc:description");
+
+        cache = TextractPageCache.load(doc, "dc:description", DetectDocumentTextOp.ID, null, false);
+        assertEquals("Hello", cache.getPreviousResult("abc", DetectDocumentTextResult.class)
+                                   .getBlocks()
+                                   .get(0)
+                                   .getText());
+        assertNotNull(cache.getPreviousResult("def", DetectDocumentTextResult.class));
+        assertNotNull(cache.getPreviousResult("ghi", DetectDocumentTextResult.class));
+        String json = (String) doc.getPropertyValue("dc:description");
+        assertEquals(3, new JSONObject(json).getJSONArray("pages").length());
+    }
+
+    @Test
+    public void shouldIgnoreACacheSavedWithOtherOptions() throws Exception {
+        DocumentModel doc = session.createDocumentModel("/", "doc", "File");
+        TextractPageCache cache = TextractPageCache.load(doc, "dc:description", AnalyzeOp.ID, List.of("TABLES"), false);
+        cache.addPage(1, "abc", result("Hello"));
+        cache.write(doc, "dc:description");
+
+        assertNotNull(TextractPageCache.load(doc, "dc:description", AnalyzeOp.ID, List.of("TABLES"), false)
+                                       .getPreviousResult("abc", DetectDocumentTextResult.class));
+        assertNull(TextractPageCache.load(doc, "dc:description", AnalyzeOp.ID, List.of("TABLES", "FORMS"), false)
+                                    .getPreviousResult("abc", DetectDocumentTextResult.class));
+        assertNull(TextractPageCache.load(doc, "dc:description", AnalyzeOp.ID, List.of("TABLES"), true)
+                                    .getPreviousResult("abc", DetectDocumentTextResult.class));
+        assertNull(TextractPageCache.load(doc, "dc:description", DetectDocumentTextOp.ID, null, false)
+                                    .getPreviousResult("abc", DetectDocumentTextResult.class));
+        assertNull(TextractPageCache.load(doc, null, AnalyzeOp.ID, null, false));
+    }
+
+    @Test
+    public void shouldIgnoreAnUnreadableCache() {
+        DocumentModel doc = session.createDocumentModel("/", "doc", "File");
+        doc.setPropertyValue("dc:description", "Not JSON");
+        TextractPageCache cache = TextractPageCache.load(doc, "dc:description", DetectDocumentTextOp.ID, null, false);
+        assertNotNull(cache);
+        assertNull(cache.getPreviousResult("abc", DetectDocumentTextResult.class));
+    }
+}
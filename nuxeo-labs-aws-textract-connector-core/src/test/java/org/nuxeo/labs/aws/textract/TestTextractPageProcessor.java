@@ -0,0 +1,85 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.aws.textract;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.NuxeoException;
+import org.nuxeo.runtime.test.runner.Features;
+import org.nuxeo.runtime.test.runner.FeaturesRunner;
+import org.nuxeo.runtime.test.runner.RuntimeFeature;
+
+import com.amazonaws.services.textract.model.Block;
+import com.amazonaws.services.textract.model.DetectDocumentTextResult;
+
+@RunWith(FeaturesRunner.class)
+@Features(RuntimeFeature.class)
+public class TestTextractPageProcessor {
+
+    protected static DetectDocumentTextResult result(String text) {
+        return new DetectDocumentTextResult().withBlocks(new Block().withBlockType("LINE").withText(text));
+    }
+
+    @Test
+    public void shouldSendTheSelectedPages() throws Exception {
+        List<Blob> sent = new ArrayList<>();
+        TextractPageProcessor<DetectDocumentTextResult> processor = new TextractPageProcessor<>(
+                DetectDocumentTextOp.ID, null, DetectDocumentTextResult.class, page -> {
+                    sent.add(page);
+                    return result("Page " + sent.size());
+                }, DetectDocumentTextResult::getBlocks).withPages("1,3", 0);
+
+        Blob tiff = TestPageSplitter.createTiff(3);
+        try (PageSplitter splitter = new PageSplitter(tiff);
+                TextractResultWriter writer = new TextractResultWriter(null, false, "LINE")) {
+            processor.processPages(tiff, splitter, writer, null, null);
+            assertEquals(2, sent.size());
+            assertEquals("Page 1\nPage 2", writer.toBlob(tiff.getFilename()).getString());
+        }
+    }
+
+    @Test
+    public void shouldListTheFailedPages() throws Exception {
+        List<Blob> sent = new ArrayList<>();
+        TextractPageProcessor<DetectDocumentTextResult> processor = new TextractPageProcessor<>(
+                DetectDocumentTextOp.ID, null, DetectDocumentTextResult.class, page -> {
+                    sent.add(page);
+                    if (sent.size() == 2) {
+                        throw new NuxeoException("Throttled", 429);
+                    }
+                    return result("Page " + sent.size());
+                }, DetectDocumentTextResult::getBlocks);
+
+        Blob tiff = TestPageSplitter.createTiff(3);
+        try (PageSplitter splitter = new PageSplitter(tiff);
+                TextractResultWriter writer = new TextractResultWriter(null, false, "LINE")) {
+            writer.withFailedPages("my:failedPages");
+            processor.processPages(tiff, splitter, writer, null, null);
+            assertEquals(3, sent.size());
+            assertEquals(1, writer.getFailedPages().size());
+            assertEquals(2L, writer.getFailedPages().get(0).get("page"));
+        }
+    }
+}
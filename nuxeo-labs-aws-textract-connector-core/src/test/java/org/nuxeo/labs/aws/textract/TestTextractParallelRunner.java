@@ -0,0 +1,121 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.aws.textract;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.nuxeo.ecm.automation.core.util.BlobList;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.Blobs;
+import org.nuxeo.ecm.core.api.NuxeoException;
+import org.nuxeo.labs.aws.textract.TextractScheduler.Priority;
+
+public class TestTextractParallelRunner {
+
+    protected static BlobList blobs(String... names) {
+        BlobList blobs = new BlobList();
+        for (String name : names) {
+            Blob blob = Blobs.createBlob(name);
+            blob.setFilename(name + ".pdf");
+            blobs.add(blob);
+        }
+        return blobs;
+    }
+
+    @Test
+    public void shouldRunInParallelAndKeepTheOrder() {
+        CountDownLatch started = new CountDownLatch(3);
+        BlobList results = TextractParallelRunner.run(blobs("a", "b", "c"), blob -> {
+            started.countDown();
+            try {
+                // Only returns if the 3 blobs are processed at the same time
+                assertTrue(started.await(10, TimeUnit.SECONDS));
+                return Blobs.createBlob(blob.getString().toUpperCase());
+            } catch (Exception e) {
+                throw new NuxeoException(e);
+            }
+        }, 3);
+
+        assertEquals(3, results.size());
+        assertEquals("A", getString(results.get(0)));
+        assertEquals("B", getString(results.get(1)));
+        assertEquals("C", getString(results.get(2)));
+    }
+
+    @Test
+    public void shouldPropagateTheCallContext() {
+        long deadline = System.currentTimeMillis() + 60_000;
+        TextractCallContext context = new TextractCallContext(Priority.BACKFILL, "acme", deadline);
+        try (TextractCallContext.Scope scope = TextractCallContext.enter(context)) {
+            BlobList results = TextractParallelRunner.run(blobs("a", "b"), blob -> {
+                TextractCallContext current = TextractCallContext.current();
+                String value = current.getTenant() + "/" + current.getPriority() + "/" + current.getDeadline();
+                return Blobs.createBlob(value);
+            }, 2);
+            for (Blob result : results) {
+                assertEquals("acme/BACKFILL/" + deadline, getString(result));
+            }
+        }
+    }
+
+    @Test
+    public void shouldFailWhenABlobFails() {
+        try {
+            TextractParallelRunner.run(blobs("a", "b", "c"), blob -> {
+                if ("b".equals(getString(blob))) {
+                    throw new NuxeoException("Failed: b");
+                }
+                return blob;
+            }, 2);
+            fail("Should have failed");
+        } catch (NuxeoException e) {
+            assertEquals("Failed: b", e.getMessage());
+        }
+    }
+
+    @Test
+    public void shouldShareABoundedPool() {
+        TextractParallelRunner.run(blobs("a", "b"), blob -> blob, 2);
+        ThreadPoolExecutor executor = TextractParallelRunner.getExecutor();
+        TextractParallelRunner.run(blobs("c", "d", "e"), blob -> blob, 3);
+        assertSame(executor, TextractParallelRunner.getExecutor());
+        assertEquals(TextractParallelRunner.DEFAULT_MAX_THREADS, executor.getMaximumPoolSize());
+
+        TextractParallelRunner.shutdown();
+        assertTrue(executor.isShutdown());
+        // A new pool is created when needed
+        assertEquals(2, TextractParallelRunner.run(blobs("f", "g"), blob -> blob, 2).size());
+    }
+
+    protected static String getString(Blob blob) {
+        try {
+            return blob.getString();
+        } catch (Exception e) {
+            throw new NuxeoException(e);
+        }
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.aws.textract;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.encryption.AccessPermission;
+import org.apache.pdfbox.pdmodel.encryption.StandardProtectionPolicy;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.impl.blob.FileBlob;
+import org.nuxeo.ecm.core.api.impl.blob.StringBlob;
+import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.test.runner.Features;
+import org.nuxeo.runtime.test.runner.FeaturesRunner;
+import org.nuxeo.runtime.test.runner.RuntimeFeature;
+
+@RunWith(FeaturesRunner.class)
+@Features(RuntimeFeature.class)
+public class TestTextractPreflight {
+
+    protected static Blob createPng(int width, int height, String mimeType) throws IOException {
+        File file = Framework.createTempFile("test-", ".png");
+        ImageIO.write(new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY), "png", file);
+        Blob blob = new FileBlob(file, mimeType);
+        blob.setFilename("scan");
+        return blob;
+    }
+
+    protected static Blob createPdf(String ownerPassword, String userPassword) throws IOException {
+        File file = Framework.createTempFile("test-", ".pdf");
+        try (PDDocument pdfDoc = new PDDocument()) {
+            pdfDoc.addPage(new PDPage());
+            if (ownerPassword != null) {
+                pdfDoc.protect(new StandardProtectionPolicy(ownerPassword, userPassword, new AccessPermission()));
+            }
+            pdfDoc.save(file);
+        }
+        Blob blob = new FileBlob(file, TextractPreflight.PDF_MIME_TYPE);
+        blob.setFilename("doc.pdf");
+        return blob;
+    }
+
+    protected static TextractPreflightException assertRejected(TextractPreflight preflight, Blob blob, boolean onS3) {
+        try {
+            preflight.prepare(blob, onS3);
+            fail("Should have been rejected");
+            return null;
+        } catch (TextractPreflightException e) {
+            return e;
+        }
+    }
+
+    @Test
+    public void shouldRejectUnsupportedFormat() {
+        TextractPreflight preflight = new TextractPreflight(true, TextractPreflight.DEFAULT_MAX_BYTES, 10000);
+        Blob blob = new StringBlob("Hello", "text/plain");
+
+        TextractPreflightException e = assertRejected(preflight, blob, false);
+        assertEquals(1, e.getReasons().size());
+        assertEquals(TextractPreflight.Code.UNSUPPORTED_FORMAT, e.getReasons().get(0).getCode());
+        assertFalse(e.isAsyncEligible());
+    }
+
+    @Test
+    public void shouldReadTheMimeTypeFromTheHeader() throws Exception {
+        TextractPreflight preflight = new TextractPreflight(true, TextractPreflight.DEFAULT_MAX_BYTES, 10000);
+        Blob blob = createPng(200, 100, null);
+
+        TextractPreflight.Result result = preflight.check(blob, false);
+        assertEquals(TextractPreflight.PNG_MIME_TYPE, result.getMimeType());
+        assertEquals(200, result.getWidth());
+        assertEquals(100, result.getHeight());
+        assertEquals(TextractPreflight.Action.PROCEED, result.getAction());
+        assertSame(blob, preflight.prepare(blob, false));
+    }
+
+    @Test
+    public void shouldDownscaleImageTooLarge() throws Exception {
+        TextractPreflight preflight = new TextractPreflight(true, TextractPreflight.DEFAULT_MAX_BYTES, 100);
+        Blob blob = createPng(300, 50, TextractPreflight.PNG_MIME_TYPE);
+
+        TextractPreflight.Result result = preflight.check(blob, false);
+        assertEquals(TextractPreflight.Action.DOWNSCALE, result.getAction());
+        assertEquals(TextractPreflight.Code.IMAGE_TOO_LARGE, result.getReasons().get(0).getCode());
+
+        Blob prepared = preflight.prepare(blob, false);
+        assertNotSame(blob, prepared);
+        BufferedImage image = ImageIO.read(prepared.getFile());
+        assertEquals(100, image.getWidth());
+        assertEquals(17, image.getHeight());
+
+        File file = prepared.getFile();
+        TextractPreflight.release(blob, prepared);
+        assertFalse(file.exists());
+        assertTrue(blob.getFile().exists());
+    }
+
+    @Test
+    public void shouldNotReadTheHeaderOfBlobOnS3() throws Exception {
+        TextractPreflight preflight = new TextractPreflight(true, TextractPreflight.DEFAULT_MAX_BYTES, 100);
+        Blob blob = createPng(300, 50, TextractPreflight.PNG_MIME_TYPE);
+
+        TextractPreflight.Result result = preflight.check(blob, true);
+        assertEquals(-1, result.getWidth());
+        assertEquals(TextractPreflight.Action.PROCEED, result.getAction());
+    }
+
+    @Test
+    public void shouldRejectPdfTooLargeAsAsyncEligible() throws Exception {
+        Blob blob = createPdf(null, null);
+        TextractPreflight preflight = new TextractPreflight(true, blob.getLength() - 1, 10000);
+
+        TextractPreflightException e = assertRejected(preflight, blob, true);
+        assertEquals(TextractPreflight.Code.TOO_LARGE, e.getReasons().get(0).getCode());
+        assertTrue(e.isAsyncEligible());
+    }
+
+    @Test
+    public void shouldRejectMultiPageTiffTooLargeAsAsyncEligible() throws Exception {
+        Blob tiff = TestPageSplitter.createTiff(3);
+        TextractPreflight preflight = new TextractPreflight(true, tiff.getLength() - 1, 10000);
+
+        TextractPreflight.Result result = preflight.check(tiff, false);
+        assertEquals(3, result.getFrames());
+        TextractPreflightException e = assertRejected(preflight, tiff, false);
+        assertEquals(TextractPreflight.Code.TOO_LARGE, e.getReasons().get(0).getCode());
+        assertTrue(e.isAsyncEligible());
+
+        // The frames are not counted on S3
+        assertRejected(preflight, tiff, true);
+
+        Blob single = TestPageSplitter.createTiff(1);
+        preflight = new TextractPreflight(true, single.getLength() - 1, 10000);
+        result = preflight.check(single, false);
+        assertEquals(1, result.getFrames());
+        assertEquals(TextractPreflight.Action.DOWNSCALE, result.getAction());
+    }
+
+    @Test
+    public void shouldCheckTheWholeDocumentBeforeSplittingIt() throws Exception {
+        Blob blob = createPdf(null, null);
+        TextractPreflight preflight = new TextractPreflight(true, blob.getLength() - 1, 10000);
+
+        // Too large is not an error for a whole document: its pages may be small enough
+        TextractPreflight.Result result = preflight.checkDocument(blob, false);
+        assertTrue(result.isAsyncEligible());
+
+        try {
+            preflight.checkDocument(new StringBlob("Hello", "text/plain"), false);
+            fail("Should have been rejected");
+        } catch (TextractPreflightException e) {
+            assertEquals(TextractPreflight.Code.UNSUPPORTED_FORMAT, e.getReasons().get(0).getCode());
+        }
+
+        TextractPreflight disabled = new TextractPreflight(false, TextractPreflight.DEFAULT_MAX_BYTES, 10000);
+        assertNull(disabled.checkDocument(new StringBlob("Hello", "text/plain"), false));
+    }
+
+    @Test
+    public void shouldDecryptPdfWithOwnerPasswordOnly() throws Exception {
+        TextractPreflight preflight = new TextractPreflight(true, TextractPreflight.DEFAULT_MAX_BYTES, 10000);
+        Blob blob = createPdf("owner", "");
+
+        TextractPreflight.Result result = preflight.check(blob, false);
+        assertEquals(TextractPreflight.Action.DECRYPT, result.getAction());
+
+        Blob prepared = preflight.prepare(blob, false);
+        assertNotSame(blob, prepared);
+        try (PDDocument pdfDoc = PDDocument.load(prepared.getFile())) {
+            assertFalse(pdfDoc.isEncrypted());
+        } finally {
+            TextractPreflight.release(blob, prepared);
+        }
+
+        assertSame(TextractPreflight.Action.PROCEED, preflight.check(createPdf(null, null), false).getAction());
+    }
+
+    @Test
+    public void shouldRejectPasswordProtectedPdf() throws Exception {
+        TextractPreflight preflight = new TextractPreflight(true, TextractPreflight.DEFAULT_MAX_BYTES, 10000);
+        Blob blob = createPdf("owner", "user");
+
+        TextractPreflightException e = assertRejected(preflight, blob, false);
+        assertEquals(TextractPreflight.Code.ENCRYPTED, e.getReasons().get(0).getCode());
+        assertFalse(e.isAsyncEligible());
+    }
+
+    @Test
+    public void shouldNotCheckWhenDisabled() {
+        TextractPreflight preflight = new TextractPreflight(false, TextractPreflight.DEFAULT_MAX_BYTES, 10000);
+        Blob blob = new StringBlob("Hello", "text/plain");
+        assertSame(blob, preflight.prepare(blob, false));
+    }
+
+    @Test
+    public void shouldComputeSubsampling() {
+        assertEquals(1, TextractPreflight.getSubsampling(1000, 800, 1000, 10000, 2000));
+        assertEquals(2, TextractPreflight.getSubsampling(15000, 8000, 1000, 10000, 2000));
+        // 9 times too large => a third of the width and height
+        assertEquals(3, TextractPreflight.getSubsampling(1000, 800, 18000, 10000, 2000));
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.aws.textract;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+import org.nuxeo.ecm.core.api.NuxeoException;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.textract.AbstractAmazonTextract;
+import com.amazonaws.services.textract.AmazonTextract;
+import com.amazonaws.services.textract.model.DetectDocumentTextRequest;
+import com.amazonaws.services.textract.model.DetectDocumentTextResult;
+import com.amazonaws.services.textract.model.InvalidParameterException;
+import com.amazonaws.services.textract.model.ProvisionedThroughputExceededException;
+
+public class TestTextractRegionRouter {
+
+    /** The clock of the router, advanced by the stand-ins instead of sleeping. */
+    protected final AtomicLong clock = new AtomicLong(1000);
+
+    /** Stand-in for a regional endpoint: answers after a delay, or fails with the given exception. */
+    protected class StandInTextract extends AbstractAmazonTextract {
+
+        protected final String region;
+
+        protected long delayMs;
+
+        protected RuntimeException error;
+
+        protected int calls = 0;
+
+        protected StandInTextract(String region, long delayMs) {
+            this.region = region;
+            this.delayMs = delayMs;
+        }
+
+        @Override
+        public DetectDocumentTextResult detectDocumentText(DetectDocumentTextRequest request) {
+            calls++;
+            if (error != null) {
+                throw error;
+            }
+            clock.addAndGet(delayMs);
+            return new DetectDocumentTextResult().withDetectDocumentTextModelVersion(region);
+        }
+    }
+
+    protected static String detect(TextractRegionRouter router) {
+        DetectDocumentTextRequest request = new DetectDocumentTextRequest();
+        return router.execute(client -> client.detectDocumentText(request)).getDetectDocumentTextModelVersion();
+    }
+
+    protected static AmazonServiceException serverError() {
+        AmazonServiceException e = new AmazonServiceException("Internal error");
+        e.setStatusCode(500);
+        return e;
+    }
+
+    protected TextractRegionRouter router(StandInTextract... clients) {
+        Map<String, AmazonTextract> map = new LinkedHashMap<>();
+        for (StandInTextract client : clients) {
+            map.put(client.region, client);
+        }
+        return new TextractRegionRouter(map, 0.5, 0) {
+            @Override
+            protected long currentTimeMillis() {
+                return clock.get();
+            }
+        };
+    }
+
+    @Test
+    public void shouldPreferTheFastestRegion() {
+        StandInTextract slow = new StandInTextract("eu-west-1", 60);
+        StandInTextract fast = new StandInTextract("eu-central-1", 5);
+        TextractRegionRouter router = router(slow, fast);
+
+        // Both are tried once (no statistics yet), then the fast one is used
+        detect(router);
+        detect(router);
+        for (int i = 0; i < 5; i++) {
+            assertEquals("eu-central-1", detect(router));
+        }
+        assertEquals(1, slow.calls);
+        assertEquals(60, router.getRegions().get(0).getLatencyMs(), 0);
+        assertEquals(5, router.getRegions().get(1).getLatencyMs(), 0);
+    }
+
+    @Test
+    public void shouldFailOverOnThrottlingAndServerErrors() {
+        StandInTextract first = new StandInTextract("eu-west-1", 0);
+        StandInTextract second = new StandInTextract("eu-west-3", 20);
+        TextractRegionRouter router = router(first, second);
+
+        first.error = setStatus(new ProvisionedThroughputExceededException("Slow down"), 400);
+        assertEquals("eu-west-3", detect(router));
+        assertEquals(1, first.calls);
+
+        first.error = serverError();
+        // The failing region is now at the end of the list
+        assertEquals("eu-west-3", detect(router));
+        assertEquals(1, first.calls);
+
+        TextractRegionRouter.RegionClient stats = router.getRegions().get(0);
+        assertEquals(1, stats.getErrors());
+        assertTrue(stats.getErrorRate(clock.get()) > 0);
+    }
+
+    @Test
+    public void shouldNotFailOverOnClientErrors() {
+        StandInTextract first = new StandInTextract("eu-west-1", 0);
+        StandInTextract second = new StandInTextract("eu-west-3", 0);
+        TextractRegionRouter router = router(first, second);
+
+        first.error = setStatus(new InvalidParameterException("Bad document"), 400);
+        try {
+            detect(router);
+            fail("Should have thrown");
+        } catch (InvalidParameterException e) {
+            // Expected
+        }
+        assertEquals(0, second.calls);
+        assertEquals(0, router.getRegions().get(0).getErrors());
+    }
+
+    @Test
+    public void shouldThrowWhenAllRegionsFail() {
+        StandInTextract first = new StandInTextract("eu-west-1", 0);
+        StandInTextract second = new StandInTextract("eu-west-3", 0);
+        first.error = serverError();
+        second.error = serverError();
+        try {
+            detect(router(first, second));
+            fail("Should have thrown");
+        } catch (AmazonServiceException e) {
+            assertEquals(500, e.getStatusCode());
+        }
+        assertEquals(1, first.calls);
+        assertEquals(1, second.calls);
+    }
+
+    @Test
+    public void shouldUseOnlyTheBucketRegionForS3Requests() {
+        StandInTextract first = new StandInTextract("eu-west-1", 0);
+        StandInTextract second = new StandInTextract("eu-west-3", 0);
+        TextractRegionRouter router = router(first, second);
+        DetectDocumentTextRequest request = new DetectDocumentTextRequest();
+
+        assertEquals("eu-west-3", router.executeInRegion("eu-west-3", client -> client.detectDocumentText(request))
+                                        .getDetectDocumentTextModelVersion());
+
+        second.error = serverError();
+        try {
+            router.executeInRegion("eu-west-3", client -> client.detectDocumentText(request));
+            fail("Should have thrown");
+        } catch (AmazonServiceException e) {
+            // Expected, no failover
+        }
+        assertEquals(0, first.calls);
+
+        assertFalse(router.isAllowed("us-east-1"));
+        try {
+            router.executeInRegion("us-east-1", client -> client.detectDocumentText(request));
+            fail("Should have thrown");
+        } catch (NuxeoException e) {
+            // Expected
+        }
+    }
+
+    protected static AmazonServiceException setStatus(AmazonServiceException e, int status) {
+        e.setStatusCode(status);
+        e.setErrorCode(e.getClass().getSimpleName());
+        return e;
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.aws.textract;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.nuxeo.ecm.core.api.NuxeoException;
+
+public class TestTextractResourceGovernor {
+
+    @Test
+    public void shouldWaitForReleasedBytes() throws Exception {
+        TextractResourceGovernor governor = new TextractResourceGovernor(100, 100, 5000);
+        governor.reserveTemp(80);
+
+        CompletableFuture<Void> waiting = CompletableFuture.runAsync(() -> governor.reserveTemp(50));
+        Thread.sleep(200);
+        assertEquals(80, governor.getTempBytes());
+
+        governor.releaseTemp(80);
+        waiting.get(5, TimeUnit.SECONDS);
+        assertEquals(50, governor.getTempBytes());
+    }
+
+    @Test
+    public void shouldAcceptALargeReservationWhenEmpty() {
+        TextractResourceGovernor governor = new TextractResourceGovernor(100, 100, 100);
+        governor.reservePayload(500);
+        assertEquals(500, governor.getPayloadBytes());
+        try {
+            governor.reservePayload(1);
+            fail("Budget is exhausted, should have timed out");
+        } catch (NuxeoException e) {
+            // Expected
+        }
+        governor.releasePayload(500);
+        assertEquals(0, governor.getPayloadBytes());
+    }
+}
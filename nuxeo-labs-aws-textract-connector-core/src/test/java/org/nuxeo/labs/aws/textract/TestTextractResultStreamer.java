@@ -0,0 +1,166 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.aws.textract;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.nuxeo.labs.aws.textract.TextractResultStreamer.Unit;
+
+import com.amazonaws.services.textract.model.Block;
+import com.amazonaws.services.textract.model.DetectDocumentTextResult;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+
+public class TestTextractResultStreamer {
+
+    protected static final String SINGLE_PAGE = "{\"documentMetadata\":{\"pages\":1},\"blocks\":["
+            + "{\"blockType\":\"PAGE\",\"page\":1},"
+            + "{\"blockType\":\"LINE\",\"text\":\"Hello world\",\"page\":1},"
+            + "{\"blockType\":\"WORD\",\"text\":\"Hello\",\"page\":1},"
+            + "{\"blockType\":\"WORD\",\"text\":\"world\",\"page\":1}]}";
+
+    protected static final String MULTI_PAGE = "[{\"blocks\":[{\"blockType\":\"LINE\",\"text\":\"One\",\"page\":1}]},"
+            + "{\"blocks\":[{\"blockType\":\"LINE\",\"text\":\"Two\",\"page\":1},"
+            + "{\"blockType\":\"WORD\",\"text\":\"Two\",\"page\":1}]},"
+            + "{\"blocks\":[{\"blockType\":\"LINE\",\"text\":\"Three\",\"page\":1}]}]";
+
+    protected static final String SIMPLIFIED = "{\"words\":[{\"page\":1,\"text\":\"Hello\"},"
+            + "{\"page\":2,\"text\":\"Bye\"}],"
+            + "\"lines\":[{\"page\":1,\"text\":\"Hello\"},{\"page\":2,\"text\":\"Bye\"}]}";
+
+    protected static String[] stream(String json, Unit unit, int page, String blockTypes, long offset, long limit)
+            throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (JsonParser parser = new JsonFactory().createParser(new StringReader(json))) {
+            long count = new TextractResultStreamer(unit, page, blockTypes, offset, limit).stream(parser, out);
+            String ndjson = out.toString(StandardCharsets.UTF_8);
+            String[] lines = ndjson.isEmpty() ? new String[0] : ndjson.split("\n");
+            assertEquals(count, lines.length);
+            return lines;
+        }
+    }
+
+    @Test
+    public void shouldStreamOneBlockPerLine() throws IOException {
+        String[] lines = stream(SINGLE_PAGE, Unit.BLOCK, 0, null, 0, 0);
+        assertEquals(4, lines.length);
+        JSONObject line = new JSONObject(lines[1]);
+        assertEquals("LINE", line.getString("blockType"));
+        assertEquals("Hello world", line.getString("text"));
+        assertEquals(1, line.getInt("page"));
+    }
+
+    @Test
+    public void shouldFilterByBlockType() throws IOException {
+        String[] lines = stream(SINGLE_PAGE, Unit.BLOCK, 0, "word, Line", 0, 0);
+        assertEquals(3, lines.length);
+        lines = stream(SINGLE_PAGE, Unit.BLOCK, 0, "WORD", 0, 0);
+        assertEquals(2, lines.length);
+        assertEquals("world", new JSONObject(lines[1]).getString("text"));
+    }
+
+    @Test
+    public void shouldUseTheIndexAsPageOfMultiPageResults() throws IOException {
+        String[] lines = stream(MULTI_PAGE, Unit.BLOCK, 0, null, 0, 0);
+        assertEquals(4, lines.length);
+        assertEquals(3, new JSONObject(lines[3]).getInt("page"));
+
+        lines = stream(MULTI_PAGE, Unit.BLOCK, 2, "LINE", 0, 0);
+        assertEquals(1, lines.length);
+        assertEquals("Two", new JSONObject(lines[0]).getString("text"));
+        assertEquals(2, new JSONObject(lines[0]).getInt("page"));
+    }
+
+    @Test
+    public void shouldUseThePageOfEachResult() throws Exception {
+        String json;
+        try (TextractResultWriter writer = new TextractResultWriter(null, true, null)) {
+            // Pages 1, 3 and 4 skipped (pageRange, failed pages...)
+            for (int pageNumber : List.of(2, 5)) {
+                List<Block> blocks = List.of(
+                        new Block().withBlockType("LINE").withText("Page " + pageNumber).withPage(1));
+                writer.addPage(pageNumber, new DetectDocumentTextResult().withBlocks(blocks), blocks);
+            }
+            json = writer.toBlob(null).getString();
+        }
+
+        String[] lines = stream(json, Unit.BLOCK, 0, null, 0, 0);
+        assertEquals(2, lines.length);
+        assertEquals(2, new JSONObject(lines[0]).getInt("page"));
+        assertEquals(5, new JSONObject(lines[1]).getInt("page"));
+
+        lines = stream(json, Unit.PAGE, 5, null, 0, 0);
+        assertEquals(1, lines.length);
+        JSONObject page5 = new JSONObject(lines[0]);
+        assertEquals(5, page5.getInt("page"));
+        assertEquals("Page 5", page5.getJSONArray("blocks").getJSONObject(0).getString("text"));
+
+        assertEquals(0, stream(json, Unit.BLOCK, 1, null, 0, 0).length);
+    }
+
+    @Test
+    public void shouldGroupByPage() throws IOException {
+        String[] lines = stream(MULTI_PAGE, Unit.PAGE, 0, null, 0, 0);
+        assertEquals(3, lines.length);
+        JSONObject page2 = new JSONObject(lines[1]);
+        assertEquals(2, page2.getInt("page"));
+        JSONArray blocks = page2.getJSONArray("blocks");
+        assertEquals(2, blocks.length());
+        assertEquals("WORD", blocks.getJSONObject(1).getString("blockType"));
+    }
+
+    @Test
+    public void shouldPageWithOffsetAndLimit() throws IOException {
+        String[] lines = stream(SINGLE_PAGE, Unit.BLOCK, 0, null, 1, 2);
+        assertEquals(2, lines.length);
+        assertEquals("LINE", new JSONObject(lines[0]).getString("blockType"));
+        assertEquals("Hello", new JSONObject(lines[1]).getString("text"));
+
+        lines = stream(SINGLE_PAGE, Unit.BLOCK, 0, null, 10, 2);
+        assertEquals(0, lines.length);
+    }
+
+    @Test
+    public void shouldStreamSimplifiedJson() throws IOException {
+        String[] lines = stream(SIMPLIFIED, Unit.BLOCK, 2, null, 0, 0);
+        assertEquals(2, lines.length);
+        JSONObject word = new JSONObject(lines[0]);
+        assertEquals("WORD", word.getString("blockType"));
+        assertEquals("Bye", word.getString("text"));
+        assertEquals("LINE", new JSONObject(lines[1]).getString("blockType"));
+
+        lines = stream(SIMPLIFIED, Unit.PAGE, 0, "LINE", 0, 0);
+        assertEquals(2, lines.length);
+        assertEquals(2, new JSONObject(lines[1]).getInt("page"));
+    }
+
+    @Test(expected = IOException.class)
+    public void shouldRejectText() throws IOException {
+        stream("\"Hello world\"", Unit.BLOCK, 0, null, 0, 0);
+    }
+}
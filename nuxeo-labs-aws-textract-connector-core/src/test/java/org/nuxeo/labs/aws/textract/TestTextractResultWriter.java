@@ -0,0 +1,68 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.aws.textract;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.json.JSONArray;
+import org.junit.Test;
+import org.nuxeo.ecm.core.api.Blob;
+
+import com.amazonaws.services.textract.model.Block;
+import com.amazonaws.services.textract.model.DetectDocumentTextResult;
+
+public class TestTextractResultWriter {
+
+    protected static final List<Block> BLOCKS = List.of(new Block().withBlockType("LINE").withText("Hello"),
+            new Block().withBlockType("LINE").withText("World"));
+
+    protected static final DetectDocumentTextResult RESULT = new DetectDocumentTextResult().withBlocks(BLOCKS);
+
+    @Test
+    public void shouldReturnTheTextAsABlob() throws Exception {
+        try (TextractResultWriter writer = new TextractResultWriter(null, false, "LINE")) {
+            writer.setMultiPage(false);
+            writer.addPage(1, RESULT, BLOCKS);
+            Blob blob = writer.toBlob("scan.pdf");
+            assertEquals("scan.txt", blob.getFilename());
+            assertEquals("text/plain", blob.getMimeType());
+            assertEquals("Hello\nWorld", blob.getString());
+        }
+    }
+
+    @Test
+    public void shouldReturnTheRawJsonAsABlob() throws Exception {
+        try (TextractResultWriter writer = new TextractResultWriter(null, true, null)) {
+            writer.addPage(1, RESULT, BLOCKS);
+            writer.addPage(3, RESULT, BLOCKS);
+            Blob blob = writer.toBlob(null);
+            assertEquals("textract-result.json", blob.getFilename());
+            assertEquals("application/json", blob.getMimeType());
+            assertTrue(blob.getString().startsWith("[{"));
+
+            JSONArray pages = new JSONArray(blob.getString());
+            assertEquals(2, pages.length());
+            assertEquals(3, pages.getJSONObject(1).getInt("page"));
+            assertEquals("World", pages.getJSONObject(1).getJSONArray("blocks").getJSONObject(1).getString("text"));
+        }
+    }
+}
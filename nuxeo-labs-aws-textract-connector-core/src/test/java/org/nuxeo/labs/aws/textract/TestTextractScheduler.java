@@ -0,0 +1,131 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.aws.textract;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.nuxeo.labs.aws.textract.TextractScheduler.Priority;
+
+public class TestTextractScheduler {
+
+    @Test
+    public void shouldNotThrottleWhenTpsIsNotSet() {
+        TextractScheduler scheduler = new TextractScheduler(0, 1.0, 0.5, null);
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < 100; i++) {
+            scheduler.acquire(Priority.BACKFILL, "tenant");
+        }
+        assertTrue(System.currentTimeMillis() - start < 1000);
+    }
+
+    /** A scheduler whose clock only moves when the test says so. */
+    protected static class ManualClockScheduler extends TextractScheduler {
+
+        // Not initialized: read by the super constructor
+        protected long now;
+
+        protected ManualClockScheduler(double tps, double interactiveMaxShare, double backfillMaxShare,
+                String tenantWeights) {
+            super(tps, interactiveMaxShare, backfillMaxShare, tenantWeights);
+        }
+
+        protected void advanceMs(long ms) {
+            now += TimeUnit.MILLISECONDS.toNanos(ms);
+        }
+
+        @Override
+        protected long nanoTime() {
+            return now;
+        }
+    }
+
+    protected static boolean tryTake(TextractScheduler scheduler, Priority priority, String tenant) {
+        synchronized (scheduler) {
+            return scheduler.tryTake(priority, tenant);
+        }
+    }
+
+    @Test
+    public void shouldCapTheBackfillShare() {
+        // 10 tps, backfill gets 20% => 2 permits/s, burst of 2 at most
+        ManualClockScheduler scheduler = new ManualClockScheduler(10, 1.0, 0.2, null);
+        assertTrue(tryTake(scheduler, Priority.BACKFILL, "tenant"));
+        assertTrue(tryTake(scheduler, Priority.BACKFILL, "tenant"));
+        assertFalse(tryTake(scheduler, Priority.BACKFILL, "tenant"));
+
+        // 0.8 permit
+        scheduler.advanceMs(400);
+        assertFalse(tryTake(scheduler, Priority.BACKFILL, "tenant"));
+        // 1.2 permit
+        scheduler.advanceMs(200);
+        assertTrue(tryTake(scheduler, Priority.BACKFILL, "tenant"));
+        assertFalse(tryTake(scheduler, Priority.BACKFILL, "tenant"));
+
+        // Interactive still has its own share
+        assertTrue(tryTake(scheduler, Priority.INTERACTIVE, "tenant"));
+    }
+
+    @Test
+    public void shouldForgetIdleTenants() {
+        ManualClockScheduler scheduler = new ManualClockScheduler(1000, 1.0, 0.5, null);
+        scheduler.acquire(Priority.INTERACTIVE, "gone");
+        scheduler.acquire(Priority.INTERACTIVE, "active");
+        assertTrue(scheduler.virtualTimes.get(Priority.INTERACTIVE).containsKey("gone"));
+
+        scheduler.advanceMs(TimeUnit.NANOSECONDS.toMillis(TextractScheduler.TENANT_IDLE_NANOS) - 1000);
+        scheduler.acquire(Priority.INTERACTIVE, "active");
+        assertTrue(scheduler.virtualTimes.get(Priority.INTERACTIVE).containsKey("gone"));
+
+        scheduler.advanceMs(2000);
+        scheduler.acquire(Priority.INTERACTIVE, "active");
+        assertFalse(scheduler.virtualTimes.get(Priority.INTERACTIVE).containsKey("gone"));
+        assertTrue(scheduler.virtualTimes.get(Priority.INTERACTIVE).containsKey("active"));
+    }
+
+    @Test
+    public void shouldGiveWayToInteractive() {
+        TextractScheduler scheduler = new TextractScheduler(10, 1.0, 0.5, null);
+        scheduler.waiting.get(Priority.INTERACTIVE).put("tenant", 1);
+        assertFalse(scheduler.canGo(Priority.BACKFILL, "tenant"));
+
+        // Interactive used all its share: backfill can go
+        scheduler.classTokens.put(Priority.INTERACTIVE, 0.0);
+        assertTrue(scheduler.canGo(Priority.BACKFILL, "tenant"));
+    }
+
+    @Test
+    public void shouldShareBetweenTenantsByWeight() {
+        TextractScheduler scheduler = new TextractScheduler(10, 1.0, 0.5, "big=3,small=1");
+        scheduler.waiting.get(Priority.INTERACTIVE).put("big", 1);
+        scheduler.waiting.get(Priority.INTERACTIVE).put("small", 1);
+
+        scheduler.virtualTimes.get(Priority.INTERACTIVE).put("big", 1.0);
+        scheduler.virtualTimes.get(Priority.INTERACTIVE).put("small", 2.0);
+        assertTrue(scheduler.canGo(Priority.INTERACTIVE, "big"));
+        assertFalse(scheduler.canGo(Priority.INTERACTIVE, "small"));
+
+        assertEquals(3.0, scheduler.getWeight("big"), 0.0);
+        assertEquals(1.0, scheduler.getWeight("unknown"), 0.0);
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.aws.textract;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import com.amazonaws.services.textract.model.Block;
+import com.amazonaws.services.textract.model.BoundingBox;
+import com.amazonaws.services.textract.model.Geometry;
+
+public class TestTextractSimplifiedResult {
+
+    protected static Block block(String type, String text, float left) {
+        return new Block().withBlockType(type)
+                          .withText(text)
+                          .withConfidence(98f)
+                          .withGeometry(new Geometry().withBoundingBox(
+                                  new BoundingBox().withLeft(left).withTop(0.1f).withWidth(0.1f).withHeight(0.02f)));
+    }
+
+    @Test
+    public void shouldBuildWordsAndLinesWithRealPageNumbers() {
+        TextractSimplifiedResult simplified = new TextractSimplifiedResult();
+        simplified.addPage(2, List.of(block("PAGE", null, 0f), block("LINE", "Hello world", 0.1f),
+                block("WORD", "Hello", 0.1f), block("WORD", "world", 0.25f)));
+        simplified.addPage(5, List.of(block("LINE", "Bye", 0.3f), block("WORD", "Bye", 0.3f)));
+        simplified.addPage(6, null);
+
+        JSONObject json = new JSONObject(simplified.build());
+        JSONArray words = json.getJSONArray("words");
+        JSONArray lines = json.getJSONArray("lines");
+        assertEquals(3, words.length());
+        assertEquals(2, lines.length());
+
+        assertEquals("world", words.getJSONObject(1).getString("text"));
+        assertEquals(2, words.getJSONObject(1).getInt("page"));
+        assertEquals(0.25, words.getJSONObject(1).getJSONObject("boundingBox").getDouble("left"), 0.0001);
+        assertEquals(98, words.getJSONObject(1).getDouble("confidence"), 0.0001);
+        assertEquals("Bye", lines.getJSONObject(1).getString("text"));
+        assertEquals(5, lines.getJSONObject(1).getInt("page"));
+    }
+
+    @Test
+    public void shouldBuildEmptyResult() {
+        JSONObject json = new JSONObject(new TextractSimplifiedResult().build());
+        assertEquals(0, json.getJSONArray("words").length());
+        assertEquals(0, json.getJSONArray("lines").length());
+    }
+}
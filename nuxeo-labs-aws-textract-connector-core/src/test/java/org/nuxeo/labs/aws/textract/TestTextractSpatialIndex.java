@@ -0,0 +1,92 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.aws.textract;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.json.JSONObject;
+import org.junit.Test;
+import org.nuxeo.ecm.core.api.NuxeoException;
+
+import com.amazonaws.services.textract.model.Block;
+import com.amazonaws.services.textract.model.BoundingBox;
+import com.amazonaws.services.textract.model.Geometry;
+
+public class TestTextractSpatialIndex {
+
+    protected static Block block(String type, String text, float left, float top, float width, float height) {
+        return new Block().withBlockType(type)
+                          .withText(text)
+                          .withConfidence(99.5f)
+                          .withGeometry(new Geometry().withBoundingBox(
+                                  new BoundingBox().withLeft(left).withTop(top).withWidth(width).withHeight(height)));
+    }
+
+    protected static String buildIndex() {
+        List<Block> page1 = List.of(block("PAGE", null, 0f, 0f, 1f, 1f),
+                block("LINE", "Invoice number 42", 0.1f, 0.1f, 0.4f, 0.02f),
+                block("WORD", "Invoice", 0.1f, 0.1f, 0.1f, 0.02f), block("WORD", "number", 0.22f, 0.1f, 0.1f, 0.02f),
+                block("WORD", "42", 0.34f, 0.1f, 0.05f, 0.02f),
+                block("WORD", "Total\tdue", 0.7f, 0.9f, 0.1f, 0.02f));
+        List<Block> page3 = List.of(block("WORD", "Signature", 0.5f, 0.5f, 0.2f, 0.05f));
+        return new TextractSpatialIndex.Builder().addPage(1, page1).addPage(3, page3).build();
+    }
+
+    protected static List<String> texts(List<TextractSpatialIndex.Entry> entries) {
+        return entries.stream().map(e -> e.text).collect(Collectors.toList());
+    }
+
+    @Test
+    public void shouldFindWordsInRegion() {
+        TextractSpatialIndex.PageIndex index = TextractSpatialIndex.loadPage(buildIndex(), 1);
+        assertEquals(5, index.size());
+
+        assertEquals(List.of("Invoice", "number", "42"), texts(index.query(0f, 0f, 0.5f, 0.2f, "WORD")));
+        assertEquals(List.of("42"), texts(index.query(0.35f, 0.05f, 0.1f, 0.1f, "WORD")));
+        assertEquals(List.of("Invoice number 42"), texts(index.query(0f, 0f, 0.5f, 0.2f, "LINE")));
+        // Tabs are replaced, they are the field separator
+        assertEquals(List.of("Total due"), texts(index.query(0.6f, 0.8f, 0.4f, 0.2f, "WORD")));
+        assertEquals(List.of(), texts(index.query(0.5f, 0.3f, 0.1f, 0.1f, "WORD")));
+    }
+
+    @Test
+    public void shouldLoadOnlyTheRequestedPage() {
+        String index = buildIndex();
+        TextractSpatialIndex.PageIndex page3 = TextractSpatialIndex.loadPage(index, 3);
+        assertEquals(1, page3.size());
+        List<TextractSpatialIndex.Entry> found = page3.query(0f, 0f, 1f, 1f, null);
+        assertEquals(List.of("Signature"), texts(found));
+
+        JSONObject json = found.get(0).toJSON(3);
+        assertEquals(3, json.getInt("page"));
+        assertEquals(0.5, json.getJSONObject("boundingBox").getDouble("left"), 0.0001);
+        assertEquals(99.5, json.getDouble("confidence"), 0.0001);
+
+        assertNull(TextractSpatialIndex.loadPage(index, 2));
+    }
+
+    @Test(expected = NuxeoException.class)
+    public void shouldRejectInvalidIndex() {
+        TextractSpatialIndex.loadPage("{\"Blocks\": []}", 1);
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.aws.textract;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.nuxeo.ecm.automation.test.AutomationFeature;
+import org.nuxeo.ecm.core.api.NuxeoException;
+import org.nuxeo.labs.aws.textract.TextractScheduler.Priority;
+import org.nuxeo.runtime.test.runner.Deploy;
+import org.nuxeo.runtime.test.runner.Features;
+import org.nuxeo.runtime.test.runner.FeaturesRunner;
+
+@RunWith(FeaturesRunner.class)
+@Features(AutomationFeature.class)
+@Deploy("org.nuxeo.labs.aws.textract.nuxeo-labs-aws-textract-connector-core")
+public class TestTextractStatusRegistry {
+
+    @Test
+    public void shouldTrackOperationsAndPages() {
+        TextractStatusRegistry registry = new TextractStatusRegistry();
+        try (TextractStatusRegistry.ActiveOperation operation = registry.startOperation(AnalyzeOp.ID, "doc-1",
+                "contract.pdf", 3)) {
+            operation.pageDone(false);
+            operation.pageDone(true);
+            operation.pageFailed();
+            assertEquals(1, registry.getActiveOperationCount());
+
+            JSONObject json = registry.toJSON().getJSONArray("operations").getJSONObject(0);
+            assertEquals(AnalyzeOp.ID, json.getString("api"));
+            assertEquals("doc-1", json.getString("docId"));
+            assertEquals("contract.pdf", json.getString("source"));
+            assertEquals(3, json.getInt("pages"));
+            assertEquals(2, json.getInt("donePages"));
+            assertEquals(1, json.getInt("cachedPages"));
+            assertEquals(1, json.getInt("failedPages"));
+        }
+        assertEquals(0, registry.getActiveOperationCount());
+
+        JSONObject pages = registry.toJSON().getJSONObject("pages").getJSONObject("lastMinute");
+        assertEquals(3, pages.getLong("count"));
+        assertEquals(1, pages.getLong("errors"));
+    }
+
+    @Test
+    public void shouldTrackCallsPerApi() {
+        TextractStatusRegistry registry = new TextractStatusRegistry();
+        TextractCallContext context = new TextractCallContext(Priority.INTERACTIVE, null).withDocument("doc-2")
+                                                                                         .withPage(4);
+        try (TextractCallContext.Scope scope = TextractCallContext.enter(context)) {
+            try (TextractStatusRegistry.ActiveCall call = registry.startCall("AnalyzeDocument")) {
+                JSONObject json = registry.toJSON().getJSONArray("calls").getJSONObject(0);
+                assertEquals("WAITING_PERMIT", json.getString("state"));
+                assertEquals("doc-2", json.getString("docId"));
+                assertEquals(4, json.getInt("page"));
+                assertEquals(1, registry.getApiStats("AnalyzeDocument").getWaitingPermit());
+
+                call.permitAcquired();
+                assertEquals("CALLING", registry.toJSON().getJSONArray("calls").getJSONObject(0).getString("state"));
+                assertEquals(0, registry.getApiStats("AnalyzeDocument").getWaitingPermit());
+                assertEquals(1, registry.getApiStats("AnalyzeDocument").getInFlight());
+                call.succeeded();
+            }
+            try (TextractStatusRegistry.ActiveCall call = registry.startCall("AnalyzeDocument")) {
+                call.permitAcquired();
+                // Failed: not succeeded
+            }
+        }
+        assertEquals(0, registry.getActiveCallCount());
+
+        TextractStatusRegistry.ApiStats stats = registry.getApiStats("AnalyzeDocument");
+        assertEquals(0, stats.getInFlight());
+        assertEquals(2, stats.getTotalCalls());
+        assertEquals(1, stats.getTotalErrors());
+        assertEquals(2, stats.getCallsLastMinute());
+        assertEquals(0.5, stats.getErrorRateLastMinute(), 0.001);
+
+        JSONObject api = registry.toJSON().getJSONObject("apis").getJSONObject("AnalyzeDocument");
+        assertEquals(2, api.getJSONObject("last5Minutes").getLong("count"));
+        assertEquals(1, api.getJSONObject("total").getLong("errors"));
+    }
+
+    @Test
+    public void shouldRefuseSubmissionsWhenPaused() {
+        TextractStatusRegistry registry = new TextractStatusRegistry();
+        registry.checkAccepting(AnalyzeOp.ID);
+
+        registry.pause();
+        assertFalse(registry.isAccepting());
+        try {
+            registry.checkAccepting(AnalyzeOp.ID);
+            fail("Submissions are paused");
+        } catch (NuxeoException e) {
+            assertEquals(503, e.getStatusCode());
+        }
+
+        registry.resume();
+        assertTrue(registry.isAccepting());
+        registry.checkAccepting(AnalyzeOp.ID);
+    }
+
+    @Test
+    public void shouldDrainTheWorkInProgress() throws Exception {
+        TextractStatusRegistry registry = new TextractStatusRegistry();
+        TextractStatusRegistry.ActiveOperation operation = registry.startOperation(DetectDocumentTextOp.ID, null,
+                "scan.tiff", 1);
+
+        // Timeout: the operation is still running
+        assertFalse(registry.drain(100));
+        assertEquals(TextractStatusRegistry.State.DRAINING, registry.getState());
+
+        AtomicBoolean drained = new AtomicBoolean();
+        Thread drain = new Thread(() -> {
+            try {
+                drained.set(registry.drain(10_000));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        drain.start();
+        operation.close();
+        drain.join(10_000);
+        assertTrue(drained.get());
+    }
+
+    @Test
+    public void shouldReturnTheStatus() {
+        TextractStatusRegistry registry = new TextractStatusRegistry();
+        registry.pageCacheLookup(true);
+        registry.pageCacheLookup(true);
+        registry.pageCacheLookup(false);
+        registry.pause();
+
+        JSONObject json = registry.toJSON();
+        assertEquals("PAUSED", json.getString("state"));
+        assertEquals(0, json.getJSONArray("operations").length());
+        assertTrue(json.getJSONObject("queues").has("waitingPermit"));
+        assertTrue(json.getJSONObject("resources").has("maxTempBytes"));
+
+        JSONObject pageCache = json.getJSONObject("pageCache");
+        assertEquals(2, pageCache.getLong("hits"));
+        assertEquals(1, pageCache.getLong("misses"));
+        assertEquals(2.0 / 3, pageCache.getDouble("hitRate"), 0.001);
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.aws.textract;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.amazonaws.services.textract.model.Block;
+import com.amazonaws.services.textract.model.Relationship;
+
+public class TestTextractStructureExtractor {
+
+    protected static Block word(String id, String text) {
+        return new Block().withId(id).withBlockType("WORD").withText(text);
+    }
+
+    protected static Block cell(String id, int row, int column, String... childIds) {
+        Block cell = new Block().withId(id)
+                                .withBlockType("CELL")
+                                .withRowIndex(row)
+                                .withColumnIndex(column)
+                                .withRowSpan(1)
+                                .withColumnSpan(1)
+                                .withConfidence(90f);
+        if (childIds.length > 0) {
+            cell.withRelationships(new Relationship().withType("CHILD").withIds(childIds));
+        }
+        return cell;
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void shouldRebuildTableWithMergedCell() {
+        // | Name (merged on 2 columns) |
+        // | John        | 42          |
+        List<Block> blocks = new ArrayList<>();
+        blocks.add(new Block().withId("t")
+                              .withBlockType("TABLE")
+                              .withRelationships(
+                                      new Relationship().withType("CHILD").withIds("c11", "c12", "c21", "c22"),
+                                      new Relationship().withType("MERGED_CELL").withIds("m1")));
+        blocks.add(new Block().withId("m1")
+                              .withBlockType("MERGED_CELL")
+                              .withRowIndex(1)
+                              .withColumnIndex(1)
+                              .withRowSpan(1)
+                              .withColumnSpan(2)
+                              .withConfidence(80f)
+                              .withRelationships(new Relationship().withType("CHILD").withIds("c11", "c12")));
+        blocks.add(cell("c11", 1, 1, "w1"));
+        blocks.add(cell("c12", 1, 2));
+        // Cells are not sorted in the result
+        blocks.add(cell("c22", 2, 2, "w3"));
+        blocks.add(cell("c21", 2, 1, "w2"));
+        blocks.add(word("w1", "Name"));
+        blocks.add(word("w2", "John"));
+        blocks.add(word("w3", "42"));
+
+        TextractStructureExtractor extractor = new TextractStructureExtractor().addPage(3, blocks);
+        assertEquals(1, extractor.getTables().size());
+        assertTrue(extractor.getKeyValues().isEmpty());
+
+        Map<String, Serializable> table = extractor.getTables().get(0);
+        assertEquals(3, table.get("page"));
+        assertEquals(2, table.get("rowCount"));
+        assertEquals(2, table.get("columnCount"));
+
+        List<Map<String, Serializable>> cells = (List<Map<String, Serializable>>) table.get("cells");
+        assertEquals(3, cells.size());
+        assertEquals("Name", cells.get(0).get("text"));
+        assertEquals(2, cells.get(0).get("columnSpan"));
+        assertEquals(80.0, (Double) cells.get(0).get("confidence"), 0.0001);
+        assertEquals("John", cells.get(1).get("text"));
+        assertEquals("42", cells.get(2).get("text"));
+        assertEquals(2, cells.get(2).get("column"));
+    }
+
+    @Test
+    public void shouldRebuildKeyValues() {
+        List<Block> blocks = List.of(
+                new Block().withId("k")
+                           .withBlockType("KEY_VALUE_SET")
+                           .withEntityTypes("KEY")
+                           .withConfidence(95f)
+                           .withRelationships(new Relationship().withType("VALUE").withIds("v"),
+                                   new Relationship().withType("CHILD").withIds("w1", "w2")),
+                new Block().withId("v")
+                           .withBlockType("KEY_VALUE_SET")
+                           .withEntityTypes("VALUE")
+                           .withConfidence(85f)
+                           .withRelationships(new Relationship().withType("CHILD").withIds("w3", "s")),
+                word("w1", "Policy"), word("w2", "number:"), word("w3", "AB-123"),
+                new Block().withId("s").withBlockType("SELECTION_ELEMENT").withSelectionStatus("SELECTED"));
+
+        TextractStructureExtractor extractor = new TextractStructureExtractor().addPage(1, blocks);
+        assertEquals(1, extractor.getKeyValues().size());
+
+        Map<String, Serializable> keyValue = extractor.getKeyValues().get(0);
+        assertEquals(1, keyValue.get("page"));
+        assertEquals("Policy number:", keyValue.get("key"));
+        assertEquals("AB-123 SELECTED", keyValue.get("value"));
+        assertEquals(95.0, (Double) keyValue.get("keyConfidence"), 0.0001);
+        assertEquals(85.0, (Double) keyValue.get("valueConfidence"), 0.0001);
+    }
+}
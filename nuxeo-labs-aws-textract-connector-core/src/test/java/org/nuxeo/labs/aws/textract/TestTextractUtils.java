@@ -0,0 +1,71 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package org.nuxeo.labs.aws.textract;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.amazonaws.services.textract.model.Block;
+
+public class TestTextractUtils {
+
+    @Test
+    public void shouldSelectAllPages() {
+        assertEquals(List.of(1, 2, 3), TextractUtils.selectPages(null, 0, 3));
+        assertEquals(List.of(1, 2), TextractUtils.selectPages("", 2, 3));
+    }
+
+    @Test
+    public void shouldSelectPageRange() {
+        assertEquals(List.of(1, 2, 3, 5), TextractUtils.selectPages("1-3, 5", 0, 10));
+        assertEquals(List.of(8, 9, 10), TextractUtils.selectPages("8-", 0, 10));
+        assertEquals(List.of(1, 2), TextractUtils.selectPages("-2,1", 0, 10));
+        // Pages outside the document are ignored
+        assertEquals(List.of(4), TextractUtils.selectPages("4,12-15", 0, 4));
+        assertEquals(List.of(5, 6), TextractUtils.selectPages("5-10", 2, 10));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldFailOnInvalidPageRange() {
+        TextractUtils.selectPages("1-a", 0, 10);
+    }
+
+    @Test
+    public void shouldFindKeywords() {
+        Set<String> keywords = TextractUtils.parseKeywords("Invoice Number, Total");
+        assertEquals(Set.of("invoice number", "total"), keywords);
+
+        List<Block> page1 = List.of(new Block().withBlockType("LINE").withText("INVOICE NUMBER: 1234"));
+        assertFalse(TextractUtils.removeFoundKeywords(keywords, page1));
+        assertEquals(Set.of("total"), keywords);
+
+        List<Block> page2 = List.of(new Block().withBlockType("WORD").withText("Total"),
+                new Block().withBlockType("LINE").withText("Total: 12.50"));
+        assertTrue(TextractUtils.removeFoundKeywords(keywords, page2));
+
+        // No keywords => never stop
+        assertFalse(TextractUtils.removeFoundKeywords(TextractUtils.parseKeywords(null), page2));
+    }
+}